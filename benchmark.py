@@ -0,0 +1,58 @@
+#!/usr/bin/python
+
+'''
+Compiles the sources and runs the performance benchmarks in the package
+'net.sourceforge.vaticanfetcher.benchmark'. All command line arguments are
+passed on to the benchmark runner, e.g.:
+
+    benchmark.py --filter parse/ --output results.txt
+    benchmark.py --baseline results.txt --tolerance 10
+
+The exit code is 1 if a benchmark has regressed compared to the baseline. See
+the class BenchmarkMain for all options.
+'''
+
+import os, sys, shutil, platform, subprocess
+from os.path import exists, join
+
+is_windows = 'windows' in platform.system().lower()
+classpath_sep = ';' if is_windows else ':'
+
+out_dir = 'build/tmp/benchmark'
+if exists(out_dir):
+	shutil.rmtree(out_dir)
+os.makedirs(out_dir)
+
+# Recursively collect library jars
+jars = []
+for root, dirs, files in os.walk('lib'):
+	for filename in files:
+		if not filename.endswith('.jar'): continue
+		jars.append(join(root, filename))
+
+package = 'net.sourceforge.vaticanfetcher'
+package_path = package.replace('.', '/')
+
+print('Compiling sources...')
+sys.stdout.flush()
+exit_code = subprocess.call([
+	'javac',
+	'-source', '1.6',
+	'-target', '1.6',
+	'-sourcepath', 'src',
+	'-classpath', classpath_sep.join(jars),
+	'-d', out_dir,
+	'-nowarn',
+	join('src', package_path, 'benchmark/BenchmarkMain.java')
+])
+if exit_code != 0:
+	sys.exit(exit_code)
+
+print('Running benchmarks...')
+print('-' * 40)
+sys.stdout.flush()
+sys.exit(subprocess.call([
+	'java',
+	'-classpath', classpath_sep.join([out_dir, 'src'] + jars),
+	package + '.benchmark.BenchmarkMain'
+] + sys.argv[1:]))
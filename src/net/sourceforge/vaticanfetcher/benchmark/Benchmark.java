@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+/**
+ * A single operation measured by the {@link BenchmarkMain}. The operation is run repeatedly between one call to
+ * {@link #setUp()} and one call to {@link #tearDown()}, so expensive fixtures such as test indexes should be created in
+ * the former. Benchmarks that need the same kind of fixture should nevertheless create their own, so that each
+ * benchmark can be run alone.
+ */
+public abstract class Benchmark {
+
+	private final String name;
+
+	/**
+	 * @param name
+	 *            The name of the benchmark, which is used for filtering and for comparisons with a baseline. By
+	 *            convention, it consists of the name of the benchmark group and a descriptive name, separated by a
+	 *            slash, e.g. "parse/lorem-ipsum.pdf".
+	 */
+	protected Benchmark(@NotNull String name) {
+		this.name = Util.checkNotNull(name);
+	}
+
+	@NotNull
+	public final String getName() {
+		return name;
+	}
+
+	protected void setUp() throws Exception {
+	}
+
+	/**
+	 * Runs the measured operation once. The returned value is consumed by the caller, so that the JIT compiler can't
+	 * eliminate the computation of an otherwise unused result.
+	 */
+	protected abstract Object run() throws Exception;
+
+	protected void tearDown() throws Exception {
+	}
+
+}
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Runs the performance benchmarks of the parsers, the charset detection, the highlighting, the search, the saving
+ * and loading of tree indexes and the folder listing, and reports the throughput and the allocation rate of each benchmark. The results can be
+ * written to a file and compared against the results of an earlier run, in which case the exit code is 1 if a
+ * benchmark has become slower or allocates more than the given tolerance allows. The program is launched by the benchmark.py script in the
+ * project folder; the paths of the test files are relative to that folder.
+ * <p>
+ * Each benchmark is first run for a number of warmup iterations, so that the JIT compiler can do its work, and then
+ * for a number of measured iterations of fixed duration. The throughput is the mean over the measured iterations, and
+ * the error is the standard deviation of the iteration throughputs. The allocated bytes are summed over all threads
+ * of the JVM, so that work done on executor threads is included; they are reported as -1 if the JVM can't measure
+ * them.
+ * <p>
+ * Command line options:
+ * <ul>
+ * <li>--filter REGEX: Only runs the benchmarks whose names contain a match of the given regular expression.
+ * <li>--warmup N, --iterations N, --time MILLIS: The number of warmup and measured iterations, and the duration of
+ * each iteration.
+ * <li>--output FILE: Writes the results as tab-separated values into the given file.
+ * <li>--baseline FILE, --tolerance PERCENT: Compares the results with those in the given file, which was written with
+ * --output.
+ * <li>--list: Only prints the names of the benchmarks.
+ * </ul>
+ */
+public final class BenchmarkMain {
+
+	private static final String HEADER = "benchmark\tops_per_sec\terror\tbytes_per_op\talloc_mb_per_sec";
+
+	/** The result of one benchmark. */
+	private static final class Result {
+		final String name;
+		final double opsPerSec;
+		final double error;
+		final double bytesPerOp; // -1 if not measurable
+		final double allocMbPerSec; // -1 if not measurable
+
+		Result(@NotNull String name, double opsPerSec, double error, double bytesPerOp, double allocMbPerSec) {
+			this.name = name;
+			this.opsPerSec = opsPerSec;
+			this.error = error;
+			this.bytesPerOp = bytesPerOp;
+			this.allocMbPerSec = allocMbPerSec;
+		}
+	}
+
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	// Written to by the benchmarks, so that their results can't be optimized away
+	@SuppressWarnings("unused")
+	private static volatile int sink;
+
+	private int warmupIterations = 3;
+	private int measuredIterations = 5;
+	private long iterationMillis = 1000;
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		AppUtil.Const.autoInit();
+		BenchmarkMain runner = new BenchmarkMain();
+		Pattern filter = null;
+		File outputFile = null;
+		File baselineFile = null;
+		double tolerance = 10;
+		boolean listOnly = false;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--list")) {
+				listOnly = true;
+				continue;
+			}
+			if (i == args.length - 1)
+				exitWithUsage("Missing value for option: " + arg);
+			String value = args[++i];
+			if (arg.equals("--filter"))
+				filter = Pattern.compile(value);
+			else if (arg.equals("--warmup"))
+				runner.warmupIterations = Integer.parseInt(value);
+			else if (arg.equals("--iterations"))
+				runner.measuredIterations = Math.max(1, Integer.parseInt(value));
+			else if (arg.equals("--time"))
+				runner.iterationMillis = Math.max(1, Long.parseLong(value));
+			else if (arg.equals("--output"))
+				outputFile = new File(value);
+			else if (arg.equals("--baseline"))
+				baselineFile = new File(value);
+			else if (arg.equals("--tolerance"))
+				tolerance = Double.parseDouble(value);
+			else
+				exitWithUsage("Unknown option: " + arg);
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (Benchmark benchmark : createBenchmarks())
+			if (filter == null || filter.matcher(benchmark.getName()).find())
+				benchmarks.add(benchmark);
+		if (listOnly) {
+			for (Benchmark benchmark : benchmarks)
+				Util.println(benchmark.getName());
+			return;
+		}
+
+		List<Result> results = new ArrayList<Result>(benchmarks.size());
+		List<String> failed = new ArrayList<String>();
+		for (Benchmark benchmark : benchmarks) {
+			try {
+				Result result = runner.run(benchmark);
+				results.add(result);
+				Util.println(format(result));
+			}
+			catch (Throwable t) {
+				// Continue with the other benchmarks, e.g. if a parser doesn't work in the current environment
+				Util.printErr("Benchmark failed: " + benchmark.getName());
+				Util.printErr(t);
+				failed.add(benchmark.getName());
+			}
+		}
+		if (outputFile != null)
+			write(results, outputFile);
+		if (baselineFile != null && !compare(results, failed, read(baselineFile), tolerance))
+			System.exit(1);
+
+		// Some benchmarks leave non-daemon threads behind, e.g. the search executor
+		System.exit(0);
+	}
+
+	@NotNull
+	private static List<Benchmark> createBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(ParseBenchmarks.create());
+		benchmarks.addAll(CharsetBenchmarks.create());
+		benchmarks.addAll(DispatchBenchmarks.create());
+		benchmarks.addAll(HighlightBenchmarks.create());
+		benchmarks.addAll(SearchBenchmarks.create());
+		benchmarks.addAll(TreeIndexBenchmarks.create());
+		benchmarks.addAll(ListingBenchmarks.create());
+		return benchmarks;
+	}
+
+	private static void exitWithUsage(@NotNull String message) {
+		Util.printErr(message);
+		Util.printErr("Options: [--filter REGEX] [--warmup N] [--iterations N] [--time MILLIS] "
+			+ "[--output FILE] [--baseline FILE] [--tolerance PERCENT] [--list]");
+		System.exit(2);
+	}
+
+	@NotNull
+	private Result run(@NotNull Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		try {
+			for (int i = 0; i < warmupIterations; i++)
+				runIteration(benchmark);
+
+			double[] opsPerSec = new double[measuredIterations];
+			long totalOps = 0;
+			long totalNanos = 0;
+			long totalAllocated = 0;
+			for (int i = 0; i < measuredIterations; i++) {
+				long allocStart = getAllocatedBytes();
+				long start = System.nanoTime();
+				long ops = runIteration(benchmark);
+				long nanos = System.nanoTime() - start;
+				long allocEnd = getAllocatedBytes();
+				opsPerSec[i] = ops * 1e9 / nanos;
+				totalOps += ops;
+				totalNanos += nanos;
+				if (allocStart < 0 || allocEnd < 0 || totalAllocated < 0)
+					totalAllocated = -1;
+				else
+					totalAllocated += Math.max(0, allocEnd - allocStart);
+			}
+
+			double mean = 0;
+			for (double value : opsPerSec)
+				mean += value;
+			mean /= opsPerSec.length;
+			double variance = 0;
+			for (double value : opsPerSec)
+				variance += (value - mean) * (value - mean);
+			double error = opsPerSec.length < 2 ? 0 : Math.sqrt(variance / (opsPerSec.length - 1));
+
+			double bytesPerOp = totalAllocated < 0 ? -1 : (double) totalAllocated / totalOps;
+			double allocMbPerSec = totalAllocated < 0 ? -1 : totalAllocated * 1e9 / totalNanos / (1024 * 1024);
+			return new Result(benchmark.getName(), mean, error, bytesPerOp, allocMbPerSec);
+		}
+		finally {
+			benchmark.tearDown();
+		}
+	}
+
+	// Runs the benchmark repeatedly for the iteration time, but at least once, and returns the number of operations
+	private long runIteration(@NotNull Benchmark benchmark) throws Exception {
+		long end = System.nanoTime() + iterationMillis * 1000000;
+		long ops = 0;
+		do {
+			Object result = benchmark.run();
+			sink += result == null ? 0 : result.hashCode();
+			ops++;
+		}
+		while (System.nanoTime() < end);
+		return ops;
+	}
+
+	// Relies on a vendor-specific extension, which is available on the Sun and OpenJDK VMs since Java 6u25
+	private static long getAllocatedBytes() {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		try {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+			if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled())
+				return -1;
+			long total = 0;
+			for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds()))
+				total += Math.max(0, bytes); // -1 for threads that have terminated in the meantime
+			return total;
+		}
+		catch (RuntimeException e) {
+			return -1;
+		}
+		catch (LinkageError e) {
+			return -1;
+		}
+	}
+
+	@NotNull
+	private static String format(@NotNull Result result) {
+		return String.format(Locale.ENGLISH, "%-40s %12.2f ops/s +- %10.2f %14.0f B/op %10.1f MB/s",
+			result.name, result.opsPerSec, result.error, result.bytesPerOp, result.allocMbPerSec);
+	}
+
+	private static void write(@NotNull List<Result> results, @NotNull File file) throws IOException {
+		StringBuilder sb = new StringBuilder(HEADER).append('\n');
+		for (Result result : results) {
+			sb.append(String.format(Locale.ENGLISH, "%s\t%.3f\t%.3f\t%.1f\t%.3f%n", result.name, result.opsPerSec,
+				result.error, result.bytesPerOp, result.allocMbPerSec));
+		}
+		Files.write(sb.toString(), file, Charsets.UTF_8);
+	}
+
+	@NotNull
+	private static Map<String, Result> read(@NotNull File file) throws IOException {
+		Map<String, Result> results = Maps.newHashMap();
+		for (String line : Files.readLines(file, Charsets.UTF_8)) {
+			String[] parts = line.split("\t");
+			if (parts.length != 5 || line.equals(HEADER))
+				continue;
+			try {
+				results.put(parts[0], new Result(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+					Double.parseDouble(parts[3]), Double.parseDouble(parts[4])));
+			}
+			catch (NumberFormatException e) {
+				Util.printErr("Ignoring invalid line in baseline: " + line);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Compares the given results with the baseline and prints the regressions. A benchmark has regressed if its
+	 * throughput is lower or its allocations per operation are higher than the baseline by more than the given
+	 * percentage, or if it failed although it's in the baseline. Benchmarks that are missing from the baseline are
+	 * ignored. Returns whether there were no regressions.
+	 */
+	private static boolean compare(	@NotNull List<Result> results,
+									@NotNull List<String> failed,
+									@NotNull Map<String, Result> baseline,
+									double tolerance) {
+		boolean passed = true;
+		for (String name : failed) {
+			if (baseline.containsKey(name)) {
+				Util.printErr("Regression in " + name + ": benchmark failed");
+				passed = false;
+			}
+		}
+		for (Result result : results) {
+			Result base = baseline.get(result.name);
+			if (base == null)
+				continue;
+			double minOpsPerSec = base.opsPerSec * (1 - tolerance / 100);
+			if (result.opsPerSec < minOpsPerSec) {
+				Util.printErr(String.format(Locale.ENGLISH, "Regression in %s: %.2f ops/s, baseline %.2f ops/s",
+					result.name, result.opsPerSec, base.opsPerSec));
+				passed = false;
+			}
+			double maxBytesPerOp = base.bytesPerOp * (1 + tolerance / 100);
+			if (base.bytesPerOp >= 0 && result.bytesPerOp > maxBytesPerOp) {
+				Util.printErr(String.format(Locale.ENGLISH, "Regression in %s: %.0f B/op, baseline %.0f B/op",
+					result.name, result.bytesPerOp, base.bytesPerOp));
+				passed = false;
+			}
+		}
+		return passed;
+	}
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.util.CharsetDetectorHelper;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * Benchmarks the charset detection and decoding of {@link CharsetDetectorHelper} on a generated UTF-8 text file of
+ * {@link #FILE_SIZE_MB} megabytes, so the decoding speed in MB/s is the number of operations per second times that
+ * size. Decoding into a string needs memory proportional to the file size, while streaming through a reader doesn't.
+ */
+final class CharsetBenchmarks {
+
+	private static final int FILE_SIZE_MB = 8;
+
+	private static abstract class CharsetBenchmark extends Benchmark {
+		@Nullable private File tempDir;
+		@Nullable protected File file;
+
+		CharsetBenchmark(@NotNull String name) {
+			super("charset/" + name + "-" + FILE_SIZE_MB + "mb");
+		}
+
+		protected void setUp() throws Exception {
+			tempDir = Util.createTempDir();
+			file = new File(tempDir, "utf8.txt");
+			Corpus corpus = new Corpus(4);
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < FILE_SIZE_MB * 1024 * 1024)
+				sb.append(corpus.nextText(100)).append("Grüße aus Köln.\n");
+			Files.write(sb, file, Charsets.UTF_8);
+		}
+
+		protected void tearDown() throws Exception {
+			if (tempDir != null)
+				Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private CharsetBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new CharsetBenchmark("to-string") {
+			protected Object run() throws Exception {
+				return CharsetDetectorHelper.toString(file).length();
+			}
+		});
+		benchmarks.add(new CharsetBenchmark("stream") {
+			private final char[] buffer = new char[8192];
+
+			protected Object run() throws Exception {
+				Reader reader = CharsetDetectorHelper.createReader(new FileInputStream(file));
+				try {
+					long length = 0;
+					int nread;
+					while ((nread = reader.read(buffer)) != -1)
+						length += nread;
+					return length;
+				}
+				finally {
+					Closeables.closeQuietly(reader);
+				}
+			}
+		});
+		return benchmarks;
+	}
+
+}
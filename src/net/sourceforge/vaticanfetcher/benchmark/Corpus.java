@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.util.Random;
+
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+/**
+ * Generates reproducible pseudo-random text for the benchmarks. The words are drawn from a small vocabulary with a
+ * skewed distribution, so that some terms are frequent and others are rare, as in real documents.
+ */
+final class Corpus {
+
+	private static final String[] words = (
+		"lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor incididunt ut labore et dolore "
+		+ "magna aliqua enim ad minim veniam quis nostrud exercitation ullamco laboris nisi aliquip ex ea commodo "
+		+ "consequat duis aute irure in reprehenderit voluptate velit esse cillum fugiat nulla pariatur excepteur sint "
+		+ "occaecat cupidatat non proident sunt culpa qui officia deserunt mollit anim id est laborum").split(" ");
+
+	private final Random random;
+
+	Corpus(long seed) {
+		random = new Random(seed);
+	}
+
+	@NotNull
+	String nextWord() {
+		// Squaring the uniform distribution favors the words at the start of the vocabulary
+		double r = random.nextDouble();
+		return words[(int) (r * r * words.length)];
+	}
+
+	/** Returns text with the given number of words, broken into sentences and lines. */
+	@NotNull
+	String nextText(int wordCount) {
+		StringBuilder sb = new StringBuilder(wordCount * 7);
+		for (int i = 0; i < wordCount; i++) {
+			sb.append(nextWord());
+			if (i % 12 == 11)
+				sb.append(".\n");
+			else
+				sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+}
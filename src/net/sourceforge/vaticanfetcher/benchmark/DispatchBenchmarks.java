@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.parse.ParseService;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+/**
+ * Benchmarks the lookup of parsers by filename on {@link #FILENAME_COUNT} generated filenames with a mix of supported,
+ * unsupported, uppercase and gzipped file extensions. The lookup is what {@code FileContext.skip} does for each file
+ * that isn't matched by a pattern, so it runs once per file of an indexed folder. Creating TrueZIP files would dominate
+ * the measurement, which is why the benchmark calls {@link ParseService#canParseByName} directly.
+ */
+final class DispatchBenchmarks {
+
+	private static final int FILENAME_COUNT = 1000000;
+
+	private static final String[] extensions = {
+		"txt", "TXT", "html", "pdf", "doc", "docx", "odt", "abw.gz", "tar.gz", "jpg", "class", "log", "", "dat", "mp3",
+	};
+
+	private DispatchBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		Benchmark benchmark = new Benchmark("dispatch/skip-by-name-1m") {
+			private final IndexingConfig config = new IndexingConfig();
+			@Nullable private String[] filenames;
+
+			protected void setUp() throws Exception {
+				config.setIndexFilenames(false); // otherwise all files can be "parsed"
+				Corpus corpus = new Corpus(5);
+				filenames = new String[FILENAME_COUNT];
+				for (int i = 0; i < filenames.length; i++) {
+					String ext = extensions[i % extensions.length];
+					filenames[i] = ext.isEmpty() ? corpus.nextWord() : corpus.nextWord() + i + "." + ext;
+				}
+			}
+
+			protected Object run() throws Exception {
+				int skipped = 0;
+				for (String filename : filenames)
+					if (!ParseService.canParseByName(config, filename))
+						skipped++;
+				return skipped;
+			}
+
+			protected void tearDown() throws Exception {
+				filenames = null;
+			}
+		};
+		return Collections.singletonList(benchmark);
+	}
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.Fields;
+import net.sourceforge.vaticanfetcher.model.IndexRegistry;
+import net.sourceforge.vaticanfetcher.model.search.HighlightService;
+import net.sourceforge.vaticanfetcher.model.search.PhraseDetectingQueryParser;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * Benchmarks {@link HighlightService#highlight} on a generated text of about the size of a long document, with term,
+ * boolean and phrase queries. The queries are parsed the same way as in the searcher.
+ */
+final class HighlightBenchmarks {
+
+	private static final class HighlightBenchmark extends Benchmark {
+		private final String queryString;
+		@Nullable private Query query;
+		private boolean isPhraseQuery;
+		@Nullable private String text;
+
+		HighlightBenchmark(@NotNull String name, @NotNull String queryString) {
+			super("highlight/" + name);
+			this.queryString = queryString;
+		}
+
+		protected void setUp() throws Exception {
+			PhraseDetectingQueryParser queryParser = new PhraseDetectingQueryParser(
+				IndexRegistry.LUCENE_VERSION, Fields.CONTENT.key(), IndexRegistry.analyzer);
+			query = queryParser.parse(queryString);
+			isPhraseQuery = queryParser.isPhraseQuery();
+			text = new Corpus(2).nextText(50000);
+		}
+
+		protected Object run() throws Exception {
+			return HighlightService.highlight(query, isPhraseQuery, text).getRangeCount();
+		}
+	}
+
+	private HighlightBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new HighlightBenchmark("term", "voluptate"));
+		benchmarks.add(new HighlightBenchmark("frequent-term", "lorem"));
+		benchmarks.add(new HighlightBenchmark("boolean", "voluptate OR fugiat OR nulla"));
+		benchmarks.add(new HighlightBenchmark("phrase", "\"dolor sit\""));
+		benchmarks.add(new HighlightBenchmark("phrase-and-term", "\"ipsum dolor\" AND amet"));
+		return benchmarks;
+	}
+
+}
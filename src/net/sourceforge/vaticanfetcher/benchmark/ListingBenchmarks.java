@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+/**
+ * Benchmarks an index update of a generated folder tree with 100,000 files in which nothing has changed, so that the
+ * time is spent on listing the folders and reading the file attributes. The files are empty, since their contents
+ * are only read when the tree is indexed for the first time, which is done in {@link Benchmark#setUp()}.
+ * <p>
+ * The number of system calls can't be measured from within Java. To get it, run this benchmark alone under a system
+ * call tracer, e.g. <code>strace -c -f benchmark.py --filter listing/</code> on Linux, and subtract a run with
+ * <code>--iterations 0 --warmup 0</code>.
+ */
+final class ListingBenchmarks {
+
+	private static final int FOLDER_COUNT = 100;
+	private static final int SUBFOLDER_COUNT = 10;
+	private static final int FILE_COUNT = 100; // per subfolder
+
+	private static final class ListingBenchmark extends Benchmark {
+		@Nullable private File tempDir;
+		@Nullable private FileIndex index;
+
+		ListingBenchmark(@NotNull String name) {
+			super("listing/" + name);
+		}
+
+		protected void setUp() throws Exception {
+			tempDir = Util.createTempDir();
+			File rootDir = new File(tempDir, "root");
+			for (int i = 0; i < FOLDER_COUNT; i++) {
+				File folder = new File(rootDir, "folder" + i);
+				for (int j = 0; j < SUBFOLDER_COUNT; j++) {
+					File subFolder = new File(folder, "subfolder" + j);
+					subFolder.mkdirs();
+					for (int k = 0; k < FILE_COUNT; k++)
+						new File(subFolder, "file" + k + ".txt").createNewFile();
+				}
+			}
+			index = new FileIndex(null, rootDir);
+			index.getConfig().setWatchFolders(false);
+			index.update(null, null);
+		}
+
+		protected Object run() throws Exception {
+			return index.update(null, null);
+		}
+
+		protected void tearDown() throws Exception {
+			if (tempDir != null)
+				Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private ListingBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new ListingBenchmark("no-change-update"));
+		return benchmarks;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
+import net.sourceforge.vaticanfetcher.model.parse.ParseService;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Benchmarks {@link ParseService#parse} on the lorem ipsum test files, which cover most parsers, and on generated large
+ * text and HTML files. Streamed content is read completely, so that the decoding is included in the measurement.
+ */
+final class ParseBenchmarks {
+
+	private static final String LARGE_TXT = "large.txt";
+	private static final String LARGE_HTML = "large.html";
+
+	private static final TestFiles[] testFiles = {
+		TestFiles.lorem_ipsum_abw,
+		TestFiles.lorem_ipsum_abw_gz,
+		TestFiles.lorem_ipsum_docx,
+		TestFiles.lorem_ipsum_html,
+		TestFiles.lorem_ipsum_odt,
+		TestFiles.lorem_ipsum_pdf,
+		TestFiles.lorem_ipsum_rtf,
+		TestFiles.lorem_ipsum_svg,
+		TestFiles.lorem_ipsum_txt,
+		TestFiles.lorem_ipsum_doc_97,
+		TestFiles.lorem_ipsum_xls_97,
+		TestFiles.lorem_ipsum_ppt_97,
+		TestFiles.multi_page_pdf,
+	};
+
+	private static final class ParseBenchmark extends Benchmark {
+		private final IndexingConfig config = new IndexingConfig();
+		@Nullable private final File testFile;
+		@Nullable private final String generatedFilename;
+		@Nullable private File tempDir;
+		@Nullable private File file;
+		@Nullable private Path path;
+
+		// Parses an existing test file
+		ParseBenchmark(@NotNull File testFile) {
+			super("parse/" + testFile.getName());
+			this.testFile = testFile;
+			this.generatedFilename = null;
+		}
+
+		// Parses a generated file with the given name, which is created in a temporary folder
+		ParseBenchmark(@NotNull String generatedFilename) {
+			super("parse/generated-" + generatedFilename);
+			this.testFile = null;
+			this.generatedFilename = generatedFilename;
+		}
+
+		protected void setUp() throws Exception {
+			if (generatedFilename == null) {
+				file = testFile;
+			}
+			else {
+				tempDir = Util.createTempDir();
+				file = new File(tempDir, generatedFilename);
+				Files.write(generate(generatedFilename), file, Charsets.UTF_8);
+			}
+			path = new Path(file);
+		}
+
+		protected Object run() throws Exception {
+			ParseResult result = ParseService.parse(config, file, file.getName(), path,
+				IndexingReporter.nullReporter, Cancelable.nullCancelable);
+			try {
+				return result.getContent().length();
+			}
+			finally {
+				result.closeContent();
+			}
+		}
+
+		protected void tearDown() throws Exception {
+			if (tempDir != null)
+				Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private ParseBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (TestFiles testFile : testFiles)
+			benchmarks.add(new ParseBenchmark(testFile.get()));
+
+		benchmarks.add(new ParseBenchmark(LARGE_TXT));
+		benchmarks.add(new ParseBenchmark(LARGE_HTML));
+		return benchmarks;
+	}
+
+	@NotNull
+	private static String generate(@NotNull String filename) {
+		Corpus corpus = new Corpus(1);
+		if (filename.equals(LARGE_TXT))
+			return corpus.nextText(1000000); // large enough to be streamed by the text parser
+		StringBuilder html = new StringBuilder("<html><head><title>Benchmark</title></head><body>\n");
+		for (int i = 0; i < 2000; i++)
+			html.append("<p>").append(corpus.nextText(100)).append("</p>\n");
+		return html.append("</body></html>").toString();
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.HotColdFileCache;
+import net.sourceforge.vaticanfetcher.model.IndexLoadingProblems.CorruptedIndex;
+import net.sourceforge.vaticanfetcher.model.IndexRegistry;
+import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
+import net.sourceforge.vaticanfetcher.model.search.ResultCursor;
+import net.sourceforge.vaticanfetcher.model.search.ResultDocument;
+import net.sourceforge.vaticanfetcher.model.search.Searcher;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Benchmarks {@link Searcher#search(String)} over several file indexes built from generated text files. Each operation
+ * runs a query, loads the filenames of the first result page, and closes the result cursor, as the result panel does.
+ */
+final class SearchBenchmarks {
+
+	private static final int INDEX_COUNT = 4;
+	private static final int FILES_PER_INDEX = 250;
+	private static final int WORDS_PER_FILE = 300;
+	private static final int PAGE_SIZE = 100;
+
+	private static final class SearchBenchmark extends Benchmark {
+		private final String queryString;
+		@Nullable private File tempDir;
+		@Nullable private Searcher searcher;
+
+		SearchBenchmark(@NotNull String name, @NotNull String queryString) {
+			super("search/" + name);
+			this.queryString = queryString;
+		}
+
+		protected void setUp() throws Exception {
+			tempDir = Util.createTempDir();
+			File indexParentDir = new File(tempDir, "indexes");
+
+			// The searcher is created directly, since loading the registry would start watching the index folder
+			IndexRegistry indexRegistry = new IndexRegistry(indexParentDir, 10, 10);
+			HotColdFileCache unpackCache = new HotColdFileCache(10);
+			searcher = new Searcher(
+				indexRegistry, new FileFactory(unpackCache), new OutlookMailFactory(unpackCache),
+				new ArrayList<CorruptedIndex>());
+
+			Corpus corpus = new Corpus(3);
+			for (int i = 0; i < INDEX_COUNT; i++) {
+				File rootDir = new File(tempDir, "root" + i);
+				rootDir.mkdirs();
+				for (int j = 0; j < FILES_PER_INDEX; j++) {
+					File file = new File(rootDir, "file" + j + ".txt");
+					Files.write(corpus.nextText(WORDS_PER_FILE), file, Charsets.UTF_8);
+				}
+				FileIndex index = new FileIndex(indexParentDir, rootDir);
+				index.getConfig().setWatchFolders(false);
+				index.update(null, null);
+				indexRegistry.addIndex(index);
+			}
+		}
+
+		protected Object run() throws Exception {
+			ResultCursor cursor = searcher.search(queryString);
+			try {
+				int length = 0;
+				for (ResultDocument doc : cursor.nextPage(PAGE_SIZE))
+					length += doc.getFilename().length();
+				return length;
+			}
+			finally {
+				cursor.close();
+			}
+		}
+
+		protected void tearDown() throws Exception {
+			if (searcher != null)
+				searcher.shutdown();
+			if (tempDir != null)
+				Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private SearchBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new SearchBenchmark("term", "voluptate"));
+		benchmarks.add(new SearchBenchmark("frequent-term", "lorem"));
+		benchmarks.add(new SearchBenchmark("boolean", "voluptate OR fugiat OR nulla"));
+		benchmarks.add(new SearchBenchmark("phrase", "\"dolor sit\""));
+		benchmarks.add(new SearchBenchmark("wildcard", "vol*"));
+		return benchmarks;
+	}
+
+}
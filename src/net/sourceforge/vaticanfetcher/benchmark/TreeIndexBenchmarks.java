@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.LuceneIndex;
+import net.sourceforge.vaticanfetcher.model.TreeIndexReader;
+import net.sourceforge.vaticanfetcher.model.TreeIndexWriter;
+import net.sourceforge.vaticanfetcher.model.index.file.FileDocument;
+import net.sourceforge.vaticanfetcher.model.index.file.FileFolder;
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Benchmarks the saving and loading of a large generated file index tree, which is what the index registry does on
+ * startup and after each index update. The registry itself isn't used, since loading it would start watching the
+ * index folder, and since saving it after the first time only appends to the journal, which is measured separately.
+ */
+final class TreeIndexBenchmarks {
+
+	private static final int FOLDER_COUNT = 40;
+	private static final int SUBFOLDER_COUNT = 25;
+	private static final int DOCUMENT_COUNT = 50; // per subfolder
+
+	private static abstract class TreeIndexBenchmark extends Benchmark {
+		@Nullable protected File tempDir;
+		@Nullable protected FileIndex index;
+		@Nullable protected File treeIndexFile;
+
+		TreeIndexBenchmark(@NotNull String name) {
+			super("treeindex/" + name);
+		}
+
+		protected void setUp() throws Exception {
+			tempDir = Util.createTempDir();
+			File rootDir = new File(tempDir, "root");
+			rootDir.mkdirs();
+			index = new FileIndex(null, rootDir);
+			FileFolder rootFolder = index.getRootFolder();
+			long lastModified = System.currentTimeMillis();
+			for (int i = 0; i < FOLDER_COUNT; i++) {
+				FileFolder folder = new FileFolder(rootFolder, "folder" + i, lastModified);
+				for (int j = 0; j < SUBFOLDER_COUNT; j++) {
+					FileFolder subFolder = new FileFolder(folder, "subfolder" + j, lastModified);
+					for (int k = 0; k < DOCUMENT_COUNT; k++)
+						new FileDocument(subFolder, "document" + k + ".txt", lastModified + k);
+				}
+			}
+			treeIndexFile = new File(tempDir, "tree-index");
+			write(index, treeIndexFile);
+		}
+
+		protected void tearDown() throws Exception {
+			if (tempDir != null)
+				Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private TreeIndexBenchmarks() {
+	}
+
+	@NotNull
+	static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new TreeIndexBenchmark("save") {
+			protected Object run() throws Exception {
+				return write(index, treeIndexFile);
+			}
+		});
+		benchmarks.add(new TreeIndexBenchmark("load") {
+			protected Object run() throws Exception {
+				InputStream in = new FileInputStream(treeIndexFile);
+				try {
+					LuceneIndex loaded = TreeIndexReader.read(in);
+					return ((FileIndex) loaded).getRootFolder().getSubFolderCount();
+				}
+				finally {
+					Closeables.closeQuietly(in);
+				}
+			}
+		});
+		benchmarks.add(new TreeIndexBenchmark("journal-batch") {
+			private int counter = 0;
+
+			protected Object run() throws Exception {
+				// Modify one document, as a small index update would
+				FileFolder folder = index.getRootFolder().getSubFolder("folder" + (counter++ % FOLDER_COUNT));
+				FileDocument doc = folder.getSubFolder("subfolder0").getDocument("document0.txt");
+				doc.setLastModified(doc.getLastModified() + 1);
+				return TreeIndexWriter.writeJournalBatch(index).length;
+			}
+		});
+		return benchmarks;
+	}
+
+	private static int write(@NotNull FileIndex index, @NotNull File file) throws Exception {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			return TreeIndexWriter.write(index, out);
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+
+}
@@ -535,11 +535,17 @@ public enum Msg {
 	archive_entry_encrypted ("Archive entry is encrypted."),
 	not_an_archive ("Not an archive."),
 	parser_not_found ("Could not find a suitable parser."),
+	parse_timeout ("Parsing took longer than {0} seconds and was aborted."),
+	parse_memory_exceeded ("Parsing allocated more than {0} MB of memory and was aborted."),
 	folder_hierarchy_too_deep ("The folder hierarchy is too deep (at least {0} levels). Please " +
 			"reduce the folder depth and rebuild the index. This error occurred at: {1}"),
 	document ("Document"),
 	error_message ("Error Message"),
 	total_elapsed_time ("Total elapsed time: {0}"),
+	reused_parse_results ("Reused parse results of identical files: {0} of {1} ({2}%)"),
+	indexing_metrics_category ("{0}: {1} operations, {2} failed, {3} MB, {4} ms wall time, {5} ms CPU time"),
+	indexing_metrics_slow_file ("Slow file: {0} ({1}, {2} ms)"),
+	deferred_large_file ("Deferred to the end of the update: {0} (needs about {1} MB, {2} MB of free memory)"),
 	copy ("Copy\tCtrl+C"), // Also used on result pane
 	install_watch_failed (
 		"Failed to install a watch on folder {0}.\n\n" +
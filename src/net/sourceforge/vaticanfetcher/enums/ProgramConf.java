@@ -51,6 +51,7 @@ public final class ProgramConf {
 		ShowAdvancedSettingsLink (true),
 		ReportObsoleteIndexFiles (true),
 		IndexExcelFormulas (true),
+		CacheTextDuringIndexing (true),
 		;
 
 		private boolean value;
@@ -76,6 +77,18 @@ public final class ProgramConf {
 		UnpackCacheCapacity (20, 1),
 		Analyzer (0, 0),
 		InitialSorting (0, Integer.MIN_VALUE),
+		ParserThreads (1, 1),
+		SearchThreads (4, 1),
+		MaxIndexedChars (0, 0),
+		OfficeStreamingThreshold (16, 0),
+		ParseResultStoreSize (0, 0),
+		TextCacheSize (256, 0),
+		ParseTimeout (300, 0),
+		ParseMemoryBudget (0, 0),
+		DeferredParsingHeadroom (50, 0, 100),
+		MaxStreamedEntrySize (64, 0),
+		PrefetchedArchiveEntries (8, 0),
+		ArchiveCatalogSize (16, 0),
 		;
 
 		private int value;
@@ -137,16 +150,17 @@ public final class ProgramConf {
 		HtmlExtensions ("html", "htm", "xhtml", "shtml", "shtm", "php", "asp", "jsp")
 		;
 
+		// Wrapped only once, so that callers can detect changes by comparing references
 		private List<String> value;
 		StrList(String... value) {
-			this.value = Arrays.asList(value);
+			this.value = Collections.unmodifiableList(Arrays.asList(value));
 		}
 		@Immutable
 		public List<String> get() {
-			return Collections.unmodifiableList(value);
+			return value;
 		}
 		public void load(String str) {
-			value = Util.decodeStrings(';', str);
+			value = Collections.unmodifiableList(Util.decodeStrings(';', str));
 		}
 	}
 
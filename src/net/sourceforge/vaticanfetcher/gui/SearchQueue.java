@@ -16,6 +16,8 @@ import net.sourceforge.vaticanfetcher.gui.filter.IndexPanel;
 import net.sourceforge.vaticanfetcher.model.IndexRegistry;
 import net.sourceforge.vaticanfetcher.model.LuceneIndex;
 import net.sourceforge.vaticanfetcher.model.TreeCheckState;
+import net.sourceforge.vaticanfetcher.model.search.LocationFilter;
+import net.sourceforge.vaticanfetcher.model.search.ResultCursor;
 import net.sourceforge.vaticanfetcher.model.search.ResultDocument;
 import net.sourceforge.vaticanfetcher.model.search.SearchException;
 import net.sourceforge.vaticanfetcher.model.search.Searcher;
@@ -51,7 +53,10 @@ public final class SearchQueue {
 	@Nullable private volatile String query;
 	@Nullable private volatile Set<String> listDocIds;
 	@Nullable private List<ResultDocument> results;
+	@Nullable private ResultCursor cursor; // the cursor the current results were obtained from
+	@Nullable private String lastQuery; // the query the current results were obtained from; null for listed results
 	@Nullable private TreeCheckState treeCheckState;
+	@Nullable private LocationFilter locationFilter; // null if nothing is unchecked
 	
 	public SearchQueue(	@NotNull SearchBar searchBar, @NotNull IndexPanel indexPanel, @NotNull ResultPanel resultPanel,	@NotNull StatusBar statusBar) {
 		Util.checkNotNull(searchBar, indexPanel, resultPanel, statusBar);
@@ -153,8 +158,28 @@ public final class SearchQueue {
 		
 		IndexRegistry indexRegistry = indexPanel.getIndexRegistry();
 		
+		// Build location filter
+		boolean locationChanged = treeCheckState == null || queueCopy.contains(GuiEvent.LOCATION);
+		if (locationChanged) {
+			treeCheckState = indexRegistry.getTreeCheckState();
+			locationFilter = treeCheckState.isAllChecked() ? null : new LocationFilter(treeCheckState);
+		}
+		
+		/*
+		 * The location filter is applied during the search, so if the check states have changed, the last search must
+		 * be run again, unless a new search or listing was requested anyway.
+		 */
+		final String searchQuery;
+		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST))
+			searchQuery = query;
+		else if (locationChanged && lastQuery != null && results != null)
+			searchQuery = lastQuery;
+		else
+			searchQuery = null;
+		
 		// Run search
-		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST)) {
+		ResultCursor oldCursor = null;
+		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST) || searchQuery != null) {
 			try {
 				Searcher searcher = indexRegistry.getSearcher(); // might block
 				
@@ -168,12 +193,35 @@ public final class SearchQueue {
 				if (searcher == null)
 					return false;
 				
-				if (query != null)
-					results = searcher.search(query);
-				else if (listDocIds != null)
+				/*
+				 * The results of a search are fetched without their stored fields, which are loaded by the result
+				 * documents when they're displayed on the result panel. The cursor is therefore kept open until the
+				 * results are replaced.
+				 */
+				if (searchQuery != null) {
+					ResultCursor newCursor = searcher.search(searchQuery, locationFilter);
+					boolean success = false;
+					try {
+						results = newCursor.nextPage(Searcher.MAX_RESULTS);
+						success = true;
+					}
+					finally {
+						if (!success)
+							newCursor.close();
+					}
+					oldCursor = cursor;
+					cursor = newCursor;
+					lastQuery = searchQuery;
+				}
+				else if (listDocIds != null) {
 					results = searcher.list(listDocIds);
-				else
+					oldCursor = cursor;
+					cursor = null;
+					lastQuery = null;
+				}
+				else {
 					throw new IllegalStateException();
+				}
 			}
 			catch (SearchException e) {
 				AppUtil.showError(e.getMessage(), true, true);
@@ -191,21 +239,26 @@ public final class SearchQueue {
 			}
 		}
 		
-		// Build location filter
-		if (treeCheckState == null || queueCopy.contains(GuiEvent.LOCATION))
-			treeCheckState = indexRegistry.getTreeCheckState();
-		
 		/* No need to update the result panel if the user changed the filter settings before having run any searches. */
 		if (results == null)
 			return true;
 		
-		final List<ResultDocument> visibleResults = new ArrayList<ResultDocument>();
+		final List<ResultDocument> visibleResults;
 
-		// Apply filters
-		for (ResultDocument doc : results) {
-			if (!treeCheckState.isChecked(doc.getParentPath()))
-				continue;
-			visibleResults.add(doc);
+		/*
+		 * Apply filters to listed results; search results have already been filtered during the search. If nothing is
+		 * unchecked, this can be skipped, which avoids loading the stored fields of all results.
+		 */
+		if (lastQuery != null || locationFilter == null) {
+			visibleResults = new ArrayList<ResultDocument>(results);
+		}
+		else {
+			visibleResults = new ArrayList<ResultDocument>();
+			for (ResultDocument doc : results) {
+				if (!treeCheckState.isChecked(doc.getParentPath()))
+					continue;
+				visibleResults.add(doc);
+			}
 		}
 		
 		boolean filesFound = false;
@@ -233,9 +286,17 @@ public final class SearchQueue {
 			}
 		});
 		
+		// The old results aren't displayed anymore
+		closeQuietly(oldCursor);
+		
 		return true;
 	}
 	
+	private static void closeQuietly(@Nullable ResultCursor cursor) {
+		if (cursor != null)
+			cursor.close();
+	}
+	
 	private void updateResultStatus() {
 		int resultCount = resultPanel.getItemCount();
 		String msg = Msg.num_results.format(resultCount);
@@ -12,8 +12,12 @@
 package net.sourceforge.vaticanfetcher.gui.indexing;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
+import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.CategoryStats;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.SlowFile;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
@@ -30,6 +34,8 @@ final class ProgressReporter extends IndexingReporter {
 	
 	// TODO i18n
 	
+	private static final int SLOW_FILES_SHOWN = 5;
+	
 	private final ProgressTable progressTable;
 	private final ErrorTable errorTable;
 	private long start = 0;
@@ -44,6 +50,32 @@ final class ProgressReporter extends IndexingReporter {
 		start = time;
 	}
 	
+	public void setDedupStats(int lookupCount, int hitCount) {
+		int percentage = hitCount * 100 / lookupCount;
+		progressTable.append(Msg.reused_parse_results.format(hitCount, lookupCount, percentage));
+	}
+	
+	public void setMetrics(@NotNull IndexingMetrics metrics) {
+		for (CategoryStats stats : metrics.getCategoryStats()) {
+			String megabytes = String.format("%.1f", stats.getBytes() / (1024.0 * 1024.0)); //$NON-NLS-1$
+			progressTable.append(Msg.indexing_metrics_category.format(
+				stats.getCategory(), stats.getCount(), stats.getFailures(), megabytes,
+				stats.getWallMillis(), stats.getCpuMillis()));
+		}
+		int i = 0;
+		for (SlowFile slowFile : metrics.getSlowestFiles()) {
+			if (i++ == SLOW_FILES_SHOWN)
+				break;
+			progressTable.append(Msg.indexing_metrics_slow_file.format(
+				slowFile.getPath(), slowFile.getCategory(), slowFile.getWallMillis()));
+		}
+	}
+	
+	public void defer(@NotNull TreeNode treeNode, long estimatedBytes, long freeBytes) {
+		progressTable.append(Msg.deferred_large_file.format(
+			treeNode.getDisplayName(), estimatedBytes / (1024 * 1024), freeBytes / (1024 * 1024)));
+	}
+	
 	public void setEndTime(long time) {
 		String duration = toHumanReadableDuration(time - start);
 		String msg = Msg.total_elapsed_time.format(duration);
@@ -37,6 +37,14 @@ public abstract class Document<D extends Document<D, F>, F extends Folder<D, F>>
 	
 	public final void setLastModified(long lastModified) {
 		this.lastModified = lastModified;
+		markDirty();
+	}
+	
+	/** Documents are saved as part of their parent folder, so this marks the parent folder as dirty. */
+	protected final void markDirty() {
+		F parent = this.parent;
+		if (parent != null)
+			parent.markDirty();
 	}
 
 	@NotNull
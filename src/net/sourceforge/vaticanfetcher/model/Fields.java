@@ -11,6 +11,8 @@
 
 package net.sourceforge.vaticanfetcher.model;
 
+import java.io.Reader;
+
 import javolution.io.CharSequenceReader;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.VisibleForPackageGroup;
@@ -92,6 +94,12 @@ public enum Fields {
 		return createContent(fieldValue, false);
 	}
 	
+	// Creates a tokenized and indexed field whose text is read from the given reader while the document is written
+	@NotNull
+	public static Field createContent(@NotNull Reader reader) {
+		return new Field(CONTENT.key, reader, TermVector.NO);
+	}
+	
 	@NotNull
 	public static Field createContent(@NotNull CharSequence fieldValue,	boolean withOffsets) {
 		// TermVector.WITH_POSITIONS_OFFSETS is required by the fast-vector highlighter
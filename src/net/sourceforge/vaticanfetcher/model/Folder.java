@@ -91,6 +91,16 @@ public abstract class Folder
 
 	protected boolean isChecked = true;
 
+	/*
+	 * Bookkeeping for the tree index journal: 'dirty' is set when the fields, the documents or the set of subfolders of this
+	 * folder change, 'dirtyDeep' when the whole subtree must be saved again (because the folder is new or was moved here), and
+	 * 'dirtyBelow' when some folder further down the tree is dirty. The flags are volatile instead of being guarded by the
+	 * folder's monitor, because setting them involves walking up the tree, which would invert the usual lock order.
+	 */
+	private transient volatile boolean dirty = true;
+	private transient volatile boolean dirtyDeep = true;
+	private transient volatile boolean dirtyBelow = false;
+
 	@SuppressWarnings("unchecked")
 	protected Folder(@NotNull F parent,	@NotNull String name, @Nullable Long lastModified) {
 		super(name);
@@ -101,6 +111,25 @@ public abstract class Folder
 		updatePathHashCode();
 	}
 
+	/**
+	 * Constructor for restoring a saved folder tree: Attaches the new folder to the given parent without firing any
+	 * folder events, and computes the path hash code from the given path string instead of reconstructing the path.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Folder(@NotNull String path, @NotNull F parent, @NotNull String name) {
+		super(name);
+		Util.checkNotNull(parent, path);
+		this.parent = parent;
+		synchronized (parent) {
+			if (parent.subFolders == null)
+				parent.subFolders = Maps.newHashMap();
+			parent.subFolders.put(name, (F) this);
+		}
+		pathHashCode = path.hashCode();
+		dirty = false;
+		dirtyDeep = false;
+	}
+
 	protected Folder(@NotNull Path path, @Nullable Long lastModified) {
 		super(path.getName());
 		this.path = path;
@@ -180,6 +209,7 @@ public abstract class Folder
 		this.path = path;
 		parent = null;
 		updatePathHashCode();
+		markDirty();
 	}
 
 	@Nullable
@@ -189,6 +219,43 @@ public abstract class Folder
 
 	public synchronized final void setLastModified(@Nullable Long lastModified) {
 		this.lastModified = lastModified;
+		markDirty();
+	}
+
+	protected final void markDirty() {
+		dirty = true;
+		markParentsDirtyBelow();
+	}
+
+	final void markDirtyDeep() {
+		dirtyDeep = true;
+		dirty = true;
+		markParentsDirtyBelow();
+	}
+
+	private void markParentsDirtyBelow() {
+		/* If a parent is already marked, its own parents are also marked, except while the journal is being written. */
+		for (Folder<D, F> current = parent; current != null && !current.dirtyBelow; current = current.parent)
+			current.dirtyBelow = true;
+	}
+
+	final boolean isDirty() {
+		return dirty;
+	}
+
+	final boolean isDirtyDeep() {
+		return dirtyDeep;
+	}
+
+	final boolean isDirtyBelow() {
+		return dirtyBelow;
+	}
+
+	/** Clears the journal flags of the receiver. This must be done before reading the receiver's state for saving. */
+	final void clearDirty() {
+		dirty = false;
+		dirtyDeep = false;
+		dirtyBelow = false;
 	}
 
 	// will replace document with identical name;
@@ -201,6 +268,7 @@ public abstract class Folder
 		if (doc.parent != null && doc.parent != this)
 			doc.parent.removeDocument(doc);
 		doc.parent = (F) this;
+		markDirty();
 	}
 
 	// will replace folder with identical name
@@ -210,12 +278,16 @@ public abstract class Folder
 		synchronized (this) {
 			if (subFolders == null)
 				subFolders = Maps.newHashMap();
-			if (subFolder.parent != null)
+			if (subFolder.parent != null) {
 				subFolder.parent.subFolders.remove(subFolder);
+				subFolder.parent.markDirty();
+			}
 			subFolder.parent = (F) this;
 			subFolder.path = null;
 			subFolder.updatePathHashCode();
 			subFolders.put(subFolder.getName(), subFolder);
+			markDirty();
+			subFolder.markDirtyDeep();
 		}
 		evtFolderAdded.fire(new FolderEvent(this, subFolder));
 	}
@@ -228,6 +300,7 @@ public abstract class Folder
 		doc.parent = null;
 		if (documents.isEmpty())
 			documents = null;
+		markDirty();
 	}
 
 	public final void removeChildren() {
@@ -248,6 +321,7 @@ public abstract class Folder
 					subFolder.parent = null;
 				}
 			}
+			markDirty();
 		}
 		for (F subFolder : toNotify)
 			evtFolderRemoved.fire(new FolderEvent(this, subFolder));
@@ -272,6 +346,7 @@ public abstract class Folder
 
 			if (subFolders.isEmpty())
 				subFolders = null;
+			markDirty();
 		}
 		evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
@@ -284,6 +359,7 @@ public abstract class Folder
 			if (predicate.apply(doc)) {
 				docIt.remove();
 				doc.parent = null;
+				markDirty();
 			}
 		}
 		if (documents.isEmpty())
@@ -306,6 +382,7 @@ public abstract class Folder
 					subFolder.path = subFolder.getPath();
 					subFolder.parent = null;
 					toNotify.add(subFolder);
+					markDirty();
 				}
 			}
 			if (subFolders.isEmpty())
@@ -398,6 +475,27 @@ public abstract class Folder
 
 	public synchronized final void setChecked(boolean isChecked) {
 		this.isChecked = isChecked;
+		markDirty();
+	}
+
+	/**
+	 * Removes all subfolders whose names aren't in the given collection, without firing any folder events.
+	 * This is only used when the folder tree is restored, i.e. when it's not visible yet.
+	 */
+	final synchronized void retainSubFolders(@NotNull Collection<String> names) {
+		if (subFolders == null)
+			return;
+		Iterator<F> subFolderIt = subFolders.values().iterator();
+		while (subFolderIt.hasNext()) {
+			F subFolder = subFolderIt.next();
+			if (!names.contains(subFolder.getName())) {
+				subFolderIt.remove();
+				subFolder.path = subFolder.getPath();
+				subFolder.parent = null;
+			}
+		}
+		if (subFolders.isEmpty())
+			subFolders = null;
 	}
 
 	@NotNull
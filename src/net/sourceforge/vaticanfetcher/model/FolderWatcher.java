@@ -14,6 +14,7 @@ package net.sourceforge.vaticanfetcher.model;
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
@@ -34,12 +35,17 @@ import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.concurrent.DelayedExecutor;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 
 public final class FolderWatcher {
 	
+	/** The maximum number of changed files collected for a single index update. If exceeded, the whole index is updated. */
+	private static final int MAX_CHANGED_FILES = 1000;
+	
 	public final Event<String> evtWatchLimitError = new Event<String>();
 	
 	/**
@@ -265,6 +271,13 @@ public final class FolderWatcher {
 		private final LuceneIndex watchedIndex;
 		private final DelayedExecutor delayedExecutor = new DelayedExecutor(1000);
 		
+		/*
+		 * The files changed since the last scheduled update. If there are too many of them, we'll stop collecting them 
+		 * and fall back to a full update, since at that point checking the whole index is probably cheaper anyway.
+		 */
+		private final Set<File> changedFiles = Sets.newLinkedHashSet(); // guarded by itself
+		private boolean tooManyChangedFiles = false; // guarded by changedFiles
+		
 		private JNotifyListenerImpl(@NotNull LuceneIndex watchedIndex) {
 			this.watchedIndex = Util.checkNotNull(watchedIndex);
 		}
@@ -273,11 +286,24 @@ public final class FolderWatcher {
 			if (!accept(targetFile, eventType))
 				return;
 			
+			synchronized (changedFiles) {
+				if (changedFiles.size() < MAX_CHANGED_FILES)
+					changedFiles.add(targetFile);
+				else
+					tooManyChangedFiles = true;
+			}
+			
 			/* JNotify can fire many events in rapid succession, so we'll add a small delay here in order to let the file system "cool down". */
 			delayedExecutor.schedule(new Runnable() {
 				public void run() {
+					List<File> changedFilesCopy;
+					synchronized (changedFiles) {
+						changedFilesCopy = tooManyChangedFiles ? null : ImmutableList.copyOf(changedFiles);
+						changedFiles.clear();
+						tooManyChangedFiles = false;
+					}
 					indexRegistry.getQueue().addTask(
-						watchedIndex, IndexAction.UPDATE);
+						watchedIndex, IndexAction.UPDATE, changedFilesCopy);
 				}
 			});
 		}
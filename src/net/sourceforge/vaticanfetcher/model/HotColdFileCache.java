@@ -140,6 +140,12 @@ public final class HotColdFileCache {
 		}
 	}
 	
+	// Returns whether the given key is in either the hot or the cold cache, without moving it to the hot cache
+	public synchronized boolean containsKey(@NotNull Path key) {
+		String absKey = key.getCanonicalPath();
+		return hotCache.containsKeySafe(absKey) || coldCache.containsKeySafe(absKey);
+	}
+	
 	@NotNull
 	public synchronized FileResource putIfAbsent(@NotNull Path key,	@NotNull File deletableFile) {
 		return putIfAbsent(key, deletableFile, deletableFile);
@@ -15,8 +15,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
@@ -25,6 +26,10 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -34,6 +39,7 @@ import net.contentobjects.jnotify.JNotifyException;
 import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.vaticanfetcher.model.index.IndexingQueue;
+import net.sourceforge.vaticanfetcher.model.index.file.ArchiveCatalog;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
 import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.vaticanfetcher.model.search.Searcher;
@@ -66,6 +72,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @ThreadSafe
 public final class IndexRegistry {
@@ -83,6 +90,10 @@ public final class IndexRegistry {
 	@Nullable
 	public static volatile File indexPathOverride = null;
 
+	private static final String TREE_INDEX_FILENAME = "tree-index.bin";
+	private static final String TEMP_TREE_INDEX_FILENAME = "tree-index.bin.tmp";
+	
+	/** Java-serialized tree indexes from earlier versions, which are converted to the binary format on loading. */
 	private static final String SER_FILENAME = "tree-index.ser";
 
 	/* This setting prevents errors that would otherwise occur if the user enters generic search terms like "*?". */
@@ -101,6 +112,17 @@ public final class IndexRegistry {
 	 */
 	private final Map<LuceneIndex, Long> indexes = Maps.newTreeMap(IndexComparator.instance); // guarded by read-write lock
 
+	/** The journals of the indexes that have a tree index file. */
+	private final Map<LuceneIndex, TreeIndexJournal> journals = Maps.newHashMap(); // guarded by read-write lock
+
+	/** Journal compactions, which run on a background thread. See {@link #awaitCompaction(LuceneIndex)}. */
+	private final Map<LuceneIndex, Future<?>> compactions = Maps.newConcurrentMap();
+	private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(
+		new ThreadFactoryBuilder()
+			.setNameFormat(IndexRegistry.class.getSimpleName() + "-compaction")
+			.setDaemon(true)
+			.build());
+
 	/*
 	 * This read-write lock is used for the index registry, the indexing queue, the searcher and the folder watcher. 
 	 * With the exception of the searcher, a read-write lock might not be the best choice for these classes in terms
@@ -128,7 +150,7 @@ public final class IndexRegistry {
 		Util.checkNotNull(indexParentDir);
 		this.indexParentDir = indexParentDir;
 		this.unpackCache = new HotColdFileCache(cacheSize);
-		this.fileFactory = new FileFactory(unpackCache);
+		this.fileFactory = new FileFactory(unpackCache, ArchiveCatalog.getInstance(indexParentDir));
 		this.outlookMailFactory = new OutlookMailFactory(unpackCache);
 
 		/* Giving out a reference to the IndexRegistry before it is fully constructed might be a little dangerous :-/ */
@@ -163,10 +185,10 @@ public final class IndexRegistry {
 
 	@ThreadSafe
 	@VisibleForPackageGroup
-	public void addIndex(@NotNull LuceneIndex index) {	addIndex(index, null); }
+	public void addIndex(@NotNull LuceneIndex index) {	addIndex(index, null, null); }
 
 	@ThreadSafe
-	private void addIndex(@NotNull LuceneIndex index, @Nullable Long lastModified) {
+	private void addIndex(@NotNull LuceneIndex index, @Nullable Long lastModified, @Nullable TreeIndexJournal journal) {
 		Util.checkNotNull(index);
 		Util.checkNotNull(index.getIndexDirPath()); // RAM indexes not allowed
 		writeLock.lock();
@@ -174,6 +196,8 @@ public final class IndexRegistry {
 			if (indexes.containsKey(index))
 				return;
 			indexes.put(index, lastModified);
+			if (journal != null)
+				journals.put(index, journal);
 		}
 		finally {
 			writeLock.unlock();
@@ -197,6 +221,7 @@ public final class IndexRegistry {
 				if (!indexes.containsKey(index))
 					continue;
 				indexes.remove(index);
+				journals.remove(index);
 				if (deleteFiles)
 					deletions.add(new PendingDeletion(index));
 				removed.add(index);
@@ -288,16 +313,25 @@ public final class IndexRegistry {
 			if (cancelable.isCanceled())
 				break;
 			if (file.isDirectory()) {
+				File treeIndexFile = new File(file, TREE_INDEX_FILENAME);
 				File serFile = new File(file, SER_FILENAME);
-				if (serFile.isFile()) {
+				if (treeIndexFile.isFile()) {
+					if (!loadIndex(treeIndexFile))
+						loadingProblems.addObsoleteFile(file);
+				}
+				else if (serFile.isFile()) {
 					/*
 					 * Try to load the tree-index.ser. If this fails, we're probably dealing with a tree-index.ser from VaticanFetcher
 					 * 1.1 beta 1 through VaticanFetcher 1.1 beta 6, because the serialization version UID was changed after 1.1 beta 6.
+					 * If it succeeds, the index is converted to the binary format right away.
 					 */
-					if (!loadIndex(serFile))
+					LuceneIndex index = loadSerializedIndex(serFile);
+					if (index == null)
 						loadingProblems.addObsoleteFile(file);
+					else
+						save(index);
 				}
-				else if (!serFile.exists()) {
+				else if (!serFile.exists() && !treeIndexFile.exists()) {
 					/*
 					 * If no tree-index.ser exists and the containing folder has a name that ends with a timestamp, 
 					 * it's probably an index folder from VaticanFetcher 1.0.3 or earlier.
@@ -327,7 +361,8 @@ public final class IndexRegistry {
 
 			final int watchId = new SimpleJNotifyListener() {
 				protected void handleEvent(File targetFile, EventType eventType) {
-					if (!targetFile.getName().equals(SER_FILENAME))
+					String filename = targetFile.getName();
+					if (!filename.equals(TREE_INDEX_FILENAME) && !filename.equals(TreeIndexJournal.FILENAME))
 						return;
 					executor.schedule(new Runnable() {
 						public void run() {
@@ -355,9 +390,39 @@ public final class IndexRegistry {
 		return loadingProblems;
 	}
 
-	/** Load the given tree index file. Returns whether the file was successfully loaded. */
+	/** Load the given tree index file and replays its journal. Returns whether the file was successfully loaded. */
 	@ThreadSafe
-	private boolean loadIndex(@NotNull File serFile) {
+	private boolean loadIndex(@NotNull File treeIndexFile) {
+		/*
+		 * No file lock is needed here, since tree index files are never written in place: The save method
+		 * writes into a temporary file and then renames it.
+		 */
+		InputStream in = null;
+		try {
+			in = new FileInputStream(treeIndexFile);
+			TreeIndexReader reader = new TreeIndexReader(in);
+			TreeIndex<?, ?> index = (TreeIndex<?, ?>) reader.readIndex();
+			in.close();
+			File indexDir = treeIndexFile.getParentFile();
+			TreeIndexJournal journal = new TreeIndexJournal(indexDir, reader.getChecksum(), treeIndexFile.length());
+			boolean replayed = journal.replay(index);
+			addIndex(index, getLastSaved(indexDir), journal);
+			if (!replayed)
+				scheduleCompaction(index);
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/** Loads and registers the given Java-serialized tree index file. Returns null if the file couldn't be loaded. */
+	@Nullable
+	@ThreadSafe
+	private LuceneIndex loadSerializedIndex(@NotNull File serFile) {
 		ObjectInputStream in = null;
 		try {
 			FileInputStream fin = new FileInputStream(serFile);
@@ -370,11 +435,11 @@ public final class IndexRegistry {
 			finally {
 				lock.release();
 			}
-			addIndex(index, serFile.lastModified());
-			return true;
+			addIndex(index, serFile.lastModified(), null);
+			return index;
 		}
 		catch (Exception e) {
-			return false;
+			return null;
 		}
 		finally {
 			Closeables.closeQuietly(in);
@@ -396,24 +461,24 @@ public final class IndexRegistry {
 			for (File indexDir : Util.listFiles(indexParentDir)) {
 				if (!indexDir.isDirectory())
 					continue;
-				File serFile = new File(indexDir, SER_FILENAME);
-				if (!serFile.isFile())
+				File treeIndexFile = new File(indexDir, TREE_INDEX_FILENAME);
+				if (!treeIndexFile.isFile())
 					continue;
 
 				LuceneIndex index = indexDirMap.remove(Util.getAbsFile(indexDir));
 
 				// New index found
 				if (index == null) {
-					loadIndex(serFile);
+					loadIndex(treeIndexFile);
 				}
 				// Existing index; may have been modified
 				else {
 					Long oldLM = indexes.get(index);
-					long newLM = serFile.lastModified();
+					long newLM = getLastSaved(indexDir);
 					if (oldLM != null && oldLM.longValue() != newLM) {
 						/* Remove the old version of the index and add the new version. Let's just hope it isn't in the queue or being searched in right now. */
 						removeIndexes(Collections.singletonList(index), false);
-						loadIndex(serFile);
+						loadIndex(treeIndexFile);
 					}
 				}
 			}
@@ -426,47 +491,206 @@ public final class IndexRegistry {
 		}
 	}
 
+	/**
+	 * The data needed to save an index, obtained from {@link IndexRegistry#prepareSave(LuceneIndex)}. This is either a new
+	 * tree index file written to a temporary location, or a batch of changes to be appended to the journal of the index.
+	 */
+	@VisibleForPackageGroup
+	public static final class PendingSave {
+		@Nullable private final File tempFile;
+		private final int checksum;
+		@Nullable private final byte[] journalBatch;
+
+		private PendingSave(@Nullable File tempFile, int checksum, @Nullable byte[] journalBatch) {
+			this.tempFile = tempFile;
+			this.checksum = checksum;
+			this.journalBatch = journalBatch;
+		}
+
+		/** Deletes the temporary file of the receiver, if there is one and it hasn't been saved. */
+		public void discard() {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/** Saves the given index, either in full or by appending to its journal. */
 	@VisibleForPackageGroup
 	public void save(@NotNull LuceneIndex index) {
+		PendingSave pendingSave = prepareSave(index);
+		try {
+			save(index, pendingSave);
+		}
+		finally {
+			if (pendingSave != null)
+				pendingSave.discard();
+		}
+	}
+
+	/**
+	 * Prepares saving the given index: If the index has a tree index file, the changes since the last save are collected
+	 * in a journal batch, which is cheap. Otherwise, the entire index is written to a temporary file. The returned object
+	 * must be passed to {@link #save(LuceneIndex, PendingSave)}, and should be discarded afterwards. Returns null if the
+	 * index can't be saved.
+	 * <p>
+	 * Since this may take a while for large indexes, it should be called without holding the registry lock, and only from
+	 * the thread that modifies the index.
+	 */
+	@Nullable
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public PendingSave prepareSave(@NotNull LuceneIndex index) {
+		Util.checkNotNull(index);
+		TreeIndexJournal journal;
+		readLock.lock();
+		try {
+			journal = journals.get(index);
+		}
+		finally {
+			readLock.unlock();
+		}
+		if (journal != null) {
+			try {
+				return new PendingSave(null, 0, TreeIndexWriter.writeJournalBatch((TreeIndex<?, ?>) index));
+			}
+			catch (IOException e) {
+				Util.printErr(e); // Fall back to writing the entire index
+			}
+		}
+		return writeTempTreeIndex(index);
+	}
+
+	@Nullable
+	private PendingSave writeTempTreeIndex(@NotNull LuceneIndex index) {
+		File indexDir = index.getIndexDirPath().getCanonicalFile();
+		indexDir.mkdirs();
+		File treeIndexFile = new File(indexDir, TREE_INDEX_FILENAME);
+
+		/* VaticanFetcher might have been burned onto a CD-ROM; if so, then just ignore it. */
+		if (treeIndexFile.exists() && !treeIndexFile.canWrite())
+			return null;
+
+		File tempFile = new File(indexDir, TEMP_TREE_INDEX_FILENAME);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tempFile);
+			int checksum = TreeIndexWriter.write((TreeIndex<?, ?>) index, out);
+			out.close();
+			return new PendingSave(tempFile, checksum, null);
+		}
+		catch (IOException e) {
+			Util.printErr(e); // The average user doesn't need to know
+			Closeables.closeQuietly(out);
+			tempFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the given index using the data obtained from {@link #prepareSave(LuceneIndex)}. Does nothing if the
+	 * given object is null. If the journal of the index has grown too large, a new tree index file is written on
+	 * a background thread afterwards.
+	 */
+	@VisibleForPackageGroup
+	public void save(@NotNull LuceneIndex index, @Nullable PendingSave pendingSave) {
 		Util.checkNotNull(index);
+		if (pendingSave == null)
+			return;
 		writeLock.lock();
 		try {
 			File indexDir = index.getIndexDirPath().getCanonicalFile();
-			indexDir.mkdirs();
-			File serFile = new File(indexDir, SER_FILENAME);
-
-			/* VaticanFetcher might have been burned onto a CD-ROM; if so, then just ignore it. */
-			if (serFile.exists() && !serFile.canWrite())
-				return;
+			if (pendingSave.tempFile != null) {
+				File treeIndexFile = new File(indexDir, TREE_INDEX_FILENAME);
+				if (!pendingSave.tempFile.renameTo(treeIndexFile)) {
+					/* On Windows, renaming fails if the target file exists. */
+					treeIndexFile.delete();
+					if (!pendingSave.tempFile.renameTo(treeIndexFile)) {
+						Util.printErr("Could not save tree index: " + treeIndexFile);
+						return;
+					}
+				}
 
-			ObjectOutputStream out = null;
-			try {
-				serFile.createNewFile();
-				FileOutputStream fout = new FileOutputStream(serFile);
-				FileLock lock = fout.getChannel().lock();
+				// The new tree index file supersedes the journal and any tree-index.ser from earlier versions
+				TreeIndexJournal journal = new TreeIndexJournal(indexDir, pendingSave.checksum, treeIndexFile.length());
+				journal.delete();
+				journals.put(index, journal);
+				new File(indexDir, SER_FILENAME).delete();
+			}
+			else if (pendingSave.journalBatch != null) {
+				TreeIndexJournal journal = journals.get(index);
+				if (journal == null)
+					return;
 				try {
-					out = new ObjectOutputStream(fout);
-					out.writeObject(index);
+					journal.append(pendingSave.journalBatch);
 				}
-				finally {
-					lock.release();
+				catch (IOException e) {
+					Util.printErr(e);
+					scheduleCompaction(index);
+					return;
 				}
-			}
-			catch (IOException e) {
-				Util.printErr(e); // The average user doesn't need to know
-			}
-			finally {
-				Closeables.closeQuietly(out);
+				if (journal.needsCompaction())
+					scheduleCompaction(index);
 			}
 
 			// Update cached last-modified value of index
-			indexes.put(index, serFile.lastModified());
+			indexes.put(index, getLastSaved(indexDir));
 		}
 		finally {
 			writeLock.unlock();
 		}
 	}
 
+	/** Returns the time the index in the given directory was last saved, either in full or in its journal. */
+	private static long getLastSaved(@NotNull File indexDir) {
+		long treeIndexLM = new File(indexDir, TREE_INDEX_FILENAME).lastModified();
+		long journalLM = new File(indexDir, TreeIndexJournal.FILENAME).lastModified();
+		return Math.max(treeIndexLM, journalLM);
+	}
+
+	/** Writes a new tree index file for the given index on a background thread, unless this is already happening. */
+	private void scheduleCompaction(@NotNull final LuceneIndex index) {
+		Future<?> compaction = compactions.get(index);
+		if (compaction != null && !compaction.isDone())
+			return;
+		compactions.put(index, compactionExecutor.submit(new Runnable() {
+			public void run() {
+				if (!getIndexes().contains(index))
+					return;
+				PendingSave pendingSave = writeTempTreeIndex(index);
+				try {
+					if (getIndexes().contains(index))
+						save(index, pendingSave);
+				}
+				finally {
+					if (pendingSave != null)
+						pendingSave.discard();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Waits until the background compaction of the given index's journal has finished, if there is one. This must be
+	 * called before the index is modified, since the compaction reads the index tree without holding any locks.
+	 */
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public void awaitCompaction(@NotNull LuceneIndex index) {
+		Future<?> compaction = compactions.get(index);
+		if (compaction == null)
+			return;
+		try {
+			compaction.get();
+		}
+		catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e) {
+			Util.printErr(e.getCause());
+		}
+		compactions.remove(index);
+	}
+
 	@NotNull
 	@ThreadSafe
 	public TreeCheckState getTreeCheckState() {
@@ -14,6 +14,7 @@ package net.sourceforge.vaticanfetcher.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import net.sourceforge.vaticanfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
@@ -48,6 +49,13 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	@NotNull
 	public IndexingResult update(@Nullable IndexingReporter reporter, @Nullable Cancelable cancelable);
 	
+	/**
+	 * Same as {@link #update(IndexingReporter, Cancelable)}, but if the given collection of changed files is not null, 
+	 * the update may be restricted to the given files. Implementations are free to check the whole index anyway.
+	 */
+	@NotNull
+	public IndexingResult update(@Nullable IndexingReporter reporter, @Nullable Cancelable cancelable, @Nullable Collection<File> changedFiles);
+	
 	@NotNull
 	public Directory getLuceneDir() throws IOException;
 	
@@ -60,6 +60,20 @@ public final class Path implements Serializable {
 		this(file.getPath());
 	}
 	
+	private Path(@NotNull String path, @NotNull String name) {
+		this.path = path;
+		this.name = name;
+	}
+	
+	/**
+	 * Recreates a path from the values returned by {@link #getPath()} and {@link #getName()}. Unlike the public
+	 * constructors, this neither normalizes the path nor accesses the file system.
+	 */
+	@NotNull
+	static Path restore(@NotNull String path, @NotNull String name) {
+		return new Path(path, name);
+	}
+	
 	public Path(@NotNull String path) {
 		Util.checkNotNull(path);
 		this.path = normalizePath(path);
@@ -34,7 +34,11 @@ abstract class SimpleJNotifyListener {
 
 		public final void fileModified(int wd, String rootPath, String name) {handleEvent(rootPath, name, EventType.MODIFIED);}
 
-		public final void fileRenamed(int wd, String rootPath, String oldName, String newName) {handleEvent(rootPath, newName, EventType.RENAMED);}
+		public final void fileRenamed(int wd, String rootPath, String oldName, String newName) {
+			/* The old name is reported as deleted, so that listeners can tell which files are gone after a file was moved. */
+			handleEvent(rootPath, oldName, EventType.DELETED);
+			handleEvent(rootPath, newName, EventType.RENAMED);
+		}
 	};
 	
 	private void handleEvent(@NotNull String rootPath,	@NotNull String name, @NotNull EventType eventType) {
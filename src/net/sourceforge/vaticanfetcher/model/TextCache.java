@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.util.FastDeflaterOutputStream;
+import net.sourceforge.vaticanfetcher.util.LruFolder;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * A persistent cache for the texts shown on the preview pane, so that previewing an indexed document doesn't require
+ * unpacking and parsing it again. Entries are keyed by document UID and are only valid for the last-modified value
+ * they were stored with.
+ * <p>
+ * The cache has two tiers: A small LRU map of recently used texts in memory, and a folder with one compressed file
+ * per document on the disk. The total size of the cache folder is limited by
+ * {@link ProgramConf.Int#TextCacheSize}; when the limit is exceeded, the least recently used files are deleted.
+ * Since the cache files are only accessed through the file system, several program instances may share a cache
+ * folder, although they don't know about each other's entries until the next program start.
+ */
+@ThreadSafe
+public final class TextCache {
+
+	/** The name of the cache folder inside the index folder. */
+	public static final String DIRNAME = "text-cache";
+
+	private static final int MAGIC = 0x56465443; // "VFTC"
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".txt.z";
+
+	/** The maximum total length of the texts kept in memory, in characters. */
+	private static final long MEMORY_CAPACITY = 4 * 1024 * 1024;
+
+	private static final Map<File, TextCache> instances = new LinkedHashMap<File, TextCache>();
+
+	private static final class Entry {
+		private final String uid;
+		private final long lastModified;
+		private final String text;
+
+		private Entry(@NotNull String uid, long lastModified, @NotNull String text) {
+			this.uid = uid;
+			this.lastModified = lastModified;
+			this.text = text;
+		}
+	}
+
+	// All fields are guarded by 'this' lock
+	private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long memorySize = 0;
+	private final LruFolder diskEntries;
+
+	/**
+	 * Creates a text cache in the given folder, with the given maximum folder size in bytes. The folder is created when
+	 * the first entry is stored.
+	 */
+	public TextCache(@NotNull File cacheDir, long diskCapacity) {
+		diskEntries = new LruFolder(cacheDir, SUFFIX, diskCapacity) {
+			protected void evicted(String filename) {
+				removeMemoryEntry(filename);
+			}
+		};
+	}
+
+	/**
+	 * Returns the shared text cache of the given index parent folder, or null if the given folder is null or if the
+	 * cache was disabled via {@link ProgramConf.Int#TextCacheSize}.
+	 */
+	@Nullable
+	public static TextCache getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null)
+			return null;
+		long diskCapacity = ProgramConf.Int.TextCacheSize.get() * 1024L * 1024L;
+		if (diskCapacity == 0)
+			return null;
+		File cacheDir = Util.getCanonicalFile(new File(indexParentDir, DIRNAME));
+		synchronized (instances) {
+			TextCache cache = instances.get(cacheDir);
+			if (cache == null) {
+				cache = new TextCache(cacheDir, diskCapacity);
+				instances.put(cacheDir, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Returns the cached text of the document with the given UID, or null if the text isn't cached or was stored for a
+	 * different last-modified value. Should not be called from the GUI thread, since it might read from the disk.
+	 */
+	@Nullable
+	public String get(@NotNull String uid, long lastModified) {
+		Util.checkNotNull(uid);
+		String filename = getFilename(uid);
+		synchronized (this) {
+			Entry entry = memoryEntries.get(filename);
+			if (entry != null) {
+				if (entry.uid.equals(uid) && entry.lastModified == lastModified) {
+					diskEntries.touch(filename, false);
+					return entry.text;
+				}
+				removeMemoryEntry(filename);
+			}
+			if (!diskEntries.contains(filename))
+				return null;
+		}
+
+		// Read from disk without holding the lock, since the text may be large
+		Entry entry = read(diskEntries.getFile(filename));
+		synchronized (this) {
+			if (entry == null || !entry.uid.equals(uid) || entry.lastModified != lastModified) {
+				// Corrupted or outdated entry, or hash collision
+				diskEntries.remove(filename);
+				return null;
+			}
+			diskEntries.touch(filename, true);
+			putMemoryEntry(filename, entry);
+			return entry.text;
+		}
+	}
+
+	/**
+	 * Stores the given text for the document with the given UID, replacing any previously stored text of that document.
+	 * Errors are only logged, since the cache is not essential. Should not be called from the GUI thread.
+	 */
+	public void put(@NotNull String uid, long lastModified, @NotNull String text) {
+		Util.checkNotNull(uid, text);
+		String filename = getFilename(uid);
+		Entry entry = new Entry(uid, lastModified, text);
+		synchronized (this) {
+			putMemoryEntry(filename, entry);
+		}
+
+		/*
+		 * Write into a temporary file first, so that readers and other program instances never see an incomplete file.
+		 * The lock is not held during the write, since compressing a large text takes a while.
+		 */
+		File tempFile = null;
+		try {
+			tempFile = diskEntries.createTempFile(filename);
+			write(tempFile, entry);
+			synchronized (this) {
+				diskEntries.commit(tempFile, filename);
+				tempFile = null;
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		finally {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/** Removes the text of the document with the given UID from the cache. */
+	public synchronized void remove(@NotNull String uid) {
+		String filename = getFilename(uid);
+		removeMemoryEntry(filename);
+		if (diskEntries.contains(filename))
+			diskEntries.remove(filename);
+	}
+
+	// The UID may contain arbitrary characters and may be very long, so we'll use its hash as filename
+	@NotNull
+	private static String getFilename(@NotNull String uid) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(uid.getBytes(Charsets.UTF_8));
+			StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.append(SUFFIX).toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-1 is available on all Java platforms
+		}
+	}
+
+	private void putMemoryEntry(@NotNull String filename, @NotNull Entry entry) {
+		removeMemoryEntry(filename);
+		if (entry.text.length() > MEMORY_CAPACITY / 2)
+			return; // Don't let a single huge text push out everything else
+		memoryEntries.put(filename, entry);
+		memorySize += entry.text.length();
+		Iterator<Entry> it = memoryEntries.values().iterator();
+		while (memorySize > MEMORY_CAPACITY && it.hasNext()) {
+			memorySize -= it.next().text.length();
+			it.remove();
+		}
+	}
+
+	private void removeMemoryEntry(@NotNull String filename) {
+		Entry entry = memoryEntries.remove(filename);
+		if (entry != null)
+			memorySize -= entry.text.length();
+	}
+
+	private static void write(@NotNull File file, @NotNull Entry entry) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FastDeflaterOutputStream(new FileOutputStream(file))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(entry.uid);
+			out.writeLong(entry.lastModified);
+			byte[] bytes = entry.text.getBytes(Charsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.close();
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+
+	// Returns null if the file doesn't exist or can't be read
+	@Nullable
+	private static Entry read(@NotNull File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(new FileInputStream(file))));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			String uid = in.readUTF();
+			long lastModified = in.readLong();
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new Entry(uid, lastModified, new String(bytes, Charsets.UTF_8));
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (OutOfMemoryError e) {
+			return null; // Corrupted length field
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.junit.Test;
+
+public final class TextCacheTest {
+
+	@Test
+	public void testPersistence() throws Exception {
+		File cacheDir = Util.createTempDir();
+		try {
+			TextCache cache = new TextCache(cacheDir, 1024 * 1024);
+			cache.put("uid1", 100, "first text");
+			cache.put("uid2", 200, "second text äöü");
+			assertEquals("first text", cache.get("uid1", 100));
+			assertNull(cache.get("uid1", 101)); // outdated entry is removed
+			assertNull(cache.get("uid1", 100));
+
+			// A new instance only sees what was written to the disk
+			cache = new TextCache(cacheDir, 1024 * 1024);
+			assertNull(cache.get("uid1", 100));
+			assertEquals("second text äöü", cache.get("uid2", 200));
+			assertNull(cache.get("uid3", 200));
+
+			cache.remove("uid2");
+			assertNull(new TextCache(cacheDir, 1024 * 1024).get("uid2", 200));
+		}
+		finally {
+			Util.deleteRecursively(cacheDir);
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File cacheDir = Util.createTempDir();
+		try {
+			// Determine size of a single cache file
+			new TextCache(cacheDir, 1024 * 1024).put("uid0", 0, "some text");
+			long fileLength = Util.listFiles(cacheDir)[0].length();
+			Util.deleteContents(cacheDir);
+
+			// Room for two files
+			TextCache cache = new TextCache(cacheDir, fileLength * 2 + fileLength / 2);
+			cache.put("uid1", 0, "some text");
+			cache.put("uid2", 0, "some text");
+			assertEquals("some text", cache.get("uid1", 0)); // uid2 is now least recently used
+			cache.put("uid3", 0, "some text");
+			assertEquals(2, Util.listFiles(cacheDir).length);
+
+			cache = new TextCache(cacheDir, fileLength * 2 + fileLength / 2);
+			assertEquals("some text", cache.get("uid1", 0));
+			assertNull(cache.get("uid2", 0));
+			assertEquals("some text", cache.get("uid3", 0));
+		}
+		finally {
+			Util.deleteRecursively(cacheDir);
+		}
+	}
+
+}
@@ -16,8 +16,11 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 
 import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 
+import com.google.common.collect.Sets;
+
 public final class TreeCheckState {
 	
 	/* TODO post-release-1.1: Check for multi-threading issues in this class, especially check-then-act operations on Folder objects and the likes. */
@@ -47,6 +50,21 @@ public final class TreeCheckState {
 		return checkedSet.contains(new PathWrapper(path));
 	}
 	
+	/** Returns true if there's at least one folder and no folder is unchecked. */
+	public boolean isAllChecked() {
+		return !checkedSet.isEmpty() && folderCount == checkedSet.size();
+	}
+	
+	/** Returns the paths of all checked folders, as returned by {@link Path#getPath()}. */
+	@MutableCopy
+	@NotNull
+	public Set<String> getCheckedPaths() {
+		Set<String> paths = Sets.newHashSetWithExpectedSize(checkedSet.size());
+		for (FolderWrapper wrapper : checkedSet)
+			paths.add(wrapper.folder.getPath().getPath());
+		return paths;
+	}
+	
 	private static final class PathWrapper {
 		private final Path path;
 
@@ -13,9 +13,11 @@ package net.sourceforge.vaticanfetcher.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.util.AppUtil;
 import net.sourceforge.vaticanfetcher.util.Util;
@@ -52,19 +54,7 @@ public abstract class TreeIndex <D extends Document<D, F>, F extends Folder<D, F
 	protected TreeIndex(@Nullable File indexParentDir, @NotNull File rootFile) {
 		Util.checkNotNull(rootFile);
 		this.indexParentDir = indexParentDir;
-		
-		// Create config
-		this.config = new IndexingConfig() {
-			@Override
-			protected void onStoreRelativePathsChanged() {
-				File oldFile = rootFolder.getPath().getCanonicalFile();
-				Path newPath = config.getStorablePath(oldFile);
-				rootFolder.setPath(newPath);
-			}
-			protected void onWatchFoldersChanged() {
-				LuceneIndex.evtWatchFoldersChanged.fire(TreeIndex.this);
-			}
-		};
+		this.config = createConfig();
 		
 		// Create root folder
 		rootFile = Util.getCanonicalFile(rootFile);
@@ -88,6 +78,37 @@ public abstract class TreeIndex <D extends Document<D, F>, F extends Folder<D, F
 		}
 	}
 	
+	/**
+	 * Restores an index that was saved with {@link TreeIndexWriter}. Subclasses loading the index must implement
+	 * {@link #createLoadedFolder(Folder, String, String)} and {@link #createLoadedDocument(Folder, String, String, long)}.
+	 */
+	protected TreeIndex(@NotNull TreeIndexReader in) throws IOException {
+		created = in.readVarLong();
+		String indexDirPath = in.readNullableString();
+		fileIndexDirPath = indexDirPath == null ? null : new Path(indexDirPath);
+		
+		/* The config must be loaded before the root folder, so that its change listeners can't touch the latter. */
+		config = createConfig();
+		config.read(in.getDataInput(), in.getVersion());
+		rootFolder = in.readRootFolder(this);
+	}
+	
+	@NotNull
+	private IndexingConfig createConfig() {
+		return new IndexingConfig() {
+			@Override
+			protected void onStoreRelativePathsChanged() {
+				File oldFile = rootFolder.getPath().getCanonicalFile();
+				Path newPath = config.getStorablePath(oldFile);
+				rootFolder.setPath(newPath);
+			}
+			protected void onWatchFoldersChanged() {
+				rootFolder.markDirty(); // Make sure the setting is saved on the next journal entry
+				LuceneIndex.evtWatchFoldersChanged.fire(TreeIndex.this);
+			}
+		};
+	}
+	
 	public final long getCreated() { return created; }
 	
 	@NotNull
@@ -98,6 +119,30 @@ public abstract class TreeIndex <D extends Document<D, F>, F extends Folder<D, F
 	
 	@NotNull
 	protected abstract F createRootFolder(@NotNull Path path);
+	
+	/**
+	 * Creates a subfolder of the given folder while a saved index is being loaded. Unlike the regular constructors
+	 * of the folder classes, this must not fire any folder events, and should use the given path string for
+	 * computing the path hash code of the new folder instead of reconstructing it from the parent.
+	 */
+	@NotNull
+	protected abstract F createLoadedFolder(@NotNull F parent, @NotNull String name, @NotNull String path);
+	
+	/** Creates a document in the given folder while a saved index is being loaded. */
+	@NotNull
+	protected abstract D createLoadedDocument(@NotNull F parent, @NotNull String name, @Nullable String displayName, long lastModified);
+	
+	/** Subclasses may override this to save additional data for the given folder. The default implementation does nothing. */
+	protected void writeFolderData(@NotNull TreeIndexWriter out, @NotNull F folder) throws IOException {}
+	
+	/** Counterpart of {@link #writeFolderData(TreeIndexWriter, Folder)}. */
+	protected void readFolderData(@NotNull TreeIndexReader in, @NotNull F folder) throws IOException {}
+	
+	/** Subclasses may override this to save additional data for the given document. The default implementation does nothing. */
+	protected void writeDocumentData(@NotNull TreeIndexWriter out, @NotNull D doc) throws IOException {}
+	
+	/** Counterpart of {@link #writeDocumentData(TreeIndexWriter, Document)}. */
+	protected void readDocumentData(@NotNull TreeIndexReader in, @NotNull D doc) throws IOException {}
 
 	@NotNull
 	public final IndexingConfig getConfig() { return config; }
@@ -113,6 +158,12 @@ public abstract class TreeIndex <D extends Document<D, F>, F extends Folder<D, F
 		return fileIndexDirPath;
 	}
 	
+	/** Returns the index directory path as it is stored, i.e. without applying {@link IndexRegistry#indexPathOverride}. */
+	@Nullable
+	final Path getStoredIndexDirPath() {
+		return fileIndexDirPath;
+	}
+	
 	@Nullable
 	protected final File getIndexParentDir() {
 		if (fileIndexDirPath == null)
@@ -124,18 +175,46 @@ public abstract class TreeIndex <D extends Document<D, F>, F extends Folder<D, F
 	
 	@NotNull
 	public final IndexingResult update(	@Nullable IndexingReporter reporter, @Nullable Cancelable cancelable) {
+		return update(reporter, cancelable, null);
+	}
+	
+	@NotNull
+	public final IndexingResult update(	@Nullable IndexingReporter reporter, @Nullable Cancelable cancelable, @Nullable Collection<File> changedFiles) {
 		if (reporter == null)
 			reporter = IndexingReporter.nullReporter;
 		if (cancelable == null)
 			cancelable = Cancelable.nullCancelable;
 		if (cancelable.isCanceled())
 			return IndexingResult.SUCCESS_UNCHANGED;
-		return doUpdate(reporter, cancelable);
+		if (changedFiles == null)
+			return doUpdate(reporter, cancelable);
+		return doUpdate(reporter, cancelable, changedFiles);
 	}
 	
 	@NotNull
 	protected abstract IndexingResult doUpdate(	@NotNull IndexingReporter reporter, @NotNull Cancelable cancelable);
 	
+	/** Subclasses may override this to restrict the update to the given changed files. The default implementation runs a full update. */
+	@NotNull
+	protected IndexingResult doUpdate(	@NotNull IndexingReporter reporter, @NotNull Cancelable cancelable, @NotNull Collection<File> changedFiles) {
+		return doUpdate(reporter, cancelable);
+	}
+	
+	/**
+	 * Passes the given metrics of an index update to the given reporter and writes them into the index folder, unless
+	 * nothing was measured.
+	 */
+	protected final void reportMetrics(@NotNull IndexingReporter reporter, @NotNull IndexingMetrics metrics) {
+		if (metrics.isEmpty())
+			return;
+		if (fileIndexDirPath != null) {
+			File fileIndexDir = getIndexDirPath().getCanonicalFile();
+			if (fileIndexDir.isDirectory())
+				metrics.write(new File(fileIndexDir, IndexingMetrics.FILENAME));
+		}
+		reporter.setMetrics(metrics);
+	}
+	
 	@NotNull
 	public final Directory getLuceneDir() throws IOException {
 		if (fileIndexDirPath != null) {
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+
+import com.google.common.io.Closeables;
+
+/**
+ * The change journal of a tree index. Instead of rewriting the entire tree index file after each index update, the
+ * folders that changed during the update are appended to the journal as a batch (see
+ * {@link TreeIndexWriter#writeJournalBatch(TreeIndex)}), and the batches are replayed on top of the tree index file
+ * when the index is loaded. Once the journal has grown too large, the index registry writes a new tree index file
+ * and deletes the journal.
+ * <p>
+ * The journal starts with a header containing the checksum of the tree index file it belongs to, so that a journal
+ * left over from an older tree index file is recognized and discarded. Each batch is preceded by its length and
+ * followed by its CRC32 checksum; a batch that was only partially written because the program crashed or was killed
+ * is cut off on replay.
+ */
+@NotThreadSafe
+final class TreeIndexJournal {
+
+	static final String FILENAME = "tree-index.journal";
+
+	private static final int MAGIC = 0x5646544A; // "VFTJ"
+	private static final int VERSION = TreeIndexWriter.VERSION; // the format version of the batches
+	private static final int HEADER_LENGTH = 12;
+
+	/*
+	 * The journal is compacted when it's larger than this fraction of the tree index file. Replaying
+	 * batches is slower than reading the tree index file, and the batches usually overlap a lot.
+	 */
+	private static final int COMPACTION_DIVISOR = 2;
+	private static final long MIN_COMPACTION_LENGTH = 256 * 1024;
+
+	private final File file;
+	private final int snapshotChecksum;
+	private final long snapshotLength;
+
+	/**
+	 * Creates a journal for the given index directory. The checksum and the length are those of the
+	 * tree index file the journal belongs to.
+	 */
+	TreeIndexJournal(@NotNull File indexDir, int snapshotChecksum, long snapshotLength) {
+		this.file = new File(indexDir, FILENAME);
+		this.snapshotChecksum = snapshotChecksum;
+		this.snapshotLength = snapshotLength;
+	}
+
+	@NotNull
+	public File getFile() {
+		return file;
+	}
+
+	/** Appends the given batch and waits until it has been written to the disk. */
+	public void append(@NotNull byte[] batch) throws IOException {
+		boolean writeHeader = file.length() < HEADER_LENGTH;
+		FileOutputStream fout = new FileOutputStream(file, !writeHeader);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+			if (writeHeader) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(snapshotChecksum);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(batch);
+			out.writeInt(batch.length);
+			out.write(batch);
+			out.writeInt((int) crc.getValue());
+			out.flush();
+			fout.getFD().sync();
+		}
+		finally {
+			Closeables.closeQuietly(fout);
+		}
+	}
+
+	public boolean needsCompaction() {
+		long length = file.length();
+		return length > MIN_COMPACTION_LENGTH && length > snapshotLength / COMPACTION_DIVISOR;
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	/**
+	 * Applies the batches of the journal to the given index, which must have been loaded from the tree index file
+	 * the receiver belongs to. A journal that belongs to another tree index file is deleted, and an incomplete batch
+	 * at the end of the journal is cut off. Returns false if a batch couldn't be applied, in which case the tree
+	 * may be out of sync with the journal and the index should be saved in full.
+	 */
+	public boolean replay(@NotNull TreeIndex<?, ?> index) {
+		if (!file.isFile())
+			return true;
+		long validLength = 0;
+		boolean success = true;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int version = -1;
+			if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION
+					|| in.readInt() != snapshotChecksum) {
+				in.close();
+				delete();
+				return true;
+			}
+			validLength = HEADER_LENGTH;
+			long remaining = file.length() - HEADER_LENGTH;
+			while (remaining >= 8) {
+				int length = in.readInt();
+				if (length < 0 || length > remaining - 8)
+					break;
+				byte[] batch = new byte[length];
+				in.readFully(batch);
+				CRC32 crc = new CRC32();
+				crc.update(batch);
+				if (in.readInt() != (int) crc.getValue())
+					break;
+				TreeIndexReader.applyJournalBatch(index, batch, version);
+				validLength += length + 8;
+				remaining -= length + 8;
+			}
+
+			/*
+			 * A journal written by an older program version can't be appended to, since the new batches would have a
+			 * different format. Its batches have been applied at this point, so it's discarded, and the returned
+			 * failure causes the index to be saved in full.
+			 */
+			if (version != VERSION) {
+				in.close();
+				delete();
+				return false;
+			}
+		}
+		catch (EOFException e) {
+			// Incomplete header or batch; cut off below
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			success = false;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		try {
+			if (validLength < HEADER_LENGTH) {
+				delete();
+			}
+			else if (validLength < file.length()) {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(validLength);
+				}
+				finally {
+					Closeables.closeQuietly(raf);
+				}
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			success = false;
+		}
+		return success;
+	}
+
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import net.sourceforge.vaticanfetcher.model.index.IndexingError;
+import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookIndex;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
+import net.sourceforge.vaticanfetcher.util.annotations.VisibleForPackageGroup;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Sets;
+
+/**
+ * Reads a {@link TreeIndex} written by {@link TreeIndexWriter}. See the latter for a description of the format.
+ */
+@NotThreadSafe
+@VisibleForPackageGroup
+public final class TreeIndexReader {
+
+	private final CheckedInputStream checkedIn;
+	private final DataInputStream in;
+	private final List<String> strings = new ArrayList<String>();
+	private long lastTimestamp = 0;
+	private int checksum;
+	private int version = TreeIndexWriter.VERSION;
+
+	public TreeIndexReader(@NotNull InputStream in) {
+		checkedIn = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+		this.in = new DataInputStream(checkedIn);
+	}
+
+	/**
+	 * Reads an index from the given input stream, which is not closed afterwards. Throws an
+	 * IOException if the data is truncated, corrupted or was written by a newer program version.
+	 */
+	@NotNull
+	public static LuceneIndex read(@NotNull InputStream in) throws IOException {
+		return new TreeIndexReader(in).readIndex();
+	}
+
+	/**
+	 * Applies a journal batch written by {@link TreeIndexWriter#writeJournalBatch(TreeIndex)} to the given index. This
+	 * must be done before the index is registered, since the tree is modified without firing any folder events. The
+	 * given version is the tree index format version the batch was written in.
+	 */
+	public static void applyJournalBatch(@NotNull TreeIndex<?, ?> index, @NotNull byte[] batch, int version)
+			throws IOException {
+		TreeIndexReader reader = new TreeIndexReader(new ByteArrayInputStream(batch));
+		reader.version = version;
+		reader.applyBatch(index);
+	}
+
+	/** Same as {@link #read(InputStream)}, except that the input stream is the one given in the constructor. */
+	@NotNull
+	public LuceneIndex readIndex() throws IOException {
+		if (in.readInt() != TreeIndexWriter.MAGIC)
+			throw new IOException("Not a tree index file.");
+		version = readVarInt();
+		if (version < 1 || version > TreeIndexWriter.VERSION)
+			throw new IOException("Unsupported tree index version: " + version);
+
+		TreeIndex<?, ?> index;
+		DocumentType type = readEnum(DocumentType.class);
+		switch (type) {
+		case FILE:
+			index = new FileIndex(this);
+			break;
+		case OUTLOOK:
+			index = new OutlookIndex(this);
+			break;
+		default:
+			throw new IOException("Unknown document type: " + type);
+		}
+
+		checksum = (int) checkedIn.getChecksum().getValue();
+		if (in.readInt() != checksum)
+			throw new IOException("Tree index checksum mismatch.");
+		return index;
+	}
+
+	/** Returns the format version of the index read by {@link #readIndex()}. */
+	int getVersion() {
+		return version;
+	}
+
+	/** Returns the checksum of the index read by {@link #readIndex()}. See {@link TreeIndexWriter#write(TreeIndex, java.io.OutputStream)}. */
+	public int getChecksum() {
+		return checksum;
+	}
+
+	private <D extends Document<D, F>, F extends Folder<D, F>> void applyBatch(@NotNull TreeIndex<D, F> index)
+			throws IOException {
+		index.getConfig().read(in, version);
+		F rootFolder = index.getRootFolder();
+		String rootPathString = readString();
+		String rootName = readString();
+		if (!rootFolder.getPath().getPath().equals(rootPathString))
+			rootFolder.setPath(Path.restore(rootPathString, rootName));
+
+		while (true) {
+			int recordType = in.readUnsignedByte();
+			if (recordType == TreeIndexWriter.END_OF_BATCH)
+				break;
+			if (recordType != TreeIndexWriter.SHALLOW_RECORD && recordType != TreeIndexWriter.DEEP_RECORD)
+				throw new IOException("Invalid journal record type: " + recordType);
+
+			// Find target folder
+			F folder = rootFolder;
+			String pathString = rootPathString;
+			int segmentCount = readVarInt();
+			for (int i = 0; i < segmentCount; i++) {
+				String name = readString();
+				folder = folder.getSubFolder(name);
+				if (folder == null)
+					throw new IOException("Journal refers to a missing folder: " + Util.joinPath(pathString, name));
+				pathString = Util.joinPath(pathString, name);
+			}
+
+			// Replace contents of target folder
+			boolean deep = recordType == TreeIndexWriter.DEEP_RECORD;
+			folder.removeDocuments(Predicates.<D>alwaysTrue());
+			if (deep)
+				folder.retainSubFolders(Collections.<String>emptySet());
+			readFolderBody(index, folder, pathString, deep);
+		}
+	}
+
+	/** Called by {@link TreeIndex} for reading the data that precedes the folder tree. */
+	@NotNull
+	DataInputStream getDataInput() {
+		return in;
+	}
+
+	/**
+	 * Reads a folder that was written with {@link TreeIndexWriter#writeRootFolder}, creating it with
+	 * {@link TreeIndex#createRootFolder(Path)}.
+	 */
+	@NotNull
+	public <D extends Document<D, F>, F extends Folder<D, F>> F readRootFolder(@NotNull TreeIndex<D, F> index)
+			throws IOException {
+		String pathString = readString();
+		Path path = Path.restore(pathString, readString());
+		F folder = index.createRootFolder(path);
+		readFolderBody(index, folder, pathString, true);
+		return folder;
+	}
+
+	/**
+	 * Reads the given folder and its documents, which are assumed not to exist yet. If deep is true, the subfolders
+	 * are read recursively and must not exist yet either. Otherwise, only the names of the subfolders are read: Existing
+	 * subfolders with other names are removed, and missing subfolders are created empty.
+	 */
+	@RecursiveMethod
+	private <D extends Document<D, F>, F extends Folder<D, F>> void readFolderBody(	@NotNull TreeIndex<D, F> index,
+																					@NotNull F folder,
+																					@NotNull String pathString,
+																					boolean deep)
+			throws IOException {
+		int flags = in.readUnsignedByte();
+		folder.setChecked((flags & TreeIndexWriter.CHECKED) != 0);
+		folder.setLastModified((flags & TreeIndexWriter.HAS_LAST_MODIFIED) != 0 ? readTimestamp() : null);
+		folder.setErrors((flags & TreeIndexWriter.HAS_ERRORS) != 0 ? readErrors(folder) : null);
+		index.readFolderData(this, folder);
+
+		int docCount = readVarInt();
+		for (int i = 0; i < docCount; i++)
+			readDocument(index, folder);
+
+		int subFolderCount = readVarInt();
+		if (deep) {
+			for (int i = 0; i < subFolderCount; i++) {
+				String name = readString();
+				String subPathString = Util.joinPath(pathString, name);
+				F subFolder = index.createLoadedFolder(folder, name, subPathString);
+				readFolderBody(index, subFolder, subPathString, true);
+			}
+		}
+		else {
+			Set<String> names = Sets.newHashSetWithExpectedSize(subFolderCount);
+			for (int i = 0; i < subFolderCount; i++)
+				names.add(readString());
+			folder.retainSubFolders(names);
+			for (String name : names)
+				if (folder.getSubFolder(name) == null)
+					index.createLoadedFolder(folder, name, Util.joinPath(pathString, name));
+		}
+
+		// Loading the folder's contents has set the journal flags, but the folder is in sync with the saved data
+		folder.clearDirty();
+	}
+
+	private <D extends Document<D, F>, F extends Folder<D, F>> void readDocument(	@NotNull TreeIndex<D, F> index,
+																					@NotNull F parent)
+			throws IOException {
+		int flags = in.readUnsignedByte();
+		String name = readString();
+		String displayName = (flags & TreeIndexWriter.HAS_DISPLAY_NAME) != 0 ? readString() : null;
+		long lastModified = readTimestamp();
+		D doc = index.createLoadedDocument(parent, name, displayName, lastModified);
+		if ((flags & TreeIndexWriter.HAS_ERRORS) != 0)
+			doc.setErrors(readErrors(doc));
+		index.readDocumentData(this, doc);
+	}
+
+	@NotNull
+	private List<IndexingError> readErrors(@NotNull TreeNode treeNode) throws IOException {
+		int count = readVarInt();
+		List<IndexingError> errors = new ArrayList<IndexingError>(count);
+		for (int i = 0; i < count; i++) {
+			ErrorType errorType = readEnum(ErrorType.class);
+			errors.add(new IndexingError(errorType, treeNode, readThrowable()));
+		}
+		return errors;
+	}
+
+	@Nullable
+	private Throwable readThrowable() throws IOException {
+		int length = readVarInt();
+		if (length == 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		try {
+			ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			return (Throwable) objectIn.readObject();
+		}
+		catch (Exception e) {
+			// The exception class may have been removed or changed in the meantime
+			return null;
+		}
+	}
+
+	@NotNull
+	private <T extends Enum<T>> T readEnum(@NotNull Class<T> enumClass) throws IOException {
+		String name = readString();
+		try {
+			return Enum.valueOf(enumClass, name);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Unknown " + enumClass.getSimpleName() + ": " + name);
+		}
+	}
+
+	public boolean readBoolean() throws IOException {
+		return in.readBoolean();
+	}
+
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	public long readTimestamp() throws IOException {
+		long zigzag = readVarLong();
+		lastTimestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+		return lastTimestamp;
+	}
+
+	/**
+	 * Reads a string written by {@link TreeIndexWriter#writeString(String)}. Repeated strings are returned as the
+	 * same instance, which saves a considerable amount of RAM on trees with many identical file and folder names.
+	 */
+	@NotNull
+	public String readString() throws IOException {
+		int id = readVarInt();
+		if (id > 0) {
+			if (id > strings.size())
+				throw new IOException("Invalid string reference: " + id);
+			return strings.get(id - 1);
+		}
+		int length = readVarInt();
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		String string = new String(bytes, Charsets.UTF_8);
+		strings.add(string);
+		return string;
+	}
+
+	@Nullable
+	public String readNullableString() throws IOException {
+		return in.readBoolean() ? readString() : null;
+	}
+
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingError;
+import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.vaticanfetcher.model.index.file.FileDocument;
+import net.sourceforge.vaticanfetcher.model.index.file.FileFolder;
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookIndex;
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public final class TreeIndexReaderTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testFileIndex() throws Exception {
+		File tempDir = Util.createTempDir();
+		File subDir = new File(tempDir, "sub");
+		File htmlDir = new File(subDir, "test_files");
+		htmlDir.mkdirs();
+		Files.copy(TestFiles.html.get(), new File(subDir, "test.html"));
+		Files.copy(TestFiles.simple_7z.get(), new File(htmlDir, "simple.7z"));
+		Files.write("text".getBytes(), new File(tempDir, "file.txt"));
+
+		FileIndex index = new FileIndex(null, tempDir);
+		IndexingConfig config = index.getConfig();
+		config.setTextExtensions(Arrays.asList("txt", "log"));
+		config.setWatchFolders(false);
+		index.update(null, null);
+		FileFolder subFolder = index.getRootFolder().getSubFolder("sub");
+		subFolder.setChecked(false);
+		FileDocument htmlDoc = subFolder.getDocument("test.html");
+		htmlDoc.setError(new IndexingError(ErrorType.PARSING, htmlDoc, new IOException("Broken")));
+
+		FileIndex loaded = (FileIndex) roundTrip(index);
+		assertEquals(index.getCreated(), loaded.getCreated());
+		assertEquals(Arrays.asList("txt", "log"), loaded.getConfig().getTextExtensions());
+		assertFalse(loaded.getConfig().isWatchFolders());
+		assertEquals(index.getRootFolder().getPath(), loaded.getRootFolder().getPath());
+		assertEqualFolders(index.getRootFolder(), loaded.getRootFolder());
+
+		FileDocument loadedHtmlDoc = loaded.getRootFolder().getSubFolder("sub").getDocument("test.html");
+		assertNotNull(loadedHtmlDoc.getHtmlFolder());
+		assertEqualFolders(htmlDoc.getHtmlFolder(), loadedHtmlDoc.getHtmlFolder());
+		IndexingError error = loadedHtmlDoc.getErrors().get(0);
+		assertTrue(error.getTreeNode() == loadedHtmlDoc);
+		assertEquals("Broken", error.getThrowable().getMessage());
+		assertEquals(htmlDoc.getUniqueId(), loadedHtmlDoc.getUniqueId());
+
+		Util.deleteRecursively(tempDir);
+	}
+
+	@Test
+	public void testOutlookIndex() throws Exception {
+		OutlookIndex index = new OutlookIndex(null, TestFiles.outlook_test.get());
+		index.update(null, null);
+		OutlookIndex loaded = (OutlookIndex) roundTrip(index);
+		assertEqualFolders(index.getRootFolder(), loaded.getRootFolder());
+		assertEquals(index.getDocumentIds(), loaded.getDocumentIds());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedFile() throws Exception {
+		FileIndex index = new FileIndex(null, TestFiles.archive_zip_rar_7z.get());
+		index.update(null, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TreeIndexWriter.write(index, out);
+		byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+		TreeIndexReader.read(new ByteArrayInputStream(bytes));
+	}
+
+	@Test
+	public void testJournal() throws Exception {
+		File tempDir = Util.createTempDir();
+		File rootDir = new File(tempDir, "root");
+		File subDir = new File(rootDir, "sub");
+		subDir.mkdirs();
+		Files.write("text".getBytes(), new File(rootDir, "file1.txt"));
+		Files.write("text".getBytes(), new File(subDir, "file2.txt"));
+		File indexDir = new File(tempDir, "index");
+		indexDir.mkdirs();
+
+		FileIndex index = new FileIndex(null, rootDir);
+		index.getConfig().setWatchFolders(false);
+		index.update(null, null);
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		int checksum = TreeIndexWriter.write(index, snapshot);
+		assertNull(TreeIndexWriter.writeJournalBatch(index));
+
+		// First batch: New subtree and a modified document
+		File newDir = new File(rootDir, "new");
+		new File(newDir, "deeper").mkdirs();
+		Files.write("text".getBytes(), new File(newDir, "deeper/file3.txt"));
+		Files.write("more text".getBytes(), new File(rootDir, "file1.txt"));
+		index.update(null, null);
+		TreeIndexJournal journal = new TreeIndexJournal(indexDir, checksum, snapshot.size());
+		journal.append(TreeIndexWriter.writeJournalBatch(index));
+
+		// Second batch: Removed folder and unchecked folder
+		Util.deleteRecursively(subDir);
+		index.update(null, null);
+		index.getRootFolder().getSubFolder("new").getSubFolder("deeper").setChecked(false);
+		journal.append(TreeIndexWriter.writeJournalBatch(index));
+
+		// Simulate a batch that was only partially written
+		long validLength = journal.getFile().length();
+		FileOutputStream out = new FileOutputStream(journal.getFile(), true);
+		out.write(new byte[] {0, 0, 1, 0, 42});
+		out.close();
+
+		FileIndex loaded = (FileIndex) TreeIndexReader.read(new ByteArrayInputStream(snapshot.toByteArray()));
+		assertTrue(journal.replay(loaded));
+		assertEquals(validLength, journal.getFile().length());
+		assertEqualFolders(index.getRootFolder(), loaded.getRootFolder());
+		assertNull(loaded.getRootFolder().getSubFolder("sub"));
+		assertFalse(loaded.getRootFolder().getSubFolder("new").getSubFolder("deeper").isChecked());
+
+		// A journal written for another tree index file is discarded
+		FileIndex other = (FileIndex) TreeIndexReader.read(new ByteArrayInputStream(snapshot.toByteArray()));
+		assertTrue(new TreeIndexJournal(indexDir, checksum + 1, snapshot.size()).replay(other));
+		assertFalse(journal.getFile().exists());
+		assertNotNull(other.getRootFolder().getSubFolder("sub"));
+
+		Util.deleteRecursively(tempDir);
+	}
+
+	private static LuceneIndex roundTrip(TreeIndex<?, ?> index) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TreeIndexWriter.write(index, out);
+		return TreeIndexReader.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	// Not generic, since type inference would need access to the folder classes of other packages, e.g. MailFolder
+	private static void assertEqualFolders(Folder<?, ?> expected, Folder<?, ?> actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getLastModified(), actual.getLastModified());
+		assertEquals(expected.isChecked(), actual.isChecked());
+		assertEquals(expected.getPathHashCode(), actual.getPathHashCode());
+		assertEquals(expected.getErrors().size(), actual.getErrors().size());
+		assertEquals(expected.getDocumentCount(), actual.getDocumentCount());
+		for (Document<?, ?> expectedDoc : expected.getDocuments()) {
+			Document<?, ?> actualDoc = actual.getDocument(expectedDoc.getName());
+			assertNotNull(actualDoc);
+			assertEquals(expectedDoc.getDisplayName(), actualDoc.getDisplayName());
+			assertEquals(expectedDoc.getLastModified(), actualDoc.getLastModified());
+			assertEquals(expectedDoc.getErrors().size(), actualDoc.getErrors().size());
+		}
+		assertEquals(expected.getSubFolderCount(), actual.getSubFolderCount());
+		for (Folder<?, ?> expectedSubFolder : expected.getSubFolders()) {
+			Folder<?, ?> actualSubFolder = actual.getSubFolder(expectedSubFolder.getName());
+			assertNotNull(actualSubFolder);
+			assertTrue(actualSubFolder.getParent() == actual);
+			assertEqualFolders(expectedSubFolder, actualSubFolder);
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import net.sourceforge.vaticanfetcher.model.index.IndexingError;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
+import net.sourceforge.vaticanfetcher.util.annotations.VisibleForPackageGroup;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+/**
+ * Writes a {@link TreeIndex} in the binary tree index format, which replaces the Java serialization used
+ * for the tree-index.ser files of earlier versions. The format looks like this:
+ * <ul>
+ * <li>Header: Magic number, format version, document type, creation timestamp and index directory.
+ * <li>The indexing configuration, see {@link net.sourceforge.vaticanfetcher.model.index.IndexingConfig#write IndexingConfig.write}.
+ * <li>The folder tree, written depth-first. Each folder is followed by its documents and subfolders,
+ * preceded by their respective counts.
+ * <li>A CRC32 checksum over all preceding bytes, so that truncated files are detected on loading.
+ * </ul>
+ * Integers are written as varints. Timestamps are written as the zigzag-encoded difference to the previously written
+ * timestamp, which keeps them small since files in the same folder tend to have similar last-modified values. Strings
+ * are interned: Only the first occurrence of a string is written out, later occurrences refer back to it by number.
+ * <p>
+ * This class also writes the batches of the tree index journal, see {@link #writeJournalBatch(TreeIndex)}.
+ */
+@NotThreadSafe
+@VisibleForPackageGroup
+public final class TreeIndexWriter {
+
+	static final int MAGIC = 0x56465449; // "VFTI"
+	static final int VERSION = 2; // 2: maximum number of indexed characters in the indexing configuration
+
+	// Flags for folders and documents
+	static final int CHECKED = 1;
+	static final int HAS_LAST_MODIFIED = 2;
+	static final int HAS_ERRORS = 4;
+	static final int HAS_DISPLAY_NAME = 8;
+
+	// Record types of journal batches
+	static final int END_OF_BATCH = 0;
+	static final int SHALLOW_RECORD = 1;
+	static final int DEEP_RECORD = 2;
+
+	private final CheckedOutputStream checkedOut;
+	private final DataOutputStream out;
+	private final Map<String, Integer> stringIds = Maps.newHashMap();
+	private long lastTimestamp = 0;
+
+	private TreeIndexWriter(@NotNull OutputStream out) {
+		checkedOut = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+		this.out = new DataOutputStream(checkedOut);
+	}
+
+	/**
+	 * Writes the given index to the given output stream and returns the checksum at the end of the written data.
+	 * The tree nodes are accessed through their synchronized methods, so this can be done without holding the lock
+	 * of the index registry. The output stream is flushed, but not closed.
+	 */
+	public static int write(@NotNull TreeIndex<?, ?> index, @NotNull OutputStream out)
+			throws IOException {
+		return new TreeIndexWriter(out).writeIndex(index);
+	}
+
+	/**
+	 * Returns a journal batch containing the folders of the given index that have changed since the index was last
+	 * written, or null if nothing has changed. Changed folders are written without their subfolders, unless they were
+	 * newly added, in which case their entire subtree is written. Each batch also contains the indexing configuration
+	 * and the root path, since these are cheap to write and may have been changed by the user.
+	 * 
+	 * @see TreeIndexJournal
+	 */
+	@Nullable
+	public static byte[] writeJournalBatch(@NotNull TreeIndex<?, ?> index) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeIndexWriter writer = new TreeIndexWriter(bytes);
+		if (!writer.writeBatch(index))
+			return null;
+		return bytes.toByteArray();
+	}
+
+	private <D extends Document<D, F>, F extends Folder<D, F>> boolean writeBatch(@NotNull TreeIndex<D, F> index)
+			throws IOException {
+		F rootFolder = index.getRootFolder();
+		if (!rootFolder.isDirty() && !rootFolder.isDirtyDeep() && !rootFolder.isDirtyBelow())
+			return false;
+		index.getConfig().write(out);
+		Path path = rootFolder.getPath();
+		writeString(path.getPath());
+		writeString(path.getName());
+		writeJournalRecords(index, rootFolder, new ArrayList<String>());
+		out.writeByte(END_OF_BATCH);
+		out.flush();
+		return true;
+	}
+
+	@RecursiveMethod
+	private <D extends Document<D, F>, F extends Folder<D, F>> void writeJournalRecords(@NotNull TreeIndex<D, F> index,
+																						@NotNull F folder,
+																						@NotNull List<String> segments)
+			throws IOException {
+		if (folder.isDirtyDeep()) {
+			writeRecordHeader(DEEP_RECORD, segments);
+			writeFolderBody(index, folder, true);
+			return;
+		}
+		boolean dirtyBelow = folder.isDirtyBelow();
+		if (folder.isDirty()) {
+			writeRecordHeader(SHALLOW_RECORD, segments);
+			writeFolderBody(index, folder, false);
+		}
+		else {
+			folder.clearDirty();
+		}
+		if (!dirtyBelow)
+			return;
+		for (F subFolder : folder.getSubFolders()) {
+			segments.add(subFolder.getName());
+			writeJournalRecords(index, subFolder, segments);
+			segments.remove(segments.size() - 1);
+		}
+	}
+
+	// Folders are identified by their names on the way down from the root
+	private void writeRecordHeader(int recordType, @NotNull List<String> segments) throws IOException {
+		out.writeByte(recordType);
+		writeVarInt(segments.size());
+		for (String segment : segments)
+			writeString(segment);
+	}
+
+	private <D extends Document<D, F>, F extends Folder<D, F>> int writeIndex(@NotNull TreeIndex<D, F> index)
+			throws IOException {
+		out.writeInt(MAGIC);
+		writeVarInt(VERSION);
+		writeString(index.getDocumentType().name());
+		writeVarLong(index.getCreated());
+		Path indexDirPath = index.getStoredIndexDirPath();
+		writeNullableString(indexDirPath == null ? null : indexDirPath.getPath());
+		index.getConfig().write(out);
+		writeRootFolder(index, index.getRootFolder());
+		int checksum = (int) checkedOut.getChecksum().getValue();
+		out.writeInt(checksum);
+		out.flush();
+		return checksum;
+	}
+
+	/**
+	 * Writes the given folder as a root folder, i.e. with its full path. This can be used by subclasses of
+	 * {@link TreeIndex} for writing additional folders attached to their tree nodes, such as HTML folders.
+	 */
+	public <D extends Document<D, F>, F extends Folder<D, F>> void writeRootFolder(	@NotNull TreeIndex<D, F> index,
+																					@NotNull F folder)
+			throws IOException {
+		Path path = folder.getPath();
+		writeString(path.getPath());
+		writeString(path.getName());
+		writeFolderBody(index, folder, true);
+	}
+
+	/**
+	 * Writes the given folder and its documents. If deep is true, the subfolders are written recursively,
+	 * otherwise only their names are written.
+	 */
+	@RecursiveMethod
+	private <D extends Document<D, F>, F extends Folder<D, F>> void writeFolderBody(@NotNull TreeIndex<D, F> index,
+																					@NotNull F folder,
+																					boolean deep)
+			throws IOException {
+		/*
+		 * Clear the journal flags before reading the folder's state, so that a concurrent change
+		 * (e.g. by the user checking or unchecking the folder) will be picked up by the next journal entry.
+		 */
+		folder.clearDirty();
+		Long lastModified = folder.getLastModified();
+		List<IndexingError> errors = folder.getErrors();
+		int flags = 0;
+		if (folder.isChecked())
+			flags |= CHECKED;
+		if (lastModified != null)
+			flags |= HAS_LAST_MODIFIED;
+		if (!errors.isEmpty())
+			flags |= HAS_ERRORS;
+		out.writeByte(flags);
+		if (lastModified != null)
+			writeTimestamp(lastModified);
+		if (!errors.isEmpty())
+			writeErrors(errors);
+		index.writeFolderData(this, folder);
+
+		List<D> documents = folder.getDocuments();
+		writeVarInt(documents.size());
+		for (D doc : documents)
+			writeDocument(index, doc);
+
+		List<F> subFolders = folder.getSubFolders();
+		writeVarInt(subFolders.size());
+		for (F subFolder : subFolders) {
+			writeString(subFolder.getName());
+			if (deep)
+				writeFolderBody(index, subFolder, true);
+		}
+	}
+
+	private <D extends Document<D, F>, F extends Folder<D, F>> void writeDocument(	@NotNull TreeIndex<D, F> index,
+																					@NotNull D doc)
+			throws IOException {
+		String name = doc.getName();
+		String displayName = doc.getDisplayName();
+		List<IndexingError> errors = doc.getErrors();
+		int flags = 0;
+		if (!displayName.equals(name))
+			flags |= HAS_DISPLAY_NAME;
+		if (!errors.isEmpty())
+			flags |= HAS_ERRORS;
+		out.writeByte(flags);
+		writeString(name);
+		if (!displayName.equals(name))
+			writeString(displayName);
+		writeTimestamp(doc.getLastModified());
+		if (!errors.isEmpty())
+			writeErrors(errors);
+		index.writeDocumentData(this, doc);
+	}
+
+	private void writeErrors(@NotNull List<IndexingError> errors) throws IOException {
+		writeVarInt(errors.size());
+		for (IndexingError error : errors) {
+			writeString(error.getErrorType().name());
+			writeThrowable(error.getThrowable());
+		}
+	}
+
+	/*
+	 * Throwables are rare enough that it's not worth inventing a format for them,
+	 * so they're stored as Java-serialized blobs.
+	 */
+	private void writeThrowable(@Nullable Throwable throwable) throws IOException {
+		if (throwable == null) {
+			writeVarInt(0);
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		try {
+			objectOut.writeObject(throwable);
+			objectOut.close();
+		}
+		catch (IOException e) {
+			// Probably a non-serializable field somewhere in the cause chain
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	public void writeBoolean(boolean value) throws IOException {
+		out.writeBoolean(value);
+	}
+
+	public void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	public void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte(((int) value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public void writeTimestamp(long timestamp) throws IOException {
+		long delta = timestamp - lastTimestamp;
+		writeVarLong((delta << 1) ^ (delta >> 63)); // zigzag encoding
+		lastTimestamp = timestamp;
+	}
+
+	public void writeString(@NotNull String string) throws IOException {
+		Integer id = stringIds.get(string);
+		if (id != null) {
+			writeVarInt(id + 1);
+			return;
+		}
+		stringIds.put(string, stringIds.size());
+		byte[] bytes = string.getBytes(Charsets.UTF_8);
+		writeVarInt(0);
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public void writeNullableString(@Nullable String string) throws IOException {
+		out.writeBoolean(string != null);
+		if (string != null)
+			writeString(string);
+	}
+
+}
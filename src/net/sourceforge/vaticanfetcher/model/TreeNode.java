@@ -70,8 +70,22 @@ public abstract class TreeNode implements Serializable {
 	
 	public synchronized final boolean hasErrors() {return errors != null && !errors.isEmpty();}
 	
-	public synchronized final void setError(@Nullable IndexingError error) {this.errors = error == null ? null : Collections.singletonList(error);}
+	public synchronized final void setError(@Nullable IndexingError error) {
+		this.errors = error == null ? null : Collections.singletonList(error);
+		markDirty();
+	}
 
-	public synchronized final void setErrors(@Nullable List<IndexingError> errors) {this.errors = errors == null ? null : ImmutableList.copyOf(errors);}
+	public synchronized final void setErrors(@Nullable List<IndexingError> errors) {
+		this.errors = errors == null ? null : ImmutableList.copyOf(errors);
+		markDirty();
+	}
+	
+	/**
+	 * Records that the receiver has changed since its index was last saved, so that the change is included in the
+	 * next journal entry of the index. Subclasses should call this whenever a persistent field changes.
+	 * 
+	 * @see TreeIndexJournal
+	 */
+	protected void markDirty() {}
 	
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ package net.sourceforge.vaticanfetcher.model.index;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
@@ -31,6 +32,8 @@ public final class DelegatingReporter extends IndexingReporter {
 	private final List<IndexingError> errors;
 	@Nullable private Long start;
 	@Nullable private Long end;
+	@Nullable private int[] dedupStats;
+	@Nullable private IndexingMetrics metrics;
 
 	DelegatingReporter(int infoCapacity) {
 		infos = new BoundedList<IndexingInfo>(infoCapacity);
@@ -45,6 +48,10 @@ public final class DelegatingReporter extends IndexingReporter {
 		this.delegate = delegate;
 		if (start != null)
 			delegate.setStartTime(start);
+		if (dedupStats != null)
+			delegate.setDedupStats(dedupStats[0], dedupStats[1]);
+		if (metrics != null)
+			delegate.setMetrics(metrics);
 		if (end != null)
 			delegate.setEndTime(end);
 		
@@ -71,6 +78,24 @@ public final class DelegatingReporter extends IndexingReporter {
 			delegate.setEndTime(time);
 	}
 
+	public synchronized void setDedupStats(int lookupCount, int hitCount) {
+		dedupStats = new int[] { lookupCount, hitCount };
+		if (delegate != null)
+			delegate.setDedupStats(lookupCount, hitCount);
+	}
+
+	public synchronized void setMetrics(@NotNull IndexingMetrics metrics) {
+		this.metrics = metrics;
+		if (delegate != null)
+			delegate.setMetrics(metrics);
+	}
+
+	// Not buffered, since the deferred files are also reported when they're finally parsed
+	public synchronized void defer(@NotNull TreeNode treeNode, long estimatedBytes, long freeBytes) {
+		if (delegate != null)
+			delegate.defer(treeNode, estimatedBytes, freeBytes);
+	}
+
 	public synchronized void info(@NotNull IndexingInfo info) {
 		infos.add(info);
 		if (delegate != null)
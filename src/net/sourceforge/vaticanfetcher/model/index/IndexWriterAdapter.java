@@ -78,6 +78,11 @@ public final class IndexWriterAdapter implements Closeable {
 		writer.deleteDocuments(idTerm.createTerm(uid));
 	}
 	
+	/** Writes all buffered documents and deletions to the index, which frees the memory of the write buffer. */
+	public void commit() throws IOException {
+		writer.commit();
+	}
+	
 	public void close() throws IOException {
 		writer.close();
 	}
@@ -11,9 +11,12 @@
 
 package net.sourceforge.vaticanfetcher.model.index;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +30,8 @@ import net.sourceforge.vaticanfetcher.enums.Msg;
 import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
+import net.sourceforge.vaticanfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.vaticanfetcher.model.index.PatternAction.MatchTarget;
 import net.sourceforge.vaticanfetcher.model.index.file.SolidArchiveFactory;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.Immutable;
@@ -68,6 +73,7 @@ public class IndexingConfig implements Serializable {
 	private boolean indexFilenames = true;
 	private boolean storeRelativePaths = false;
 	private boolean watchFolders = true;
+	private int maxIndexedChars = ProgramConf.Int.MaxIndexedChars.get(); // 0 means unlimited
 	
 	public final boolean isDetectExecutableArchives() {
 		return detectExecutableArchives;
@@ -85,6 +91,19 @@ public class IndexingConfig implements Serializable {
 		this.indexFilenames = indexFilenames;
 	}
 
+	/**
+	 * Returns the maximum number of characters that are indexed per document, or 0 if there's no limit. The text of
+	 * longer documents is cut off, and parsers that extract text incrementally may stop early.
+	 */
+	public final int getMaxIndexedChars() {
+		return maxIndexedChars;
+	}
+
+	public final void setMaxIndexedChars(int maxIndexedChars) {
+		Util.checkThat(maxIndexedChars >= 0);
+		this.maxIndexedChars = maxIndexedChars;
+	}
+
 	@NotNull
 	public final File getTempDir() {
 		if (tempDir != null && tempDir.isDirectory() && tempDir.canWrite())
@@ -300,5 +319,76 @@ public class IndexingConfig implements Serializable {
 	}
 	
 	protected void onWatchFoldersChanged() {}
+	
+	/**
+	 * Writes the settings of the receiver in the binary tree index format.
+	 * 
+	 * @see net.sourceforge.vaticanfetcher.model.TreeIndexWriter
+	 */
+	public final void write(@NotNull DataOutput out) throws IOException {
+		out.writeBoolean(tempDir != null);
+		if (tempDir != null)
+			out.writeUTF(tempDir.getPath());
+		writeStrings(out, zipExtensions);
+		writeStrings(out, textExtensions);
+		out.writeInt(patternActions.size());
+		for (PatternAction patternAction : patternActions) {
+			out.writeUTF(patternAction.getRegex());
+			out.writeUTF(patternAction.getTarget().name());
+			out.writeUTF(patternAction.getAction().name());
+		}
+		out.writeBoolean(htmlPairing);
+		out.writeBoolean(detectExecutableArchives);
+		out.writeBoolean(indexFilenames);
+		out.writeBoolean(storeRelativePaths);
+		out.writeBoolean(watchFolders);
+		out.writeInt(maxIndexedChars);
+	}
+	
+	/**
+	 * Reads the settings written by {@link #write(DataOutput)} into the receiver. The given version is that of the
+	 * tree index format the settings were written in. The fields are set directly, so unlike the setters, this doesn't
+	 * call {@link #onStoreRelativePathsChanged()} and {@link #onWatchFoldersChanged()}.
+	 */
+	public final void read(@NotNull DataInput in, int version) throws IOException {
+		tempDir = in.readBoolean() ? new File(in.readUTF()) : null;
+		zipExtensions = ImmutableList.copyOf(readStrings(in));
+		textExtensions = ImmutableList.copyOf(readStrings(in));
+		int count = in.readInt();
+		List<PatternAction> patternActions = new ArrayList<PatternAction>(count);
+		try {
+			for (int i = 0; i < count; i++) {
+				PatternAction patternAction = new PatternAction(in.readUTF());
+				patternAction.setTarget(MatchTarget.valueOf(in.readUTF()));
+				patternAction.setAction(MatchAction.valueOf(in.readUTF()));
+				patternActions.add(patternAction);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Unknown pattern action: " + e.getMessage());
+		}
+		this.patternActions = Collections.unmodifiableList(patternActions);
+		htmlPairing = in.readBoolean();
+		detectExecutableArchives = in.readBoolean();
+		indexFilenames = in.readBoolean();
+		storeRelativePaths = in.readBoolean();
+		watchFolders = in.readBoolean();
+		maxIndexedChars = version >= 2 ? Math.max(0, in.readInt()) : 0;
+	}
+	
+	private static void writeStrings(@NotNull DataOutput out, @NotNull List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings)
+			out.writeUTF(string);
+	}
+	
+	@NotNull
+	private static List<String> readStrings(@NotNull DataInput in) throws IOException {
+		int count = in.readInt();
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			strings.add(in.readUTF());
+		return strings;
+	}
 
 }
@@ -32,6 +32,7 @@ public final class IndexingError implements Serializable {
 		ARCHIVE_ENTRY,
 		ARCHIVE_ENTRY_ENCRYPTED (Msg.archive_entry_encrypted.get()),
 		PARSING,
+		PARSING_BUDGET_EXCEEDED,
 		OUT_OF_MEMORY (Msg.out_of_memory_instructions_brief.get()),
 		NOT_AN_ARCHIVE (Msg.not_an_archive.get()),
 		ENCODING,
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.Immutable;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * Collects timing statistics during an index update, so that one can see which parsers, archive formats or index
+ * writes take up most of the indexing time. For each category, i.e. the name of a parser, {@link #UNPACK} or
+ * {@link #LUCENE_WRITE}, the number of operations, the number of processed bytes, the wall-clock time, the CPU time,
+ * the allocated memory and the number of failures are recorded. In addition, the slowest parsed files are kept.
+ * <p>
+ * An operation is measured by calling {@link #start()} before and {@link #record} after it, on the same thread. CPU
+ * times and allocated bytes are per thread, so they are also correct when files are parsed on several threads; they
+ * are reported as -1 if the JVM can't measure them.
+ */
+@ThreadSafe
+public final class IndexingMetrics {
+
+	public static final String UNPACK = "Unpack";
+	public static final String LUCENE_WRITE = "LuceneWrite";
+
+	/** The name of the report file that {@link #write(File)} writes into the index folder. */
+	public static final String FILENAME = "indexing-metrics.txt";
+
+	private static final int SLOWEST_FILES_COUNT = 20;
+
+	/** The starting point of a measurement. */
+	public static final class Measurement {
+		private final long wallStart = System.nanoTime();
+		private final long cpuStart = getCpuTime();
+		private final long allocStart = getAllocatedBytes();
+
+		private Measurement() {
+		}
+	}
+
+	/** The statistics of one category. */
+	public static final class CategoryStats {
+		private final String category;
+		private int count;
+		private int failures;
+		private long bytes;
+		private long wallNanos;
+		private long cpuNanos;
+		private long allocatedBytes;
+
+		private CategoryStats(@NotNull String category) {
+			this.category = category;
+		}
+
+		@NotNull
+		private CategoryStats copy() {
+			CategoryStats copy = new CategoryStats(category);
+			copy.count = count;
+			copy.failures = failures;
+			copy.bytes = bytes;
+			copy.wallNanos = wallNanos;
+			copy.cpuNanos = cpuNanos;
+			copy.allocatedBytes = allocatedBytes;
+			return copy;
+		}
+
+		@NotNull public String getCategory() { return category; }
+		public int getCount() { return count; }
+		public int getFailures() { return failures; }
+		public long getBytes() { return bytes; }
+		public long getWallMillis() { return wallNanos / 1000000; }
+		public long getCpuMillis() { return cpuNanos < 0 ? -1 : cpuNanos / 1000000; }
+		public long getAllocatedBytes() { return allocatedBytes; }
+	}
+
+	/** A parsed file and the time it took to parse it. */
+	public static final class SlowFile {
+		private final String path;
+		private final String category;
+		private final long bytes;
+		private final long wallMillis;
+
+		private SlowFile(@NotNull String path, @NotNull String category, long bytes, long wallMillis) {
+			this.path = path;
+			this.category = category;
+			this.bytes = bytes;
+			this.wallMillis = wallMillis;
+		}
+
+		@NotNull public String getPath() { return path; }
+		@NotNull public String getCategory() { return category; }
+		public long getBytes() { return bytes; }
+		public long getWallMillis() { return wallMillis; }
+	}
+
+	private static final Comparator<SlowFile> slowFileComparator = new Comparator<SlowFile>() {
+		public int compare(SlowFile f1, SlowFile f2) {
+			return f1.wallMillis < f2.wallMillis ? -1 : f1.wallMillis == f2.wallMillis ? 0 : 1;
+		}
+	};
+
+	@Nullable private static final ThreadMXBean threadBean = createThreadBean();
+
+	// Both guarded by 'this' lock
+	private final Map<String, CategoryStats> stats = new TreeMap<String, CategoryStats>();
+	private final PriorityQueue<SlowFile> slowestFiles = new PriorityQueue<SlowFile>(
+		SLOWEST_FILES_COUNT + 1, slowFileComparator); // fastest file at the head
+
+	@Nullable
+	private static ThreadMXBean createThreadBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!bean.isCurrentThreadCpuTimeSupported())
+				return null;
+			if (!bean.isThreadCpuTimeEnabled())
+				bean.setThreadCpuTimeEnabled(true);
+			return bean;
+		}
+		catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static long getCpuTime() {
+		return threadBean == null ? -1 : threadBean.getCurrentThreadCpuTime();
+	}
+
+	// Relies on a vendor-specific extension, which is available on the Sun and OpenJDK VMs since Java 6u25
+	private static long getAllocatedBytes() {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			try {
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+				return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+			catch (RuntimeException e) {
+				return -1;
+			}
+			catch (LinkageError e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/** Starts a measurement on the calling thread. */
+	@NotNull
+	public static Measurement start() {
+		return new Measurement();
+	}
+
+	/**
+	 * Adds the operation that was started with the given measurement to the statistics of the given category. This
+	 * must be called on the same thread as {@link #start()}. If a path is given, the operation is considered for the
+	 * list of slowest files.
+	 */
+	public void record(	@NotNull String category,
+						@NotNull Measurement measurement,
+						long bytes,
+						boolean failed,
+						@Nullable String path) {
+		long wallNanos = System.nanoTime() - measurement.wallStart;
+		long cpuNanos = measurement.cpuStart < 0 ? -1 : getCpuTime() - measurement.cpuStart;
+		long allocStart = measurement.allocStart;
+		long allocatedBytes = allocStart < 0 ? -1 : getAllocatedBytes() - allocStart;
+
+		synchronized (this) {
+			CategoryStats categoryStats = stats.get(category);
+			if (categoryStats == null) {
+				categoryStats = new CategoryStats(category);
+				stats.put(category, categoryStats);
+			}
+			categoryStats.count++;
+			if (failed)
+				categoryStats.failures++;
+			categoryStats.bytes += Math.max(0, bytes);
+			categoryStats.wallNanos += wallNanos;
+			categoryStats.cpuNanos = cpuNanos < 0 || categoryStats.cpuNanos < 0 ? -1 : categoryStats.cpuNanos + cpuNanos;
+			categoryStats.allocatedBytes = allocatedBytes < 0 || categoryStats.allocatedBytes < 0
+				? -1
+				: categoryStats.allocatedBytes + allocatedBytes;
+
+			if (path != null) {
+				slowestFiles.add(new SlowFile(path, category, bytes, wallNanos / 1000000));
+				if (slowestFiles.size() > SLOWEST_FILES_COUNT)
+					slowestFiles.poll();
+			}
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return stats.isEmpty();
+	}
+
+	/** Returns a snapshot of the statistics of all categories, sorted by category. */
+	@Immutable
+	@NotNull
+	public synchronized List<CategoryStats> getCategoryStats() {
+		List<CategoryStats> list = new ArrayList<CategoryStats>(stats.size());
+		for (CategoryStats categoryStats : stats.values())
+			list.add(categoryStats.copy());
+		return Collections.unmodifiableList(list);
+	}
+
+	/** Returns the slowest parsed files, the slowest first. */
+	@Immutable
+	@NotNull
+	public synchronized List<SlowFile> getSlowestFiles() {
+		List<SlowFile> list = new ArrayList<SlowFile>(slowestFiles);
+		Collections.sort(list, Collections.reverseOrder(slowFileComparator));
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Writes the statistics into the given file as tab-separated values: First a header line and one line per
+	 * category, then, after an empty line, a header line and one line per slow file. Errors are only logged.
+	 */
+	public void write(@NotNull File file) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("category\tcount\tfailures\tbytes\twall_ms\tcpu_ms\tallocated_bytes\n");
+		for (CategoryStats s : getCategoryStats()) {
+			sb.append(s.category).append('\t').append(s.count).append('\t').append(s.failures).append('\t');
+			sb.append(s.bytes).append('\t').append(s.getWallMillis()).append('\t').append(s.getCpuMillis());
+			sb.append('\t').append(s.allocatedBytes).append('\n');
+		}
+		sb.append("\nslowest_file\tcategory\tbytes\twall_ms\n");
+		for (SlowFile slowFile : getSlowestFiles()) {
+			sb.append(slowFile.path.replace('\t', ' ')).append('\t').append(slowFile.category).append('\t');
+			sb.append(slowFile.bytes).append('\t').append(slowFile.wallMillis).append('\n');
+		}
+		Writer writer = null;
+		try {
+			writer = Files.newWriter(file, Charsets.UTF_8);
+			writer.write(sb.toString());
+			writer.close();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		finally {
+			Closeables.closeQuietly(writer);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.CategoryStats;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.SlowFile;
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public final class IndexingMetricsTest {
+
+	@Test
+	public void testRecord() throws Exception {
+		IndexingMetrics metrics = new IndexingMetrics();
+		assertTrue(metrics.isEmpty());
+		metrics.record("TextParser", IndexingMetrics.start(), 100, false, "a.txt");
+		metrics.record("TextParser", IndexingMetrics.start(), 50, true, "b.txt");
+		Thread.sleep(20);
+		metrics.record(IndexingMetrics.LUCENE_WRITE, IndexingMetrics.start(), 0, false, null);
+
+		List<CategoryStats> stats = metrics.getCategoryStats();
+		assertEquals(2, stats.size());
+		assertEquals(IndexingMetrics.LUCENE_WRITE, stats.get(0).getCategory());
+		CategoryStats textStats = stats.get(1);
+		assertEquals("TextParser", textStats.getCategory());
+		assertEquals(2, textStats.getCount());
+		assertEquals(1, textStats.getFailures());
+		assertEquals(150, textStats.getBytes());
+
+		// Operations without a path are not considered slow files
+		List<SlowFile> slowestFiles = metrics.getSlowestFiles();
+		assertEquals(2, slowestFiles.size());
+		assertTrue(slowestFiles.get(0).getWallMillis() >= slowestFiles.get(1).getWallMillis());
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		IndexingMetrics metrics = new IndexingMetrics();
+		metrics.record("HtmlParser", IndexingMetrics.start(), 10, false, "index.html");
+		File file = Util.createTempFile("metrics", ".txt");
+		try {
+			metrics.write(file);
+			List<String> lines = Files.readLines(file, Charsets.UTF_8);
+			assertEquals(5, lines.size());
+			assertTrue(lines.get(1).startsWith("HtmlParser\t1\t0\t10\t"));
+			assertTrue(lines.get(4).startsWith("index.html\tHtmlParser\t10\t"));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index;
+
+import java.io.Closeable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the text extraction of documents on a pool of worker threads, while the
+ * Lucene writes and all modifications of the tree are left to the indexing
+ * thread: Jobs are handed in via {@link #submit}, and the finished ones are
+ * written back whenever the indexing thread submits the next job or calls
+ * {@link #flush()}. The number of pending jobs is bounded, so the indexing
+ * thread can't run arbitrarily far ahead of the parsers.
+ * <p>
+ * The methods of this class must only be called from the indexing thread.
+ */
+@NotThreadSafe
+public final class IndexingPipeline implements Closeable {
+
+	/** A work item of the pipeline, which is split into a parse step and a write step. */
+	public interface Job {
+		/**
+		 * Does the thread-safe part of the work, e.g. the text extraction. This
+		 * is called on a worker thread, so it must not touch the tree or the
+		 * Lucene index. Unchecked exceptions are rethrown on the indexing
+		 * thread.
+		 */
+		void parse();
+
+		/**
+		 * Writes the results of {@link #parse()} to the Lucene index. This is
+		 * called on the indexing thread after {@link #parse()} has returned.
+		 */
+		void write() throws IndexingException;
+
+		/**
+		 * Called on the indexing thread instead of {@link #write()} when the
+		 * pipeline is closed before the job was written back. The job should
+		 * mark its document so that the next index update will index it again,
+		 * and release its resources. Since the worker threads are only
+		 * interrupted, {@link #parse()} may still be running or may not have
+		 * started yet.
+		 */
+		void discard();
+	}
+
+	private final ExecutorService executor;
+	private final CompletionService<Job> completionService;
+	private final int capacity;
+	private final Set<Job> pendingJobs = new LinkedHashSet<Job>();
+
+	private IndexingPipeline(int threadCount) {
+		executor = Executors.newFixedThreadPool(threadCount,
+			new ThreadFactoryBuilder()
+				.setNameFormat(IndexingPipeline.class.getSimpleName() + "-%d")
+				.setDaemon(true)
+				.build());
+		completionService = new ExecutorCompletionService<Job>(executor);
+		capacity = threadCount * 2;
+	}
+
+	/**
+	 * Returns a new pipeline with the number of worker threads given by
+	 * {@link ProgramConf.Int#ParserThreads}, or null if that number is 1, in
+	 * which case documents should be indexed sequentially on the calling
+	 * thread.
+	 */
+	@Nullable
+	public static IndexingPipeline createIfEnabled() {
+		int threadCount = ProgramConf.Int.ParserThreads.get();
+		return threadCount <= 1 ? null : new IndexingPipeline(threadCount);
+	}
+
+	/**
+	 * Enqueues the given job, after writing back any finished jobs. Blocks
+	 * while the pipeline is full.
+	 */
+	public void submit(@NotNull final Job job) throws IndexingException {
+		drain(false);
+		while (pendingJobs.size() >= capacity)
+			drain(true);
+		pendingJobs.add(job);
+		completionService.submit(new Callable<Job>() {
+			public Job call() {
+				job.parse();
+				return job;
+			}
+		});
+	}
+
+	/** Waits for all pending jobs and writes them to the Lucene index. */
+	public void flush() throws IndexingException {
+		while (!pendingJobs.isEmpty())
+			drain(true);
+	}
+
+	// If block is true, waits for at least one job to finish
+	private void drain(boolean block) throws IndexingException {
+		while (!pendingJobs.isEmpty()) {
+			Future<Job> future;
+			if (block) {
+				try {
+					future = completionService.take();
+				}
+				catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				block = false;
+			}
+			else {
+				future = completionService.poll();
+				if (future == null)
+					return;
+			}
+			Job job = getJob(future);
+			pendingJobs.remove(job);
+			job.write();
+		}
+	}
+
+	@NotNull
+	private static Job getJob(@NotNull Future<Job> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e) {
+			// Unchecked exceptions from the parsers are rethrown on the
+			// indexing thread, as if the document had been parsed there
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the worker threads and discards the jobs that haven't been
+	 * written back at this point.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		for (Job job : pendingJobs)
+			job.discard();
+		pendingJobs.clear();
+	}
+
+}
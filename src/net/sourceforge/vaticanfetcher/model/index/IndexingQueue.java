@@ -12,12 +12,14 @@
 package net.sourceforge.vaticanfetcher.model.index;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import net.sourceforge.vaticanfetcher.model.IndexRegistry;
+import net.sourceforge.vaticanfetcher.model.IndexRegistry.PendingSave;
 import net.sourceforge.vaticanfetcher.model.LuceneIndex;
 import net.sourceforge.vaticanfetcher.model.PendingDeletion;
 import net.sourceforge.vaticanfetcher.model.TreeIndex.IndexingResult;
@@ -141,6 +143,7 @@ public final class IndexingQueue {
 		// Indexing
 		task.set(TaskState.INDEXING);
 		LuceneIndex luceneIndex = task.getLuceneIndex();
+		indexRegistry.awaitCompaction(luceneIndex);
 		if (task.is(IndexAction.REBUILD)) {
 			/*
 			 * If the task is a rebuild, the searcher will be holding on to the underlying index at this point, since 
@@ -152,6 +155,14 @@ public final class IndexingQueue {
 		}
 		IndexingResult result = task.update(); // Long-running process
 		boolean hasErrors = luceneIndex.hasErrorsDeep();
+		
+		/*
+		 * Collect the changes to the tree index before acquiring the lock, since this may take a while for large
+		 * indexes. Whether the index is actually saved is decided below; if it isn't, the pending save is discarded.
+		 */
+		PendingSave pendingSave = null;
+		if (task.is(IndexAction.UPDATE) || result == IndexingResult.SUCCESS_CHANGED)
+			pendingSave = indexRegistry.prepareSave(luceneIndex);
 
 		boolean doDelete = false;
 		boolean fireRemoved = false;
@@ -177,7 +188,7 @@ public final class IndexingQueue {
 					 * registry anymore. Since we just put the index back in the registry, the assertion fails and crashes the program.
 					 */
 					if (indexRegistry.getIndexes().contains(luceneIndex)) {
-						indexRegistry.save(luceneIndex);
+						indexRegistry.save(luceneIndex, pendingSave);
 						indexRegistry.getSearcher().replaceLuceneSearcher();
 					}
 					
@@ -200,7 +211,7 @@ public final class IndexingQueue {
 			else {
 				indexRegistry.addIndex(luceneIndex);
 				if (result == IndexingResult.SUCCESS_CHANGED)
-					indexRegistry.save(luceneIndex);
+					indexRegistry.save(luceneIndex, pendingSave);
 				boolean keep = task.is(CancelAction.KEEP);
 				if (keep || shutdown || !hasErrors)
 					fireRemoved = tasks.remove(task);
@@ -211,6 +222,10 @@ public final class IndexingQueue {
 			writeLock.unlock();
 		}
 		
+		// Does nothing if the temporary file was saved, since it was renamed
+		if (pendingSave != null)
+			pendingSave.discard();
+		
 		if (fireRemoved)
 			evtRemoved.fire(task);
 		
@@ -258,10 +273,22 @@ public final class IndexingQueue {
 	@Nullable
 	@ThreadSafe
 	public Rejection addTask(@NotNull LuceneIndex index, @NotNull IndexAction action) {
+		return addTask(index, action, null);
+	}
+	
+	/**
+	 * Same as {@link #addTask(LuceneIndex, IndexAction)}, but for update tasks, the files that were changed since the last update
+	 * can be given, so that the update only needs to look at those files. A null collection means that the whole index must be
+	 * checked for changes. If the update is rejected because an update on the same index is already waiting in the queue, the
+	 * given files are merged into the waiting update.
+	 */
+	@Nullable
+	@ThreadSafe
+	public Rejection addTask(@NotNull LuceneIndex index, @NotNull IndexAction action, @Nullable Collection<File> changedFiles) {
 		Util.checkNotNull(index, action);
 		Util.checkThat(index instanceof FileIndex || index instanceof OutlookIndex);
 		
-		Task task = new Task(this, index, action);
+		Task task = new Task(this, index, action, changedFiles);
 
 		// Check that the given index has the right index directory
 		File taskIndexDir = task.getLuceneIndex().getIndexDirPath().getCanonicalFile();
@@ -301,9 +328,13 @@ public final class IndexingQueue {
 				 * user could later cancel the ready task, thus skipping an update that should have been run. However, the approach here
 				 * should work well enough, assuming that it is very unlikely that the user will cancel ready tasks.
 				 */
-				for (Task queueTask : tasks)
-					if (queueTask.is(TaskState.READY) && sameTarget(queueTask, task))
+				for (Task queueTask : tasks) {
+					if (queueTask.is(TaskState.READY) && sameTarget(queueTask, task)) {
+						if (queueTask.is(IndexAction.UPDATE))
+							queueTask.mergeChangedFiles(task);
 						return Rejection.REDUNDANT_UPDATE;
+					}
+				}
 			}
 			else if (index instanceof OutlookIndex) {
 				/* Reject a request to create or rebuild an Outlook index if it has the same PST file as another Outlook index in the registry. */
@@ -11,6 +11,7 @@
 
 package net.sourceforge.vaticanfetcher.model.index;
 
+import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 
 public class IndexingReporter {
@@ -21,6 +22,21 @@ public class IndexingReporter {
 	
 	public void setEndTime(long time) {}
 	
+	/**
+	 * Called at the end of an index update if identical files were looked up in the parse result store. The hit count
+	 * is the number of files whose parse result was reused instead of parsing them.
+	 */
+	public void setDedupStats(int lookupCount, int hitCount) {}
+	
+	/** Called at the end of an index update with the time spent in the parsers, in unpacking and in index writes. */
+	public void setMetrics(@NotNull IndexingMetrics metrics) {}
+	
+	/**
+	 * Called when the parsing of the given file is deferred to the end of the index update, because the memory needed
+	 * for parsing it, which is estimated from its size and type, exceeds the currently available heap memory.
+	 */
+	public void defer(@NotNull TreeNode treeNode, long estimatedBytes, long freeBytes) {}
+	
 	public void info(@NotNull IndexingInfo info) {}
 	
 	public void subInfo(int current, int total) {}
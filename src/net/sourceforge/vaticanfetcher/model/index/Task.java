@@ -11,6 +11,10 @@
 
 package net.sourceforge.vaticanfetcher.model.index;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Set;
+
 import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.LuceneIndex;
 import net.sourceforge.vaticanfetcher.model.PendingDeletion;
@@ -23,6 +27,7 @@ import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
 
 public final class Task {
 
@@ -55,12 +60,23 @@ public final class Task {
 	@Nullable private volatile PendingDeletion deletion;
 	private final DelegatingReporter reporter;
 	@Nullable volatile CancelAction cancelAction;
-
-	Task(@NotNull IndexingQueue queue, @NotNull LuceneIndex index, @NotNull IndexAction indexAction) {
+	
+	/*
+	 * The files that are known to have been created, modified, deleted or renamed since the last update. If null, the
+	 * whole index must be checked for changes. Always null for tasks other than updates. Guarded by the queue's lock.
+	 */
+	@Nullable private Set<File> changedFiles;
+
+	Task(	@NotNull IndexingQueue queue,
+			@NotNull LuceneIndex index,
+			@NotNull IndexAction indexAction,
+			@Nullable Collection<File> changedFiles) {
 		Util.checkNotNull(queue, index, indexAction);
+		Util.checkThat(changedFiles == null || indexAction == IndexAction.UPDATE);
 		this.queue = queue;
 		this.index = index;
 		this.indexAction = indexAction;
+		this.changedFiles = changedFiles == null ? null : Sets.newLinkedHashSet(changedFiles);
 		state = is(IndexAction.UPDATE) ? TaskState.READY : TaskState.NOT_READY;
 		reporter = new DelegatingReporter(queue.reporterCapacity);
 	}
@@ -80,11 +96,33 @@ public final class Task {
 
 	@NotNull
 	IndexingResult update() {
+		Set<File> changedFilesCopy;
+		queue.readLock.lock();
+		try {
+			changedFilesCopy = changedFiles == null ? null : Sets.newLinkedHashSet(changedFiles);
+		}
+		finally {
+			queue.readLock.unlock();
+		}
 		return index.update(reporter, new Cancelable() {
 			public boolean isCanceled() {
 				return cancelAction != null;
 			}
-		});
+		}, changedFilesCopy);
+	}
+	
+	/**
+	 * Merges the changed files of the given update task into the receiver, which is
+	 * also an update task that hasn't started yet. Must be called under the queue's write lock.
+	 */
+	void mergeChangedFiles(@NotNull Task task) {
+		Util.checkThat(is(IndexAction.UPDATE) && task.is(IndexAction.UPDATE));
+		if (changedFiles == null)
+			return;
+		if (task.changedFiles == null)
+			changedFiles = null;
+		else
+			changedFiles.addAll(task.changedFiles);
 	}
 
 	@NotNull
@@ -36,7 +36,11 @@ final class AppendingContext extends FileContext {
 				context.getOriginalPath(),
 				context.getStopper(),
 				context.getFileCount(),
-				context.getIndexParentDir()
+				context.getIndexParentDir(),
+				null,
+				null,
+				context.getParseResultStore(),
+				context.getMetrics()
 		);
 		this.outerContext = context;
 	}
@@ -34,6 +34,11 @@ final class AppendingDocWriter extends LuceneDocWriter {
 		return luceneDoc == null;
 	}
 	
+	protected boolean buffersDocuments() {
+		// The document is written by AppendingContext.appendToOuter
+		return true;
+	}
+	
 	public void write(@NotNull FileDocument doc, @NotNull Document luceneDoc, boolean added) throws IOException {
 		if (this.luceneDoc == null)
 			this.luceneDoc = luceneDoc;
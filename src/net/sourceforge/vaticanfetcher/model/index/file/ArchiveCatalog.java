@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.util.LruFolder;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.Immutable;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * A persistent list of the entries of 7z and rar archives, so that an archive member can be previewed without reading
+ * the archive's entry list first. For each entry, the catalog stores the index of the entry in the archive, its inner
+ * path, its size and last-modified value, and the solid block it belongs to.
+ * <p>
+ * There is one catalog file per archive on the disk, keyed by the archive's canonical path. A catalog file is only
+ * valid for the last-modified value and size the archive had when the catalog was stored, so checking whether it's
+ * still valid takes a single file system lookup. Outdated catalog files are deleted when they're encountered. Since
+ * the catalog files of deleted archives are never encountered again, the total size of the catalog folder is limited
+ * by {@link ProgramConf.Int#ArchiveCatalogSize}; when the limit is exceeded, the least recently used files are
+ * deleted. The catalogs of recently used archives are also kept in memory.
+ */
+@ThreadSafe
+public final class ArchiveCatalog {
+
+	/** The name of the catalog folder inside the index folder. */
+	public static final String DIRNAME = "archive-catalog";
+
+	private static final int MAGIC = 0x56464143; // "VFAC"
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".cat";
+	private static final int MEMORY_CAPACITY = 16; // number of archives
+
+	private static final Map<File, ArchiveCatalog> instances = new LinkedHashMap<File, ArchiveCatalog>();
+
+	/** An entry of an archive, which may also be a directory. */
+	public static final class Entry {
+		private final int index;
+		private final String innerPath;
+		private final boolean isDirectory;
+		private final boolean isEncrypted;
+		private final long size;
+		private final long lastModified;
+		private final int solidBlock;
+
+		/**
+		 * @param innerPath
+		 *            The path of the entry relative to the archive root, using forward slashes as separators.
+		 * @param solidBlock
+		 *            A number shared by all entries that are compressed together, so that an entry can only be
+		 *            unpacked after the preceding entries with the same number; -1 if the entry doesn't depend on
+		 *            other entries, e.g. because it's a directory or empty.
+		 */
+		public Entry(	int index,
+						@NotNull String innerPath,
+						boolean isDirectory,
+						boolean isEncrypted,
+						long size,
+						long lastModified,
+						int solidBlock) {
+			this.index = index;
+			this.innerPath = Util.checkNotNull(innerPath);
+			this.isDirectory = isDirectory;
+			this.isEncrypted = isEncrypted;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.solidBlock = solidBlock;
+		}
+
+		public int getIndex() { return index; }
+		@NotNull public String getInnerPath() { return innerPath; }
+		public boolean isDirectory() { return isDirectory; }
+		public boolean isEncrypted() { return isEncrypted; }
+		public long getSize() { return size; }
+		public long getLastModified() { return lastModified; }
+		public int getSolidBlock() { return solidBlock; }
+	}
+
+	private static final class Catalog {
+		private final String archivePath;
+		private final long lastModified;
+		private final long length;
+		private final List<Entry> entries;
+
+		private Catalog(@NotNull String archivePath, long lastModified, long length, @NotNull List<Entry> entries) {
+			this.archivePath = archivePath;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.entries = entries;
+		}
+
+		private boolean isValid(@NotNull String archivePath, long lastModified, long length) {
+			return this.archivePath.equals(archivePath) && this.lastModified == lastModified && this.length == length;
+		}
+	}
+
+	private final LruFolder diskEntries; // guarded by 'this' lock
+
+	// In access order, guarded by 'this' lock
+	private final LinkedHashMap<String, Catalog> memoryCatalogs = new LinkedHashMap<String, Catalog>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, Catalog> eldest) {
+			return size() > MEMORY_CAPACITY;
+		}
+	};
+
+	/**
+	 * Creates an archive catalog in the given folder, whose total size is limited to the given number of bytes. The
+	 * folder is created when the first catalog is stored.
+	 */
+	public ArchiveCatalog(@NotNull File catalogDir, long diskCapacity) {
+		diskEntries = new LruFolder(catalogDir, SUFFIX, diskCapacity);
+	}
+
+	/**
+	 * Returns the shared archive catalog of the given index parent folder, or null if the given folder is null or if
+	 * the catalog was disabled via {@link ProgramConf.Int#ArchiveCatalogSize}.
+	 */
+	@Nullable
+	public static ArchiveCatalog getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null)
+			return null;
+		long diskCapacity = ProgramConf.Int.ArchiveCatalogSize.get() * 1024L * 1024L;
+		if (diskCapacity == 0)
+			return null;
+		File catalogDir = Util.getCanonicalFile(new File(indexParentDir, DIRNAME));
+		synchronized (instances) {
+			ArchiveCatalog catalog = instances.get(catalogDir);
+			if (catalog == null) {
+				catalog = new ArchiveCatalog(catalogDir, diskCapacity);
+				instances.put(catalogDir, catalog);
+			}
+			return catalog;
+		}
+	}
+
+	/**
+	 * Returns the stored entries of the given archive, in the order of their indices, or null if there are none or if
+	 * the archive was modified since they were stored. Should not be called from the GUI thread, since it might read
+	 * from the disk.
+	 */
+	@Immutable
+	@Nullable
+	public List<Entry> get(@NotNull File archiveFile) {
+		String archivePath = Util.getCanonicalPath(archiveFile);
+		long lastModified = archiveFile.lastModified();
+		long length = archiveFile.length();
+		if (lastModified == 0)
+			return null; // archive doesn't exist
+		String filename = getFilename(archivePath);
+		synchronized (this) {
+			Catalog catalog = memoryCatalogs.get(filename);
+			if (catalog != null) {
+				if (catalog.isValid(archivePath, lastModified, length))
+					return catalog.entries;
+				memoryCatalogs.remove(filename);
+			}
+			if (!diskEntries.contains(filename))
+				return null;
+		}
+		Catalog catalog = read(diskEntries.getFile(filename));
+		synchronized (this) {
+			if (catalog == null || !catalog.isValid(archivePath, lastModified, length)) {
+				diskEntries.remove(filename);
+				return null;
+			}
+			diskEntries.touch(filename, true);
+			memoryCatalogs.put(filename, catalog);
+		}
+		return catalog.entries;
+	}
+
+	/**
+	 * Stores the given entries of the given archive, replacing any previously stored entries. The entries must be
+	 * sorted by index. The caller must read the entries after obtaining the given last-modified value and length, so
+	 * that a modification in between isn't missed. Errors are only logged, since the catalog is not essential.
+	 */
+	public void put(@NotNull File archiveFile, long lastModified, long length, @NotNull List<Entry> entries) {
+		String archivePath = Util.getCanonicalPath(archiveFile);
+		String filename = getFilename(archivePath);
+		Catalog catalog = new Catalog(
+			archivePath, lastModified, length, Collections.unmodifiableList(new ArrayList<Entry>(entries)));
+		synchronized (this) {
+			memoryCatalogs.put(filename, catalog);
+		}
+
+		// Write into a temporary file first, so that readers never see an incomplete file
+		File tempFile = null;
+		try {
+			tempFile = diskEntries.createTempFile(filename);
+			write(tempFile, catalog);
+			synchronized (this) {
+				diskEntries.commit(tempFile, filename);
+				tempFile = null;
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		finally {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	// The archive path may contain arbitrary characters and may be very long, so we'll use its hash as filename
+	@NotNull
+	private static String getFilename(@NotNull String archivePath) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(archivePath.getBytes(Charsets.UTF_8));
+			StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.append(SUFFIX).toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-1 is available on all Java platforms
+		}
+	}
+
+	private static void write(@NotNull File file, @NotNull Catalog catalog) throws IOException {
+		FileOutputStream fout = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(catalog.archivePath);
+			out.writeLong(catalog.lastModified);
+			out.writeLong(catalog.length);
+			out.writeInt(catalog.entries.size());
+			for (Entry entry : catalog.entries) {
+				out.writeInt(entry.index);
+				out.writeUTF(entry.innerPath);
+				out.writeBoolean(entry.isDirectory);
+				out.writeBoolean(entry.isEncrypted);
+				out.writeLong(entry.size);
+				out.writeLong(entry.lastModified);
+				out.writeInt(entry.solidBlock);
+			}
+			out.close();
+		}
+		finally {
+			Closeables.closeQuietly(fout);
+		}
+	}
+
+	// Returns null if the file doesn't exist or can't be read
+	@Nullable
+	private static Catalog read(@NotNull File file) {
+		if (!file.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			String archivePath = in.readUTF();
+			long lastModified = in.readLong();
+			long length = in.readLong();
+			int count = in.readInt();
+			if (count < 0)
+				return null;
+			List<Entry> entries = new ArrayList<Entry>(Math.min(count, 1024));
+			for (int i = 0; i < count; i++) {
+				entries.add(new Entry(
+					in.readInt(), in.readUTF(), in.readBoolean(), in.readBoolean(), in.readLong(), in.readLong(),
+					in.readInt()));
+			}
+			return new Catalog(archivePath, lastModified, length, Collections.unmodifiableList(entries));
+		}
+		catch (IOException e) {
+			return null;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.FileResource;
+import net.sourceforge.vaticanfetcher.model.HotColdFileCache;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public final class ArchiveCatalogTest {
+
+	private static final long CAPACITY = 1024 * 1024;
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File archiveFile = new File(tempDir, "archive.7z");
+			Files.write(new byte[] {1, 2, 3}, archiveFile);
+			long lastModified = archiveFile.lastModified();
+			File catalogDir = new File(tempDir, ArchiveCatalog.DIRNAME);
+			List<ArchiveCatalog.Entry> entries = Arrays.asList(
+				new ArchiveCatalog.Entry(0, "dir", true, false, 0, 100, -1),
+				new ArchiveCatalog.Entry(1, "dir/äöü.txt", false, false, 42, 200, 0));
+
+			ArchiveCatalog catalog = new ArchiveCatalog(catalogDir, CAPACITY);
+			assertNull(catalog.get(archiveFile));
+			catalog.put(archiveFile, lastModified, archiveFile.length(), entries);
+
+			// A new instance only sees what was written to the disk
+			List<ArchiveCatalog.Entry> loaded = new ArchiveCatalog(catalogDir, CAPACITY).get(archiveFile);
+			assertNotNull(loaded);
+			assertEquals(2, loaded.size());
+			assertTrue(loaded.get(0).isDirectory());
+			ArchiveCatalog.Entry entry = loaded.get(1);
+			assertEquals(1, entry.getIndex());
+			assertEquals("dir/äöü.txt", entry.getInnerPath());
+			assertFalse(entry.isDirectory());
+			assertEquals(42, entry.getSize());
+			assertEquals(200, entry.getLastModified());
+			assertEquals(0, entry.getSolidBlock());
+
+			// Modifying the archive invalidates the catalog
+			Files.write(new byte[] {1, 2, 3, 4}, archiveFile);
+			assertNull(catalog.get(archiveFile));
+			assertNull(new ArchiveCatalog(catalogDir, CAPACITY).get(archiveFile));
+			assertEquals(0, Util.listFiles(catalogDir).length);
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File catalogDir = new File(tempDir, ArchiveCatalog.DIRNAME);
+			List<ArchiveCatalog.Entry> entries = Arrays.asList(
+				new ArchiveCatalog.Entry(0, "file.txt", false, false, 42, 200, 0));
+			long capacity = 1000;
+			ArchiveCatalog catalog = new ArchiveCatalog(catalogDir, capacity);
+			List<File> archiveFiles = new ArrayList<File>();
+			for (int i = 0; i < 50; i++) {
+				File archiveFile = new File(tempDir, "archive" + i + ".7z");
+				Files.write(new byte[] {1, 2, 3}, archiveFile);
+				catalog.put(archiveFile, archiveFile.lastModified(), archiveFile.length(), entries);
+				archiveFiles.add(archiveFile);
+			}
+
+			// The catalogs of deleted archives don't pile up beyond the capacity
+			long size = 0;
+			for (File file : Util.listFiles(catalogDir))
+				size += file.length();
+			assertTrue(size > 0 && size <= capacity);
+
+			// The least recently stored catalogs were deleted
+			catalog = new ArchiveCatalog(catalogDir, capacity);
+			assertNull(catalog.get(archiveFiles.get(0)));
+			assertNotNull(catalog.get(archiveFiles.get(archiveFiles.size() - 1)));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testUnpackWithCatalog() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			IndexingConfig config = new IndexingConfig();
+			File catalogDir = new File(tempDir, ArchiveCatalog.DIRNAME);
+			for (TestFiles testFile : new TestFiles[] {TestFiles.multiple_dirs_7z, TestFiles.multiple_dirs_rar}) {
+				File archiveFile = new File(tempDir, testFile.get().getName());
+				Files.copy(testFile.get(), archiveFile);
+
+				// The first access stores the catalog
+				HotColdFileCache unpackCache = new HotColdFileCache(20);
+				FileFactory fileFactory = new FileFactory(unpackCache, new ArchiveCatalog(catalogDir, CAPACITY));
+				try {
+					fileFactory.createFile(config, new Path(Util.joinPath(Util.getAbsPath(archiveFile), "nonexistent.txt")));
+					fail();
+				}
+				catch (FileNotFoundException e) {
+				}
+				List<ArchiveCatalog.Entry> entries = new ArchiveCatalog(catalogDir, CAPACITY).get(archiveFile);
+				assertNotNull(entries);
+
+				// Subsequent accesses use the catalog
+				fileFactory = new FileFactory(new HotColdFileCache(20), new ArchiveCatalog(catalogDir, CAPACITY));
+				for (ArchiveCatalog.Entry entry : entries) {
+					if (entry.isDirectory())
+						continue;
+					Path path = new Path(Util.joinPath(Util.getAbsPath(archiveFile), entry.getInnerPath()));
+					FileResource fileResource = fileFactory.createFile(config, path);
+					assertEquals(entry.getSize(), fileResource.getFile().length());
+					fileResource.dispose();
+				}
+				try {
+					fileFactory.createFile(config, new Path(Util.joinPath(Util.getAbsPath(archiveFile), "nonexistent.txt")));
+					fail();
+				}
+				catch (FileNotFoundException e) {
+				}
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+}
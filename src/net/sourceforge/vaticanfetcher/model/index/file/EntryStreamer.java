@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.TreeNode;
+import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.file.SolidArchiveTree.FailReporter;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hands the contents of archive entries from an unpacker thread to the indexing thread, so that the entries can be
+ * parsed while the archive is unpacked, without writing them to temporary files. This way, a solid archive is
+ * decompressed only once, in a single sequential pass.
+ * <p>
+ * {@link #run} starts the unpack operation on a new thread and then waits for the streamed entries on the calling
+ * thread. The unpacker obtains an output stream for each streamed entry from {@link #open(TreeNode, long)}, which is
+ * the write end of a bounded in-memory pipe; the read end is passed to the {@link EntryHandler} on the calling thread.
+ * Since both the pipes and the number of pipes that haven't been handled yet are bounded, the unpacker waits for the
+ * handler whenever it gets ahead. Failures that the unpacker reports through {@link #fail} are also reported on the
+ * calling thread, so that the tree is only modified there.
+ */
+@ThreadSafe
+final class EntryStreamer {
+
+	public interface EntryHandler {
+		/**
+		 * Processes the given streamed entry on the thread that called {@link EntryStreamer#run}. The handler may stop
+		 * reading the given input stream early; the rest of the entry is then skipped. Reading the input stream throws
+		 * an IOException if the unpacking of the entry failed.
+		 */
+		void handle(@NotNull TreeNode treeNode, @NotNull InputStream in) throws IndexingException;
+	}
+
+	public interface Unpacker {
+		/** Unpacks the archive, calling {@link EntryStreamer#open(TreeNode, long)} for each streamed entry. */
+		void unpack(@NotNull EntryStreamer streamer) throws IOException;
+	}
+
+	private static final int PIPE_CAPACITY = 256 * 1024;
+	@VisibleForTesting static final int MAX_OPEN_PIPES = 4; // pipes that have been opened, but not handled yet
+
+	private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+		.setNameFormat(EntryStreamer.class.getSimpleName() + "-%d")
+		.setDaemon(true)
+		.build();
+
+	/** A streamed entry or a failure, in the order in which the unpacker produced them. */
+	private static final class Event {
+		@Nullable private final TreeNode treeNode; // null for the end marker
+		@Nullable private final Pipe pipe; // null for failures
+		@Nullable private final FailReporter failReporter;
+		@Nullable private final ErrorType errorType;
+		@Nullable private final Throwable cause;
+
+		private Event(	@Nullable TreeNode treeNode,
+						@Nullable Pipe pipe,
+						@Nullable FailReporter failReporter,
+						@Nullable ErrorType errorType,
+						@Nullable Throwable cause) {
+			this.treeNode = treeNode;
+			this.pipe = pipe;
+			this.failReporter = failReporter;
+			this.errorType = errorType;
+			this.cause = cause;
+		}
+	}
+
+	private static final Event END = new Event(null, null, null, null, null);
+
+	/**
+	 * A bounded byte buffer with an output stream for the unpacker and an input stream for the entry handler. After
+	 * the input stream has been closed, further output is discarded. After the pipe has been aborted, both streams
+	 * throw IOExceptions.
+	 */
+	@VisibleForTesting
+	static final class Pipe {
+		private final byte[] buffer;
+		private int readPos = 0; // all fields guarded by 'this' lock
+		private int count = 0;
+		private long bytesWritten = 0;
+		private boolean writeClosed = false;
+		private boolean readClosed = false;
+		private boolean aborted = false;
+
+		@VisibleForTesting
+		Pipe(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		final InputStream in = new InputStream() {
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				synchronized (Pipe.this) {
+					while (count == 0 && !writeClosed && !aborted && !readClosed)
+						await();
+					checkNotAborted();
+					if (readClosed)
+						throw new IOException("Stream closed.");
+					if (count == 0)
+						return -1;
+					if (len == 0)
+						return 0;
+					int n = Math.min(len, Math.min(count, buffer.length - readPos));
+					System.arraycopy(buffer, readPos, b, off, n);
+					readPos = (readPos + n) % buffer.length;
+					count -= n;
+					Pipe.this.notifyAll();
+					return n;
+				}
+			}
+
+			public void close() {
+				closeRead();
+			}
+		};
+
+		final OutputStream out = new OutputStream() {
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (Pipe.this) {
+					if (writeClosed)
+						throw new IOException("Stream closed.");
+					bytesWritten += len;
+					while (len > 0) {
+						while (count == buffer.length && !readClosed && !aborted)
+							await();
+						checkNotAborted();
+						if (readClosed)
+							return; // discard the rest of the entry
+						int writePos = (readPos + count) % buffer.length;
+						int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+						System.arraycopy(b, off, buffer, writePos, n);
+						count += n;
+						off += n;
+						len -= n;
+						Pipe.this.notifyAll();
+					}
+				}
+			}
+
+			public void close() {
+				closeWrite();
+			}
+		};
+
+		synchronized void closeRead() {
+			readClosed = true;
+			count = 0;
+			notifyAll();
+		}
+
+		synchronized void closeWrite() {
+			writeClosed = true;
+			notifyAll();
+		}
+
+		synchronized void abort() {
+			aborted = true;
+			notifyAll();
+		}
+
+		synchronized long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		// Must be called while holding the lock
+		private void await() throws IOException {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+
+		// Must be called while holding the lock
+		private void checkNotAborted() throws IOException {
+			if (aborted)
+				throw new IOException("Unpacking of the archive entry was aborted.");
+		}
+	}
+
+	private final Set<TreeNode> streamedEntries;
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+	private volatile boolean aborted = false; // only set while holding the 'this' lock
+	private int openPipes = 0; // guarded by 'this' lock
+	@Nullable private volatile Pipe currentPipe; // only written by the unpacker thread
+	@Nullable private TreeNode currentTreeNode; // only accessed by the unpacker thread
+	private long streamedBytes = 0; // only accessed by the unpacker thread
+
+	/**
+	 * @param streamedEntries
+	 *            The entries for which the unpacker should call {@link #open(TreeNode, long)}. They're compared by
+	 *            identity.
+	 */
+	public EntryStreamer(@NotNull Collection<? extends TreeNode> streamedEntries) {
+		this.streamedEntries = Sets.newIdentityHashSet();
+		this.streamedEntries.addAll(streamedEntries);
+	}
+
+	public boolean isStreamed(@NotNull TreeNode treeNode) {
+		return streamedEntries.contains(treeNode);
+	}
+
+	/**
+	 * Called by the unpacker to obtain the output stream of the given streamed entry, whose uncompressed size is
+	 * given, or -1 if unknown. The unpacker must close the returned stream after writing the entry. Blocks while too
+	 * many entries are waiting for the handler. Throws an IOException if the streaming has been aborted.
+	 */
+	@NotNull
+	public OutputStream open(@NotNull TreeNode treeNode, long size) throws IOException {
+		finishCurrentPipe(false);
+		synchronized (this) {
+			while (openPipes >= MAX_OPEN_PIPES && !aborted) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			if (aborted)
+				throw new IOException("Unpacking of the archive was aborted.");
+			openPipes++;
+		}
+		// Small entries don't need the full capacity; the size is only a hint, since the pipe works with any capacity
+		int capacity = size < 0 ? PIPE_CAPACITY : (int) Math.max(1, Math.min(PIPE_CAPACITY, size));
+		currentPipe = new Pipe(capacity);
+		currentTreeNode = treeNode;
+		events.add(new Event(treeNode, currentPipe, null, null, null));
+		return currentPipe.out;
+	}
+
+	/**
+	 * Called by the unpacker to report a failure on the thread that called {@link #run}. If the failure concerns the
+	 * streamed entry that is currently being unpacked, the entry is aborted.
+	 */
+	public void fail(	@NotNull FailReporter failReporter,
+						@NotNull ErrorType errorType,
+						@NotNull TreeNode treeNode,
+						@Nullable Throwable cause) {
+		if (treeNode == currentTreeNode)
+			finishCurrentPipe(true);
+		events.add(new Event(treeNode, null, failReporter, errorType, cause));
+	}
+
+	/** Returns the number of bytes that were written to the streamed entries. */
+	public long getStreamedBytes() {
+		return streamedBytes;
+	}
+
+	private void finishCurrentPipe(boolean failed) {
+		Pipe pipe = currentPipe;
+		if (pipe == null)
+			return;
+		if (failed)
+			pipe.abort(); // the handler shouldn't take a truncated entry for a complete one
+		else
+			pipe.closeWrite();
+		streamedBytes += pipe.getBytesWritten();
+		currentPipe = null;
+		currentTreeNode = null;
+	}
+	
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Runs the given unpacker on a new thread and passes the streamed entries to the given handler on the calling
+	 * thread, in the order in which they're unpacked. Returns when the unpacker has finished, rethrowing its
+	 * IOException, if any. If the given cancelable is canceled or the handler throws an exception, the unpacking is
+	 * aborted and the remaining entries are not handled.
+	 */
+	public void run(@NotNull final Unpacker unpacker,
+					@NotNull EntryHandler handler,
+					@NotNull Cancelable cancelable) throws IOException, IndexingException {
+		final IOException[] unpackError = new IOException[1];
+		final RuntimeException[] unpackRuntimeError = new RuntimeException[1];
+		Thread thread = threadFactory.newThread(new Runnable() {
+			public void run() {
+				boolean failed = true;
+				try {
+					unpacker.unpack(EntryStreamer.this);
+					failed = false;
+				}
+				catch (IOException e) {
+					unpackError[0] = e;
+				}
+				catch (RuntimeException e) {
+					unpackRuntimeError[0] = e;
+				}
+				finally {
+					finishCurrentPipe(failed);
+					events.add(END);
+				}
+			}
+		});
+		thread.start();
+
+		boolean finished = false;
+		try {
+			while (true) {
+				Event event = takeEvent();
+				if (event == END)
+					break;
+				if (event.pipe == null) {
+					event.failReporter.fail(event.errorType, event.treeNode, event.cause);
+					continue;
+				}
+				try {
+					if (cancelable.isCanceled())
+						abort();
+					else
+						handler.handle(event.treeNode, event.pipe.in);
+				}
+				finally {
+					event.pipe.closeRead();
+					closePipe();
+				}
+			}
+			finished = true;
+		}
+		finally {
+			if (!finished) {
+				// Pipes that the unpacker opens until it notices the abort must be aborted as well
+				abort();
+				for (Event event = takeEvent(); event != END; event = takeEvent())
+					if (event.pipe != null)
+						event.pipe.abort();
+			}
+			joinQuietly(thread);
+		}
+
+		if (unpackRuntimeError[0] != null)
+			throw unpackRuntimeError[0];
+		if (unpackError[0] != null && !aborted)
+			throw unpackError[0];
+	}
+
+	private synchronized void closePipe() {
+		openPipes--;
+		notifyAll();
+	}
+
+	/* Makes the unpacker fail on its next write or open, then discards the remaining events. */
+	private void abort() {
+		synchronized (this) {
+			aborted = true;
+			notifyAll();
+		}
+		for (Event event : events)
+			if (event.pipe != null)
+				event.pipe.abort();
+		Pipe pipe = currentPipe; // may be stale, which is harmless
+		if (pipe != null)
+			pipe.abort();
+	}
+
+	@NotNull
+	private Event takeEvent() {
+		try {
+			return events.take();
+		}
+		catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void joinQuietly(@NotNull Thread thread) {
+		while (true) {
+			try {
+				thread.join();
+				return;
+			}
+			catch (InterruptedException e) {
+				// Keep waiting, the unpacker thread is bound to finish after an abort
+			}
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.TreeNode;
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.file.EntryStreamer.EntryHandler;
+import net.sourceforge.vaticanfetcher.model.index.file.EntryStreamer.Unpacker;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public final class EntryStreamerTest {
+	
+	private static final int ENTRY_SIZE = 1024 * 1024; // larger than the pipe capacity
+	
+	private static final class FakeUnpacker implements Unpacker {
+		private final List<FileDocument> docs;
+		private final int entrySize;
+		private volatile int unpackedCount = 0;
+		
+		public FakeUnpacker(List<FileDocument> docs) {
+			this(docs, ENTRY_SIZE);
+		}
+		
+		public FakeUnpacker(List<FileDocument> docs, int entrySize) {
+			this.docs = docs;
+			this.entrySize = entrySize;
+		}
+		
+		public void unpack(EntryStreamer streamer) throws IOException {
+			byte[] chunk = new byte[Math.min(4096, entrySize)];
+			for (FileDocument doc : docs) {
+				OutputStream out = streamer.open(doc, entrySize);
+				for (int i = 0; i < entrySize / chunk.length; i++)
+					out.write(chunk);
+				out.close();
+				unpackedCount++;
+			}
+		}
+	}
+	
+	@Test
+	public void testHandlerStopsReadingEarly() throws Exception {
+		List<FileDocument> docs = createDocs(3);
+		FakeUnpacker unpacker = new FakeUnpacker(docs);
+		final List<Long> readCounts = Lists.newArrayList();
+		
+		// Reading only the second entry completely must neither block nor affect the other entries
+		new EntryStreamer(docs).run(unpacker, new EntryHandler() {
+			public void handle(TreeNode treeNode, InputStream in) throws IndexingException {
+				try {
+					if (readCounts.size() == 1)
+						readCounts.add((long) ByteStreams.toByteArray(in).length);
+					else
+						readCounts.add((long) in.read(new byte[10]));
+				}
+				catch (IOException e) {
+					throw new IndexingException(e);
+				}
+			}
+		}, Cancelable.nullCancelable);
+		
+		assertEquals(3, unpacker.unpackedCount);
+		assertEquals(Arrays.asList(10L, (long) ENTRY_SIZE, 10L), readCounts);
+	}
+	
+	@Test
+	public void testHandlerFailure() throws Exception {
+		List<FileDocument> docs = createDocs(3);
+		FakeUnpacker unpacker = new FakeUnpacker(docs);
+		final IndexingException failure = new IndexingException(new IOException());
+		
+		// The unpacking must be aborted without waiting for the remaining entries to be read
+		try {
+			new EntryStreamer(docs).run(unpacker, new EntryHandler() {
+				public void handle(TreeNode treeNode, InputStream in) throws IndexingException {
+					throw failure;
+				}
+			}, Cancelable.nullCancelable);
+			fail();
+		}
+		catch (IndexingException e) {
+			assertTrue(e == failure);
+		}
+		assertTrue(unpacker.unpackedCount < docs.size());
+	}
+	
+	@Test
+	public void testManySmallEntries() throws Exception {
+		List<FileDocument> docs = createDocs(1000);
+		final FakeUnpacker unpacker = new FakeUnpacker(docs, 100);
+		final int[] handledCount = new int[1];
+		
+		// The unpacker must not run arbitrarily far ahead of a slow handler
+		new EntryStreamer(docs).run(unpacker, new EntryHandler() {
+			public void handle(TreeNode treeNode, InputStream in) throws IndexingException {
+				try {
+					assertEquals(100, ByteStreams.toByteArray(in).length);
+				}
+				catch (IOException e) {
+					throw new IndexingException(e);
+				}
+				if (handledCount[0] % 100 == 0)
+					Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+				assertTrue(unpacker.unpackedCount <= handledCount[0] + EntryStreamer.MAX_OPEN_PIPES);
+				handledCount[0]++;
+			}
+		}, Cancelable.nullCancelable);
+		
+		assertEquals(docs.size(), unpacker.unpackedCount);
+		assertEquals(docs.size(), handledCount[0]);
+	}
+	
+	private static List<FileDocument> createDocs(int count) {
+		FileFolder folder = new FileFolder(new Path("archive.7z"), null);
+		List<FileDocument> docs = Lists.newArrayList();
+		for (int i = 0; i < count; i++)
+			docs.add(new FileDocument(folder, "file" + i + ".txt", 1L));
+		return docs;
+	}
+	
+}
@@ -13,9 +13,12 @@ package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.TextCache;
 import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
@@ -23,9 +26,13 @@ import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.Measurement;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.model.index.MutableInt;
 import net.sourceforge.vaticanfetcher.model.index.PatternAction;
+import net.sourceforge.vaticanfetcher.model.parse.ParseBudgetException;
 import net.sourceforge.vaticanfetcher.model.parse.ParseException;
 import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
 import net.sourceforge.vaticanfetcher.model.parse.ParseService;
@@ -46,6 +53,11 @@ class FileContext {
 	private final Cancelable cancelable;
 	private final MutableInt fileCount;
 	@Nullable private final File indexParentDir; // null if index only exists in RAM
+	@Nullable private final IndexingPipeline pipeline; // null if files are parsed sequentially
+	@Nullable private final MemoryGovernor governor; // null if large files aren't deferred
+	@Nullable private final TextCache textCache; // null if index only exists in RAM or if the cache is disabled
+	@Nullable private final ParseResultStore parseResultStore; // null if parse results aren't shared between copies
+	private final IndexingMetrics metrics;
 
 	protected FileContext(	@NotNull IndexingConfig config,
 							@NotNull TArchiveDetector zipDetector,
@@ -54,8 +66,13 @@ class FileContext {
 							@Nullable Path originalPath,
 							@NotNull Cancelable cancelable,
 							@NotNull MutableInt fileCount,
-							@Nullable File indexParentDir) {
+							@Nullable File indexParentDir,
+							@Nullable IndexingPipeline pipeline,
+							@Nullable MemoryGovernor governor,
+							@Nullable ParseResultStore parseResultStore,
+							@NotNull IndexingMetrics metrics) {
 		Util.checkNotNull(config, zipDetector, writer, cancelable, fileCount);
+		Util.checkNotNull(metrics);
 		this.config = config;
 		this.zipDetector = zipDetector;
 		this.writer = writer;
@@ -63,6 +80,13 @@ class FileContext {
 		this.cancelable = cancelable;
 		this.fileCount = fileCount;
 		this.indexParentDir = indexParentDir;
+		this.pipeline = pipeline;
+		this.governor = governor;
+		this.parseResultStore = parseResultStore;
+		this.metrics = metrics;
+		this.textCache = ProgramConf.Bool.CacheTextDuringIndexing.get()
+			? TextCache.getInstance(indexParentDir)
+			: null;
 		setReporter(reporter);
 	}
 	
@@ -75,7 +99,11 @@ class FileContext {
 				originalPath,
 				superContext.cancelable,
 				superContext.fileCount,
-				superContext.indexParentDir
+				superContext.indexParentDir,
+				superContext.pipeline,
+				superContext.governor,
+				superContext.parseResultStore,
+				superContext.metrics
 		);
 	}
 	
@@ -108,6 +136,12 @@ class FileContext {
 	@Nullable
 	protected final File getIndexParentDir() {return indexParentDir;}
 	
+	@Nullable
+	protected final ParseResultStore getParseResultStore() {return parseResultStore;}
+	
+	@NotNull
+	protected final IndexingMetrics getMetrics() {return metrics;}
+	
 	// returns success
 	// if the indexing is canceled before or during the execution of this method,
 	// the last-modified value of the given document will be set to -1.
@@ -115,7 +149,101 @@ class FileContext {
 		info(InfoType.EXTRACTING, doc);
 		try {
 			// Text extraction; may throw OutOfMemoryErrors
-			ParseResult parseResult = ParseService.parse(config, file, doc.getName(), doc.getPath(), reporter, cancelable);
+			ParseResult parseResult = parse(file, doc.getName(), doc.getPath(), reporter);
+			return write(doc, file.length(), parseResult, null, isAdded);
+		}
+		catch (ParseException e) {
+			return write(doc, file.length(), null, e, isAdded);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			return write(doc, file.length(), null, e, isAdded);
+		}
+	}
+	
+	/**
+	 * Same as {@link #index(FileDocument, File, boolean)}, but parses the given archive entry stream instead of a file,
+	 * which spares the temporary file. The document must be parseable with a stream parser, see
+	 * {@link ParseService#isStreamParseable(IndexingConfig, String, Path)}. Since there's no file that could be
+	 * checksummed, the parse result store is bypassed. The stream is not closed.
+	 */
+	public final boolean index(	@NotNull FileDocument doc,
+								@NotNull InputStream in,
+								long size,
+								boolean isAdded) throws IndexingException {
+		info(InfoType.EXTRACTING, doc);
+		try {
+			// Text extraction; may throw OutOfMemoryErrors
+			ParseResult parseResult = ParseService.parse(
+				config, in, doc.getName(), doc.getPath(), size, reporter, cancelable, metrics);
+			return write(doc, size, parseResult, null, isAdded);
+		}
+		catch (ParseException e) {
+			return write(doc, size, null, e, isAdded);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			return write(doc, size, null, e, isAdded);
+		}
+	}
+	
+	/**
+	 * Extracts the text of the given file, or reuses the parse result of an identical file if the receiver has a parse
+	 * result store. This method is thread-safe, so it may be called by the parse pipeline's worker threads.
+	 */
+	@NotNull
+	final ParseResult parse(@NotNull File file,
+	                        @NotNull String filename,
+	                        @NotNull Path filepath,
+	                        @NotNull IndexingReporter reporter) throws ParseException, CheckedOutOfMemoryError {
+		if (parseResultStore == null)
+			return ParseService.parse(config, file, filename, filepath, reporter, cancelable, metrics);
+		return parseResultStore.parse(config, file, filename, filepath, reporter, cancelable, metrics);
+	}
+	
+	/**
+	 * Indexes the given document. If the receiver has a parse pipeline, the text extraction is done on one of the pipeline's 
+	 * worker threads and this method returns immediately; otherwise, this is equivalent to {@link #index(FileDocument, File, boolean)}.
+	 * In both cases, if a modified document fails to be indexed, it is removed from the Lucene index, but kept in the tree so 
+	 * we won't index it again on the next index update.
+	 * <p>
+	 * If the receiver has a memory governor, files that are expected to need too much memory for parsing are deferred to
+	 * the end of the index update instead.
+	 * <p>
+	 * Entries inside zip archives are always indexed sequentially and never deferred, since the archive is unmounted as soon
+	 * as the file lister is done with it. For the same reason, the given file must not be a temporary file.
+	 */
+	public final void indexOrSubmit(@NotNull FileDocument doc, @NotNull File file, boolean isAdded) throws IndexingException {
+		boolean isEntry = file instanceof TFile && ((TFile) file).isEntry();
+		if (governor != null && !isEntry && governor.defer(this, doc, file, isAdded))
+			return;
+		if (pipeline == null || isEntry) {
+			if (!index(doc, file, isAdded) && !isAdded)
+				deleteFromIndex(doc.getUniqueId());
+			return;
+		}
+		info(InfoType.EXTRACTING, doc);
+		pipeline.submit(new ParseJob(this, doc, file, isAdded));
+	}
+	
+	/**
+	 * Writes the given parse result to the Lucene index, or reports the given parse error. This is the second half of 
+	 * {@link #index(FileDocument, File, boolean)} and is also called by the parse pipeline. Returns success.
+	 */
+	final boolean write(@NotNull FileDocument doc,
+	                    long fileSize,
+	                    @Nullable ParseResult parseResult,
+	                    @Nullable Exception parseError,
+	                    boolean isAdded) throws IndexingException {
+		try {
+			if (parseError instanceof CheckedOutOfMemoryError)
+				throw (CheckedOutOfMemoryError) parseError;
+			if (parseError instanceof ParseBudgetException) {
+				fail(ErrorType.PARSING_BUDGET_EXCEEDED, doc, parseError);
+				return false;
+			}
+			if (parseError != null) {
+				fail(ErrorType.PARSING, doc, parseError);
+				return false;
+			}
 			
 			/*
 			 * If we detect a cancel request at this point, the request probably came in during the parsing step above. 
@@ -125,29 +253,67 @@ class FileContext {
 			if (cancelable.isCanceled())
 				doc.setLastModified(-1);
 
+			/*
+			 * Decided before writing, since streamed content is consumed by the Lucene index writer. Streamed and
+			 * truncated content can't be cached, because the preview must show the entire text.
+			 */
+			boolean cacheable = !parseResult.isContentStreamed() && !parseResult.isContentTruncated();
+
 			// Add to index or update in index; may also throw OutOfMemoryErrors
-			if (isAdded)
-				writer.add(doc, file, parseResult);
-			else
-				writer.update(doc, file, parseResult);
+			Measurement measurement = IndexingMetrics.start();
+			boolean writeFailed = true;
+			try {
+				if (isAdded)
+					writer.add(doc, fileSize, parseResult);
+				else
+					writer.update(doc, fileSize, parseResult);
+				writeFailed = false;
+			}
+			finally {
+				metrics.record(IndexingMetrics.LUCENE_WRITE, measurement, 0, writeFailed, null);
+			}
 			
 			// Clear errors from previous indexing operations
 			doc.setError(null);
 			
+			if (cacheable)
+				cacheText(doc, parseResult);
 			return true;
 		}
 		catch (IOException e) {
 			throw new IndexingException(e);
 		}
-		catch (ParseException e) {
-			fail(ErrorType.PARSING, doc, e);
-		}
 		catch (CheckedOutOfMemoryError e) {
 			fail(ErrorType.OUT_OF_MEMORY, doc, e.getCause());
 		}
+		finally {
+			if (parseResult != null)
+				parseResult.closeContent();
+		}
 		return false;
 	}
 	
+	/**
+	 * Puts the extracted text of the given document into the text cache, so that the preview pane doesn't have to parse
+	 * the file again. This is only done for parsers whose preview text is the same as the extracted text, and not for
+	 * documents whose indexing was canceled. The caller must make sure that the content is neither streamed nor
+	 * truncated.
+	 */
+	private void cacheText(@NotNull FileDocument doc, @NotNull ParseResult parseResult) {
+		if (textCache == null || doc.getLastModified() == -1)
+			return;
+		String parserName = parseResult.getParserName();
+		if (parserName == null || !ParseService.rendersParsedContent(parserName))
+			return;
+		textCache.put(doc.getUniqueId(), doc.getLastModified(), parseResult.getContent().toString());
+	}
+	
+	/** Waits for the parse pipeline to finish all pending work, if the receiver has a parse pipeline. */
+	public final void flushPipeline() throws IndexingException {
+		if (pipeline != null)
+			pipeline.flush();
+	}
+	
 	public final boolean indexAndDeleteFile(@NotNull FileDocument doc,	@NotNull File file,	boolean added) throws IndexingException {
 		try {
 			return index(doc, file, added);
@@ -191,12 +357,15 @@ class FileContext {
 		return originalPath.createSubPath(relativePath);
 	}
 	
-	/** Returns whether the given TrueZIP file or directory should be skipped, given the various settings of the receiver. */
-	public final boolean skip(@NotNull TFile fileOrDir) {
+	/**
+	 * Returns whether the given TrueZIP file or directory should be skipped, given the various settings of the receiver.
+	 * The caller must specify whether the given file is a file in the sense of {@link TFile#isFile()}, which is false
+	 * for folders and zip archives.
+	 */
+	public final boolean skip(@NotNull TFile fileOrDir, boolean isFileOrSolidArchive) {
 		String filename = fileOrDir.getName();
 		Path filepath = getDirOrZipPath(fileOrDir);
 		
-		boolean isFileOrSolidArchive = fileOrDir.isFile();
 		boolean isZipArchiveOrFolder = !isFileOrSolidArchive;
 		boolean isZipArchive = isZipArchiveOrFolder	? UtilModel.isZipArchive(fileOrDir)	: false;
 		boolean isFileOrArchive = isFileOrSolidArchive || isZipArchive;
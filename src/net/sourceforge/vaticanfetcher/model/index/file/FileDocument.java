@@ -53,13 +53,19 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 	
 	public void setHtmlFolder(@Nullable FileFolder htmlFolder) {
 		this.htmlFolder = htmlFolder;
+		markDirty();
 	}
 	
+	/**
+	 * Returns whether the given file or the given HTML folder was modified since the receiver was indexed. The
+	 * last-modified value of the file must be given by the caller, who will usually have read it already.
+	 */
 	public boolean isModified(	@NotNull FileContext context,
 	                          	@NotNull File file,
+	                          	long lastModified,
 								@Nullable File htmlFolder) {
 		Util.checkThat(getName().equals(file.getName()));
-		if (getLastModified() != file.lastModified())
+		if (getLastModified() != lastModified)
 			return true;
 		return isFolderModified(context, this.htmlFolder, htmlFolder);
 	}
@@ -81,21 +87,21 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 		final boolean[] modificationFound = { false };
 		
 		new HtmlFileLister <Exception> (newFolder, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, long lastModified) {
 				if (config.isSolidArchive(file.getName())) {
 					FileFolder subFolder = unseenSubFolders.remove(file.getName());
-					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), file.lastModified()))
+					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), lastModified))
 						modified();
 				}
 				else {
 					FileDocument doc = unseenDocs.remove(file.getName());
-					if (doc == null || doc.getLastModified() != file.lastModified())
+					if (doc == null || doc.getLastModified() != lastModified)
 						modified();
 				}
 			}
-			protected void handleHtmlPair(File htmlFile, File htmlDir) {
+			protected void handleHtmlPair(File htmlFile, long lastModified, File htmlDir) {
 				FileDocument doc = unseenDocs.remove(htmlFile.getName());
-				if (doc == null || doc.isModified(context, htmlFile, htmlDir))
+				if (doc == null || doc.isModified(context, htmlFile, lastModified, htmlDir))
 					modified();
 			}
 			protected void handleDir(File dir) {
@@ -103,8 +109,8 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 				if (subFolder == null || isFolderModified(context, subFolder, dir))
 					modified();
 			}
-			protected boolean skip(File fileOrDir) {
-				return context.skip((TFile) fileOrDir);
+			protected boolean skip(File fileOrDir, boolean isFile) {
+				return context.skip((TFile) fileOrDir, isFile);
 			}
 			private void modified() {
 				modificationFound[0] = true;
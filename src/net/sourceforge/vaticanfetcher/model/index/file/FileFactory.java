@@ -16,9 +16,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.FileResource;
 import net.sourceforge.vaticanfetcher.model.HotColdFileCache;
 import net.sourceforge.vaticanfetcher.model.HotColdFileCache.PermanentFileResource;
@@ -33,14 +41,17 @@ import net.sourceforge.vaticanfetcher.model.index.file.FileFolder.FileFolderVisi
 import net.sourceforge.vaticanfetcher.model.parse.ParseException;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
 import SevenZip.Archive.IInArchive;
 import SevenZip.Archive.SevenZipEntry;
 import SevenZip.Archive.SevenZip.Handler;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.io.Closeables;
 import com.google.common.io.NullOutputStream;
+import com.google.common.primitives.Ints;
 
 import de.innosystec.unrar.Archive;
 import de.innosystec.unrar.exception.RarException;
@@ -52,16 +63,42 @@ import de.schlichtherle.truezip.fs.FsSyncException;
 public final class FileFactory {
 	
 	private final HotColdFileCache unpackCache;
+	@Nullable private final ArchiveCatalog catalog;
+	private final AtomicLong decompressedBytes = new AtomicLong();
 	
 	public FileFactory(@NotNull HotColdFileCache unpackCache) {
+		this(unpackCache, null);
+	}
+	
+	/**
+	 * @param catalog
+	 *            The catalog in which the entry lists of 7z and rar archives are looked up and stored, so that an
+	 *            archive entry can be found without reading the archive's entry list first. May be null.
+	 */
+	public FileFactory(@NotNull HotColdFileCache unpackCache, @Nullable ArchiveCatalog catalog) {
 		this.unpackCache = Util.checkNotNull(unpackCache);
+		this.catalog = catalog;
 	}
 	
 	// thrown parse exception has localized error message
 	@NotNull
 	@ThreadSafe
 	public FileResource createFile(@NotNull IndexingConfig config, @NotNull Path path) throws ParseException, FileNotFoundException {
-		Util.checkNotNull(config, path);
+		return createFile(config, path, Collections.<Path>emptyList());
+	}
+	
+	/**
+	 * Same as {@link #createFile(IndexingConfig, Path)}, but if the given path has to be unpacked from a 7z archive,
+	 * the given sibling paths that refer to other files in the same archive are unpacked along with it and put into
+	 * the unpack cache. This avoids decompressing the solid blocks of the archive again when the siblings are
+	 * requested later. The siblings should be given in the order in which they're likely to be requested; at most
+	 * {@link ProgramConf.Int#PrefetchedArchiveEntries} of them are unpacked.
+	 */
+	@NotNull
+	@ThreadSafe
+	public FileResource createFile(@NotNull IndexingConfig config, @NotNull Path path, @NotNull Collection<Path> siblings)
+			throws ParseException, FileNotFoundException {
+		Util.checkNotNull(config, path, siblings);
 		
 		try {
 			PathParts pathParts = path.splitAtExistingFile();
@@ -87,7 +124,7 @@ public final class FileFactory {
 				Path archivePath = pathParts.getLeft();
 				String entryPath = pathParts.getRight();
 				return unpackFromArchive(
-					config, archivePath, archiveResource, entryPath);
+					config, archivePath, archiveResource, entryPath, siblings);
 			}
 			
 			// Found unpacked ordinary file in cache; just return it
@@ -97,7 +134,7 @@ public final class FileFactory {
 			// Found intermediate archive in cache; need to unpack the remainder
 			Path archivePath = cacheSplitParts.getLeft();
 			String entryPath = cacheSplitParts.getRight();
-			return unpackFromArchive(config, archivePath, cachedResource[0], entryPath);
+			return unpackFromArchive(config, archivePath, cachedResource[0], entryPath, siblings);
 		}
 		catch (FileNotFoundException e) {
 			// Discard original exception to provide a more helpful message
@@ -117,34 +154,43 @@ public final class FileFactory {
 	}
 	
 	@NotNull
-	private FileResource unpackFromArchive(@NotNull IndexingConfig config, @NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath)
+	private FileResource unpackFromArchive(@NotNull IndexingConfig config, @NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath, @NotNull Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
 		File archiveFile = archiveResource.getFile();
 		assert ! (archiveFile instanceof TFile);
 		assert archiveFile.isFile();
 		TFile tzFile = new TFile(archiveFile, config.createZipDetector());
 		if (tzFile.isDirectory())
-			return unpackFromZipArchive(config, originalArchivePath, archiveResource, tzFile, entryPath);
-		return unpackFromSolidArchive(config, originalArchivePath, archiveResource, entryPath);
+			return unpackFromZipArchive(config, originalArchivePath, archiveResource, tzFile, entryPath, siblings);
+		return unpackFromSolidArchive(config, originalArchivePath, archiveResource, entryPath, siblings);
 	}
 
 	@NotNull
-	private FileResource unpackFromSolidArchive(@NotNull IndexingConfig config,	@NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath)
+	private FileResource unpackFromSolidArchive(@NotNull IndexingConfig config,	@NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath, @NotNull Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
 		File archiveFile = archiveResource.getFile();
 		String archiveExt = Util.splitFilename(archiveFile)[1];
 		
+		// If the archive is cataloged, we can tell whether the target entry exists without opening the archive
+		List<ArchiveCatalog.Entry> catalogEntries = getCatalogEntries(archiveResource);
+		if (catalogEntries != null && findCatalogEntry(config, catalogEntries, entryPath) == null) {
+			archiveResource.dispose();
+			throw new FileNotFoundException();
+		}
+		
 		if (! Util.hasExtension(entryPath, config.getHtmlExtensions())) { // Without HTML pairing
 			if (archiveExt.equals("exe") || archiveExt.equals("7z"))
-				return unpackFrom7zArchive(config, originalArchivePath, archiveResource, entryPath);
+				return unpackFrom7zArchive(config, originalArchivePath, archiveResource, entryPath, catalogEntries, siblings);
 			else if (archiveExt.equals("rar"))
 				// JUnRar doesn't support SFX rar archives
-				return unpackFromRarArchive(config, originalArchivePath, archiveResource, entryPath);
+				return unpackFromRarArchive(config, originalArchivePath, archiveResource, entryPath, catalogEntries, siblings);
 			else
 				throw new FileNotFoundException();
 		}
 		else { // With HTML pairing
 			/* Note: We'll ignore the HTML pairing flag in the config object and always leave the HTML pairing on. */
+			long lastModified = archiveFile.lastModified();
+			long length = archiveFile.length();
 			SolidArchiveTree<?> solidArchive;
 			if (archiveExt.equals("exe") || archiveExt.equals("7z"))
 				solidArchive = new SevenZipTree(archiveFile, config, true, originalArchivePath, null);
@@ -153,13 +199,50 @@ public final class FileFactory {
 				solidArchive = new RarTree(archiveFile, config, true, originalArchivePath, null);
 			else
 				throw new FileNotFoundException();
-			return unpackFromSolidArchive(config, archiveResource, solidArchive, entryPath);
+			if (catalogEntries == null && isCataloged(archiveResource))
+				catalog.put(archiveFile, lastModified, length, solidArchive.getCatalogEntries());
+			return unpackFromSolidArchive(config, archiveResource, solidArchive, entryPath, siblings);
+		}
+	}
+	
+	/**
+	 * Returns the total number of bytes that were decompressed from 7z archives so far, including the bytes of
+	 * entries that were only decompressed because other entries in the same solid block depended on them.
+	 */
+	@VisibleForTesting
+	long getDecompressedBytes() {
+		return decompressedBytes.get();
+	}
+	
+	// Only archives outside of other archives are cataloged, since the others are unpacked into temporary files
+	private boolean isCataloged(@NotNull FileResource archiveResource) {
+		return catalog != null && archiveResource instanceof PermanentFileResource;
+	}
+	
+	@Nullable
+	private List<ArchiveCatalog.Entry> getCatalogEntries(@NotNull FileResource archiveResource) {
+		if (! isCataloged(archiveResource))
+			return null;
+		return catalog.get(archiveResource.getFile());
+	}
+	
+	// Returns the cataloged entry that either is the target entry or is an archive containing the target entry
+	@Nullable
+	private static ArchiveCatalog.Entry findCatalogEntry(@NotNull IndexingConfig config, @NotNull List<ArchiveCatalog.Entry> catalogEntries, @NotNull String entryPath) {
+		for (ArchiveCatalog.Entry entry : catalogEntries) {
+			if (entry.isDirectory() || entry.isEncrypted())
+				continue;
+			String currentPath = entry.getInnerPath();
+			if (entryPath.equals(currentPath) ||
+					(entryPath.startsWith(currentPath + "/") && config.isArchive(currentPath)))
+				return entry;
 		}
+		return null;
 	}
 	
 	@NotNull
 	private FileResource unpackFromZipArchive(	@NotNull final IndexingConfig config, @NotNull final Path originalArchivePath, @NotNull final FileResource archiveResource,
-												@NotNull final TFile archiveFile, @NotNull final String entryPath)
+												@NotNull final TFile archiveFile, @NotNull final String entryPath, @NotNull final Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
 		assert archiveFile.isArchive();
 		assert archiveFile.getEnclArchive() == null;
@@ -191,7 +274,7 @@ public final class FileFactory {
 						Path cacheKey = originalArchivePath.createSubPath(currentPath);
 						FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
 						String remainingPath = entryPath.substring(currentPath.length() + 1);
-						result[0] = unpackFromSolidArchive(config, cacheKey, innerArchive, remainingPath);
+						result[0] = unpackFromSolidArchive(config, cacheKey, innerArchive, remainingPath, siblings);
 						stop();
 					}
 				}
@@ -294,17 +377,32 @@ public final class FileFactory {
 	
 	// does not support HTML pairing, but is faster and more lightweight
 	@NotNull
-	private FileResource unpackFrom7zArchive(@NotNull final IndexingConfig config, @NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath)
+	private FileResource unpackFrom7zArchive(@NotNull final IndexingConfig config, @NotNull Path originalArchivePath, @NotNull FileResource archiveResource, @NotNull String entryPath,
+											@Nullable List<ArchiveCatalog.Entry> catalogEntries, @NotNull Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException,FileNotFoundException, IOException {
 		// TODO now: windows: can we check if the archive or the target archive entry is encrypted?
 		assert noTrailingSlash(entryPath);
 		
+		File archiveFile = archiveResource.getFile();
+		long lastModified = archiveFile.lastModified();
+		long length = archiveFile.length();
 		IInArchive archive = new Handler();
-		SevenZipInputStream istream = new SevenZipInputStream(archiveResource.getFile());
+		SevenZipInputStream istream = new SevenZipInputStream(archiveFile);
 		if (archive.Open(istream) != 0)
 			throw new IOException();
 		
 		try {
+			if (catalogEntries == null && isCataloged(archiveResource)) {
+				catalog.put(archiveFile, lastModified, length, SevenZipTree.readCatalogEntries(archive));
+			}
+			else if (catalogEntries != null) {
+				// Go straight to the cataloged entry, unless the archive was modified in the meantime
+				ArchiveCatalog.Entry catalogEntry = findCatalogEntry(config, catalogEntries, entryPath);
+				int i = catalogEntry == null ? -1 : catalogEntry.getIndex();
+				if (i >= 0 && i < archive.size() && archive.getEntry(i).getName().equals(catalogEntry.getInnerPath()))
+					return unpack7zMatch(config, originalArchivePath, archiveResource, archive, entryPath, catalogEntry.getInnerPath(), i, siblings);
+			}
+			
 			for (int i = 0; i < archive.size(); i++) {
 				SevenZipEntry entry = archive.getEntry(i);
 				if (entry.isDirectory()) continue;
@@ -312,26 +410,9 @@ public final class FileFactory {
 				assert ! currentPath.contains("\\");
 				assert noTrailingSlash(currentPath);
 
-				// TODO post-release-1.1: throw disk space exception
-				if (entryPath.equals(currentPath)) { // Exact match
-					File unpackedFile = unpack7zEntry(config, archive, currentPath, i);
-					Path cacheKey = originalArchivePath.createSubPath(currentPath);
-					return unpackCache.putIfAbsent(cacheKey, unpackedFile);
-				}
-				else if (entryPath.startsWith(currentPath + "/")
-						&& config.isArchive(currentPath)) { // Partial match
-					File innerArchiveFile;
-					try {
-						innerArchiveFile = unpack7zEntry(config, archive, currentPath, i);
-					}
-					finally {
-						archiveResource.dispose();
-					}
-					Path cacheKey = originalArchivePath.createSubPath(currentPath);
-					String remainingPath = entryPath.substring(currentPath.length() + 1);
-					FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
-					return unpackFromArchive(config, cacheKey, innerArchive, remainingPath);
-				}
+				if (entryPath.equals(currentPath) ||
+						(entryPath.startsWith(currentPath + "/") && config.isArchive(currentPath)))
+					return unpack7zMatch(config, originalArchivePath, archiveResource, archive, entryPath, currentPath, i, siblings);
 			}
 		}
 		finally {
@@ -342,37 +423,145 @@ public final class FileFactory {
 		throw new FileNotFoundException();
 	}
 	
-	private static File unpack7zEntry(	@NotNull final IndexingConfig config, @NotNull IInArchive archive, @NotNull final String entryPath, int index) throws IOException {
-		return new SevenZipUnpacker<File>(archive) {
-			private File unpackedFile;
-			public File getOutputFile(int index) throws IOException {
-				String entryName = getLastPathPart(entryPath);
+	@NotNull
+	private FileResource unpack7zMatch(	@NotNull IndexingConfig config, @NotNull Path originalArchivePath, @NotNull FileResource archiveResource,
+										@NotNull IInArchive archive, @NotNull String entryPath, @NotNull String currentPath, int index, @NotNull Collection<Path> siblings)
+			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
+		// TODO post-release-1.1: throw disk space exception
+		if (entryPath.equals(currentPath)) { // Exact match
+			/*
+			 * Siblings in the same archive are unpacked in the same pass, so that the solid blocks of the archive are
+			 * only decompressed once. The siblings are disposed of right away, which moves them to the cold cache.
+			 */
+			Map<Integer, String> unpackPaths = find7zSiblings(config, originalArchivePath, archive, siblings);
+			unpackPaths.put(index, currentPath);
+			Map<Integer, File> unpackedFiles = unpack7zEntries(config, archive, unpackPaths);
+			FileResource result = null;
+			for (Map.Entry<Integer, File> entry : unpackedFiles.entrySet()) {
+				Path cacheKey = originalArchivePath.createSubPath(unpackPaths.get(entry.getKey()));
+				FileResource fileResource = unpackCache.putIfAbsent(cacheKey, entry.getValue());
+				if (entry.getKey() == index)
+					result = fileResource;
+				else
+					fileResource.dispose();
+			}
+			if (result == null)
+				throw new IOException(); // Unpacking failed for some reason
+			return result;
+		}
+		// Partial match
+		File innerArchiveFile;
+		try {
+			innerArchiveFile = unpack7zEntry(config, archive, currentPath, index);
+		}
+		finally {
+			archiveResource.dispose();
+		}
+		Path cacheKey = originalArchivePath.createSubPath(currentPath);
+		String remainingPath = entryPath.substring(currentPath.length() + 1);
+		FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
+		return unpackFromArchive(config, cacheKey, innerArchive, remainingPath, siblings);
+	}
+	
+	// Returns the indices and inner paths of the given siblings that are files in the given 7z archive and not in the unpack cache yet
+	@NotNull
+	private Map<Integer, String> find7zSiblings(@NotNull IndexingConfig config, @NotNull Path originalArchivePath,
+												@NotNull IInArchive archive, @NotNull Collection<Path> siblings) {
+		Map<Integer, String> unpackPaths = new TreeMap<Integer, String>();
+		int maxCount = ProgramConf.Int.PrefetchedArchiveEntries.get();
+		if (maxCount == 0 || siblings.isEmpty())
+			return unpackPaths;
+		
+		// The siblings are taken in the given order, since the first ones are the most likely to be requested next
+		String prefix = originalArchivePath.getPath() + "/";
+		Set<String> innerPaths = new HashSet<String>();
+		for (Path sibling : siblings) {
+			if (innerPaths.size() >= maxCount)
+				break;
+			if (! sibling.getPath().startsWith(prefix))
+				continue;
+			String innerPath = sibling.getPath().substring(prefix.length());
+			
+			// HTML files are left out, since they must be unpacked together with their HTML folders
+			if (Util.hasExtension(innerPath, config.getHtmlExtensions()) || unpackCache.containsKey(sibling))
+				continue;
+			innerPaths.add(innerPath);
+		}
+		if (innerPaths.isEmpty())
+			return unpackPaths;
+		for (int i = 0; i < archive.size(); i++) {
+			SevenZipEntry entry = archive.getEntry(i);
+			if (! entry.isDirectory() && innerPaths.contains(entry.getName()))
+				unpackPaths.put(i, entry.getName());
+		}
+		return unpackPaths;
+	}
+	
+	@NotNull
+	private File unpack7zEntry(	@NotNull IndexingConfig config, @NotNull IInArchive archive, @NotNull String entryPath, int index) throws IOException {
+		Map<Integer, String> unpackPaths = new TreeMap<Integer, String>();
+		unpackPaths.put(index, entryPath);
+		File unpackedFile = unpack7zEntries(config, archive, unpackPaths).get(index);
+		if (unpackedFile == null)
+			throw new IOException(); // Unpacking failed for some reason
+		return unpackedFile;
+	}
+	
+	// Unpacks the given entries in a single pass over the archive and returns the unpacked files, keyed by index
+	@NotNull
+	private Map<Integer, File> unpack7zEntries(	@NotNull final IndexingConfig config, @NotNull IInArchive archive,
+												@NotNull final Map<Integer, String> entryPaths) throws IOException {
+		SevenZipUnpacker<Map<Integer, File>> unpacker = new SevenZipUnpacker<Map<Integer, File>>(archive) {
+			private final Map<Integer, File> unpackedFiles = new TreeMap<Integer, File>();
+			public OutputStream getOutputStream(int index) throws IOException {
+				String entryName = getLastPathPart(entryPaths.get(index));
+				File unpackedFile;
 				try {
-					return unpackedFile = config.createDerivedTempFile(entryName);
+					unpackedFile = config.createDerivedTempFile(entryName);
 				}
 				catch (IndexingException e) {
 					throw e.getIOException();
 				}
+				unpackedFiles.put(index, unpackedFile);
+				return new FileOutputStream(unpackedFile);
 			}
-			public File getUnpackResult() {
-				return unpackedFile;
+			public Map<Integer, File> getUnpackResult() {
+				return unpackedFiles;
 			}
-		}.unpack(index);
+		};
+		try {
+			return unpacker.unpack(Ints.toArray(entryPaths.keySet()));
+		}
+		finally {
+			decompressedBytes.addAndGet(unpacker.getDecompressedBytes());
+		}
 	}
 	
 	// does not support HTML pairing, but is faster and more lightweight
 	@NotNull
 	private FileResource unpackFromRarArchive(	@NotNull IndexingConfig config,	@NotNull Path originalArchivePath,
-												@NotNull FileResource archiveResource, @NotNull String entryPath)
+												@NotNull FileResource archiveResource, @NotNull String entryPath,
+												@Nullable List<ArchiveCatalog.Entry> catalogEntries, @NotNull Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
 		Archive archive = null;
 		try {
 			File archiveFile = archiveResource.getFile();
+			long lastModified = archiveFile.lastModified();
+			long length = archiveFile.length();
 			archive = new Archive(archiveFile);
 			if (archive.isEncrypted())
 				throw new ArchiveEncryptedException(archiveFile, originalArchivePath.getPath());
 
 			List<FileHeader> fileHeaders = archive.getFileHeaders();
+			if (catalogEntries == null && isCataloged(archiveResource)) {
+				catalog.put(archiveFile, lastModified, length, RarTree.readCatalogEntries(fileHeaders));
+			}
+			else if (catalogEntries != null) {
+				FileResource result = unpackCatalogedRarEntry(
+					config, originalArchivePath, archiveResource, archive, entryPath, catalogEntries, siblings);
+				if (result != null)
+					return result;
+			}
 			
 			boolean isSolid = false;
 			for (FileHeader fh : fileHeaders) {
@@ -420,28 +609,11 @@ public final class FileFactory {
 				currentPath = Util.toForwardSlashes(currentPath);
 				assert noTrailingSlash(currentPath);
 				
-				// TODO post-release-1.1: throw disk space exception
-				if (entryPath.equals(currentPath)) { // Exact match
-					Path cacheKey = originalArchivePath.createSubPath(currentPath);
-					File unpackedFile = unpackRarEntry(config, archive, fh, entryPath);
-					return unpackCache.putIfAbsent(cacheKey, unpackedFile);
-				}
-				else if (entryPath.startsWith(currentPath + "/") && config.isArchive(currentPath)) { // Partial match
-					File innerArchiveFile;
-					try {
-						innerArchiveFile = unpackRarEntry(config, archive, fh, currentPath);
-					}
-					finally {
-						archiveResource.dispose();
-					}
-					Path cacheKey = originalArchivePath.createSubPath(currentPath);
-					FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
-					String remainingPath = entryPath.substring(currentPath.length() + 1);
-					return unpackFromArchive(config, cacheKey, innerArchive, remainingPath);
-				}
-				else if (isSolid) { // Not a match
+				if (entryPath.equals(currentPath) ||
+						(entryPath.startsWith(currentPath + "/") && config.isArchive(currentPath)))
+					return unpackRarMatch(config, originalArchivePath, archiveResource, archive, fh, entryPath, currentPath, siblings);
+				else if (isSolid) // Not a match
 					archive.extractFile(fh, nullOut);
-				}
 			}
 		}
 		catch (RarException e) {
@@ -454,6 +626,63 @@ public final class FileFactory {
 		throw new FileNotFoundException();
 	}
 	
+	/*
+	 * Unpacks the cataloged entry matching the given entry path. Of the preceding entries, only those in the same solid
+	 * block as the matching entry are extracted, since the earlier solid blocks can be decompressed independently. Returns
+	 * null if the archive doesn't match the catalog anymore.
+	 */
+	@Nullable
+	private FileResource unpackCatalogedRarEntry(	@NotNull IndexingConfig config, @NotNull Path originalArchivePath,
+													@NotNull FileResource archiveResource, @NotNull Archive archive,
+													@NotNull String entryPath, @NotNull List<ArchiveCatalog.Entry> catalogEntries, @NotNull Collection<Path> siblings)
+			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException, RarException {
+		ArchiveCatalog.Entry catalogEntry = findCatalogEntry(config, catalogEntries, entryPath);
+		List<FileHeader> fileHeaders = archive.getFileHeaders();
+		if (catalogEntry == null || fileHeaders.size() != catalogEntries.size())
+			return null;
+		FileHeader fh = fileHeaders.get(catalogEntry.getIndex());
+		String currentPath = fh.isUnicode() ? fh.getFileNameW() : fh.getFileNameString();
+		currentPath = Util.toForwardSlashes(currentPath);
+		if (! currentPath.equals(catalogEntry.getInnerPath()))
+			return null;
+		
+		int solidBlock = catalogEntry.getSolidBlock();
+		if (solidBlock >= 0) {
+			NullOutputStream nullOut = new NullOutputStream();
+			for (int i = 0; i < catalogEntry.getIndex(); i++) {
+				ArchiveCatalog.Entry entry = catalogEntries.get(i);
+				if (entry.getSolidBlock() == solidBlock && ! entry.isEncrypted())
+					archive.extractFile(fileHeaders.get(i), nullOut);
+			}
+		}
+		return unpackRarMatch(config, originalArchivePath, archiveResource, archive, fh, entryPath, currentPath, siblings);
+	}
+	
+	@NotNull
+	private FileResource unpackRarMatch(@NotNull IndexingConfig config, @NotNull Path originalArchivePath,
+										@NotNull FileResource archiveResource, @NotNull Archive archive,
+										@NotNull FileHeader fh, @NotNull String entryPath, @NotNull String currentPath, @NotNull Collection<Path> siblings)
+			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException, RarException {
+		// TODO post-release-1.1: throw disk space exception
+		if (entryPath.equals(currentPath)) { // Exact match
+			Path cacheKey = originalArchivePath.createSubPath(currentPath);
+			File unpackedFile = unpackRarEntry(config, archive, fh, entryPath);
+			return unpackCache.putIfAbsent(cacheKey, unpackedFile);
+		}
+		// Partial match
+		File innerArchiveFile;
+		try {
+			innerArchiveFile = unpackRarEntry(config, archive, fh, currentPath);
+		}
+		finally {
+			archiveResource.dispose();
+		}
+		Path cacheKey = originalArchivePath.createSubPath(currentPath);
+		FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
+		String remainingPath = entryPath.substring(currentPath.length() + 1);
+		return unpackFromArchive(config, cacheKey, innerArchive, remainingPath, siblings);
+	}
+	
 	@NotNull
 	private static File unpackRarEntry(	@NotNull IndexingConfig config, @NotNull Archive archive, @NotNull FileHeader fh, @NotNull String entryPath)
 			throws IOException, RarException {
@@ -489,7 +718,7 @@ public final class FileFactory {
 	// supports HTML pairing, but has some overhead
 	@NotNull
 	private FileResource unpackFromSolidArchive(@NotNull IndexingConfig config, @NotNull FileResource archiveResource,
-												@NotNull final SolidArchiveTree<?> archive, @NotNull final String entryPath)
+												@NotNull final SolidArchiveTree<?> archive, @NotNull final String entryPath, @NotNull final Collection<Path> siblings)
 			throws ArchiveEncryptedException, DiskSpaceException, FileNotFoundException, IOException {
 		final TreeNode[] matchingNode = new TreeNode[1];
 		final String[] remainingPath = new String[1];
@@ -532,7 +761,7 @@ public final class FileFactory {
 				if (innerArchiveFile == null)
 					throw new IOException(); // Unpacking failed for some reason
 				FileResource innerArchive = unpackCache.putIfAbsent(cacheKey, innerArchiveFile);
-				return unpackFromArchive(config, cacheKey, innerArchive, remainingPath[0]);
+				return unpackFromArchive(config, cacheKey, innerArchive, remainingPath[0], siblings);
 			}
 			else if (matchingNode[0] instanceof FileDocument) { // File
 				FileDocument htmlDoc = (FileDocument) treeNode;
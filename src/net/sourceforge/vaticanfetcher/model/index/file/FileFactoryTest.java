@@ -15,6 +15,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -98,6 +99,34 @@ public final class FileFactoryTest {
 		}
 	}
 	
+	@Test
+	public void testUnpackSiblings() throws Exception {
+		// A solid 7z archive containing an HTML file, followed by two text files
+		File archive = TestFiles.index_update_html_in_7z.getChild("05_added-sub-file-readable.7z");
+		Path archivePath = new Path(Util.getAbsPath(archive));
+		Path path1 = archivePath.createSubPath("test_files/test.txt");
+		Path path2 = archivePath.createSubPath("test_files/test2.txt");
+		IndexingConfig config = new IndexingConfig();
+		
+		// Unpacking the files one by one decompresses the start of the solid block twice
+		FileFactory fileFactory = new FileFactory(new HotColdFileCache(20));
+		fileFactory.createFile(config, path2).dispose();
+		fileFactory.createFile(config, path1).dispose();
+		assertEquals(372 + 12 + 14 + 372 + 12, fileFactory.getDecompressedBytes());
+		
+		// Unpacking a file along with its sibling decompresses the solid block only once
+		HotColdFileCache unpackCache = new HotColdFileCache(20);
+		fileFactory = new FileFactory(unpackCache);
+		FileResource fileResource = fileFactory.createFile(config, path2, Arrays.asList(path1));
+		assertEquals(14, fileResource.getFile().length());
+		fileResource.dispose();
+		assertTrue(unpackCache.containsKey(path1));
+		fileResource = fileFactory.createFile(config, path1, Arrays.asList(path2));
+		assertEquals(12, fileResource.getFile().length());
+		fileResource.dispose();
+		assertEquals(372 + 12 + 14, fileFactory.getDecompressedBytes());
+	}
+	
 	@Test
 	public void testUnpackSfxArchives() throws Exception {
 		HotColdFileCache unpackCache = new HotColdFileCache(20);
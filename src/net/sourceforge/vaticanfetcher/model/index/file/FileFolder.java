@@ -40,6 +40,10 @@ public class FileFolder extends Folder<FileDocument, FileFolder> {
 		super(parent, name, lastModified);
 	}
 	
+	FileFolder(@NotNull String path, @NotNull FileFolder parent, @NotNull String name) {
+		super(path, parent, name);
+	}
+	
 	public FileFolder(@NotNull Path path, @Nullable Long lastModified) {
 		super(path, lastModified);
 	}
@@ -13,14 +13,22 @@ package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.DocumentType;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.TreeIndex;
+import net.sourceforge.vaticanfetcher.model.TreeIndexReader;
+import net.sourceforge.vaticanfetcher.model.TreeIndexWriter;
 import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
 import net.sourceforge.vaticanfetcher.model.index.DiskSpaceException;
@@ -29,15 +37,24 @@ import net.sourceforge.vaticanfetcher.model.index.IndexingError;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.Measurement;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.model.index.MutableInt;
+import net.sourceforge.vaticanfetcher.model.index.file.EntryStreamer.EntryHandler;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFolder.FileFolderVisitor;
+import net.sourceforge.vaticanfetcher.model.parse.ParseService;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.google.common.io.Closeables;
 
 import de.schlichtherle.truezip.file.TArchiveDetector;
@@ -88,6 +105,10 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		}
 	}
 	
+	public FileIndex(@NotNull TreeIndexReader in) throws IOException {
+		super(in);
+	}
+	
 	@NotNull
 	protected String getIndexDirName(@NotNull File rootFile) {
 		return Util.getNameOrLetter(rootFile, "");
@@ -97,6 +118,35 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	protected FileFolder createRootFolder(@NotNull Path path) {
 		return new FileFolder(path, null);
 	}
+	
+	@NotNull
+	protected FileFolder createLoadedFolder(@NotNull FileFolder parent,
+											@NotNull String name,
+											@NotNull String path) {
+		return new FileFolder(path, parent, name);
+	}
+	
+	@NotNull
+	protected FileDocument createLoadedDocument(@NotNull FileFolder parent,
+												@NotNull String name,
+												@Nullable String displayName,
+												long lastModified) {
+		return new FileDocument(parent, name, lastModified);
+	}
+	
+	protected void writeDocumentData(	@NotNull TreeIndexWriter out,
+										@NotNull FileDocument doc) throws IOException {
+		FileFolder htmlFolder = doc.getHtmlFolder();
+		out.writeBoolean(htmlFolder != null);
+		if (htmlFolder != null)
+			out.writeRootFolder(this, htmlFolder);
+	}
+	
+	protected void readDocumentData(@NotNull TreeIndexReader in,
+									@NotNull FileDocument doc) throws IOException {
+		if (in.readBoolean())
+			doc.setHtmlFolder(in.readRootFolder(this));
+	}
 
 	public boolean isEmailIndex() {
 		return false;
@@ -108,11 +158,35 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
 									@NotNull Cancelable cancelable) {
+		return doUpdate(reporter, cancelable, null, false);
+	}
+	
+	/**
+	 * Runs an update that only refreshes the folders containing the given changed files. Folders that were 
+	 * added in the meantime are indexed in full. Falls back to a full update if the root is an archive or if 
+	 * the last update on the root failed.
+	 */
+	@Override
+	protected IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
+										@NotNull Cancelable cancelable,
+										@NotNull Collection<File> changedFiles) {
+		return doUpdate(reporter, cancelable, changedFiles, true);
+	}
+
+	private IndexingResult doUpdate(@NotNull IndexingReporter reporter,
+									@NotNull Cancelable cancelable,
+									@Nullable Collection<File> changedFiles,
+									boolean partial) {
 		reporter.setStartTime(System.currentTimeMillis());
 		IndexingConfig config = getConfig();
 		FileFolder rootFolder = getRootFolder();
+		partial &= !rootFolder.hasErrors();
 		rootFolder.setError(null);
 		SimpleDocWriter writer = null;
+		IndexingPipeline pipeline = null;
+		MemoryGovernor governor = null;
+		ParseResultStore parseResultStore = ParseResultStore.createIfEnabled(getIndexParentDir());
+		IndexingMetrics metrics = new IndexingMetrics();
 
 		/*
 		 * Wrap the stored root file in a TFile to enable zip archive support.
@@ -136,11 +210,28 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.SUCCESS_UNCHANGED;
 				rootFolder.setLastModified(newLastModified);
 				
+				Map<FileFolder, File> dirtyFolders = null;
+				if (partial && newLastModified == null)
+					dirtyFolders = getDirtyFolders(rootFile, changedFiles);
+				
 				writer = new SimpleDocWriter(getLuceneDir());
+				pipeline = IndexingPipeline.createIfEnabled();
+				governor = MemoryGovernor.createIfEnabled();
 				FileContext context = new FileContext(
 					config, zipDetector, writer, reporter, null, cancelable,
-					new MutableInt(0), getIndexParentDir());
-				visitDirOrZip(context, rootFolder, rootFile);
+					new MutableInt(0), getIndexParentDir(), pipeline, governor, parseResultStore, metrics);
+				if (dirtyFolders == null)
+					visitDirOrZip(context, rootFolder, rootFile, true);
+				else
+					visitDirtyFolders(context, dirtyFolders);
+				
+				/*
+				 * The remaining work items must be written even if the indexing was canceled, so that the
+				 * partially extracted texts make it into the index, just like in the sequential case.
+				 */
+				context.flushPipeline();
+				if (governor != null)
+					governor.runDeferred();
 			}
 			else {
 				// Return immediately if the root file wasn't modified
@@ -164,9 +255,11 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				writer = new SimpleDocWriter(getLuceneDir());
 				SolidArchiveContext context = new SolidArchiveContext(
 					config, zipDetector, writer, reporter, null, cancelable,
-					new MutableInt(0), false, getIndexParentDir());
+					new MutableInt(0), false, getIndexParentDir(), parseResultStore, metrics);
+				long length = rootFile.length();
 				SolidArchiveTree<?> archiveTree = factory.createSolidArchiveTree(
 					context, rootFile);
+				putCatalogEntries(context, rootFile, newLastModified, length, archiveTree);
 				visitSolidArchive(context, rootFolder, archiveTree);
 			}
 
@@ -188,7 +281,14 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			report(ErrorType.STACK_OVERFLOW, reporter, e);
 		}
 		finally {
+			if (pipeline != null)
+				pipeline.close();
+			if (governor != null)
+				governor.discard();
 			Closeables.closeQuietly(writer);
+			if (parseResultStore != null && parseResultStore.getLookupCount() > 0)
+				reporter.setDedupStats(parseResultStore.getLookupCount(), parseResultStore.getHitCount());
+			reportMetrics(reporter, metrics);
 			reporter.setEndTime(System.currentTimeMillis());
 		}
 		return IndexingResult.FAILURE;
@@ -224,17 +324,89 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		return null;
 	}
 
+	/**
+	 * For each of the given changed files, finds the deepest registered folder that corresponds to an ancestor directory of the 
+	 * changed file and isn't inside an archive. Returns a map from the found folders to their directories, sorted by folder 
+	 * depth, or null if one of the changed files is the root directory itself or lies outside of it.
+	 */
+	@Nullable
+	private Map<FileFolder, File> getDirtyFolders(	@NotNull TFile rootFile,
+													@NotNull Collection<File> changedFiles) {
+		String rootPath = Util.getAbsPath(getCanonicalRootFile());
+		FileFolder rootFolder = getRootFolder();
+		Map<FileFolder, File> dirtyFolders = Maps.newHashMap();
+		
+		for (File changedFile : changedFiles) {
+			String changedPath = Util.getAbsPath(changedFile);
+			if (!Util.contains(rootPath, changedPath))
+				return null;
+			
+			List<String> parts = Util.splitPath(changedPath.substring(rootPath.length() + 1));
+			FileFolder folder = rootFolder;
+			File dir = rootFile;
+			for (String part : parts.subList(0, parts.size() - 1)) {
+				FileFolder subFolder = folder.getSubFolder(part);
+				if (subFolder == null || subFolder.isArchive())
+					break;
+				folder = subFolder;
+				dir = new TFile(dir, part);
+			}
+			dirtyFolders.put(folder, dir);
+		}
+		
+		List<FileFolder> sortedFolders = Lists.newArrayList(dirtyFolders.keySet());
+		Collections.sort(sortedFolders, new Comparator<FileFolder>() {
+			public int compare(FileFolder o1, FileFolder o2) {
+				return Ints.compare(o1.getParentCount(), o2.getParentCount());
+			}
+		});
+		Map<FileFolder, File> sortedMap = Maps.newLinkedHashMap();
+		for (FileFolder folder : sortedFolders)
+			sortedMap.put(folder, dirtyFolders.get(folder));
+		return sortedMap;
+	}
+	
+	/**
+	 * Refreshes the given folders without descending into subfolders that were already registered. Parents are 
+	 * expected to come before their children, so that folders detached by an earlier refresh can be skipped.
+	 */
+	private void visitDirtyFolders(	@NotNull FileContext context,
+									@NotNull Map<FileFolder, File> dirtyFolders)
+			throws IndexingException {
+		FileFolder rootFolder = getRootFolder();
+		Set<FileFolder> visited = Sets.newHashSet();
+		for (Map.Entry<FileFolder, File> entry : dirtyFolders.entrySet()) {
+			if (context.isStopped())
+				return;
+			FileFolder folder = entry.getKey();
+			File dir = entry.getValue();
+			if (folder.getRoot() != rootFolder)
+				continue; // Detached by an earlier refresh
+			
+			// If the folder's directory was deleted, refresh the parent instead
+			while (folder != rootFolder && !dir.isDirectory()) {
+				folder = folder.getParent();
+				dir = dir.getParentFile();
+			}
+			if (visited.add(folder))
+				visitDirOrZip(context, folder, dir, false);
+		}
+	}
+
 	@NotNull
 	private static FileDocument createFileDoc(	@NotNull FileFolder parentFolder,
-												@NotNull File file) {
-		return new FileDocument(parentFolder, file.getName(), file.lastModified());
+												@NotNull File file,
+												long lastModified) {
+		return new FileDocument(parentFolder, file.getName(), lastModified);
 	}
 
 	// Will clean up temporary zip files
+	// If deep is false, subfolders that were already registered are not visited, unless they're modified zip archives
 	@RecursiveMethod
 	private static void visitDirOrZip(	@NotNull final FileContext context,
 										@NotNull final FileFolder folder,
-										@NotNull final File dirOrZip)
+										@NotNull final File dirOrZip,
+										final boolean deep)
 			throws IndexingException {
 		assert dirOrZip.isDirectory();
 		assert !folder.hasErrors();
@@ -253,7 +425,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		 */
 		new HtmlFileLister<IndexingException>(
 			dirOrZip, context.getConfig(), context.getReporter()) {
-			protected void handleFile(@NotNull File file) {
+			protected void handleFile(@NotNull File file, long lastModified) {
 				if (context.isStopped()) stop();
 				try {
 					if (switchDirZipToSolid(context, folder, file)) {
@@ -263,19 +435,18 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					FileDocument doc = unseenDocs.remove(file.getName());
 					// File added
 					if (doc == null) {
-						doc = createFileDoc(folder, file);
-						context.index(doc, file, true);
+						doc = createFileDoc(folder, file, lastModified);
+						context.indexOrSubmit(doc, file, true);
 					}
 					// File modified
-					else if (doc.isModified(context, file, null)) {
-						doc.setLastModified(file.lastModified());
+					else if (doc.isModified(context, file, lastModified, null)) {
+						doc.setLastModified(lastModified);
 						doc.setHtmlFolder(null);
 						
 						/*
 						 * Try to index the file. If this fails, remove it from the Lucene index, but keep it in the tree so we won't index it again on the next index update.
 						 */
-						if (!context.index(doc, file, false))
-							context.deleteFromIndex(doc.getUniqueId());
+						context.indexOrSubmit(doc, file, false);
 					}
 				}
 				catch (IndexingException e) {
@@ -283,26 +454,26 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				}
 			}
 
-			protected void handleHtmlPair(@NotNull File htmlFile, @Nullable File htmlDir) {
+			protected void handleHtmlPair(@NotNull File htmlFile, long lastModified, @Nullable File htmlDir) {
 				if (context.isStopped()) stop();
 				try {
 					FileDocument doc = unseenDocs.remove(htmlFile.getName());
 					// HTML pair added
 					if (doc == null) {
-						doc = createFileDoc(folder, htmlFile);
+						doc = createFileDoc(folder, htmlFile, lastModified);
 						FileFolder htmlFolder = htmlDir == null	? null : new FileFolder(context.getDirOrZipPath(htmlDir), null);
 						doc.setHtmlFolder(htmlFolder);
 						AppendingContext subContext = new AppendingContext(context);
 						if (!subContext.index(doc, htmlFile, true)) return;
 						if (htmlDir != null) {
 							subContext.setReporter(null);
-							visitDirOrZip(subContext, doc.getHtmlFolder(), htmlDir);
+							visitDirOrZip(subContext, doc.getHtmlFolder(), htmlDir, true);
 						}
 						subContext.appendToOuter(doc, true);
 					}
 					// HTML pair modified
-					else if (doc.isModified(context, htmlFile, htmlDir)) {
-						doc.setLastModified(htmlFile.lastModified());
+					else if (doc.isModified(context, htmlFile, lastModified, htmlDir)) {
+						doc.setLastModified(lastModified);
 						/*
 						 * Here, we replace any previous HTML folder with a new empty one, which effectively causes all files
 						 * encountered in the on-disk HTML folder to appear as 'new', rather than 'modified' or 'removed'.
@@ -313,7 +484,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 						if (subContext.index(doc, htmlFile, true)) {
 							if (htmlDir != null) {
 								subContext.setReporter(null);
-								visitDirOrZip(subContext, doc.getHtmlFolder(), htmlDir);
+								visitDirOrZip(subContext, doc.getHtmlFolder(), htmlDir, true);
 							}
 							subContext.appendToOuter(doc, false);
 						}
@@ -341,11 +512,13 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				else { // Folder already registered, check modification state
 					if (UtilModel.isUnmodifiedArchive(subFolder, newLastModified))
 						return;
+					if (!deep && newLastModified == null && !subFolder.isArchive())
+						return;
 					subFolder.setLastModified(newLastModified);
 					subFolder.setError(null);
 				}
 				try {
-					visitDirOrZip(context, subFolder, dir);
+					visitDirOrZip(context, subFolder, dir, true);
 				}
 				catch (StackOverflowError e) {
 					/*
@@ -361,8 +534,8 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				}
 			}
 
-			protected boolean skip(@NotNull File fileOrDir) {
-				return context.skip((TFile) fileOrDir);
+			protected boolean skip(@NotNull File fileOrDir, boolean isFile) {
+				return context.skip((TFile) fileOrDir, isFile);
 			}
 
 			protected void runFinally() {
@@ -438,11 +611,17 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 		File unpackedArchiveFile = null;
 		try {
+			Measurement measurement = IndexingMetrics.start();
 			unpackedArchiveFile = UtilModel.maybeUnpackZipEntry(
 				context.getConfig(), archiveFile);
+			if (unpackedArchiveFile != null)
+				context.getMetrics().record(IndexingMetrics.UNPACK, measurement, unpackedArchiveFile.length(), false, null);
 			boolean isTempArchive = unpackedArchiveFile != null;
 			SolidArchiveContext subContext = new SolidArchiveContext(context, archiveFolder.getPath(), isTempArchive, context.getIndexParentDir());
+			long length = archiveFile.length();
 			SolidArchiveTree<?> archiveTree = factory.createSolidArchiveTree(subContext, isTempArchive ? unpackedArchiveFile : archiveFile);
+			if (!isTempArchive)
+				putCatalogEntries(subContext, archiveFile, newLastModified, length, archiveTree);
 			visitSolidArchive(subContext, archiveFolder, archiveTree);
 		}
 		catch (DiskSpaceException e) {
@@ -464,13 +643,25 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		return true;
 	}
 
+	// Stores the entry list of the given archive, so that its entries can be previewed without reading the archive first
+	private static void putCatalogEntries(	@NotNull FileContext context,
+											@NotNull File archiveFile,
+											long lastModified,
+											long length,
+											@NotNull SolidArchiveTree<?> archiveTree) {
+		ArchiveCatalog catalog = ArchiveCatalog.getInstance(context.getIndexParentDir());
+		if (catalog != null)
+			catalog.put(archiveFile, lastModified, length, archiveTree.getCatalogEntries());
+	}
+
 	// will close the archive tree
-	private static void visitSolidArchive(	@NotNull SolidArchiveContext context,
+	private static void visitSolidArchive(	@NotNull final SolidArchiveContext context,
 											@NotNull FileFolder archiveFolder,
-											@NotNull SolidArchiveTree<?> archiveTree)
+											@NotNull final SolidArchiveTree<?> archiveTree)
 			throws IndexingException {
 		assert !archiveFolder.hasErrors();
 		FileFolder newArchiveFolder = archiveTree.getArchiveFolder();
+		final List<String> streamedUids = Lists.newArrayList();
 		try {
 			// Collect files to unpack
 			visitSolidArchiveFolder(context, archiveTree, archiveFolder, newArchiveFolder);
@@ -480,9 +671,32 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 			// Unpack added and modified files
 			context.info(InfoType.UNPACKING, archiveFolder);
-			archiveTree.unpack(unpackList, null);
+			List<FileDocument> streamedDocs = getStreamedDocs(context, archiveTree);
+			if (!streamedDocs.isEmpty()) {
+				/*
+				 * Documents that can be parsed from an input stream are parsed while the archive is unpacked, so that
+				 * they don't need temporary files. The other documents are unpacked into temporary files in the same
+				 * pass and are indexed afterwards.
+				 */
+				archiveTree.unpack(unpackList, streamedDocs, new EntryHandler() {
+					public void handle(TreeNode treeNode, InputStream in) throws IndexingException {
+						FileDocument doc = (FileDocument) treeNode;
+						boolean added = context.addedDocs.remove(doc) != null;
+						if (!added)
+							context.modifiedDocs.remove(doc);
+						streamedUids.add(doc.getUniqueId());
+						context.index(doc, in, archiveTree.getUnpackedSize(doc), added);
+					}
+				}, context.getStopper(), context.getMetrics());
+			}
+			else {
+				unpackSolidArchive(context, archiveTree, unpackList);
+			}
 		}
 		catch (IOException e) {
+			// Documents that were indexed before the archive turned out to be broken must be removed again
+			for (String uid : streamedUids)
+				context.deleteFromIndex(uid);
 			archiveFolder.removeChildren();
 			context.fail(ErrorType.ARCHIVE, archiveFolder, e);
 			return;
@@ -531,6 +745,51 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			archiveTree.deleteUnpackedFiles();
 	}
 
+	private static void unpackSolidArchive(	@NotNull SolidArchiveContext context,
+											@NotNull SolidArchiveTree<?> archiveTree,
+											@NotNull List<TreeNode> unpackList)
+			throws IOException, DiskSpaceException {
+		Measurement measurement = IndexingMetrics.start();
+		boolean unpackFailed = true;
+		try {
+			archiveTree.unpack(unpackList, null);
+			unpackFailed = false;
+		}
+		finally {
+			long unpackedBytes = 0;
+			for (TreeNode treeNode : unpackList) {
+				File unpackedFile = archiveTree.getFile(treeNode);
+				if (unpackedFile != null)
+					unpackedBytes += unpackedFile.length();
+			}
+			context.getMetrics().record(IndexingMetrics.UNPACK, measurement, unpackedBytes, unpackFailed, null);
+		}
+	}
+
+	/*
+	 * Returns the added and modified documents that can be parsed while the archive is unpacked, which excludes HTML
+	 * pairs, documents without a stream parser and documents above the size given by
+	 * ProgramConf.Int.MaxStreamedEntrySize.
+	 */
+	@NotNull
+	private static List<FileDocument> getStreamedDocs(	@NotNull SolidArchiveContext context,
+														@NotNull SolidArchiveTree<?> archiveTree) {
+		List<FileDocument> streamedDocs = Lists.newArrayList();
+		long maxSize = ProgramConf.Int.MaxStreamedEntrySize.get() * 1024L * 1024L;
+		if (maxSize == 0)
+			return streamedDocs;
+		IndexingConfig config = context.getConfig();
+		for (FileDocument doc : Iterables.concat(context.addedDocs.keySet(), context.modifiedDocs.keySet())) {
+			if (doc.getHtmlFolder() != null)
+				continue;
+			if (archiveTree.getUnpackedSize(doc) > maxSize)
+				continue;
+			if (ParseService.isStreamParseable(config, doc.getName(), doc.getPath()))
+				streamedDocs.add(doc);
+		}
+		return streamedDocs;
+	}
+
 	@RecursiveMethod
 	private static void visitSolidArchiveFolder(@NotNull final SolidArchiveContext context,
 	                                            @NotNull final SolidArchiveTree<?> archiveTree,
@@ -752,7 +1011,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		if (unpackedFile.isDirectory()) { // Zip file
 			FileContext subContext = new FileContext(context, archive.getPath());
 			try {
-				visitDirOrZip(subContext, archive, unpackedFile);
+				visitDirOrZip(subContext, archive, unpackedFile, true);
 			}
 			finally {
 				unpackedFile.delete();
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo;
@@ -303,6 +304,153 @@ public final class FileIndexTest {
 		System.setErr(stdErr);
 	}
 	
+	/** Checks that indexing with several parser threads gives the same results as sequential indexing. */
+	@Test
+	public void testParallelExtraction() throws Exception {
+		File tempDir = Util.createTempDir();
+		int fileCount = 20;
+		for (int i = 0; i < fileCount; i++) {
+			File subDir = new File(tempDir, "dir" + (i % 3));
+			subDir.mkdir();
+			Files.write("Hello World " + i, new File(subDir, "file" + i + ".txt"), Charsets.UTF_8);
+		}
+		
+		ProgramConf.Int.ParserThreads.load("4");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(fileCount, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), fileCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", fileCount);
+			
+			// Only the modified file must be reindexed
+			File modifiedFile = new File(new File(tempDir, "dir0"), "file0.txt");
+			Files.write("Goodbye", modifiedFile, Charsets.UTF_8);
+			modifiedFile.setLastModified(System.currentTimeMillis() + 1000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), fileCount);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", fileCount - 1);
+			UtilModel.assertResultCount(index.getLuceneDir(), "goodbye", 1);
+		}
+		finally {
+			ProgramConf.Int.ParserThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	/**
+	 * Checks that a modified file that can't be parsed anymore is removed from the Lucene index when several parser
+	 * threads are used, just like in the sequential case.
+	 */
+	@Test
+	public void testParallelExtractionFailure() throws Exception {
+		File tempDir = Util.createTempDir();
+		File pdfFile = new File(tempDir, "test.pdf");
+		Files.copy(TestFiles.lorem_ipsum_pdf.get(), pdfFile);
+		for (int i = 0; i < 5; i++)
+			Files.write("Hello World " + i, new File(tempDir, "file" + i + ".txt"), Charsets.UTF_8);
+		
+		ProgramConf.Int.ParserThreads.load("4");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 6);
+			
+			// Turn the PDF file into garbage
+			Files.write("This is not a PDF file", pdfFile, Charsets.UTF_8);
+			pdfFile.setLastModified(System.currentTimeMillis() + 1000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 5);
+		}
+		finally {
+			ProgramConf.Int.ParserThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	/** Checks that an update restricted to a set of changed files only looks at the folders containing those files. */
+	/** Checks that streamed content inside an HTML folder is indexed, although the HTML pair is written later. */
+	@Test
+	public void testStreamedFileInHtmlFolder() throws Exception {
+		File tempDir = Util.createTempDir();
+		File htmlFile = new File(tempDir, "test.html");
+		Files.copy(TestFiles.html.get(), htmlFile);
+		File htmlDir = new File(tempDir, "test_files");
+		htmlDir.mkdirs();
+		
+		// Large enough for the text parser to stream the content
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 4 * 1024 * 1024)
+			sb.append("lorem ipsum dolor sit amet\n");
+		sb.append("needle\n");
+		Files.write(sb, new File(htmlDir, "big.txt"), Charsets.UTF_8);
+		
+		FileIndex index = new FileIndex(null, tempDir);
+		index.update(null, null);
+		UtilModel.assertDocCount(index.getLuceneDir(), 1);
+		UtilModel.assertResultCount(index.getLuceneDir(), "needle", 1);
+		
+		Util.deleteRecursively(tempDir);
+	}
+	
+	@Test
+	public void testPartialUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File subDir1 = new File(tempDir, "sub1");
+		File subDir2 = new File(new File(tempDir, "sub2"), "sub3");
+		subDir1.mkdir();
+		subDir2.mkdirs();
+		File file1 = new File(subDir1, "file1.txt");
+		File file2 = new File(subDir2, "file2.txt");
+		File file3 = new File(subDir2, "file3.txt");
+		Files.write("Hello World", file1, Charsets.UTF_8);
+		Files.write("Hello World", file2, Charsets.UTF_8);
+		Files.write("Hello World", file3, Charsets.UTF_8);
+		
+		FileIndex index = new FileIndex(null, tempDir);
+		index.update(null, null);
+		UtilModel.assertDocCount(index.getLuceneDir(), 3);
+		
+		// Modify two files, but only report one of them
+		long newLastModified = System.currentTimeMillis() + 1000;
+		file1.setLastModified(newLastModified);
+		file2.setLastModified(newLastModified);
+		CountingReporter reporter = new CountingReporter();
+		index.update(reporter, null, Collections.singletonList(file2));
+		assertEquals(1, reporter.extractCount);
+		
+		// Delete a file, add a folder containing a file
+		file3.delete();
+		File newDir = new File(subDir2.getParentFile(), "new");
+		newDir.mkdir();
+		File file4 = new File(newDir, "file4.txt");
+		Files.write("Hello World", file4, Charsets.UTF_8);
+		reporter = new CountingReporter();
+		index.update(reporter, null, Arrays.asList(file3, newDir));
+		assertEquals(1, reporter.extractCount);
+		UtilModel.assertDocCount(index.getLuceneDir(), 3);
+		
+		// Delete a whole folder, reporting only a file inside it
+		Util.deleteRecursively(subDir2);
+		index.update(null, null, Collections.singletonList(file2));
+		UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		
+		// A full update must still pick up the unreported modification
+		reporter = new CountingReporter();
+		index.update(reporter, null);
+		assertEquals(1, reporter.extractCount);
+		
+		Util.deleteRecursively(tempDir);
+	}
+	
 	// This test should not crash. See bug #3465544.
 	@Test
 	public void testFakeZipInsideSolid() {
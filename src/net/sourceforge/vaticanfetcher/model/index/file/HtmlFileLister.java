@@ -12,6 +12,7 @@
 package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -29,6 +30,14 @@ import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 
+/**
+ * Lists the files and subfolders of a folder, optionally pairing HTML files with their HTML folders.
+ * <p>
+ * The attributes of each file are read only once, since each attribute query is a separate system call, which can be
+ * slow on network drives: The file type is passed to {@link #skip(File, boolean)}, and the last-modified value of files
+ * is passed to the handle methods, so that implementors don't have to query it again for detecting modifications.
+ * Likewise, the symlink check resolves the path of the listed folder only once instead of once per file.
+ */
 abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	
 	private final File parentDir;
@@ -54,19 +63,27 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	}
 	
 	private void runWithoutHtmlPairing() {
-		for (File fileOrDir : Util.listFiles(parentDir)) {
+		File[] filesOrDirs = Util.listFiles(parentDir);
+		if (filesOrDirs.length == 0)
+			return;
+		File canonParentDir = getCanonicalParentDir();
+		
+		for (File fileOrDir : filesOrDirs) {
 			if (isStopped())
 				return;
 			
 			boolean isFile;
+			long lastModified = 0;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				if (canonParentDir != null && Util.isSymLink(canonParentDir, fileOrDir))
 					continue;
-				if (skip(fileOrDir))
+				isFile = fileOrDir.isFile();
+				if (skip(fileOrDir, isFile))
 					continue;
 				if (Util.isJunctionOrSymlink(fileOrDir))
 					continue;
-				isFile = fileOrDir.isFile();
+				if (isFile)
+					lastModified = fileOrDir.lastModified();
 			}
 			catch (Throwable t) {
 				handleFileException(t, fileOrDir);
@@ -75,9 +92,9 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			
 			if (isFile) {
 				if (isHtmlFile(fileOrDir))
-					handleHtmlPair(fileOrDir, null);
+					handleHtmlPair(fileOrDir, lastModified, null);
 				else
-					handleFile(fileOrDir);
+					handleFile(fileOrDir, lastModified);
 			} else if (fileOrDir.isDirectory()) {
 				handleDir(fileOrDir);
 			}
@@ -88,6 +105,7 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 		File[] filesOrDirs = Util.listFiles(parentDir);
 		if (filesOrDirs.length == 0)
 			return; // Returning early avoids allocating the two lists below
+		File canonParentDir = getCanonicalParentDir();
 		
 		List<File> htmlFiles = new LinkedList<File> ();
 		List<File> tempDirs = new ArrayList<File> ();
@@ -100,7 +118,7 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			
 			boolean isFile;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				if (canonParentDir != null && Util.isSymLink(canonParentDir, fileOrDir))
 					continue;
 				if (Util.isJunctionOrSymlink(fileOrDir))
 					continue;
@@ -114,8 +132,8 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			if (isFile) {
 				if (isHtmlFile(fileOrDir))
 					htmlFiles.add(fileOrDir);
-				else if (!skip(fileOrDir))
-					handleFile(fileOrDir);
+				else if (!skip(fileOrDir, true))
+					handleFile(fileOrDir, fileOrDir.lastModified());
 			}
 			else if (fileOrDir.isDirectory()) {
 				tempDirs.add(fileOrDir);
@@ -133,7 +151,7 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				return;
 			String dirBasename = HtmlUtil.getHtmlDirBasename(dirCandidate);
 			if (dirBasename == null) {
-				if (!skip(dirCandidate) && dirCandidate.isDirectory())
+				if (!skip(dirCandidate, false) && dirCandidate.isDirectory())
 					handleDir(dirCandidate);
 				continue;
 			}
@@ -141,15 +159,15 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			for (Iterator<File> it = htmlFiles.iterator(); it.hasNext(); ) {
 				File htmlCandidate = it.next();
 				if (Util.splitFilename(htmlCandidate)[0].equals(dirBasename)) {
-					if (!skip(htmlCandidate) && htmlCandidate.isFile()
+					if (!skip(htmlCandidate, true) && htmlCandidate.isFile()
 							&& dirCandidate.isDirectory())
-						handleHtmlPair(htmlCandidate, dirCandidate);
+						handleHtmlPair(htmlCandidate, htmlCandidate.lastModified(), dirCandidate);
 					it.remove();
 					htmlPairFound = true;
 					break;
 				}
 			}
-			if (!htmlPairFound && !skip(dirCandidate)
+			if (!htmlPairFound && !skip(dirCandidate, false)
 					&& dirCandidate.isDirectory())
 				handleDir(dirCandidate);
 		}
@@ -158,8 +176,19 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 		for (File htmlFile : htmlFiles) {
 			if (isStopped())
 				return;
-			if (!skip(htmlFile) && htmlFile.isFile())
-				handleHtmlPair(htmlFile, null);
+			if (!skip(htmlFile, true) && htmlFile.isFile())
+				handleHtmlPair(htmlFile, htmlFile.lastModified(), null);
+		}
+	}
+	
+	// Returns null if the canonical path can't be determined, in which case no files are considered symlinks
+	@Nullable
+	private File getCanonicalParentDir() {
+		try {
+			return parentDir.getCanonicalFile();
+		}
+		catch (IOException e) {
+			return null;
 		}
 	}
 
@@ -188,16 +217,16 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	}
 	
 	// guaranteed not to be an HTML file
-	protected abstract void handleFile(@NotNull File file);
+	protected abstract void handleFile(@NotNull File file, long lastModified);
 	
 	// if HTML pairing is off, this method will be called on HTML files as well,
 	// but with empty htmlDir argument
-	protected abstract void handleHtmlPair(@NotNull File htmlFile, @Nullable File htmlDir);
+	protected abstract void handleHtmlPair(@NotNull File htmlFile, long lastModified, @Nullable File htmlDir);
 	
 	// dir will never be a symlink
 	protected abstract void handleDir(@NotNull File dir);
 	
-	// Will be called before any of the handle methods is called
-	protected abstract boolean skip(@NotNull File fileOrDir);
+	// Will be called before any of the handle methods is called; isFile is false for folders and zip archives
+	protected abstract boolean skip(@NotNull File fileOrDir, boolean isFile);
 
 }
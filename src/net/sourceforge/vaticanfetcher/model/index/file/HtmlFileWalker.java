@@ -35,13 +35,14 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 	
 	private void run(@NotNull File parentDir) {
 		new HtmlFileLister <Exception> (parentDir, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, long lastModified) {
 				if (HtmlFileWalker.this.isStopped())
 					stop(); // Stop HTMML file lister
 				else
 					HtmlFileWalker.this.handleFile(file);
 			}
 			protected void handleHtmlPair(	File htmlFile,
+											long lastModified,
 											File htmlDir) {
 				if (HtmlFileWalker.this.isStopped())
 					stop(); // Stop HTMML file lister
@@ -56,7 +57,7 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 				HtmlFileWalker.this.handleDir(dir);
 				HtmlFileWalker.this.run(dir);
 			}
-			protected boolean skip(File fileOrDir) {
+			protected boolean skip(File fileOrDir, boolean isFile) {
 				return HtmlFileWalker.this.skip(fileOrDir);
 			}
 		}.runSilently();
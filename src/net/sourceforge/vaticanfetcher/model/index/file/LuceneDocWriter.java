@@ -11,7 +11,6 @@
 
 package net.sourceforge.vaticanfetcher.model.index.file;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -25,19 +24,19 @@ import org.apache.lucene.document.Document;
 
 abstract class LuceneDocWriter {
 	
-	public final void add(@NotNull FileDocument doc, @NotNull File file, @NotNull ParseResult parseResult) throws IOException, CheckedOutOfMemoryError {
-		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
+	public final void add(@NotNull FileDocument doc, long fileSize, @NotNull ParseResult parseResult) throws IOException, CheckedOutOfMemoryError {
+		Document luceneDoc = createLuceneDoc(doc, fileSize, parseResult);
 		write(doc, luceneDoc, true);
 	}
 	
-	public void update(	@NotNull FileDocument doc, @NotNull File file, @NotNull ParseResult parseResult)throws IOException, CheckedOutOfMemoryError {
-		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
+	public void update(	@NotNull FileDocument doc, long fileSize, @NotNull ParseResult parseResult)throws IOException, CheckedOutOfMemoryError {
+		Document luceneDoc = createLuceneDoc(doc, fileSize, parseResult);
 		write(doc, luceneDoc, false);
 	}
 
 	@NotNull
-	private Document createLuceneDoc(@NotNull FileDocument doc,	@NotNull File file,	@NotNull ParseResult parseResult) {
-		/* The given file might be a temporary one, so we'll have to get the original filename and last-modified value from the document. */
+	private Document createLuceneDoc(@NotNull FileDocument doc,	long fileSize,	@NotNull ParseResult parseResult) {
+		/* The document might have been parsed from a temporary file or an archive stream, so we'll have to get the original filename and last-modified value from the document. */
 		Document luceneDoc = new Document();
 		String filename = doc.getName();
 		
@@ -52,7 +51,7 @@ abstract class LuceneDocWriter {
 				luceneDoc.add(Fields.TITLE.create(Util.splitFilename(filename)[0]));
 			else
 				luceneDoc.add(Fields.TITLE.create(title));
-			luceneDoc.add(Fields.SIZE.create(file.length()));
+			luceneDoc.add(Fields.SIZE.create(fileSize));
 			luceneDoc.add(Fields.LAST_MODIFIED.create(String.valueOf(doc.getLastModified())));
 			List<String> authors = parseResult.getAuthors();
 			if (authors != null)
@@ -65,7 +64,10 @@ abstract class LuceneDocWriter {
 		 * file extension. The reason for this is that Lucene's StandardAnalyzer won't split the filename at the dot before the file extension, 
 		 * so the user wouldn't find the file if we store only the full filename and the user searches for the filename without extension.
 		 */
-		luceneDoc.add(Fields.createContent(parseResult.getContent()));
+		if (parseResult.isContentStreamed() && !buffersDocuments())
+			luceneDoc.add(Fields.createContent(parseResult.getContentReader())); // Read by Lucene while writing
+		else
+			luceneDoc.add(Fields.createContent(parseResult.getContent()));
 		StringBuilder metadata = parseResult.getMetadata();
 		metadata.append(filename);
 		String basename = Util.splitFilename(filename)[0];
@@ -79,8 +81,20 @@ abstract class LuceneDocWriter {
 	
 	protected abstract boolean appendMetadata();
 	
+	/**
+	 * Returns whether the receiver holds on to the documents passed to {@link #write(FileDocument, Document, boolean)}
+	 * instead of writing them right away. Streamed content is read into memory for such writers, since the caller
+	 * closes the content reader as soon as {@link #add(FileDocument, long, ParseResult)} or
+	 * {@link #update(FileDocument, long, ParseResult)} returns.
+	 */
+	protected abstract boolean buffersDocuments();
+	
 	public abstract void write(	@NotNull FileDocument doc, @NotNull Document luceneDoc,	boolean added) throws IOException, CheckedOutOfMemoryError;
 	
 	public abstract void delete(@NotNull String uid) throws IOException;
+	
+	/** Writes buffered documents to the index, if the receiver buffers any. The default implementation does nothing. */
+	public void flush() throws IOException {
+	}
 
 }
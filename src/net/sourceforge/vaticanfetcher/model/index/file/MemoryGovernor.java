@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.parse.ParseService;
+import net.sourceforge.vaticanfetcher.model.parse.TextParser;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Keeps files that would need a large part of the free heap memory for parsing from being parsed during the regular
+ * tree walk, where they would compete for memory with the other parser threads and the write buffer of the Lucene
+ * index. Running out of memory in the index writer is expensive, since the writer must then be closed and reopened,
+ * which throws away all buffered documents.
+ * <p>
+ * The memory needed for parsing a file is estimated from its size and from the parser chosen by its file extension.
+ * Files whose estimate exceeds {@link ProgramConf.Int#DeferredParsingHeadroom} percent of the free heap memory are
+ * deferred, and {@link #runDeferred()} parses them at the end of the index update, one at a time and after all pending
+ * documents have been written to disk. Each deferral is reported to the indexing reporter.
+ * <p>
+ * The methods of this class must only be called from the indexing thread.
+ */
+@NotThreadSafe
+final class MemoryGovernor {
+
+	private static final class DeferredFile {
+		private final FileContext context;
+		private final FileDocument doc;
+		private final File file;
+		private final boolean isAdded;
+
+		private DeferredFile(	@NotNull FileContext context,
+								@NotNull FileDocument doc,
+								@NotNull File file,
+								boolean isAdded) {
+			this.context = context;
+			this.doc = doc;
+			this.file = file;
+			this.isAdded = isAdded;
+		}
+	}
+
+	/*
+	 * Rough ratios between the peak memory usage of the parsers and the file size. The DOM-based parsers need a lot
+	 * more memory than the file size, especially for zipped XML formats. Parsers that only read metadata need almost
+	 * none, so their files are never deferred.
+	 */
+	private static final Map<String, Integer> costFactors = ImmutableMap.<String, Integer>builder()
+		.put("TextParser", 2)
+		.put("HtmlParser", 6)
+		.put("PdfParser", 4)
+		.put("RtfParser", 6)
+		.put("AbiWordParser", 6)
+		.put("SvgParser", 6)
+		.put("OpenOfficeWriterParser", 10)
+		.put("OpenOfficeCalcParser", 10)
+		.put("OpenOfficeDrawParser", 10)
+		.put("OpenOfficeImpressParser", 10)
+		.put("MSWordParser", 4)
+		.put("MSExcelParser", 8)
+		.put("MSPowerPointParser", 4)
+		.put("MSVisioParser", 4)
+		.put("MSWord2007Parser", 10)
+		.put("MSExcel2007Parser", 10)
+		.put("MSPowerPoint2007Parser", 10)
+		.put("ExifParser", 0)
+		.put("MP3Parser", 0)
+		.put("FLACParser", 0)
+		.build();
+	private static final int DEFAULT_COST_FACTOR = 4;
+
+	// The SAX parsers used for large MS Office 2007 files only keep the extracted text in memory
+	private static final int OFFICE_2007_STREAMING_COST_FACTOR = 2;
+
+	// Files below this size are never deferred, no matter how little memory is left
+	@VisibleForTesting static final long MIN_DEFERRED_SIZE = 1024 * 1024;
+
+	private final int headroomPercent;
+	private final List<DeferredFile> deferredFiles = new ArrayList<DeferredFile>();
+
+	@VisibleForTesting
+	MemoryGovernor(int headroomPercent) {
+		this.headroomPercent = headroomPercent;
+	}
+
+	/**
+	 * Returns a new governor with the headroom given by {@link ProgramConf.Int#DeferredParsingHeadroom}, or null if
+	 * that value is 0, in which case all files should be parsed in the regular order.
+	 */
+	@Nullable
+	public static MemoryGovernor createIfEnabled() {
+		int headroomPercent = ProgramConf.Int.DeferredParsingHeadroom.get();
+		return headroomPercent == 0 ? null : new MemoryGovernor(headroomPercent);
+	}
+
+	/**
+	 * Returns the estimated number of bytes needed for parsing a file of the given size with the given parser, or 0 if
+	 * no parser was found. Parsers that switch to streaming for large files are charged for the streaming mode.
+	 */
+	@VisibleForTesting
+	static long estimateCost(@Nullable String parserName, long fileSize) {
+		if (parserName == null)
+			return 0; // only the filename will be indexed
+		if (parserName.equals("TextParser") && fileSize > TextParser.STREAMING_THRESHOLD)
+			return 2L * TextParser.STREAMING_THRESHOLD; // only the head of the file is held in memory
+		if (isOffice2007Parser(parserName)
+				&& fileSize >= ProgramConf.Int.OfficeStreamingThreshold.get() * 1024L * 1024L)
+			return fileSize * OFFICE_2007_STREAMING_COST_FACTOR;
+		Integer factor = costFactors.get(parserName);
+		return fileSize * (factor == null ? DEFAULT_COST_FACTOR : factor);
+	}
+
+	private static boolean isOffice2007Parser(@NotNull String parserName) {
+		return parserName.equals("MSWord2007Parser")
+			|| parserName.equals("MSExcel2007Parser")
+			|| parserName.equals("MSPowerPoint2007Parser");
+	}
+
+	@VisibleForTesting
+	boolean exceedsHeadroom(long cost, long freeBytes) {
+		return cost > freeBytes / 100 * headroomPercent;
+	}
+
+	/**
+	 * Returns the amount of heap memory that is either unused or not yet allocated by the JVM. This includes garbage
+	 * that hasn't been collected yet, so it's a lower bound of the memory that is actually available.
+	 */
+	private static long getFreeBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * Defers the given document if the estimated memory needed for parsing it exceeds the headroom, and returns
+	 * whether it was deferred. See {@link FileContext#index(FileDocument, File, boolean)} for the meaning of the
+	 * arguments.
+	 */
+	public boolean defer(	@NotNull FileContext context,
+							@NotNull FileDocument doc,
+							@NotNull File file,
+							boolean isAdded) {
+		long fileSize = file.length();
+		if (fileSize < MIN_DEFERRED_SIZE)
+			return false;
+		String parserName = ParseService.getParserNameByName(context.getConfig(), doc.getName());
+		long cost = estimateCost(parserName, fileSize);
+		long freeBytes = getFreeBytes();
+		if (cost == 0 || !exceedsHeadroom(cost, freeBytes))
+			return false;
+		deferredFiles.add(new DeferredFile(context, doc, file, isAdded));
+		context.getReporter().defer(doc, cost, freeBytes);
+		return true;
+	}
+
+	@VisibleForTesting
+	int getDeferredCount() {
+		return deferredFiles.size();
+	}
+
+	/**
+	 * Indexes the deferred documents one after another on the calling thread, after all pending work items of the parse
+	 * pipeline have been written and the index writer has been flushed. If the indexing is canceled, the remaining
+	 * documents are left for the next index update, as in {@link #discard()}.
+	 */
+	public void runDeferred() throws IndexingException {
+		while (!deferredFiles.isEmpty()) {
+			DeferredFile deferred = deferredFiles.get(0);
+			FileContext context = deferred.context;
+			if (context.isStopped()) {
+				discard();
+				return;
+			}
+			deferredFiles.remove(0);
+			context.flushPipeline();
+			try {
+				context.getWriter().flush();
+			}
+			catch (IOException e) {
+				deferred.doc.setLastModified(-1);
+				throw new IndexingException(e);
+			}
+			if (!context.index(deferred.doc, deferred.file, deferred.isAdded) && !deferred.isAdded)
+				context.deleteFromIndex(deferred.doc.getUniqueId());
+		}
+	}
+
+	/**
+	 * Drops the deferred documents without indexing them. Their last-modified values are set to -1, so that the next
+	 * index update will see them as modified and index them again.
+	 */
+	public void discard() {
+		for (DeferredFile deferred : deferredFiles)
+			deferred.doc.setLastModified(-1);
+		deferredFiles.clear();
+	}
+
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.model.parse.TextParser;
+
+import org.junit.Test;
+
+public final class MemoryGovernorTest {
+
+	@Test
+	public void testEstimateCost() {
+		long size = 10 * 1024 * 1024;
+		assertEquals(0, MemoryGovernor.estimateCost(null, size));
+		assertEquals(0, MemoryGovernor.estimateCost("MP3Parser", size));
+		assertEquals(2 * 1000, MemoryGovernor.estimateCost("TextParser", 1000));
+		assertEquals(10 * size, MemoryGovernor.estimateCost("MSWord2007Parser", size));
+		assertEquals(4 * size, MemoryGovernor.estimateCost("UnknownParser", size));
+	}
+
+	@Test
+	public void testEstimateStreamingCost() {
+		// Large text files are streamed with a bounded buffer
+		long textLimit = TextParser.STREAMING_THRESHOLD;
+		assertEquals(2 * textLimit, MemoryGovernor.estimateCost("TextParser", textLimit));
+		assertEquals(2 * textLimit, MemoryGovernor.estimateCost("TextParser", 40 * textLimit));
+
+		// Large MS Office 2007 files are parsed with SAX instead of the object model
+		long officeLimit = ProgramConf.Int.OfficeStreamingThreshold.get() * 1024L * 1024L;
+		assertEquals(10 * (officeLimit - 1), MemoryGovernor.estimateCost("MSExcel2007Parser", officeLimit - 1));
+		assertEquals(2 * officeLimit, MemoryGovernor.estimateCost("MSExcel2007Parser", officeLimit));
+		assertEquals(2 * officeLimit, MemoryGovernor.estimateCost("MSWord2007Parser", officeLimit));
+	}
+
+	@Test
+	public void testHeadroom() {
+		MemoryGovernor governor = new MemoryGovernor(50);
+		assertFalse(governor.exceedsHeadroom(50 * 1024, 100 * 1024));
+		assertTrue(governor.exceedsHeadroom(50 * 1024 + 1, 100 * 1024));
+		assertEquals(0, governor.getDeferredCount());
+
+		governor = new MemoryGovernor(100);
+		assertFalse(governor.exceedsHeadroom(100 * 1024, 100 * 1024));
+		assertTrue(governor.exceedsHeadroom(100 * 1024, 99 * 1024));
+	}
+
+}
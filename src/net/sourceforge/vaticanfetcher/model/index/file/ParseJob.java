@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import java.io.File;
+
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.parse.ParseException;
+import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
+import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+/**
+ * Extracts the text of a file on a worker thread of an
+ * {@link IndexingPipeline} and writes it back on the indexing thread. See
+ * {@link FileContext#indexOrSubmit(FileDocument, File, boolean)}.
+ */
+final class ParseJob implements IndexingPipeline.Job {
+
+	private final FileContext context;
+	private final FileDocument doc;
+	private final File file;
+	private final String filename;
+	private final Path filepath;
+	private final boolean isAdded;
+	@Nullable private ParseResult parseResult; // guarded by 'this' lock
+	@Nullable private Exception parseError;
+	private boolean discarded = false; // guarded by 'this' lock
+
+	ParseJob(	@NotNull FileContext context,
+				@NotNull FileDocument doc,
+				@NotNull File file,
+				boolean isAdded) {
+		this.context = context;
+		this.doc = doc;
+		this.file = file;
+		this.isAdded = isAdded;
+
+		// Computed here since the worker threads must not touch the tree
+		this.filename = doc.getName();
+		this.filepath = doc.getPath();
+	}
+
+	public void parse() {
+		try {
+			/*
+			 * The reporter is not passed on because page-wise progress info
+			 * from a worker would be attached to whatever file the indexing
+			 * thread reported last.
+			 */
+			ParseResult result = context.parse(
+				file, filename, filepath, IndexingReporter.nullReporter);
+			synchronized (this) {
+				if (discarded)
+					result.closeContent();
+				else
+					parseResult = result;
+			}
+		}
+		catch (ParseException e) {
+			parseError = e;
+		}
+		catch (CheckedOutOfMemoryError e) {
+			parseError = e;
+		}
+	}
+
+	public void write() throws IndexingException {
+		ParseResult result;
+		synchronized (this) {
+			result = parseResult;
+		}
+		boolean success = context.write(
+			doc, file.length(), result, parseError, isAdded);
+
+		// Same as in the sequential case, see FileContext.indexOrSubmit
+		if (!success && !isAdded)
+			context.deleteFromIndex(doc.getUniqueId());
+	}
+
+	// Releases streamed content, which may still be produced after the job
+	// has been discarded
+	public void discard() {
+		doc.setLastModified(-1);
+		synchronized (this) {
+			discarded = true;
+			if (parseResult != null)
+				parseResult.closeContent();
+			parseResult = null;
+		}
+	}
+
+}
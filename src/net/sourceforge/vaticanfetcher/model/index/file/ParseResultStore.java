@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.index.PatternAction;
+import net.sourceforge.vaticanfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.vaticanfetcher.model.parse.ParseException;
+import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
+import net.sourceforge.vaticanfetcher.model.parse.ParseService;
+import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.vaticanfetcher.util.FastDeflaterOutputStream;
+import net.sourceforge.vaticanfetcher.util.LruFolder;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+import de.schlichtherle.truezip.file.TFile;
+import de.schlichtherle.truezip.file.TFileInputStream;
+
+/**
+ * Avoids parsing byte-identical files more than once. Before a file is parsed, a fingerprint of its contents is
+ * computed, consisting of the file size and a SHA-1 hash over the file contents. If a parse result with the same
+ * fingerprint was stored before, it is read from the disk instead of parsing the file again; otherwise the file is
+ * parsed and the result is stored. Each copy still gets its own Lucene document.
+ * <p>
+ * The parse results are stored in a folder inside the index folder, with one compressed file per fingerprint. The
+ * total size of the folder is limited by {@link ProgramConf.Int#ParseResultStoreSize}; when the limit is exceeded, the
+ * least recently used files are deleted. Small files are always parsed, since computing the fingerprint and reading
+ * the stored result wouldn't be much faster than parsing them.
+ * <p>
+ * A new instance is created for each index update, so that the counters returned by {@link #getLookupCount()} and
+ * {@link #getHitCount()} cover a single update.
+ */
+@ThreadSafe
+final class ParseResultStore {
+
+	/** The name of the store folder inside the index folder. */
+	public static final String DIRNAME = "parse-cache";
+
+	private static final int MAGIC = 0x56465052; // "VFPR"
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".parse.z";
+	private static final long MIN_FILE_SIZE = 64 * 1024;
+
+	private final LruFolder diskEntries; // guarded by 'this' lock
+	private int lookupCount = 0; // guarded by 'this' lock
+	private int hitCount = 0; // guarded by 'this' lock
+
+	ParseResultStore(@NotNull File storeDir, long diskCapacity) {
+		diskEntries = new LruFolder(storeDir, SUFFIX, diskCapacity);
+	}
+
+	/**
+	 * Returns a new store in the given index parent folder, or null if the given folder is null or if the store was
+	 * disabled via {@link ProgramConf.Int#ParseResultStoreSize}.
+	 */
+	@Nullable
+	public static ParseResultStore createIfEnabled(@Nullable File indexParentDir) {
+		if (indexParentDir == null)
+			return null;
+		long diskCapacity = ProgramConf.Int.ParseResultStoreSize.get() * 1024L * 1024L;
+		if (diskCapacity == 0)
+			return null;
+		return new ParseResultStore(new File(indexParentDir, DIRNAME), diskCapacity);
+	}
+
+	/**
+	 * Returns the stored parse result of a file with the same contents as the given file, or parses the given file
+	 * and stores the result. The arguments and exceptions are the same as for
+	 * {@link ParseService#parse(IndexingConfig, File, String, Path, IndexingReporter, Cancelable, IndexingMetrics)}.
+	 */
+	@NotNull
+	public ParseResult parse(	@NotNull IndexingConfig config,
+								@NotNull File file,
+								@NotNull String filename,
+								@NotNull Path filepath,
+								@NotNull IndexingReporter reporter,
+								@NotNull Cancelable cancelable,
+								@Nullable IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		long fileSize = file.length();
+		String key = fileSize < MIN_FILE_SIZE ? null : getKey(config, file, filename, filepath, fileSize);
+		if (key == null)
+			return ParseService.parse(config, file, filename, filepath, reporter, cancelable, metrics);
+
+		ParseResult parseResult = get(key, fileSize);
+		synchronized (this) {
+			lookupCount++;
+			if (parseResult != null)
+				hitCount++;
+		}
+		if (parseResult != null) {
+			// The stored result is never truncated, but the given config may have a lower limit than the one it was parsed with
+			parseResult.limitContent(config.getMaxIndexedChars());
+			return parseResult;
+		}
+
+		parseResult = ParseService.parse(config, file, filename, filepath, reporter, cancelable, metrics);
+
+		/*
+		 * Streamed results can only be read once, and truncated or canceled results don't represent the entire file.
+		 * Empty results, such as those of the filename parser, are cheap to produce, so there's nothing to gain from
+		 * storing them.
+		 */
+		if (!parseResult.isContentStreamed() && !parseResult.isContentTruncated() && !cancelable.isCanceled()
+				&& parseResult.getContent().length() > 0)
+			put(key, fileSize, parseResult);
+		return parseResult;
+	}
+
+	public synchronized int getLookupCount() {
+		return lookupCount;
+	}
+
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/*
+	 * Returns the filename under which the parse result of the given file is stored, or null if the file can't be
+	 * read. Besides the file contents, the key covers the file extension and whether the file type is detected by
+	 * mime type, since both determine which parser is used.
+	 */
+	@Nullable
+	private static String getKey(	@NotNull IndexingConfig config,
+									@NotNull File file,
+									@NotNull String filename,
+									@NotNull Path filepath,
+									long fileSize) {
+		InputStream in = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			String extension = Util.getExtension(filename).toLowerCase();
+			digest.update(extension.getBytes(Charsets.UTF_8));
+			digest.update((byte) (isDetectMime(config, filename, filepath) ? 1 : 0));
+			in = file instanceof TFile && ((TFile) file).isEntry()
+				? new TFileInputStream(file)
+				: new FileInputStream(file);
+			byte[] buf = new byte[64 * 1024];
+			int nread;
+			while ((nread = in.read(buf)) != -1)
+				digest.update(buf, 0, nread);
+			byte[] hash = digest.digest();
+			StringBuilder sb = new StringBuilder(hash.length * 2 + 17 + SUFFIX.length());
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.append('-').append(Long.toHexString(fileSize)).append(SUFFIX).toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-1 is available on all Java platforms
+		}
+		catch (IOException e) {
+			return null; // Let the parser report the error
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	private static boolean isDetectMime(@NotNull IndexingConfig config, @NotNull String filename, @NotNull Path filepath) {
+		for (PatternAction patternAction : config.getPatternActions())
+			if (patternAction.getAction() == MatchAction.DETECT_MIME && patternAction.matches(filename, filepath, true))
+				return true;
+		return false;
+	}
+
+	@Nullable
+	private ParseResult get(@NotNull String filename, long fileSize) {
+		synchronized (this) {
+			if (!diskEntries.contains(filename))
+				return null;
+		}
+		ParseResult parseResult = read(diskEntries.getFile(filename), fileSize);
+		synchronized (this) {
+			if (parseResult == null) {
+				diskEntries.remove(filename);
+				return null;
+			}
+			diskEntries.touch(filename, true);
+			return parseResult;
+		}
+	}
+
+	// Errors are only logged, since the store is not essential
+	private void put(@NotNull String filename, long fileSize, @NotNull ParseResult parseResult) {
+		File tempFile = null;
+		try {
+			tempFile = diskEntries.createTempFile(filename);
+			write(tempFile, fileSize, parseResult);
+			synchronized (this) {
+				diskEntries.commit(tempFile, filename);
+				tempFile = null;
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		finally {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	private static void write(@NotNull File file, long fileSize, @NotNull ParseResult parseResult)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FastDeflaterOutputStream(new FileOutputStream(file))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeUTF(parseResult.getParserName());
+			writeString(out, parseResult.getTitle());
+			writeStrings(out, parseResult.getAuthors());
+			writeStrings(out, parseResult.getMiscMetadata());
+			writeString(out, parseResult.getContent().toString());
+			out.close();
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+
+	// Returns null if the file doesn't exist, can't be read or doesn't match the given file size
+	@Nullable
+	private static ParseResult read(@NotNull File file, long fileSize) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(new FileInputStream(file))));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fileSize)
+				return null;
+			String parserName = in.readUTF();
+			String title = readString(in);
+			String[] authors = readStrings(in);
+			String[] miscMetadata = readStrings(in);
+			ParseResult parseResult = new ParseResult(readString(in));
+			parseResult.setParserName(parserName).setTitle(title);
+			for (String author : authors)
+				parseResult.addAuthor(author);
+			for (String metadata : miscMetadata)
+				parseResult.addMiscMetadata(metadata);
+			return parseResult;
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (OutOfMemoryError e) {
+			return null; // Corrupted length field
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	// Unlike writeUTF, this supports strings of any length and null
+	private static void writeString(@NotNull DataOutputStream out, @Nullable String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@Nullable
+	private static String readString(@NotNull DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	private static void writeStrings(@NotNull DataOutputStream out, @Nullable List<String> strings) throws IOException {
+		if (strings == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(strings.size());
+		for (String str : strings)
+			writeString(out, str);
+	}
+
+	@NotNull
+	private static String[] readStrings(@NotNull DataInputStream in) throws IOException {
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = readString(in);
+		return strings;
+	}
+
+}
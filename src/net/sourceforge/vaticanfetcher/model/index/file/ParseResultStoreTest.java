@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+public final class ParseResultStoreTest {
+	
+	static {
+		AppUtil.Const.autoInit();
+	}
+	
+	@Test
+	public void testDeduplication() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			// Identical files, and a file with the same size but different contents
+			String text = Strings.repeat("Lorem ipsum dolor sit amet\n", 4000);
+			File file1 = new File(tempDir, "file1.txt");
+			File file2 = new File(tempDir, "file2.txt");
+			File file3 = new File(tempDir, "file3.txt");
+			Files.write(text, file1, Charsets.UTF_8);
+			Files.write(text, file2, Charsets.UTF_8);
+			Files.write(text.replace("Lorem", "Ipsum"), file3, Charsets.UTF_8);
+			
+			File storeDir = new File(tempDir, "store");
+			ParseResultStore store = new ParseResultStore(storeDir, 1024 * 1024);
+			assertEquals(text, parse(store, file1).getContent().toString());
+			ParseResult result = parse(store, file2);
+			assertEquals(text, result.getContent().toString());
+			assertEquals("TextParser", result.getParserName());
+			assertEquals(text.replace("Lorem", "Ipsum"), parse(store, file3).getContent().toString());
+			assertEquals(3, store.getLookupCount());
+			assertEquals(1, store.getHitCount());
+			
+			// Stored results survive in the store folder
+			store = new ParseResultStore(storeDir, 1024 * 1024);
+			assertEquals(text, parse(store, file2).getContent().toString());
+			assertEquals(1, store.getHitCount());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@Test
+	public void testMaxIndexedChars() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			String text = Strings.repeat("Lorem ipsum dolor sit amet\n", 4000);
+			File file1 = new File(tempDir, "file1.txt");
+			File file2 = new File(tempDir, "file2.txt");
+			Files.write(text, file1, Charsets.UTF_8);
+			Files.write(text, file2, Charsets.UTF_8);
+			
+			// A result stored without a limit must not bypass the limit of the next lookup
+			ParseResultStore store = new ParseResultStore(new File(tempDir, "store"), 1024 * 1024);
+			assertEquals(text, parse(store, file1).getContent().toString());
+			IndexingConfig config = new IndexingConfig();
+			config.setMaxIndexedChars(1000);
+			ParseResult result = parse(store, file2, config);
+			assertEquals(1, store.getHitCount());
+			assertEquals(text.substring(0, 1000), result.getContent().toString());
+			assertTrue(result.isContentTruncated());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@NotNull
+	private static ParseResult parse(@NotNull ParseResultStore store, @NotNull File file)
+			throws Exception {
+		return parse(store, file, new IndexingConfig());
+	}
+	
+	@NotNull
+	private static ParseResult parse(	@NotNull ParseResultStore store,
+										@NotNull File file,
+										@NotNull IndexingConfig config) throws Exception {
+		return store.parse(
+			config, file, file.getName(), new Path(file),
+			IndexingReporter.nullReporter, Cancelable.nullCancelable, null);
+	}
+
+}
@@ -12,9 +12,9 @@
 package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 
 import net.sourceforge.vaticanfetcher.model.Path;
@@ -25,7 +25,6 @@ import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 
-import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.google.common.io.NullOutputStream;
 
@@ -103,14 +102,25 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 		public boolean isEncrypted(FileHeader entry) {
 			return entry.isEncrypted();
 		}
+		public boolean startsSolidBlock(FileHeader entry) {
+			return !entry.isSolid();
+		}
 	}
 	
 	protected ArchiveEntryReader<FileHeader> getArchiveEntryReader() {
 		return RarEntryReader.instance;
 	}
 	
-	protected Map<Integer, File> doUnpack(Map<Integer, TreeNode> unpackMap,	TempFileFactory tempFileFactory)throws IOException {
-		Map<Integer, File> indexFileMap = Maps.newHashMap();
+	/** Returns the {@link ArchiveCatalog} entries for the given file headers of a rar archive. */
+	@NotNull
+	static List<ArchiveCatalog.Entry> readCatalogEntries(@NotNull List<FileHeader> fileHeaders) {
+		CatalogBuilder<FileHeader> catalogBuilder = new CatalogBuilder<FileHeader>(RarEntryReader.instance);
+		for (FileHeader fh : fileHeaders)
+			catalogBuilder.add(fh);
+		return catalogBuilder.getEntries();
+	}
+	
+	protected void doUnpack(Map<Integer, TreeNode> unpackMap,	EntrySink sink)throws IOException {
 		Archive archive = null;
 		try {
 			archive = new Archive(archiveFile);
@@ -131,7 +141,7 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 				/*
 				 * We can abort early if we've extracted all needed files before reaching the end of the archive.
 				 */
-				if (unpackMap.isEmpty())
+				if (unpackMap.isEmpty() || sink.isAborted())
 					break;
 				
 				fh = archive.nextFileHeader();
@@ -149,13 +159,11 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 				 */
 				TreeNode treeNode = unpackMap.remove(i);
 				
+				OutputStream out = null;
 				try {
 					if (treeNode != null) {
-						File file = tempFileFactory.createTempFile(treeNode);
-						OutputStream out = new FileOutputStream(file);
+						out = sink.open(i, treeNode);
 						archive.extractFile(fh, out);
-						Closeables.closeQuietly(out);
-						indexFileMap.put(i, file);
 					}
 					else if (isSolid) {
 						archive.extractFile(fh, nullOut);
@@ -166,14 +174,17 @@ final class RarTree extends SolidArchiveTree<FileHeader> {
 					 * Calling extractFile can throw an OutOfMemoryError. See bug #3443490.
 					 */
 					if (treeNode != null) // Ignore errors for entries written to NullOutputStream
-						failReporter.fail(ErrorType.OUT_OF_MEMORY, treeNode, e);
+						sink.fail(ErrorType.OUT_OF_MEMORY, treeNode, e);
 				}
 				catch (Exception e) {
 					if (treeNode != null) // Ignore errors for entries written to NullOutputStream
-						failReporter.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
+						sink.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
+				}
+				finally {
+					// Closed only after a failure has been reported, so that a streamed entry isn't taken for complete
+					Closeables.closeQuietly(out);
 				}
 			}
-			return indexFileMap;
 		} catch (RarException e) {
 			throw new IOException(e);
 		} finally {
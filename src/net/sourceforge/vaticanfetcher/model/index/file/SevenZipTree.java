@@ -13,6 +13,8 @@ package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -27,8 +29,6 @@ import SevenZip.Archive.IInArchive;
 import SevenZip.Archive.SevenZipEntry;
 import SevenZip.Archive.SevenZip.Handler;
 
-import com.google.common.collect.Maps;
-
 final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 	
 	private IInArchive archive;
@@ -91,11 +91,20 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 		return SevenZipEntryReader.instance;
 	}
 	
+	/** Returns the {@link ArchiveCatalog} entries of the given opened 7z archive. */
+	@NotNull
+	static List<ArchiveCatalog.Entry> readCatalogEntries(@NotNull IInArchive archive) {
+		CatalogBuilder<SevenZipEntry> catalogBuilder = new CatalogBuilder<SevenZipEntry>(SevenZipEntryReader.instance);
+		for (int i = 0; i < archive.size(); i++)
+			catalogBuilder.add(archive.getEntry(i));
+		return catalogBuilder.getEntries();
+	}
+	
 	public void close() throws IOException {
 		archive.close();
 	}
 	
-	protected Map<Integer, File> doUnpack(Map<Integer, TreeNode> unpackMap, TempFileFactory tempFileFactory)throws IOException {
+	protected void doUnpack(Map<Integer, TreeNode> unpackMap, EntrySink sink)throws IOException {
 		// Put indices in an int array
 		int[] indices = new int[unpackMap.size()];
 		int i = 0;
@@ -103,8 +112,8 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 			indices[i++] = index;
 		
 		// Unpack files
-		Unpacker unpacker = new Unpacker(unpackMap, tempFileFactory);
-		return unpacker.unpack(indices);
+		Unpacker unpacker = new Unpacker(unpackMap, sink);
+		unpacker.unpack(indices);
 	}
 	
 	private static final class SevenZipEntryReader implements ArchiveEntryReader<SevenZipEntry> {
@@ -122,32 +131,37 @@ final class SevenZipTree extends SolidArchiveTree <SevenZipEntry> {
 			// J7Zip doesn't provide us with enough info to implement this
 			return false;
 		}
+		public boolean startsSolidBlock(SevenZipEntry entry) {
+			// J7Zip only reports the packed size of a solid block on its first entry
+			return entry.getCompressedSize() > 0;
+		}
 	}
 
-	private class Unpacker extends SevenZipUnpacker <Map<Integer, File>> {
+	private class Unpacker extends SevenZipUnpacker <Void> {
 		private final Map<Integer, TreeNode> unpackMap;
-		private final TempFileFactory tempFileFactory;
-		private Map<Integer, File> indexFileMap = Maps.newHashMap();
+		private final EntrySink sink;
 		
-		public Unpacker(Map<Integer, TreeNode> unpackMap, TempFileFactory tempFileFactory) {
+		public Unpacker(Map<Integer, TreeNode> unpackMap, EntrySink sink) {
 			super(archive);
 			this.unpackMap = unpackMap;
-			this.tempFileFactory = tempFileFactory;
+			this.sink = sink;
 		}
 		
-		public File getOutputFile(int index) throws IOException {
+		public OutputStream getOutputStream(int index) throws IOException {
 			TreeNode treeNode = unpackMap.get(index);
 			try {
-				File file = tempFileFactory.createTempFile(treeNode);
-				indexFileMap.put(index, file);
-				return file;
+				return sink.open(index, treeNode);
 			} catch (IndexingException e) {
-				failReporter.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
+				sink.fail(ErrorType.ARCHIVE_ENTRY, treeNode, e);
 				throw e.getIOException();
 			}
 		}
 		
-		public Map<Integer, File> getUnpackResult() { return indexFileMap; }
+		protected void onEntryFailed(int index) {
+			sink.fail(ErrorType.ARCHIVE_ENTRY, unpackMap.get(index), null);
+		}
+		
+		public Void getUnpackResult() { return null; }
 	}
 	
 }
\ No newline at end of file
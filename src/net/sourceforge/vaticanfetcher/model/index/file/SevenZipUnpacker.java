@@ -11,16 +11,16 @@
 
 package net.sourceforge.vaticanfetcher.model.index.file;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 
+import com.google.common.io.CountingOutputStream;
 import com.google.common.io.NullOutputStream;
 
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import SevenZip.HRESULT;
 import SevenZip.Archive.IArchiveExtractCallback;
 import SevenZip.Archive.IInArchive;
@@ -30,6 +30,7 @@ abstract class SevenZipUnpacker<T> {
 	private static final int mode = IInArchive.NExtract_NAskMode_kExtract;
 
 	private final IInArchive archive;
+	private long decompressedBytes = 0;
 
 	public SevenZipUnpacker(@NotNull IInArchive archive) {
 		Util.checkNotNull(archive);
@@ -47,16 +48,37 @@ abstract class SevenZipUnpacker<T> {
 		 * there's no simple way for us to get feedback about whether the archive was encrypted or not.
 		 */
 		Callback callback = new Callback(unpackIndices);
-		archive.Extract(unpackIndices, unpackIndices.length, mode, callback);
+		try {
+			archive.Extract(unpackIndices, unpackIndices.length, mode, callback);
+		}
+		finally {
+			callback.countDecompressedBytes();
+		}
 		return getUnpackResult();
 	}
+	
+	/**
+	 * Returns the number of bytes decompressed by the previous calls to {@link #unpack(int...)}, including the
+	 * entries that weren't requested, but had to be decompressed because the requested entries depended on them.
+	 */
+	public final long getDecompressedBytes() {
+		return decompressedBytes;
+	}
 
-	public abstract File getOutputFile(int index) throws IOException;
+	// J7Zip closes the returned stream after the entry has been written
+	@NotNull
+	public abstract OutputStream getOutputStream(int index) throws IOException;
 
 	public abstract T getUnpackResult();
+	
+	// Called when J7Zip reports an error on an entry that was requested, before the entry's output stream is closed
+	protected void onEntryFailed(int index) throws IOException {
+	}
 
 	private class Callback implements IArchiveExtractCallback {
 		private final int[] indices;
+		private int currentIndex = -1;
+		@Nullable private CountingOutputStream currentStream;
 
 		public Callback(int[] indices) {
 			this.indices = Util.checkNotNull(indices);
@@ -70,23 +92,39 @@ abstract class SevenZipUnpacker<T> {
 			 * with a solid archive, and J7Zip will request output streams for all archive entries, including those we 
 			 * don't need. For the latter, we can give J7Zip a NullOutputStream in order to avoid consuming disk space.
 			 * 
-			 * 2) Wrapping the FileOutputStream into a BufferedOutputStream does not seem to have a significant effect on performance.
+			 * 2) Wrapping a FileOutputStream into a BufferedOutputStream does not seem to have a significant effect on performance.
 			 * 
 			 * 3) Not sure what to do if we fail to create the output stream. Here we're letting the 
 			 * IOException propagate outwards, but J7zip might expect HRESULT.E_FAIL or something else.
 			 */
-			if (Arrays.binarySearch(indices, index) < 0)
-				outStream[0] = new NullOutputStream();
-			else
-				outStream[0] = new FileOutputStream(getOutputFile(index));
+			countDecompressedBytes();
+			if (Arrays.binarySearch(indices, index) < 0) {
+				currentIndex = -1;
+				currentStream = new CountingOutputStream(new NullOutputStream());
+			}
+			else {
+				currentIndex = index;
+				currentStream = new CountingOutputStream(getOutputStream(index));
+			}
+			outStream[0] = currentStream;
 			return HRESULT.S_OK;
 		}
+		
+		public void countDecompressedBytes() {
+			if (currentStream != null)
+				decompressedBytes += currentStream.getCount();
+			currentStream = null;
+		}
 
 		public final int PrepareOperation(int askExtractMode) { return HRESULT.S_OK; }
 
 		public final int SetCompleted(long completeValue) { return HRESULT.S_OK; }
 
-		public final int SetOperationResult(int resultEOperationResult) throws IOException { return HRESULT.S_OK; }
+		public final int SetOperationResult(int resultEOperationResult) throws IOException {
+			if (resultEOperationResult != IInArchive.NExtract_NOperationResult_kOK && currentIndex != -1)
+				onEntryFailed(currentIndex);
+			return HRESULT.S_OK;
+		}
 
 		public final int SetTotal(long total) {	return HRESULT.S_OK; }
 	}
@@ -33,6 +33,10 @@ final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 		return true;
 	}
 	
+	protected boolean buffersDocuments() {
+		return false;
+	}
+	
 	public void write(	@NotNull FileDocument doc, @NotNull Document luceneDoc,	@NotNull boolean added) throws IOException,	CheckedOutOfMemoryError {
 		if (added)
 			writer.add(luceneDoc);
@@ -43,6 +47,10 @@ final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 	public void delete(String uid) throws IOException {
 		writer.delete(uid);
 	}
+	
+	public void flush() throws IOException {
+		writer.commit();
+	}
 
 	public final void close() throws IOException {
 		writer.close();
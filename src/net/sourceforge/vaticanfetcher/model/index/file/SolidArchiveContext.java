@@ -22,6 +22,7 @@ import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
 import net.sourceforge.vaticanfetcher.model.index.MutableInt;
 import net.sourceforge.vaticanfetcher.model.index.file.SolidArchiveTree.FailReporter;
 import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
@@ -42,15 +43,19 @@ final class SolidArchiveContext extends FileContext implements FailReporter {
 
 	protected SolidArchiveContext(	@NotNull IndexingConfig config, @NotNull TArchiveDetector zipDetector, @NotNull LuceneDocWriter writer,
 	                              	@NotNull IndexingReporter reporter, @Nullable Path originalPath, @NotNull Cancelable cancelable,
-	                              	@NotNull MutableInt fileCount, boolean isTempArchive, @Nullable File indexParentDir) {
-		super(config, zipDetector, writer, reporter, originalPath, cancelable, fileCount, indexParentDir);
+	                              	@NotNull MutableInt fileCount, boolean isTempArchive, @Nullable File indexParentDir,
+	                              	@Nullable ParseResultStore parseResultStore, @NotNull IndexingMetrics metrics) {
+		// Unpacked archive entries are temporary files, so they're always parsed sequentially
+		super(config, zipDetector, writer, reporter, originalPath, cancelable, fileCount, indexParentDir, null, null, parseResultStore,
+			metrics);
 		this.isTempArchive = isTempArchive;
 	}
 	
 	protected SolidArchiveContext(@NotNull FileContext superContext, @NotNull Path originalPath, boolean isTempArchive,	@Nullable File indexParentDir) {
 		this(
 				superContext.getConfig(), superContext.getZipDetector(), superContext.getWriter(), superContext.getReporter(),
-				originalPath, superContext.getStopper(), superContext.getFileCount(), isTempArchive, indexParentDir
+				originalPath, superContext.getStopper(), superContext.getFileCount(), isTempArchive, indexParentDir,
+				superContext.getParseResultStore(), superContext.getMetrics()
 		);
 	}
 	
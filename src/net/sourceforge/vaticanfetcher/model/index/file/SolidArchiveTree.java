@@ -13,9 +13,14 @@ package net.sourceforge.vaticanfetcher.model.index.file;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import net.sourceforge.vaticanfetcher.enums.ProgramConf;
@@ -23,15 +28,20 @@ import net.sourceforge.vaticanfetcher.model.Folder;
 import net.sourceforge.vaticanfetcher.model.Folder.FolderEvent;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.TreeNode;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.index.DiskSpaceException;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.Measurement;
 import net.sourceforge.vaticanfetcher.model.index.PatternAction;
 import net.sourceforge.vaticanfetcher.model.index.PatternAction.MatchAction;
+import net.sourceforge.vaticanfetcher.model.index.file.EntryStreamer.EntryHandler;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFolder.FileFolderVisitor;
 import net.sourceforge.vaticanfetcher.model.parse.ParseService;
 import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.Immutable;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
@@ -76,6 +86,38 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		public long getLastModified(E entry);
 		public long getUnpackedSize(E entry);
 		public boolean isEncrypted(E entry);
+		/** Returns whether the given entry can be unpacked without unpacking any of the preceding entries. */
+		public boolean startsSolidBlock(E entry);
+	}
+	
+	/** Collects the {@link ArchiveCatalog} entries of archive entries, which must be added in the order of their indices. */
+	static final class CatalogBuilder<E> {
+		private final ArchiveEntryReader<E> entryReader;
+		private final List<ArchiveCatalog.Entry> entries = new ArrayList<ArchiveCatalog.Entry>();
+		private int solidBlock = -1;
+		
+		public CatalogBuilder(@NotNull ArchiveEntryReader<E> entryReader) {
+			this.entryReader = entryReader;
+		}
+		
+		public void add(@NotNull E entry) {
+			boolean isDirectory = entryReader.isDirectory(entry);
+			long size = entryReader.getUnpackedSize(entry);
+			int entrySolidBlock = -1;
+			if (!isDirectory && size != 0) {
+				if (entryReader.startsSolidBlock(entry) || solidBlock == -1)
+					solidBlock++;
+				entrySolidBlock = solidBlock;
+			}
+			entries.add(new ArchiveCatalog.Entry(
+				entries.size(), entryReader.getInnerPath(entry), isDirectory, entryReader.isEncrypted(entry), size,
+				entryReader.getLastModified(entry), entrySolidBlock));
+		}
+		
+		@NotNull
+		public List<ArchiveCatalog.Entry> getEntries() {
+			return entries;
+		}
 	}
 	
 	protected class TempFileFactory {
@@ -85,6 +127,57 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		}
 	}
 	
+	/**
+	 * Provides the output streams into which the subclasses unpack the archive entries. Entries are either unpacked
+	 * into temporary files, or, if an entry streamer is given, streamed to the indexing thread.
+	 */
+	protected final class EntrySink {
+		private final TempFileFactory tempFileFactory;
+		@Nullable private final EntryStreamer streamer;
+		private final Map<Integer, File> indexFileMap = Maps.newHashMap();
+		private final List<File> failedFiles = new ArrayList<File>(0);
+		private int currentIndex = -1;
+		
+		private EntrySink(@NotNull TempFileFactory tempFileFactory, @Nullable EntryStreamer streamer) {
+			this.tempFileFactory = tempFileFactory;
+			this.streamer = streamer;
+		}
+		
+		/** Returns the output stream for the given archive entry. The caller must close it after writing the entry. */
+		@NotNull
+		public OutputStream open(int index, @NotNull TreeNode treeNode) throws IOException, IndexingException {
+			currentIndex = -1;
+			if (streamer != null && streamer.isStreamed(treeNode))
+				return streamer.open(treeNode, getUnpackedSize(treeNode));
+			File file = tempFileFactory.createTempFile(treeNode);
+			OutputStream out = new FileOutputStream(file);
+			indexFileMap.put(index, file);
+			currentIndex = index;
+			return out;
+		}
+		
+		/**
+		 * Reports a failure on a single archive entry. If the entry is the one that is currently being unpacked, it is
+		 * discarded. While entries are streamed, the failure is reported on the indexing thread, rather than on the
+		 * unpacker thread.
+		 */
+		public void fail(@NotNull ErrorType type, @NotNull TreeNode treeNode, @Nullable Throwable cause) {
+			if (currentIndex != -1 && entryDataMap.getValue(treeNode.getPath()).index == currentIndex) {
+				failedFiles.add(indexFileMap.remove(currentIndex));
+				currentIndex = -1;
+			}
+			if (streamer == null)
+				failReporter.fail(type, treeNode, cause);
+			else
+				streamer.fail(failReporter, type, treeNode, cause);
+		}
+		
+		/** Returns whether the streaming of the entries has been aborted, in which case unpacking should stop. */
+		public boolean isAborted() {
+			return streamer != null && streamer.isAborted();
+		}
+	}
+	
 	private static final class EntryData {
 		private int index; // archive entry index
 		private long size; // uncompressed filesize
@@ -107,6 +200,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 	 */
 	
 	private final FileFolder archiveFolder;
+	private final List<ArchiveCatalog.Entry> catalogEntries;
 	private final SafeKeyMap<Path, EntryData> entryDataMap = SafeKeyMap.createHashMap();
 	private final TempFileFactory defaultTempFileFactory = new TempFileFactory();
 	private final IndexingConfig config;
@@ -140,6 +234,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		
 		ArchiveIterator<E> archiveIt = getArchiveIterator(archiveFile, archivePath.getPath());
 		ArchiveEntryReader<E> entryReader = getArchiveEntryReader();
+		CatalogBuilder<E> catalogBuilder = new CatalogBuilder<E>(entryReader);
 		
 		/*
 		 * Errors on filtered tree nodes should not be reported, since the filtering may detach tree 
@@ -150,6 +245,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		// Build tree structure from flat list of paths
 		for (int i = 0; archiveIt.hasNext(); i++) {
 			E entry = archiveIt.next();
+			catalogBuilder.add(entry);
 			FileFolder parent = archiveFolder;
 			final String innerPath = entryReader.getInnerPath(entry);
 			
@@ -186,6 +282,7 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		}
 		
 		archiveIt.finished();
+		catalogEntries = Collections.unmodifiableList(catalogBuilder.getEntries());
 		
 		// HTML pairing
 		if (isHtmlPairing)
@@ -319,6 +416,42 @@ abstract class SolidArchiveTree<E> implements Closeable {
 	// If tempDir is given, caller is responsible for deleting it and everything underneath it.
 	// Tip: Use UtilGlobal.convert in case of incompatible Collection types
 	public final void unpack(@NotNull Iterable<? extends TreeNode> unpackEntries,@Nullable final File tempDir) throws IOException, DiskSpaceException {
+		try {
+			unpack(unpackEntries, tempDir, null, null, null, null);
+		}
+		catch (IndexingException e) {
+			throw new IllegalStateException(e); // only thrown by entry handlers
+		}
+	}
+	
+	/**
+	 * Same as {@link #unpack(Iterable, File) unpack(unpackEntries, null)}, except that the given streamed entries are
+	 * not unpacked into temporary files. Instead, the archive is unpacked on a separate thread, and each streamed
+	 * entry is passed to the given handler on the calling thread as soon as the unpacker reaches it, so that it can be
+	 * parsed directly from the archive. The streamed entries must be a subset of the unpack entries, and they must be
+	 * documents without HTML folders. The time spent in unpacking is recorded in the given metrics.
+	 * <p>
+	 * If the given cancelable is canceled or the handler throws an exception, the unpacking is aborted, and the
+	 * remaining streamed entries are not handled. Temporary files of entries that have been unpacked up to that point
+	 * are still available via {@link #getFile(TreeNode)}.
+	 */
+	public final void unpack(	@NotNull Iterable<? extends TreeNode> unpackEntries,
+								@NotNull Collection<? extends FileDocument> streamedEntries,
+								@NotNull EntryHandler handler,
+								@NotNull Cancelable cancelable,
+								@NotNull IndexingMetrics metrics)
+			throws IOException, DiskSpaceException, IndexingException {
+		Util.checkNotNull(handler, cancelable, metrics);
+		unpack(unpackEntries, null, new EntryStreamer(streamedEntries), handler, cancelable, metrics);
+	}
+	
+	private void unpack(@NotNull Iterable<? extends TreeNode> unpackEntries,
+						@Nullable final File tempDir,
+						@Nullable final EntryStreamer streamer,
+						@Nullable EntryHandler handler,
+						@Nullable Cancelable cancelable,
+						@Nullable final IndexingMetrics metrics)
+			throws IOException, DiskSpaceException, IndexingException {
 		final long[] requiredSpace = { 0 };
 		final Map<Integer, TreeNode> unpackMap = Maps.newHashMap();
 		
@@ -326,7 +459,8 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		for (TreeNode entry : unpackEntries) {
 			EntryData entryData = entryDataMap.getValue(entry.getPath());
 			unpackMap.put(entryData.index, entry);
-			requiredSpace[0] += entryData.size;
+			if (streamer == null || !streamer.isStreamed(entry))
+				requiredSpace[0] += entryData.size;
 			
 			// Unpack files under HTML folders if there are any
 			if (!hasHtmlFolder(entry))
@@ -372,7 +506,35 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		}
 		
 		// Unpack files
-		final Map<Integer, File> indexFileMap = doUnpack(unpackMap, tempFileFactory);
+		final EntrySink sink = new EntrySink(tempFileFactory, streamer);
+		try {
+			if (streamer == null) {
+				doUnpack(unpackMap, sink);
+			}
+			else {
+				streamer.run(new EntryStreamer.Unpacker() {
+					public void unpack(EntryStreamer streamer) throws IOException {
+						Measurement measurement = IndexingMetrics.start();
+						boolean failed = true;
+						try {
+							doUnpack(unpackMap, sink);
+							failed = false;
+						}
+						finally {
+							long unpackedBytes = streamer.getStreamedBytes();
+							for (File file : sink.indexFileMap.values())
+								unpackedBytes += file.length();
+							metrics.record(IndexingMetrics.UNPACK, measurement, unpackedBytes, failed, null);
+						}
+					}
+				}, handler, cancelable);
+			}
+		}
+		finally {
+			for (File file : sink.failedFiles)
+				file.delete();
+		}
+		final Map<Integer, File> indexFileMap = sink.indexFileMap;
 		
 		// Store the unpacked entries
 		for (TreeNode entry : unpackEntries) {
@@ -398,15 +560,21 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		return ((FileDocument) treeNode).getHtmlFolder() != null;
 	}
 	
-	// Subclasser should not report anything except failure on single archive entries
-	// Subclasser can use this.getTreeNode(int) to get the document associated with an index,
-	// which is useful for naming temporary files
+	// Subclasser should not report anything except failure on single archive entries, which must be reported via the sink
+	// Subclasser must write each entry of the unpack map into the output stream obtained from the sink
 	// The list of indices may not be sorted
 	// Subclasser is allowed to modify the unpackMap
-	@NotNull
-	protected abstract Map<Integer, File> doUnpack(	@NotNull Map<Integer, TreeNode> unpackMap,	@NotNull TempFileFactory tempFileFactory)
+	// May be called on a different thread than the one that created the receiver
+	protected abstract void doUnpack(	@NotNull Map<Integer, TreeNode> unpackMap,	@NotNull EntrySink sink)
 			throws IOException;
 	
+	/** Returns the entries of the archive for the {@link ArchiveCatalog}, including filtered and encrypted entries. */
+	@Immutable
+	@NotNull
+	public final List<ArchiveCatalog.Entry> getCatalogEntries() {
+		return catalogEntries;
+	}
+	
 	@NotNull
 	public final File getArchiveFile() {
 		return archiveFile;
@@ -427,6 +595,14 @@ abstract class SolidArchiveTree<E> implements Closeable {
 		return entryData.file;
 	}
 	
+	// Returns the uncompressed size of the given archive entry, or -1 if the entry is unknown
+	public final long getUnpackedSize(@NotNull TreeNode treeNode) {
+		EntryData entryData = entryDataMap.getValue(treeNode.getPath());
+		if (entryData == null)
+			return -1;
+		return entryData.size;
+	}
+	
 	public final boolean isEncrypted(@NotNull TreeNode treeNode) {
 		EntryData entryData = entryDataMap.getValue(treeNode.getPath());
 		if (entryData == null)
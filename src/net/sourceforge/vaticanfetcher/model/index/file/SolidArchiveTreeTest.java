@@ -16,12 +16,19 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.TreeNode;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.file.EntryStreamer.EntryHandler;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFolder.FileFolderVisitor;
 import net.sourceforge.vaticanfetcher.util.AppUtil;
 import net.sourceforge.vaticanfetcher.util.Util;
@@ -29,7 +36,9 @@ import net.sourceforge.vaticanfetcher.util.Util;
 import org.junit.Test;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 
 public final class SolidArchiveTreeTest {
 	
@@ -76,5 +85,50 @@ public final class SolidArchiveTreeTest {
 				Closeables.closeQuietly(archive);
 		}
 	}
+	
+	/** Checks that streamed entries are passed to the handler with the same contents as unpacked entries. */
+	@Test
+	public void testStreamedUnpack() throws Exception {
+		IndexingConfig config = new IndexingConfig();
+		List<SolidArchiveTree<?>> archives = Lists.newArrayList();
+		try {
+			archives.add(new SevenZipTree(TestFiles.multiple_dirs_7z.get(), config, null, null));
+			archives.add(new RarTree(TestFiles.multiple_dirs_rar.get(), config, null, null));
+
+			for (SolidArchiveTree<?> archive : archives) {
+				final List<FileDocument> unpackList = new ArrayList<FileDocument> (1);
+				new FileFolderVisitor <Exception> (archive.getArchiveFolder()) {
+					protected void visitDocument(	FileFolder parent,
+					                             	FileDocument fileDocument) {
+						unpackList.add(fileDocument);
+					}
+				}.runSilently();
+				
+				archive.unpack(unpackList, null);
+				File unpackedFile = archive.getFile(unpackList.get(0));
+				byte[] expected = Files.toByteArray(unpackedFile);
+				archive.deleteUnpackedFiles();
+				
+				final List<byte[]> streamed = Lists.newArrayList();
+				archive.unpack(unpackList, unpackList, new EntryHandler() {
+					public void handle(TreeNode treeNode, InputStream in) throws IndexingException {
+						try {
+							streamed.add(ByteStreams.toByteArray(in));
+						}
+						catch (IOException e) {
+							throw new IndexingException(e);
+						}
+					}
+				}, Cancelable.nullCancelable, new IndexingMetrics());
+				
+				assertEquals(1, streamed.size());
+				assertTrue(Arrays.equals(expected, streamed.get(0)));
+				assertEquals(null, archive.getFile(unpackList.get(0)));
+			}
+		} finally {
+			for (SolidArchiveTree<?> archive : archives)
+				Closeables.closeQuietly(archive);
+		}
+	}
 
 }
@@ -44,6 +44,7 @@ abstract class AttachmentVisitor {
 		for (int i = 0; i < numberOfAttachments; i++) {
 			String filename = null;
 			File tempFile = null;
+			boolean handled = false;
 			try {
 				PSTAttachment attach = email.getAttachment(i);
 
@@ -84,6 +85,7 @@ abstract class AttachmentVisitor {
 				Closeables.closeQuietly(in);
 
 				handleAttachment(filename, tempFile);
+				handled = true;
 			}
 			catch (CheckedOutOfMemoryError e) {
 				if (filename == null)
@@ -98,7 +100,8 @@ abstract class AttachmentVisitor {
 				handleException(filename, e);
 			}
 			finally {
-				if (deleteTempFiles && tempFile != null)
+				// Temporary files that weren't handed over are deleted in any case
+				if (tempFile != null && (deleteTempFiles || !handled))
 					tempFile.delete();
 			}
 		}
@@ -29,12 +29,17 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 		super(parent, name, null);
 	}
 	
+	MailFolder(@NotNull String path, @NotNull MailFolder parent, @NotNull String name) {
+		super(path, parent, name);
+	}
+	
 	public MailFolder(@NotNull Path path) {
 		super(path, null);
 	}
 	
 	public void setHasDeepContent(boolean hasDeepContent) {
 		this.hasDeepContent = hasDeepContent;
+		markDirty();
 	}
 	
 	public boolean hasDeepContent() {
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.outlook;
+
+import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookContext.ExtractedMail;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+/**
+ * Parses the attachments of an email and builds its Lucene document on a
+ * worker thread of an {@link IndexingPipeline}, and writes the Lucene document
+ * back on the indexing thread. The attachments must have been extracted into
+ * temporary files by the indexing thread, since PST files can't be read from
+ * several threads at once.
+ */
+final class MailJob implements IndexingPipeline.Job {
+
+	private final OutlookContext context;
+	private final ExtractedMail mail;
+	private boolean started = false; // guarded by 'this' lock
+	private boolean discarded = false; // guarded by 'this' lock
+
+	MailJob(@NotNull OutlookContext context, @NotNull ExtractedMail mail) {
+		this.context = context;
+		this.mail = mail;
+	}
+
+	public void parse() {
+		synchronized (this) {
+			if (discarded)
+				return;
+			started = true;
+		}
+		/*
+		 * The reporter is not passed on because page-wise progress info from a
+		 * worker would be attached to whatever email the indexing thread
+		 * reported last.
+		 */
+		context.createLuceneDoc(mail, IndexingReporter.nullReporter);
+	}
+
+	public void write() throws IndexingException {
+		context.write(mail);
+	}
+
+	// The temporary files of a job that has already started are deleted by
+	// the worker thread
+	public void discard() {
+		mail.doc.setLastModified(-1);
+		synchronized (this) {
+			discarded = true;
+			if (!started)
+				mail.deleteAttachments();
+		}
+	}
+
+}
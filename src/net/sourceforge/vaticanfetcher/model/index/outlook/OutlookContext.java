@@ -19,9 +19,11 @@ import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo;
 import net.sourceforge.vaticanfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.Measurement;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.model.index.MutableInt;
-import net.sourceforge.vaticanfetcher.model.parse.ParseException;
 import net.sourceforge.vaticanfetcher.model.parse.ParseResult;
 import net.sourceforge.vaticanfetcher.model.parse.ParseService;
 import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
@@ -41,36 +43,82 @@ final class OutlookContext {
 	private final IndexWriterAdapter writer;
 	private final IndexingReporter reporter;
 	private final Cancelable cancelable;
+	private final IndexingMetrics metrics;
+	@Nullable private final IndexingPipeline pipeline; // null if emails are indexed sequentially
 	private final MutableInt fileCount = new MutableInt(0);
 
 	public OutlookContext(	@NotNull IndexingConfig config,
 	                      	@NotNull IndexWriterAdapter writer,
 							@NotNull IndexingReporter reporter,
-							@NotNull Cancelable cancelable) {
-		Util.checkNotNull(config, writer, reporter, cancelable);
+							@NotNull Cancelable cancelable,
+							@NotNull IndexingMetrics metrics,
+							@Nullable IndexingPipeline pipeline) {
+		Util.checkNotNull(config, writer, reporter, cancelable, metrics);
 		this.config = config;
 		this.writer = writer;
 		this.reporter = reporter;
 		this.cancelable = cancelable;
+		this.metrics = metrics;
+		this.pipeline = pipeline;
 	}
 	
 	public final boolean isStopped() {
 		return cancelable.isCanceled();
 	}
 	
-	// Will handle attachments
+	/**
+	 * Indexes the given email, including its attachments. The email and its
+	 * attachments are read from the PST file on the calling thread, since PST
+	 * files can't be read from several threads at once. If the receiver has a
+	 * pipeline, the parsing of the attachments and the Lucene write are left to
+	 * the pipeline and this method returns immediately.
+	 */
 	public void index(	@NotNull MailDocument doc,
 						@NotNull PSTMessage email,
 						boolean added) throws IndexingException {
 		fileCount.increment();
 		reporter.info(new IndexingInfo(InfoType.EXTRACTING, doc, fileCount.get()));
+		doc.setError(null);
+		ExtractedMail mail = extract(doc, email, added);
+		if (pipeline == null) {
+			createLuceneDoc(mail, reporter);
+			write(mail);
+		}
+		else {
+			pipeline.submit(new MailJob(this, mail));
+		}
+	}
+	
+	/** Waits for the pipeline to finish all pending emails, if the receiver has a pipeline. */
+	public void flushPipeline() throws IndexingException {
+		if (pipeline != null)
+			pipeline.flush();
+	}
+	
+	/**
+	 * Second half of {@link #index(MailDocument, PSTMessage, boolean)}, which
+	 * must be called on the indexing thread after
+	 * {@link #createLuceneDoc(ExtractedMail, IndexingReporter)}: Reports and
+	 * stores the attachment errors, then writes the Lucene document.
+	 */
+	void write(@NotNull ExtractedMail mail) throws IndexingException {
+		MailDocument doc = mail.doc;
+		for (IndexingError error : mail.errors)
+			reporter.fail(error);
+		doc.setErrors(mail.errors.isEmpty() ? null : mail.errors);
 		try {
-			doc.setError(null);
-			Document luceneDoc = createLuceneDoc(doc, email); // might store some errors
-			if (added)
-				writer.add(luceneDoc);
-			else
-				writer.update(doc.getUniqueId(), luceneDoc);
+			Measurement measurement = IndexingMetrics.start();
+			boolean writeFailed = true;
+			try {
+				if (mail.added)
+					writer.add(mail.luceneDoc);
+				else
+					writer.update(mail.uid, mail.luceneDoc);
+				writeFailed = false;
+			}
+			finally {
+				metrics.record(IndexingMetrics.LUCENE_WRITE, measurement, 0, writeFailed, null);
+			}
 		}
 		catch (IOException e) {
 			throw new IndexingException(e);
@@ -88,48 +136,110 @@ final class OutlookContext {
 		}
 	}
 	
+	/**
+	 * The contents of an email as read from the PST file, with its attachments
+	 * extracted into temporary files. The Lucene document and the attachment
+	 * errors are filled in by
+	 * {@link OutlookContext#createLuceneDoc(ExtractedMail, IndexingReporter)}.
+	 */
+	static final class ExtractedMail {
+		final MailDocument doc;
+		final boolean added;
+		final String uid;
+		final Path path;
+		private final String subject;
+		private final String body;
+		private final String sender;
+		private final String recipients;
+		@Nullable private final Date date;
+		private final List<String> attachNames = new ArrayList<String>(2);
+		private final List<File> attachFiles = new ArrayList<File>(2);
+		final List<IndexingError> errors = new ArrayList<IndexingError>(0);
+		@Nullable Document luceneDoc;
+
+		private ExtractedMail(	@NotNull MailDocument doc,
+								@NotNull PSTMessage email,
+								boolean added) {
+			this.doc = doc;
+			this.added = added;
+
+			// Computed here since the worker threads must not touch the tree
+			this.uid = doc.getUniqueId();
+			this.path = doc.getPath();
+
+			this.subject = email.getSubject();
+			this.body = email.getBody();
+			this.sender = getSender(email);
+			this.recipients = Util.join(", ", getRecipients(email));
+
+			/*
+			 * The date returned by getMessageDeliveryTime can be null. See bug
+			 * #3440130.
+			 */
+			this.date = email.getMessageDeliveryTime();
+		}
+
+		void deleteAttachments() {
+			for (File tempFile : attachFiles)
+				tempFile.delete();
+			attachFiles.clear();
+		}
+	}
+	
+	// Reads the given email and extracts its attachments; must be called on the indexing thread
 	@NotNull
-	private Document createLuceneDoc(	@NotNull final MailDocument doc,
-										@NotNull final PSTMessage email) {
-		final Document luceneDoc = new Document();
-		String subject = email.getSubject();
-		String body = email.getBody();
-		String sender = getSender(email);
-		String recipients = Util.join(", ", getRecipients(email));
-		long size = body.length(); // assume every char takes up one byte
+	private ExtractedMail extract(	@NotNull MailDocument doc,
+									@NotNull PSTMessage email,
+									boolean added) {
+		final ExtractedMail mail = new ExtractedMail(doc, email, added);
+		new AttachmentVisitor(config, email, false) {
+			protected void handleAttachment(String filename,
+											File tempFile) {
+				mail.attachNames.add(filename);
+				mail.attachFiles.add(tempFile);
+			}
+			protected void handleException(	String filename,
+											Throwable t) {
+				mail.errors.add(createAttachError(mail, filename, t));
+			}
+		}.run();
+		return mail;
+	}
+	
+	/**
+	 * Parses the attachments of the given email, deletes their temporary
+	 * files, and stores the resulting Lucene document and attachment errors in
+	 * the given email. This method is thread-safe, so it may be called by the
+	 * pipeline's worker threads.
+	 */
+	void createLuceneDoc(	@NotNull ExtractedMail mail,
+							@NotNull IndexingReporter reporter) {
+		Document luceneDoc = new Document();
+		long size = mail.body.length(); // assume every char takes up one byte
 		
-		luceneDoc.add(Fields.UID.create(doc.getUniqueId()));
-		luceneDoc.add(Fields.SUBJECT.create(subject));
+		luceneDoc.add(Fields.UID.create(mail.uid));
+		luceneDoc.add(Fields.SUBJECT.create(mail.subject));
 		luceneDoc.add(Fields.TYPE.create("outlook")); //$NON-NLS-1$
-		luceneDoc.add(Fields.SENDER.create(sender));
-		luceneDoc.add(Fields.RECIPIENTS.create(recipients));
+		luceneDoc.add(Fields.SENDER.create(mail.sender));
+		luceneDoc.add(Fields.RECIPIENTS.create(mail.recipients));
 		luceneDoc.add(Fields.SIZE.create(size));
 		luceneDoc.add(Fields.PARSER.create(Fields.EMAIL_PARSER));
 
-		/*
-		 * The date returned by getMessageDeliveryTime can be null. See bug
-		 * #3440130.
-		 */
-		Date date = email.getMessageDeliveryTime();
-		if (date != null) {
-			String timestamp = String.valueOf(date.getTime());
+		if (mail.date != null) {
+			String timestamp = String.valueOf(mail.date.getTime());
 			luceneDoc.add(Fields.DATE.create(timestamp));
 		}
 		
 		StringBuilder contents = new StringBuilder();
-		contents.append(subject).append(" ");
-		contents.append(sender).append(" ");
-		contents.append(recipients).append(" ");
-		contents.append(body).append(" ");
+		contents.append(mail.subject).append(" ");
+		contents.append(mail.sender).append(" ");
+		contents.append(mail.recipients).append(" ");
+		contents.append(mail.body).append(" ");
 		luceneDoc.add(Fields.createContent(contents));
 		
 		// Parse and append attachments
-		new AttachmentVisitor(config, email, true) {
-			@Nullable private List<IndexingError> errors;
-			
-			protected void handleAttachment(String filename,
-											File tempFile)
-					throws ParseException, CheckedOutOfMemoryError {
+		try {
+			for (int i = 0; i < mail.attachFiles.size(); i++) {
 				// TODO post-release-1.1: Maybe recurse into archive attachments
 
 				/*
@@ -137,33 +247,39 @@ final class OutlookContext {
 				 * all attachments, so we'll just hand over all attachments to
 				 * the parse service.
 				 */
-				Path path = doc.getPath().createSubPath(filename);
-				ParseResult parseResult = ParseService.parse(
-					config, tempFile, filename, path, reporter, cancelable);
-				luceneDoc.add(Fields.createContent(parseResult.getContent()));
-				StringBuilder metadata = parseResult.getMetadata();
-				metadata.append(filename);
-				luceneDoc.add(Fields.createContent(metadata));
+				String filename = mail.attachNames.get(i);
+				File tempFile = mail.attachFiles.get(i);
+				try {
+					Path path = mail.path.createSubPath(filename);
+					ParseResult parseResult = ParseService.parse(
+						config, tempFile, filename, path, reporter, cancelable, metrics);
+					luceneDoc.add(Fields.createContent(parseResult.getContent()));
+					StringBuilder metadata = parseResult.getMetadata();
+					metadata.append(filename);
+					luceneDoc.add(Fields.createContent(metadata));
+				}
+				catch (CheckedOutOfMemoryError e) {
+					mail.errors.add(createAttachError(mail, filename, e.getCause()));
+				}
+				catch (Exception e) {
+					mail.errors.add(createAttachError(mail, filename, e));
+				}
 			}
-			protected void handleException(	String filename,
-											Throwable t) {
-				Path path = doc.getPath().createSubPath(filename);
-				TreeNode attachNode = new AttachNode(path);
-
-				// Put error in temporary list and report it
-				if (errors == null)
-					errors = new ArrayList<IndexingError>(5);
-				IndexingError error = new IndexingError(
-					ErrorType.ATTACHMENT, attachNode, t);
-				errors.add(error);
-				reporter.fail(error);
-			}
-			protected void runFinally() {
-				doc.setErrors(errors);
-			}
-		}.run();
+		}
+		finally {
+			mail.deleteAttachments();
+		}
 		
-		return luceneDoc;
+		mail.luceneDoc = luceneDoc;
+	}
+	
+	@NotNull
+	private static IndexingError createAttachError(	@NotNull ExtractedMail mail,
+													@NotNull String filename,
+													@NotNull Throwable t) {
+		Path path = mail.path.createSubPath(filename);
+		TreeNode attachNode = new AttachNode(path);
+		return new IndexingError(ErrorType.ATTACHMENT, attachNode, t);
 	}
 	
 	/*
@@ -15,25 +15,32 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.DocumentType;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.TreeIndex;
+import net.sourceforge.vaticanfetcher.model.TreeIndexReader;
+import net.sourceforge.vaticanfetcher.model.TreeIndexWriter;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
 import net.sourceforge.vaticanfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError;
 import net.sourceforge.vaticanfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingPipeline;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 import com.pff.PSTException;
@@ -57,12 +64,23 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 	
 	private static final long serialVersionUID = 1L;
 	
+	// Last-modified value of folders whose emails are being visited
+	private static final Long INCOMPLETE = -1L;
+	
 	private MailFolder simplifiedRootFolder;
 	
 	public OutlookIndex(@Nullable File indexParentDir, @NotNull File pstFile) {
 		super(indexParentDir, pstFile);
 	}
 	
+	/*
+	 * Note: The simplified root folder isn't saved, since it's currently not in use.
+	 * After loading, getSimplifiedRootFolder() falls back to the root folder.
+	 */
+	public OutlookIndex(@NotNull TreeIndexReader in) throws IOException {
+		super(in);
+	}
+	
 	@NotNull
 	protected String getIndexDirName(@NotNull File pstFile) {
 		return Util.splitFilename(pstFile)[0];
@@ -73,6 +91,31 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return new MailFolder(path);
 	}
 	
+	@NotNull
+	protected MailFolder createLoadedFolder(@NotNull MailFolder parent,
+											@NotNull String name,
+											@NotNull String path) {
+		return new MailFolder(path, parent, name);
+	}
+	
+	@NotNull
+	protected MailDocument createLoadedDocument(@NotNull MailFolder parent,
+												@NotNull String name,
+												@Nullable String displayName,
+												long lastModified) {
+		return new MailDocument(parent, name, displayName == null ? name : displayName, lastModified);
+	}
+	
+	protected void writeFolderData(	@NotNull TreeIndexWriter out,
+									@NotNull MailFolder folder) throws IOException {
+		out.writeBoolean(folder.hasDeepContent());
+	}
+	
+	protected void readFolderData(	@NotNull TreeIndexReader in,
+									@NotNull MailFolder folder) throws IOException {
+		folder.setHasDeepContent(in.readBoolean());
+	}
+	
 	public boolean isEmailIndex() {
 		return true;
 	}
@@ -87,6 +130,8 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		MailFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		IndexWriterAdapter writer = null;
+		IndexingPipeline pipeline = null;
+		IndexingMetrics metrics = new IndexingMetrics();
 		
 		try {
 			/*
@@ -100,11 +145,23 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			rootFolder.setLastModified(newLastModified);
 			
 			writer = new IndexWriterAdapter(getLuceneDir());
+			pipeline = IndexingPipeline.createIfEnabled();
 			OutlookContext context = new OutlookContext(
-					getConfig(), writer, reporter, cancelable
+					getConfig(), writer, reporter, cancelable, metrics, pipeline
 			);
 			PSTFile pstFile = new PSTFile(rootFile.getPath());
-			visitFolder(context, rootFolder, pstFile.getRootFolder());
+			try {
+				visitFolder(context, rootFolder, pstFile.getRootFolder());
+			}
+			finally {
+				Closeables.closeQuietly(pstFile.getFileHandle());
+			}
+			
+			/*
+			 * The remaining emails must be written even if the indexing was
+			 * canceled, just like in the sequential case.
+			 */
+			context.flushPipeline();
 			
 			simplifiedRootFolder = new TreeRootSimplifier<MailFolder> () {
 				protected boolean hasContent(MailFolder node) {
@@ -130,7 +187,10 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			report(reporter, e.getIOException());
 		}
 		finally {
+			if (pipeline != null)
+				pipeline.close();
 			Closeables.closeQuietly(writer);
+			reportMetrics(reporter, metrics);
 			reporter.setEndTime(System.currentTimeMillis());
 		}
 		return IndexingResult.FAILURE;
@@ -153,7 +213,14 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return simplifiedRootFolder;
 	}
 	
-	// TODO doc: stores in the given folder whether it has 'deep' content or not.
+	/*
+	 * Stores in the given folder whether it has 'deep' content or not.
+	 * 
+	 * The emails of a folder are only visited if the folder has changed since
+	 * the last update, so that untouched folders of large PST files can be
+	 * skipped. The subfolders are visited in any case, since they can change
+	 * independently of their parent folder.
+	 */
 	@RecursiveMethod
 	private static void visitFolder(@NotNull OutlookContext context,
 									@NotNull MailFolder folder,
@@ -164,8 +231,28 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		final Map<String, MailFolder> unseenSubFolders = Maps.newHashMap(folder.getSubFolderMap());
 		final List<PSTFolder> subFoldersToVisit = new LinkedList<PSTFolder>();
 		
-		// Visit mails
-		if (pstFolder.getContentCount() > 0) {
+		/*
+		 * The last-modified value of the root folder is the one of the PST
+		 * file, so the root folder is always visited.
+		 */
+		boolean isRoot = folder.getParent() == null;
+		int contentCount = pstFolder.getContentCount();
+		Date folderLastModDate = pstFolder.getLastModificationTime();
+		Long folderLastMod = isRoot || folderLastModDate == null ? null : folderLastModDate.getTime();
+		if (!isRoot && isUnmodifiedFolder(folder, pstFolder, folderLastMod)) {
+			unseenMails.clear(); // keep all mails
+			if (contentCount > 0)
+				folder.setHasDeepContent(true);
+		}
+		else if (contentCount > 0) {
+			/*
+			 * If this visit is interrupted, the folder must not be mistaken for
+			 * an unmodified one on the next update.
+			 */
+			if (!isRoot)
+				folder.setLastModified(INCOMPLETE);
+			
+			// Visit mails
 			try {
 				PSTObject pstObject;
 				try {
@@ -288,6 +375,46 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		}
 		for (MailFolder subFolder : unseenSubFolders.values())
 			folder.removeSubFolder(subFolder);
+		if (!isRoot)
+			folder.setLastModified(folderLastMod);
+	}
+	
+	/*
+	 * Returns true if the given folder was completely visited on the last
+	 * update, and neither the last-modified value of the corresponding PST
+	 * folder nor the set of emails in it has changed since then. The email IDs
+	 * are taken from the contents table of the PST folder, which is much
+	 * cheaper than loading the emails. A folder whose emails weren't all
+	 * indexed, e.g. because the update was canceled with emails still in the
+	 * pipeline, contains emails with a last-modified value of -1 and is visited
+	 * again.
+	 * 
+	 * Note: Many PST files don't store last-modified values for folders. For
+	 * these, emails that were modified in place without being moved are only
+	 * picked up when emails are added to or removed from the same folder.
+	 */
+	private static boolean isUnmodifiedFolder(	@NotNull MailFolder folder,
+												@NotNull PSTFolder pstFolder,
+												@Nullable Long newLastModified)
+			throws IndexingException, PSTException {
+		if (!Objects.equal(folder.getLastModified(), newLastModified))
+			return false;
+		if (folder.getDocumentCount() != pstFolder.getContentCount())
+			return false;
+		for (MailDocument mail : folder.getDocuments())
+			if (mail.getLastModified() == -1)
+				return false;
+		if (folder.getDocumentCount() == 0)
+			return true;
+		try {
+			Set<String> ids = new HashSet<String>();
+			for (Integer id : pstFolder.getChildDescriptorNodes())
+				ids.add(String.valueOf(id));
+			return ids.equals(folder.getDocumentMap().keySet());
+		}
+		catch (IOException e) {
+			throw new IndexingException(e);
+		}
 	}
 
 }
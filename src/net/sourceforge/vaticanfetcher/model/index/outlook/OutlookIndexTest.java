@@ -11,15 +11,25 @@
 
 package net.sourceforge.vaticanfetcher.model.index.outlook;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 
 import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.model.UtilModel;
+import net.sourceforge.vaticanfetcher.model.index.IndexingError;
+import net.sourceforge.vaticanfetcher.model.index.IndexingInfo;
+import net.sourceforge.vaticanfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
 
 import org.apache.lucene.store.Directory;
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 public final class OutlookIndexTest {
 
 	static {
@@ -42,6 +52,69 @@ public final class OutlookIndexTest {
 		UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
 	}
 	
-	// TODO test
+	private static class CountingReporter extends IndexingReporter {
+		private int extractCount = 0;
+		private int errorCount = 0;
+		
+		public void info(IndexingInfo info) {
+			if (info.is(InfoType.EXTRACTING))
+				extractCount++;
+		}
+		
+		public void fail(IndexingError error) {
+			errorCount++;
+		}
+	}
+	
+	/**
+	 * Checks that emails are indexed correctly with several parser threads,
+	 * and that unmodified folders are skipped when the PST file is touched.
+	 */
+	@Test
+	public void testIncrementalParallel() throws Exception {
+		File tempDir = Util.createTempDir();
+		File pstFile = new File(tempDir, "test.pst");
+		Files.copy(TestFiles.outlook_test.get(), pstFile);
+		
+		ProgramConf.Int.ParserThreads.load("4");
+		try {
+			OutlookIndex index = new OutlookIndex(null, pstFile);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			Directory luceneDir = index.getLuceneDir();
+			UtilModel.assertDocCount(luceneDir, 1);
+			UtilModel.assertResultCount(luceneDir, "Body1", 1);
+			UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
+			
+			/*
+			 * The folders haven't changed, so no email must be read, even if
+			 * the stored last-modified values of the emails are out of date
+			 */
+			for (MailDocument mail : index.getRootFolder().getDocumentsDeep())
+				mail.setLastModified(1);
+			pstFile.setLastModified(pstFile.lastModified() + 10000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			UtilModel.assertDocCount(luceneDir, 1);
+			UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
+			
+			// Emails that weren't completely indexed are indexed again
+			for (MailDocument mail : index.getRootFolder().getDocumentsDeep())
+				mail.setLastModified(-1);
+			pstFile.setLastModified(pstFile.lastModified() + 10000);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			UtilModel.assertDocCount(luceneDir, 1);
+			UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
+		}
+		finally {
+			ProgramConf.Int.ParserThreads.load("1");
+			Util.deleteRecursively(tempDir);
+		}
+	}
 	
 }
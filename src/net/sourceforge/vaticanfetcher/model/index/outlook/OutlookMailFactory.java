@@ -11,6 +11,7 @@
 
 package net.sourceforge.vaticanfetcher.model.index.outlook;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -19,6 +20,7 @@ import net.sourceforge.vaticanfetcher.model.MailResource;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.Path.PathParts;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.outlook.PstFilePool.Handle;
 import net.sourceforge.vaticanfetcher.model.parse.ParseException;
 import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.vaticanfetcher.util.Util;
@@ -27,15 +29,16 @@ import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import org.apache.lucene.search.Query;
 
 import com.pff.PSTException;
-import com.pff.PSTFile;
 import com.pff.PSTMessage;
-import com.pff.PSTObject;
 
 public final class OutlookMailFactory {
 	
 	// TODO test
 	
+	private static final int PST_FILE_POOL_SIZE = 4;
+	
 	private final HotColdFileCache unpackCache;
+	private final PstFilePool pstFilePool = new PstFilePool(PST_FILE_POOL_SIZE);
 	
 	public OutlookMailFactory(@NotNull HotColdFileCache unpackCache) {
 		this.unpackCache = Util.checkNotNull(unpackCache);
@@ -56,14 +59,21 @@ public final class OutlookMailFactory {
 			long pstId = Long.valueOf(leftMiddle_right.getRight());
 			
 			String absLeft = left_middle.getLeft().getCanonicalPath();
-			PSTFile pstFile = new PSTFile(absLeft);
-			PSTMessage email = (PSTMessage) PSTObject.detectAndLoadPSTObject(
-				pstFile, pstId);
-			
 			Path emailId = new Path(Util.joinPath(
 				absLeft, left_middle.getRight(), leftMiddle_right.getRight()));
 			
-			return new OutlookMailResource(config, query, isPhraseQuery, unpackCache, emailId, email);
+			/*
+			 * The PST file stays open after loading the email, so that the next email from the same PST file can be
+			 * loaded without reading the header and the index B-trees of the file again.
+			 */
+			Handle handle = pstFilePool.acquire(new File(absLeft));
+			try {
+				PSTMessage email = handle.getMessage(pstId);
+				return new OutlookMailResource(config, query, isPhraseQuery, unpackCache, emailId, email);
+			}
+			finally {
+				pstFilePool.release(handle);
+			}
 		}
 		catch (FileNotFoundException e) {
 			throw e; // should not be caught by IOException catch clause
@@ -75,5 +85,10 @@ public final class OutlookMailFactory {
 			throw new ParseException(e); // TODO i18n
 		}
 	}
+	
+	/** Closes the PST files that were kept open for loading emails. */
+	public void close() {
+		pstFilePool.close();
+	}
 
 }
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.outlook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.pff.PSTException;
+import com.pff.PSTFile;
+import com.pff.PSTMessage;
+import com.pff.PSTObject;
+
+/**
+ * A pool of open PST files, so that loading several emails from the same PST file only requires reading the header
+ * and the index B-trees of the PST file once. Opening a large PST file takes a considerable amount of time.
+ * <p>
+ * A PST file is obtained with {@link #acquire(File)} and must be given back with {@link #release(Handle)}. In between,
+ * the caller has exclusive access to it, since PST files can't be read from several threads at once. Each handle also
+ * keeps the most recently loaded emails, so that viewing the same email again doesn't require any reads.
+ * <p>
+ * Handles are keyed by the canonical path of the PST file and are only reused if the last-modified value and the size
+ * of the file haven't changed since the file was opened. If the pool is full, the least recently used handle is
+ * closed.
+ */
+@ThreadSafe
+final class PstFilePool {
+
+	private static final int MESSAGE_CACHE_SIZE = 16; // per PST file
+
+	/** An open PST file, along with its recently loaded emails. */
+	@NotThreadSafe
+	static final class Handle {
+		private final String path;
+		private final long lastModified;
+		private final long length;
+		private final PSTFile pstFile;
+		private final Map<Long, PSTMessage> messages = new LinkedHashMap<Long, PSTMessage>(
+				MESSAGE_CACHE_SIZE + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Long, PSTMessage> eldest) {
+				return size() > MESSAGE_CACHE_SIZE;
+			}
+		};
+
+		private Handle(@NotNull File file) throws IOException, PSTException {
+			path = file.getPath();
+			lastModified = file.lastModified();
+			length = file.length();
+			pstFile = new PSTFile(file);
+		}
+
+		private boolean isValid(@NotNull File file) {
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+
+		/** Returns the email with the given descriptor node ID. */
+		@NotNull
+		public PSTMessage getMessage(long id) throws IOException, PSTException {
+			PSTMessage message = messages.get(id);
+			if (message == null) {
+				message = (PSTMessage) PSTObject.detectAndLoadPSTObject(pstFile, id);
+				messages.put(id, message);
+			}
+			return message;
+		}
+
+		private void close() {
+			try {
+				pstFile.getFileHandle().close();
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+			}
+		}
+	}
+
+	private final int capacity;
+
+	// The idle handles, in access order and keyed by path; guarded by 'this' lock
+	private final LinkedHashMap<String, Handle> idleHandles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+	private boolean closed = false; // guarded by 'this' lock
+
+	public PstFilePool(int capacity) {
+		Util.checkThat(capacity >= 1);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns a handle for the given PST file, which must be passed to {@link #release(Handle)} after usage. If the
+	 * pool has no valid handle for the file, the file is opened.
+	 */
+	@NotNull
+	public Handle acquire(@NotNull File file) throws IOException, PSTException {
+		File canonicalFile = Util.getCanonicalFile(file);
+		Handle handle;
+		synchronized (this) {
+			handle = idleHandles.remove(canonicalFile.getPath());
+		}
+		if (handle != null) {
+			if (handle.isValid(canonicalFile))
+				return handle;
+			handle.close(); // The file was modified in the meantime
+		}
+		return new Handle(canonicalFile);
+	}
+
+	/** Gives the given handle back to the pool, or closes it if the pool was closed. */
+	public void release(@NotNull Handle handle) {
+		List<Handle> closedHandles = new ArrayList<Handle>(2);
+		synchronized (this) {
+			if (closed) {
+				handle.close();
+				return;
+			}
+			
+			// If another thread has released a handle for the same file in the meantime, keep only the newer one
+			Handle oldHandle = idleHandles.put(handle.path, handle);
+			if (oldHandle != null)
+				closedHandles.add(oldHandle);
+			Iterator<Handle> it = idleHandles.values().iterator();
+			while (idleHandles.size() > capacity) {
+				closedHandles.add(it.next());
+				it.remove();
+			}
+		}
+		for (Handle closedHandle : closedHandles)
+			closedHandle.close();
+	}
+
+	/** Closes all idle handles. Handles that are currently in use are closed when they're released. */
+	public void close() {
+		List<Handle> closedHandles;
+		synchronized (this) {
+			closed = true;
+			closedHandles = new ArrayList<Handle>(idleHandles.values());
+			idleHandles.clear();
+		}
+		for (Handle closedHandle : closedHandles)
+			closedHandle.close();
+	}
+
+	@VisibleForTesting
+	synchronized int getIdleCount() {
+		return idleHandles.size();
+	}
+
+}
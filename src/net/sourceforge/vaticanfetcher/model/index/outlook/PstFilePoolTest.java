@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.index.outlook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.index.outlook.PstFilePool.Handle;
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.pff.PSTFile;
+import com.pff.PSTFolder;
+import com.pff.PSTMessage;
+import com.pff.PSTObject;
+
+public final class PstFilePoolTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		File tempDir = Util.createTempDir();
+		PstFilePool pool = new PstFilePool(1);
+		try {
+			File pstFile = new File(tempDir, "test.pst");
+			Files.copy(TestFiles.outlook_test.get(), pstFile);
+			long id = findMessageId(pstFile);
+
+			Handle handle = pool.acquire(pstFile);
+			PSTMessage message = handle.getMessage(id);
+			assertTrue(message.getSubject().contains("Subject1"));
+			pool.release(handle);
+
+			// The handle and the loaded email are reused
+			Handle handle2 = pool.acquire(pstFile);
+			assertSame(handle, handle2);
+			assertSame(message, handle2.getMessage(id));
+
+			// A handle that is in use is not handed out twice
+			Handle handle3 = pool.acquire(pstFile);
+			assertNotSame(handle2, handle3);
+			pool.release(handle3);
+			pool.release(handle2);
+			assertEquals(1, pool.getIdleCount());
+
+			// A modified file is opened again
+			pstFile.setLastModified(pstFile.lastModified() - 10000);
+			Handle handle4 = pool.acquire(pstFile);
+			assertNotSame(handle2, handle4);
+			assertNotSame(message, handle4.getMessage(id));
+			pool.release(handle4);
+
+			// The least recently used handle is closed when the pool is full
+			File pstFile2 = new File(tempDir, "test2.pst");
+			Files.copy(pstFile, pstFile2);
+			pool.release(pool.acquire(pstFile2));
+			assertEquals(1, pool.getIdleCount());
+			assertNotSame(handle4, pool.acquire(pstFile));
+		}
+		finally {
+			pool.close();
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static long findMessageId(File file) throws Exception {
+		PSTFile pstFile = new PSTFile(file);
+		try {
+			long id = findMessageId(pstFile.getRootFolder());
+			assertTrue(id >= 0);
+			return id;
+		}
+		finally {
+			pstFile.getFileHandle().close();
+		}
+	}
+
+	private static long findMessageId(PSTFolder folder) throws Exception {
+		if (folder.getContentCount() > 0) {
+			PSTObject child = folder.getNextChild();
+			if (child instanceof PSTMessage)
+				return child.getDescriptorNodeId();
+		}
+		for (PSTFolder subFolder : folder.getSubFolders()) {
+			long id = findMessageId(subFolder);
+			if (id >= 0)
+				return id;
+		}
+		return -1;
+	}
+
+}
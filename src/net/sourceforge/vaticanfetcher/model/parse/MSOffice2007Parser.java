@@ -12,23 +12,145 @@
 package net.sourceforge.vaticanfetcher.model.parse;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
 import net.sourceforge.vaticanfetcher.enums.ProgramConf;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 
 import org.apache.poi.POITextExtractor;
 import org.apache.poi.extractor.ExtractorFactory;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.PackageProperties;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.xssf.extractor.XSSFEventBasedExcelExtractor;
 import org.apache.poi.xssf.extractor.XSSFExcelExtractor;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Closeables;
 
 abstract class MSOffice2007Parser extends FileParser {
 	
+	/**
+	 * Collects the text of WordprocessingML and DrawingML parts while they are parsed, without building an object
+	 * model. Text runs are concatenated, and paragraphs, line breaks and tabs are turned into whitespace, as in the
+	 * extractors of the POI object model.
+	 */
+	private static final class TextHandler extends DefaultHandler {
+		private static final String WORD_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main"; //$NON-NLS-1$
+		private static final String DRAWING_NS = "http://schemas.openxmlformats.org/drawingml/2006/main"; //$NON-NLS-1$
+		
+		private final StringBuilder sb;
+		private boolean inText = false;
+		private boolean inParagraph = false;
+		
+		private TextHandler(@NotNull StringBuilder sb) {
+			this.sb = sb;
+		}
+		
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			if (!WORD_NS.equals(uri) && !DRAWING_NS.equals(uri))
+				return;
+			if (localName.equals("t")) //$NON-NLS-1$
+				inText = true;
+			else if (localName.equals("p")) //$NON-NLS-1$
+				inParagraph = true;
+			else if (localName.equals("tab") && inParagraph) //$NON-NLS-1$
+				sb.append('\t');
+			else if (localName.equals("br") && inParagraph) //$NON-NLS-1$
+				sb.append('\n');
+		}
+		
+		public void endElement(String uri, String localName, String qName) {
+			if (!WORD_NS.equals(uri) && !DRAWING_NS.equals(uri))
+				return;
+			if (localName.equals("t")) { //$NON-NLS-1$
+				inText = false;
+			}
+			else if (localName.equals("p")) { //$NON-NLS-1$
+				inParagraph = false;
+				sb.append('\n');
+			}
+		}
+		
+		public void characters(char[] ch, int start, int length) {
+			if (inText)
+				sb.append(ch, start, length);
+		}
+	}
+	
+	/** Collects the relationship IDs of the slides in presentation.xml, in the order of the slides. */
+	private static final class SlideIdHandler extends DefaultHandler {
+		private static final String PRESENTATION_NS = "http://schemas.openxmlformats.org/presentationml/2006/main"; //$NON-NLS-1$
+		private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships"; //$NON-NLS-1$
+		
+		private final List<String> relIds = new ArrayList<String>();
+		
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			if (PRESENTATION_NS.equals(uri) && localName.equals("sldId")) { //$NON-NLS-1$
+				String relId = atts.getValue(RELATIONSHIPS_NS, "id"); //$NON-NLS-1$
+				if (relId != null)
+					relIds.add(relId);
+			}
+		}
+	}
+	
+	private static final String RELATIONSHIPS_BASE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/"; //$NON-NLS-1$
+	
+	// The parts of a Word document that are extracted besides the main part, in the same order as in XWPFWordExtractor
+	private static final String[] WORD_HEADER_PARTS = { "header" }; //$NON-NLS-1$
+	private static final String[] WORD_FOOTER_PARTS = { "footnotes", "endnotes", "comments", "footer" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	
+	private static final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+	static {
+		saxParserFactory.setNamespaceAware(true);
+		
+		/*
+		 * The parts of Office documents never contain DTDs, so DTDs are rejected altogether. This rules out the
+		 * resolution of external entities, which would let a crafted document pull local files or URLs into the
+		 * index, as well as entity expansion attacks. The other features are set in case the XML parser doesn't
+		 * support the first one.
+		 */
+		setFeature("http://apache.org/xml/features/disallow-doctype-decl", true); //$NON-NLS-1$
+		setFeature("http://xml.org/sax/features/external-general-entities", false); //$NON-NLS-1$
+		setFeature("http://xml.org/sax/features/external-parameter-entities", false); //$NON-NLS-1$
+		setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+	}
+	
+	private static void setFeature(@NotNull String name, boolean value) {
+		try {
+			saxParserFactory.setFeature(name, value);
+		}
+		catch (ParserConfigurationException e) {
+		}
+		catch (SAXNotSupportedException e) {
+		}
+		catch (SAXNotRecognizedException e) {
+			// Not supported by the XML parser, see also Tika's ParseContext.getSAXParserFactory
+		}
+	}
+	
 	public static final class MSWord2007Parser extends MSOffice2007Parser {
 		public MSWord2007Parser() {
 			super(Msg.filetype_docx.get(), "docx", "docm", "dotx");
@@ -64,7 +186,7 @@ abstract class MSOffice2007Parser extends FileParser {
 		OPCPackage pkg = null;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			String contents = extractText(pkg);
+			String contents = extractText(pkg, file.length());
 			
 			// Open properties
 			PackageProperties props = pkg.getPackageProperties();
@@ -114,7 +236,7 @@ abstract class MSOffice2007Parser extends FileParser {
 		OPCPackage pkg = null;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			return extractText(pkg);
+			return extractText(pkg, file.length());
 		}
 		catch (Exception e) {
 			throw new ParseException(e);
@@ -124,9 +246,27 @@ abstract class MSOffice2007Parser extends FileParser {
 		}
 	}
 	
+	/*
+	 * Files larger than the threshold given by ProgramConf.Int.OfficeStreamingThreshold are extracted with SAX
+	 * parsers, which keep only the extracted text and, for spreadsheets, the shared strings table in memory. Smaller
+	 * files are extracted with the POI object model, which needs several times the uncompressed size of the XML parts.
+	 * Caller is responsible for closing the given package.
+	 */
+	@NotNull
+	private static String extractText(@NotNull OPCPackage pkg, long fileLength) throws Exception {
+		long threshold = ProgramConf.Int.OfficeStreamingThreshold.get() * 1024L * 1024L;
+		if (fileLength >= threshold) {
+			String text = extractTextStreaming(pkg);
+			if (text != null)
+				return text;
+		}
+		return extractTextWithObjectModel(pkg);
+	}
+	
 	// Caller is responsible for closing the given package
 	@NotNull
-	private static String extractText(@NotNull OPCPackage pkg) throws Exception {
+	@VisibleForTesting
+	static String extractTextWithObjectModel(@NotNull OPCPackage pkg) throws Exception {
 		POITextExtractor extractor = ExtractorFactory.createExtractor(pkg);
 		if (extractor instanceof XSSFExcelExtractor) {
 			boolean indexFormulas = ProgramConf.Bool.IndexExcelFormulas.get();
@@ -135,6 +275,74 @@ abstract class MSOffice2007Parser extends FileParser {
 		String text = extractor.getText();
 		return text;
 	}
+	
+	/**
+	 * Extracts the text of the given package with SAX parsers, or returns null if the package is neither a Word
+	 * document nor a spreadsheet nor a presentation. Caller is responsible for closing the given package.
+	 */
+	@Nullable
+	@VisibleForTesting
+	static String extractTextStreaming(@NotNull OPCPackage pkg) throws Exception {
+		PackageRelationshipCollection coreRels = pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT);
+		if (coreRels.size() == 0)
+			return null;
+		PackagePart mainPart = pkg.getPart(coreRels.getRelationship(0));
+		if (mainPart == null)
+			return null;
+		String contentType = mainPart.getContentType();
+		
+		if (contentType.contains("spreadsheetml")) { //$NON-NLS-1$
+			XSSFEventBasedExcelExtractor extractor = new XSSFEventBasedExcelExtractor(pkg);
+			extractor.setFormulasNotResults(ProgramConf.Bool.IndexExcelFormulas.get());
+			return extractor.getText();
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		if (contentType.contains("wordprocessingml")) { //$NON-NLS-1$
+			parseRelatedParts(mainPart, WORD_HEADER_PARTS, sb);
+			parse(mainPart, new TextHandler(sb));
+			parseRelatedParts(mainPart, WORD_FOOTER_PARTS, sb);
+			return sb.toString();
+		}
+		if (contentType.contains("presentationml")) { //$NON-NLS-1$
+			SlideIdHandler slideIdHandler = new SlideIdHandler();
+			parse(mainPart, slideIdHandler);
+			for (String relId : slideIdHandler.relIds) {
+				PackageRelationship rel = mainPart.getRelationship(relId);
+				if (rel != null)
+					parse(mainPart.getRelatedPart(rel), new TextHandler(sb));
+			}
+			return sb.toString();
+		}
+		return null;
+	}
+	
+	private static void parseRelatedParts(	@NotNull PackagePart part,
+											@NotNull String[] relTypeNames,
+											@NotNull StringBuilder sb)
+			throws InvalidFormatException, IOException, SAXException {
+		for (String relTypeName : relTypeNames)
+			for (PackageRelationship rel : part.getRelationshipsByType(RELATIONSHIPS_BASE + relTypeName))
+				parse(part.getRelatedPart(rel), new TextHandler(sb));
+	}
+	
+	private static void parse(@NotNull PackagePart part, @NotNull DefaultHandler handler)
+			throws IOException, SAXException {
+		InputStream in = part.getInputStream();
+		try {
+			SAXParser saxParser;
+			synchronized (saxParserFactory) {
+				saxParser = saxParserFactory.newSAXParser();
+			}
+			saxParser.parse(in, handler);
+		}
+		catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
 
 	protected final Collection<String> getExtensions() {
 		return extensions;
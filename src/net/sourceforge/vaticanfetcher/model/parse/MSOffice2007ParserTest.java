@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.parse;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+public final class MSOffice2007ParserTest {
+	
+	@Test
+	public void testStreamingExtraction() throws Exception {
+		String text = extractTextStreaming(TestFiles.docx.get());
+		assertTrue(text.startsWith("This is the header for our document\n"));
+		assertTrue(text.contains("\nSample Word Document Title\n"));
+		assertTrue(text.contains("\nThis document includes text that is BOLD and ITALIC.\n"));
+		assertTrue(text.contains("\nMore of our nested table\n"));
+		
+		text = extractTextStreaming(TestFiles.lorem_ipsum_docx.get());
+		assertTrue(text.startsWith("Lorem ipsum dolor sit amet"));
+		assertTrue(text.trim().endsWith("Aliquam erat volutpat."));
+	}
+	
+	/** Checks that external entities in the parts of a document aren't resolved. */
+	@Test
+	public void testExternalEntity() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File secretFile = new File(tempDir, "secret.txt");
+			Files.write("secret", secretFile, Charsets.UTF_8);
+			String documentXml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<!DOCTYPE w:document [<!ENTITY xxe SYSTEM \"" + secretFile.toURI() + "\">]>\n"
+				+ "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+				+ "<w:body><w:p><w:r><w:t>&xxe;</w:t></w:r></w:p></w:body></w:document>";
+			
+			// Copy a Word document, replacing its main part
+			File docxFile = new File(tempDir, "test.docx");
+			ZipInputStream in = new ZipInputStream(new FileInputStream(TestFiles.docx.get()));
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(docxFile));
+			try {
+				for (ZipEntry entry; (entry = in.getNextEntry()) != null;) {
+					out.putNextEntry(new ZipEntry(entry.getName()));
+					if (entry.getName().equals("word/document.xml"))
+						out.write(documentXml.getBytes(Charsets.UTF_8));
+					else
+						ByteStreams.copy(in, out);
+					out.closeEntry();
+				}
+			}
+			finally {
+				Closeables.closeQuietly(in);
+				Closeables.closeQuietly(out);
+			}
+			
+			try {
+				assertFalse(extractTextStreaming(docxFile).contains("secret"));
+			}
+			catch (SAXParseException e) {
+				// Expected, since the document contains a DTD
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@NotNull
+	private static String extractTextStreaming(@NotNull File file) throws Exception {
+		OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		try {
+			return MSOffice2007Parser.extractTextStreaming(pkg);
+		}
+		finally {
+			pkg.revert();
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.model.parse;
+
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+/**
+ * Thrown when a text extraction was aborted because it took too long or allocated too much memory.
+ * 
+ * @see ParseWatchdog
+ */
+public final class ParseBudgetException extends ParseException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ParseBudgetException(@NotNull String message) {
+		super(message);
+	}
+
+}
@@ -21,16 +21,21 @@ final class ParseContext {
 	private final String filename;
 	private final IndexingReporter reporter;
 	private final Cancelable cancelable;
+	private final int maxChars;
 
 	public ParseContext(@NotNull String filename) {
-		this(filename, IndexingReporter.nullReporter, Cancelable.nullCancelable);
+		this(filename, IndexingReporter.nullReporter, Cancelable.nullCancelable, 0);
 	}
 	
-	public ParseContext(@NotNull String filename, @NotNull IndexingReporter reporter, @NotNull Cancelable cancelable) {
+	public ParseContext(@NotNull String filename,
+						@NotNull IndexingReporter reporter,
+						@NotNull Cancelable cancelable,
+						int maxChars) {
 		Util.checkNotNull(filename, reporter, cancelable);
 		this.filename = filename;
 		this.reporter = reporter;
 		this.cancelable = cancelable;
+		this.maxChars = maxChars;
 	}
 	
 	@NotNull
@@ -41,5 +46,11 @@ final class ParseContext {
 
 	@NotNull
 	public Cancelable getCancelable() {	return cancelable; }
+	
+	/**
+	 * Returns the number of characters after which the extracted text will be cut off, or 0 if there's no limit.
+	 * Parsers that extract the text incrementally may stop once they have extracted more than this number of characters.
+	 */
+	public int getMaxChars() { return maxChars; }
 
 }
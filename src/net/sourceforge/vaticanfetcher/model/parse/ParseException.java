@@ -13,7 +13,7 @@ package net.sourceforge.vaticanfetcher.model.parse;
 
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 
-public final class ParseException extends Exception {
+public class ParseException extends Exception {
 	
 	private static final long serialVersionUID = 1L;
 	
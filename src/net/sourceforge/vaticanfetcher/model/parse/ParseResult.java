@@ -11,6 +11,9 @@
 
 package net.sourceforge.vaticanfetcher.model.parse;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,15 +22,59 @@ import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+
 /**
  * TODO doc: simplifies creation of Lucene Document objects for the parsers.
  * allows method chaining
+ * <p>
+ * The content can either be given as a char sequence, or as a reader from which the indexing engine pulls the text
+ * while writing it to the Lucene index. The latter is meant for parsers that can decode their input incrementally, so
+ * that large documents never have to be held in memory as a whole.
  * 
  * @author Tran Nam Quang
  */
 public final class ParseResult {
 	
+	/**
+	 * Wraps a content reader, limiting the number of characters read from it. Since the indexing engine reads the
+	 * content after the parser has returned, I/O errors can't be reported as parse errors anymore; instead, the content
+	 * is treated as ending at that point, like the partially extracted text of a canceled parser.
+	 */
+	private static final class ContentReader extends Reader {
+		private final Reader in;
+		private int remaining;
+		
+		private ContentReader(@NotNull Reader in, int maxChars) {
+			this.in = in;
+			this.remaining = maxChars <= 0 ? Integer.MAX_VALUE : maxChars;
+		}
+		
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int count;
+			try {
+				count = in.read(cbuf, off, Math.min(len, remaining));
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+				return -1;
+			}
+			if (count > 0)
+				remaining -= count;
+			return count;
+		}
+		
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
 	@NotNull private CharSequence content;
+	@Nullable private ContentReader contentReader;
+	private boolean contentTruncated = false;
 	@Nullable private String title;
 	@Nullable private List<String> authors;
 	@Nullable private List<String> miscMetadata;
@@ -37,17 +84,99 @@ public final class ParseResult {
 		setContent(content);
 	}
 	
+	/** Creates a parse result with streamed content. See {@link #setContent(Reader)}. */
+	public ParseResult(@NotNull Reader contentReader) {
+		setContent(contentReader);
+	}
+	
+	/**
+	 * Returns the content of the receiver. If the content is streamed, the remaining text is read into memory first,
+	 * so this should only be called if the entire text is needed anyway.
+	 */
 	@NotNull
 	public CharSequence getContent() {
+		if (contentReader != null) {
+			try {
+				content = CharStreams.toString(contentReader);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e); // The content reader doesn't throw IOExceptions
+			}
+			finally {
+				closeContent();
+			}
+		}
 		return content;
 	}
 	
 	@NotNull
 	public ParseResult setContent(@Nullable CharSequence content) {
+		closeContent();
 		this.content = content == null ? "" : content;
 		return this;
 	}
 	
+	/**
+	 * Sets content that will be read incrementally from the given reader. The receiver takes ownership of the reader:
+	 * It's closed after the content has been read, or when {@link #closeContent()} is called.
+	 */
+	@NotNull
+	public ParseResult setContent(@NotNull Reader contentReader) {
+		Util.checkNotNull(contentReader);
+		closeContent();
+		this.content = "";
+		this.contentReader = new ContentReader(contentReader, 0);
+		return this;
+	}
+	
+	/** Returns whether the content of the receiver is streamed. See {@link #setContent(Reader)}. */
+	public boolean isContentStreamed() {
+		return contentReader != null;
+	}
+	
+	/**
+	 * Returns a reader for the content of the receiver. If the content is streamed, the returned reader can only be
+	 * read once, and it's closed by {@link #closeContent()}.
+	 */
+	@NotNull
+	public Reader getContentReader() {
+		if (contentReader != null)
+			return contentReader;
+		return new StringReader(content.toString());
+	}
+	
+	/**
+	 * Limits the content to the given number of characters. A value of 0 means no limit. For streamed content, the
+	 * limit is applied when the content is read.
+	 */
+	public void limitContent(int maxChars) {
+		if (maxChars <= 0)
+			return;
+		if (contentReader != null) {
+			contentReader = new ContentReader(contentReader.in, maxChars);
+		}
+		else if (content.length() > maxChars) {
+			content = content.subSequence(0, maxChars);
+			contentTruncated = true;
+		}
+	}
+	
+	/**
+	 * Returns whether the content was cut off because of the limit set with {@link #limitContent(int)}. This is always
+	 * false for streamed content, since the latter is only cut off while it's read.
+	 */
+	public boolean isContentTruncated() {
+		return contentTruncated;
+	}
+	
+	/** Closes the reader of streamed content. Does nothing if the content isn't streamed. */
+	public void closeContent() {
+		if (contentReader != null) {
+			Closeables.closeQuietly(contentReader);
+			contentReader = null;
+		}
+	}
+	
 	@Nullable
 	public String getTitle() {
 		return title;
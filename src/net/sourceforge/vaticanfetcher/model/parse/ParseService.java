@@ -18,11 +18,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
 import net.sourceforge.vaticanfetcher.enums.ProgramConf;
@@ -30,6 +30,8 @@ import net.sourceforge.vaticanfetcher.model.Cancelable;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
 import net.sourceforge.vaticanfetcher.model.index.IndexingException;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics;
+import net.sourceforge.vaticanfetcher.model.index.IndexingMetrics.Measurement;
 import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.model.index.PatternAction;
 import net.sourceforge.vaticanfetcher.model.index.PatternAction.MatchAction;
@@ -51,6 +53,9 @@ import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.google.common.primitives.Ints;
@@ -66,6 +71,7 @@ public final class ParseService {
 	/* Construction of this object seems relatively expensive, so we'll keep a single instance of it. */
 	private static final MagicMimeMimeDetector mimeDetector = new MagicMimeMimeDetector();
 	private static final String FILENAME_PARSER = "FilenameParser";
+	@Nullable private static final ParseWatchdog watchdog = ParseWatchdog.createIfEnabled();
 	
 	private static final TextParser textParser;
 	private static final HtmlParser htmlParser;
@@ -102,14 +108,111 @@ public final class ParseService {
 		if (!Util.IS_MAC_OS_X && !Util.IS_64_BIT_JVM)
 			parsers.add(new ChmParser());
 	}
+	
+	/* The names of the parsers whose preview text is the same as the text extracted for indexing. */
+	private static final Set<String> parsersWithDefaultRendering = Sets.newHashSet();
+	
+	static {
+		for (Parser parser : parsers)
+			if (!overridesRenderText(parser.getClass()))
+				parsersWithDefaultRendering.add(parser.getClass().getSimpleName());
+	}
+
+	/* The parsers for each mime type, in the same order as the parser list. */
+	private static final ImmutableListMultimap<String, Parser> parsersByMimeType;
+	
+	static {
+		ImmutableListMultimap.Builder<String, Parser> builder = ImmutableListMultimap.builder();
+		for (Parser parser : parsers)
+			for (String mimeType : parser.getTypes())
+				builder.put(mimeType, parser);
+		parsersByMimeType = builder.build();
+	}
+	
+	/**
+	 * Maps lowercased file extensions to the parsers supporting them, in the same order as the parser list, so that
+	 * the parser of a file can be looked up without iterating over all parsers and their extensions. Since the text
+	 * and HTML extensions are configurable, a table is only valid for the extension lists it was built from.
+	 */
+	private static final class DispatchTable {
+		@NotNull final Collection<String> htmlExtensions;
+		@NotNull final ImmutableListMultimap<String, Parser> parsersByExtension;
+		@NotNull final ImmutableSet<String> builtInExtensions; // extensions of all parsers except the text parser
+		
+		DispatchTable(@NotNull Collection<String> textExtensions, @NotNull Collection<String> htmlExtensions) {
+			this.htmlExtensions = htmlExtensions;
+			ImmutableListMultimap.Builder<String, Parser> byExtension = ImmutableListMultimap.builder();
+			ImmutableSet.Builder<String> builtIn = ImmutableSet.builder();
+			for (Parser parser : parsers) {
+				Collection<String> exts;
+				if (parser == textParser)
+					exts = textExtensions;
+				else if (parser == htmlParser)
+					exts = htmlExtensions;
+				else
+					exts = parser.getExtensions();
+				for (String ext : exts) {
+					String lowerExt = ext.toLowerCase();
+					byExtension.put(lowerExt, parser);
+					if (parser != textParser)
+						builtIn.add(lowerExt);
+				}
+			}
+			parsersByExtension = byExtension.build();
+			builtInExtensions = builtIn.build();
+		}
+	}
+	
+	/*
+	 * The dispatch tables, keyed by the text extension lists of the indexing configs. The lists are immutable and
+	 * replaced when the text extensions change, and weak keys are compared by identity, so a table is rebuilt when the
+	 * text extensions change and dropped when its list isn't used anymore. The tables must not refer to their keys.
+	 */
+	private static final ConcurrentMap<Collection<String>, DispatchTable> dispatchTables = new MapMaker().weakKeys().makeMap();
 
 	private ParseService() {}
 	
+	@NotNull
+	private static DispatchTable getDispatchTable(@NotNull IndexingConfig config) {
+		Collection<String> textExtensions = config.getTextExtensions();
+		Collection<String> htmlExtensions = config.getHtmlExtensions();
+		DispatchTable table = dispatchTables.get(textExtensions);
+		if (table == null || table.htmlExtensions != htmlExtensions) {
+			// Concurrent callers may build the same table twice, which is harmless
+			table = new DispatchTable(textExtensions, htmlExtensions);
+			dispatchTables.put(textExtensions, table);
+		}
+		return table;
+	}
+	
+	private static boolean overridesRenderText(@NotNull Class<?> parserClass) {
+		for (Class<?> c = parserClass; c != StreamParser.class && c != FileParser.class; c = c.getSuperclass()) {
+			Class<?> inputType = StreamParser.class.isAssignableFrom(c) ? InputStream.class : File.class;
+			try {
+				c.getDeclaredMethod("renderText", inputType, String.class);
+				return true;
+			}
+			catch (NoSuchMethodException e) {
+				// Check superclass
+			}
+		}
+		return false;
+	}
+
 	@Immutable
 	@NotNull
 	public static List<Parser> getParsers() {
 		return parsers;
 	}
+	
+	/**
+	 * Returns whether the text that {@link #renderText(IndexingConfig, File, String, String)} returns for the given
+	 * parser is the same as the content of the parse results of that parser. If so, the parse results obtained during
+	 * indexing can be used for the preview as well.
+	 */
+	public static boolean rendersParsedContent(@NotNull String parserName) {
+		return parsersWithDefaultRendering.contains(parserName);
+	}
 
 	/**
 	 * Returns a list containing all parsers that support the mime type and/or file extension of the given file.
@@ -156,19 +259,15 @@ public final class ParseService {
 			}
 		});
 		
-		List<String> mimeTypes = getPossibleMimeTypes(file);
-		String ext = Util.getExtension(filename);
+		Set<Parser> mimeParsers = Sets.newIdentityHashSet();
+		for (String mimeType : getPossibleMimeTypes(file))
+			mimeParsers.addAll(parsersByMimeType.get(mimeType));
+		List<Parser> extParsers = getDispatchTable(config).parsersByExtension.get(Util.getExtension(filename));
 		
 		for (Parser parser : parsers) {
 			Match match = new Match(parser);
-			if (!Collections.disjoint(mimeTypes, parser.getTypes()))
-				match.mimeMatch = true;
-			for (String candidateExt : getExtensions(config, parser)) {
-				if (candidateExt.toLowerCase().equals(ext)) {
-					match.extMatch = true;
-					break;
-				}
-			}
+			match.mimeMatch = mimeParsers.contains(parser);
+			match.extMatch = extParsers.contains(parser);
 			if (match.mimeMatch || match.extMatch)
 				matches.add(match);
 		}
@@ -187,7 +286,72 @@ public final class ParseService {
 	public static ParseResult parse(@NotNull IndexingConfig config, @NotNull File file, @NotNull String filename,
 	                                @NotNull Path filepath, @NotNull IndexingReporter reporter, @NotNull Cancelable cancelable)
 			throws ParseException, CheckedOutOfMemoryError {
-		ParseContext context = new ParseContext(filename, reporter, cancelable);
+		return parse(config, file, filename, filepath, reporter, cancelable, null);
+	}
+	
+	/**
+	 * Same as {@link #parse(IndexingConfig, File, String, Path, IndexingReporter, Cancelable)}, but also records the
+	 * time spent in each parser in the given metrics, if any. Unless it's turned off in the program configuration, the
+	 * parsing is supervised by a {@link ParseWatchdog}, which throws a {@link ParseBudgetException} if the parsing takes
+	 * too long or allocates too much memory.
+	 */
+	@NotNull
+	public static ParseResult parse(@NotNull final IndexingConfig config, @NotNull final File file,
+	                                @NotNull final String filename, @NotNull final Path filepath,
+	                                @NotNull final IndexingReporter reporter, @NotNull Cancelable cancelable,
+	                                @Nullable final IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		if (watchdog == null)
+			return findParserAndParse(config, file, filename, filepath, reporter, cancelable, metrics);
+		return watchdog.run(new ParseWatchdog.Task() {
+			public ParseResult run(Cancelable budget) throws ParseException, CheckedOutOfMemoryError {
+				return findParserAndParse(config, file, filename, filepath, reporter, budget, metrics);
+			}
+		}, cancelable);
+	}
+	
+	/**
+	 * Parses the given input stream with the parser that handles the given filename by file extension, which must be
+	 * a parser that works on input streams, as reported by {@link #isStreamParseable(IndexingConfig, String, Path)}.
+	 * This is used for archive entries that are parsed while they're unpacked, without temporary files. The size is
+	 * only used for the metrics. The caller is responsible for closing the input stream, but only after the content of
+	 * the returned parse result has been consumed, since the content may be streamed.
+	 * <p>
+	 * The parsing is supervised by the same {@link ParseWatchdog} as in
+	 * {@link #parse(IndexingConfig, File, String, Path, IndexingReporter, Cancelable, IndexingMetrics)}.
+	 */
+	@NotNull
+	public static ParseResult parse(@NotNull final IndexingConfig config, @NotNull final InputStream in,
+	                                @NotNull final String filename, @NotNull final Path filepath, final long size,
+	                                @NotNull final IndexingReporter reporter, @NotNull Cancelable cancelable,
+	                                @Nullable final IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		Parser parser = findParserByName(config, filename);
+		if (!(parser instanceof StreamParser))
+			throw new IllegalArgumentException(filename);
+		final StreamParser streamParser = (StreamParser) parser;
+		if (watchdog == null) {
+			ParseContext context = new ParseContext(filename, reporter, cancelable, config.getMaxIndexedChars());
+			return doParse(config, streamParser, in, size, filepath, context, metrics);
+		}
+		return watchdog.run(new ParseWatchdog.Task() {
+			public ParseResult run(Cancelable budget) throws ParseException, CheckedOutOfMemoryError {
+				ParseContext context = new ParseContext(filename, reporter, budget, config.getMaxIndexedChars());
+				return doParse(config, streamParser, in, size, filepath, context, metrics);
+			}
+		}, cancelable);
+	}
+	
+	@NotNull
+	private static ParseResult findParserAndParse(	@NotNull IndexingConfig config,
+													@NotNull File file,
+													@NotNull String filename,
+													@NotNull Path filepath,
+													@NotNull IndexingReporter reporter,
+													@NotNull Cancelable cancelable,
+													@Nullable IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		ParseContext context = new ParseContext(filename, reporter, cancelable, config.getMaxIndexedChars());
 		
 		// Search for appropriate parser by mimetype
 		for (PatternAction patternAction : config.getPatternActions()) {
@@ -200,9 +364,15 @@ public final class ParseService {
 					config, file, filename);
 				for (Parser parser : matchingParsers) {
 					try {
-						return doParse(config, parser, file, context);
+						return doParse(config, parser, file, filepath, context, metrics);
 					}
 					catch (ParseException e) {
+						/*
+						 * Don't try the other parsers if the extraction was aborted, e.g. because it exceeded its
+						 * budget, since they would fail as well.
+						 */
+						if (e instanceof ParseBudgetException || cancelable.isCanceled())
+							throw e;
 						// Try next parser
 					}
 				}
@@ -215,7 +385,7 @@ public final class ParseService {
 		// Search for appropriate parser by filename
 		Parser parser = findParserByName(config, file.getName());
 		if (parser != null)
-			return doParse(config, parser, file, context);
+			return doParse(config, parser, file, filepath, context, metrics);
 		
 		/* Fall back to filename parser if allowed. The filename will be added to the contents later. */
 		if (config.isIndexFilenames())
@@ -224,6 +394,60 @@ public final class ParseService {
 		throw new ParseException(Msg.parser_not_found.get());
 	}
 
+	// accepts TrueZIP files
+	@NotNull
+	private static ParseResult doParse(	@NotNull IndexingConfig config,
+										@NotNull Parser parser,
+										@NotNull File file,
+										@NotNull Path filepath,
+										@NotNull ParseContext context,
+										@Nullable IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		if (metrics == null)
+			return doParse(config, parser, file, context);
+		Measurement measurement = IndexingMetrics.start();
+		boolean failed = true;
+		try {
+			ParseResult result = doParse(config, parser, file, context);
+			failed = false;
+			return result;
+		}
+		finally {
+			// Streamed content is decoded later, while it's written to the index, so that time isn't included here
+			String parserName = parser.getClass().getSimpleName();
+			metrics.record(parserName, measurement, file.length(), failed, filepath.getPath());
+		}
+	}
+
+	@NotNull
+	private static ParseResult doParse(	@NotNull IndexingConfig config,
+										@NotNull StreamParser parser,
+										@NotNull InputStream in,
+										long size,
+										@NotNull Path filepath,
+										@NotNull ParseContext context,
+										@Nullable IndexingMetrics metrics)
+			throws ParseException, CheckedOutOfMemoryError {
+		Measurement measurement = metrics == null ? null : IndexingMetrics.start();
+		boolean failed = true;
+		try {
+			ParseResult result = ProgramConf.Bool.DryRun.get()
+				? new ParseResult("")
+				: parser.parse(ParseWatchdog.guard(in, context.getCancelable()), context);
+			result.limitContent(config.getMaxIndexedChars());
+			result.setParserName(parser.getClass().getSimpleName());
+			failed = false;
+			return result;
+		}
+		catch (OutOfMemoryError e) {
+			throw new CheckedOutOfMemoryError(e);
+		}
+		finally {
+			if (metrics != null)
+				metrics.record(parser.getClass().getSimpleName(), measurement, size, failed, filepath.getPath());
+		}
+	}
+
 	// accepts TrueZIP files
 	@NotNull
 	private static ParseResult doParse(	@NotNull IndexingConfig config,	@NotNull Parser parser,	@NotNull File file,	@NotNull ParseContext context)
@@ -240,8 +464,13 @@ public final class ParseService {
 						in = new TFileInputStream(file);
 					else
 						in = new FileInputStream(file);
+					in = ParseWatchdog.guard(in, context.getCancelable());
 					StreamParser streamParser = (StreamParser) parser;
 					result = streamParser.parse(in, context);
+					
+					// Streamed content is read from the input stream later, which is then closed by the parse result
+					if (result.isContentStreamed())
+						in = null;
 				}
 				catch (FileNotFoundException e) {
 					throw new ParseException(e);
@@ -288,6 +517,7 @@ public final class ParseService {
 			else {
 				throw new IllegalStateException();
 			}
+			result.limitContent(config.getMaxIndexedChars());
 			String parserName = parser.getClass().getSimpleName();
 			return result.setParserName(parserName);
 		}
@@ -347,22 +577,32 @@ public final class ParseService {
 	
 	@Nullable
 	private static Parser findParserByName(@NotNull IndexingConfig config, @NotNull String filename) {
-		String ext = Util.getExtension(filename);
-		for (Parser parser : parsers)
-			for (String candidateExt : getExtensions(config, parser))
-				if (candidateExt.toLowerCase().equals(ext))
-					return parser;
-		return null;
+		List<Parser> matches = getDispatchTable(config).parsersByExtension.get(Util.getExtension(filename));
+		return matches.isEmpty() ? null : matches.get(0);
 	}
-
-	@Immutable
-	@NotNull
-	private static Collection<String> getExtensions(@NotNull IndexingConfig config,	@NotNull Parser parser) {
-		if (parser == textParser)
-			return config.getTextExtensions();
-		else if (parser == htmlParser)
-			return config.getHtmlExtensions();
-		return parser.getExtensions();
+	
+	/**
+	 * Returns the class name of the parser that handles the given filename if the file type is detected by file
+	 * extension, or null if there's no such parser.
+	 */
+	@Nullable
+	public static String getParserNameByName(@NotNull IndexingConfig config, @NotNull String filename) {
+		Parser parser = findParserByName(config, filename);
+		return parser == null ? null : parser.getClass().getSimpleName();
+	}
+	
+	/**
+	 * Returns whether the given file can be parsed with {@link #parse(IndexingConfig, InputStream, String, Path, long,
+	 * IndexingReporter, Cancelable, IndexingMetrics)}, i.e. whether its type is not to be detected by mime type, and
+	 * the parser that handles it by file extension works on input streams.
+	 */
+	public static boolean isStreamParseable(	@NotNull IndexingConfig config,
+												@NotNull String filename,
+												@NotNull Path filepath) {
+		for (PatternAction patternAction : config.getPatternActions())
+			if (patternAction.getAction() == MatchAction.DETECT_MIME && patternAction.matches(filename, filepath, true))
+				return false;
+		return findParserByName(config, filename) instanceof StreamParser;
 	}
 	
 	public static boolean canParseByName(@NotNull IndexingConfig config,@NotNull String filename) {
@@ -371,19 +611,7 @@ public final class ParseService {
 	
 	public static boolean isBuiltInExtension(	@NotNull IndexingConfig config,
 												@NotNull String extension) {
-		for (Parser parser : parsers) {
-			Collection<String> exts;
-			if (parser == textParser)
-				continue;
-			else if (parser == htmlParser)
-				exts = config.getHtmlExtensions();
-			else
-				exts = parser.getExtensions();
-			for (String candidateExt : exts)
-				if (candidateExt.toLowerCase().equals(extension))
-					return true;
-		}
-		return false;
+		return getDispatchTable(config).builtInExtensions.contains(extension);
 	}
 	
 	// accepts TrueZIP files
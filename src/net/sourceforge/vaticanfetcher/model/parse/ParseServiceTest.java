@@ -11,15 +11,22 @@
 
 package net.sourceforge.vaticanfetcher.model.parse;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.vaticanfetcher.TestFiles;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
+import net.sourceforge.vaticanfetcher.model.index.IndexingReporter;
 import net.sourceforge.vaticanfetcher.model.parse.MSOffice2007Parser.MSWord2007Parser;
 import net.sourceforge.vaticanfetcher.model.parse.MSOfficeParser.MSPowerPointParser;
 import net.sourceforge.vaticanfetcher.model.parse.MSOfficeParser.MSWordParser;
@@ -30,6 +37,10 @@ import net.sourceforge.vaticanfetcher.util.collect.ListMap.Entry;
 
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+
 public final class ParseServiceTest {
 	
 	@Test
@@ -94,6 +105,66 @@ public final class ParseServiceTest {
 		));
 	}
 
+	/**
+	 * Tests that the lookup of parsers by file extension follows changes of the text extensions.
+	 */
+	@Test
+	public void testDispatchByName() throws Exception {
+		IndexingConfig config = new IndexingConfig();
+		config.setIndexFilenames(false);
+		assertTrue(ParseService.canParseByName(config, "notes.TXT"));
+		assertTrue(ParseService.canParseByName(config, "page.html"));
+		assertTrue(ParseService.canParseByName(config, "drawing.abw.gz"));
+		assertFalse(ParseService.canParseByName(config, "notes.log"));
+		assertFalse(ParseService.canParseByName(config, "notes"));
+		assertTrue(ParseService.isBuiltInExtension(config, "html"));
+		assertFalse(ParseService.isBuiltInExtension(config, "txt"));
+		
+		config.setTextExtensions(Arrays.asList("LOG"));
+		assertTrue(ParseService.canParseByName(config, "notes.log"));
+		assertFalse(ParseService.canParseByName(config, "notes.txt"));
+		
+		config.setIndexFilenames(true);
+		assertTrue(ParseService.canParseByName(config, "notes.txt"));
+	}
+
+	/**
+	 * Tests that large text files are streamed and that the indexed text is
+	 * cut off at the maximum number of indexed characters.
+	 */
+	@Test
+	public void testStreamedText() throws Exception {
+		File file = File.createTempFile("streamed", ".txt");
+		try {
+			String line = "Lorem ipsum dolor sit amet, consectetur adipisici elit\n";
+			Writer writer = Files.newWriter(file, Charsets.UTF_8);
+			for (int i = 0; i < 2 * 1024 * 1024 / line.length(); i++)
+				writer.write(line);
+			writer.close();
+			
+			IndexingConfig config = new IndexingConfig();
+			ParseResult result = ParseService.parse(config, file, file.getName(),
+				new Path(file), IndexingReporter.nullReporter,
+				Cancelable.nullCancelable);
+			assertTrue(result.isContentStreamed());
+			assertFalse(result.isContentTruncated());
+			assertEquals(file.length(), result.getContent().length());
+			
+			config.setMaxIndexedChars(1000);
+			result = ParseService.parse(config, file, file.getName(),
+				new Path(file), IndexingReporter.nullReporter,
+				Cancelable.nullCancelable);
+			assertTrue(result.isContentStreamed());
+			String content = CharStreams.toString(result.getContentReader());
+			result.closeContent();
+			assertEquals(1000, content.length());
+			assertTrue(content.startsWith(line));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
 	/**
 	 * Returns true if the elements in the given collection have the classes
 	 * specified in the given array of classes.
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.model.parse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.sourceforge.vaticanfetcher.enums.Msg;
+import net.sourceforge.vaticanfetcher.enums.ProgramConf;
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs text extractions under a wall-clock budget and an allocation budget, so that a single malformed file can't
+ * stall an index update for hours. Each extraction runs on a worker thread while the calling thread watches it. When a
+ * budget is exceeded, the extraction is aborted in three steps:
+ * <ol>
+ * <li>The cancelable passed to the parser reports cancellation, and input streams opened through
+ * {@link #guard(InputStream, Cancelable)} throw IOExceptions, which stops most parsers.
+ * <li>The worker thread is interrupted.
+ * <li>If the parser hasn't given up after a grace period, the worker thread is abandoned and left to finish on its
+ * own, and a new worker thread is used for subsequent extractions.
+ * </ol>
+ * In all three cases, a {@link ParseBudgetException} is thrown, even if the parser failed with an exception of its own
+ * after the abort, and the document is kept in the tree with its error, so
+ * that it's skipped on later index updates until it's modified.
+ * <p>
+ * The allocation budget refers to the bytes allocated by the worker thread, not to the retained memory. It relies on
+ * a vendor-specific extension of the JVM and is ignored if that isn't available.
+ */
+@ThreadSafe
+final class ParseWatchdog {
+
+	/** A text extraction to be run under the watchdog. */
+	interface Task {
+		@NotNull
+		ParseResult run(@NotNull Cancelable cancelable) throws ParseException, CheckedOutOfMemoryError;
+	}
+
+	/**
+	 * The cancelable that is passed to a supervised extraction. It reports cancellation if the budget was exceeded or
+	 * if the wrapped cancelable does.
+	 */
+	private static final class Budget implements Cancelable {
+		private final Cancelable cancelable;
+		@Nullable private volatile String exceededMessage;
+		@Nullable private Thread thread; // guarded by 'this' lock; the worker thread while the extraction runs
+		private volatile long threadId = -1;
+		private volatile long allocStart = -1;
+
+		Budget(@NotNull Cancelable cancelable) {
+			this.cancelable = cancelable;
+		}
+
+		public boolean isCanceled() {
+			return exceededMessage != null || cancelable.isCanceled();
+		}
+
+		synchronized void setThread(@Nullable Thread thread) {
+			this.thread = thread;
+			if (thread != null) {
+				threadId = thread.getId();
+				allocStart = getAllocatedBytes(threadId);
+			}
+		}
+
+		synchronized void abort(@NotNull String message) {
+			exceededMessage = message;
+			if (thread != null)
+				thread.interrupt();
+		}
+	}
+
+	/** An input stream that fails as soon as the budget of the extraction reading from it has been exceeded. */
+	private static final class GuardedInputStream extends FilterInputStream {
+		private final Budget budget;
+
+		GuardedInputStream(@NotNull InputStream in, @NotNull Budget budget) {
+			super(in);
+			this.budget = budget;
+		}
+
+		public int read() throws IOException {
+			check();
+			return super.read();
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			check();
+			return super.read(b, off, len);
+		}
+
+		public long skip(long n) throws IOException {
+			check();
+			return super.skip(n);
+		}
+
+		private void check() throws IOException {
+			String message = budget.exceededMessage;
+			if (message != null)
+				throw new IOException(message);
+		}
+	}
+
+	private static final long POLL_INTERVAL = 100; // milliseconds
+	private static final long GRACE_PERIOD = 5000; // milliseconds
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private final long timeout; // milliseconds, 0 means no limit
+	private final long memoryBudget; // bytes, 0 means no limit
+	private final long gracePeriod; // milliseconds
+	private final ExecutorService executor = Executors.newCachedThreadPool(
+		new ThreadFactoryBuilder()
+			.setNameFormat(ParseWatchdog.class.getSimpleName() + "-%d")
+			.setDaemon(true)
+			.build());
+
+	@VisibleForTesting
+	ParseWatchdog(long timeout, long memoryBudget, long gracePeriod) {
+		this.timeout = timeout;
+		this.memoryBudget = memoryBudget;
+		this.gracePeriod = gracePeriod;
+	}
+
+	/**
+	 * Returns a new watchdog with the budgets given by {@link ProgramConf.Int#ParseTimeout} and
+	 * {@link ProgramConf.Int#ParseMemoryBudget}, or null if both are 0.
+	 */
+	@Nullable
+	static ParseWatchdog createIfEnabled() {
+		int timeoutSecs = ProgramConf.Int.ParseTimeout.get();
+		int memoryBudgetMb = ProgramConf.Int.ParseMemoryBudget.get();
+		if (timeoutSecs == 0 && memoryBudgetMb == 0)
+			return null;
+		return new ParseWatchdog(timeoutSecs * 1000L, memoryBudgetMb * 1024L * 1024L, GRACE_PERIOD);
+	}
+
+	/**
+	 * Returns the given input stream wrapped so that it fails once the budget of the supervised extraction has been
+	 * exceeded, if the given cancelable was passed in by the watchdog. Otherwise, the input stream is returned as is.
+	 */
+	@NotNull
+	static InputStream guard(@NotNull InputStream in, @NotNull Cancelable cancelable) {
+		if (cancelable instanceof Budget)
+			return new GuardedInputStream(in, (Budget) cancelable);
+		return in;
+	}
+
+	/**
+	 * Runs the given task on a worker thread and waits for its result. The cancelable passed to the task also reports
+	 * cancellation if the given cancelable does. Throws a {@link ParseBudgetException} if the task exceeded its budget.
+	 */
+	@NotNull
+	ParseResult run(@NotNull final Task task, @NotNull Cancelable cancelable)
+			throws ParseException, CheckedOutOfMemoryError {
+		final Budget budget = new Budget(cancelable);
+		Future<ParseResult> future = executor.submit(new Callable<ParseResult>() {
+			public ParseResult call() throws Exception {
+				budget.setThread(Thread.currentThread());
+				try {
+					ParseResult result = task.run(budget);
+					String message = budget.exceededMessage;
+					if (message != null) {
+						result.closeContent();
+						throw new ParseBudgetException(message);
+					}
+					return result;
+				}
+				catch (Exception e) {
+					/*
+					 * Aborted parsers usually fail with an ordinary ParseException, e.g. because the guarded input
+					 * stream threw an IOException or because the cancelable reported cancellation.
+					 */
+					String message = budget.exceededMessage;
+					if (message != null && !(e instanceof ParseBudgetException))
+						throw new ParseBudgetException(message);
+					throw e;
+				}
+				finally {
+					budget.setThread(null);
+					Thread.interrupted(); // clear interrupt flag before the thread is reused
+				}
+			}
+		});
+
+		long start = System.currentTimeMillis();
+		long abortTime = -1;
+		while (true) {
+			try {
+				return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+				long now = System.currentTimeMillis();
+				if (abortTime >= 0) {
+					// Abandon the worker thread if the parser ignores the cancellation
+					if (now - abortTime >= gracePeriod) {
+						Util.printErr("Abandoning unresponsive parser thread: " + budget.exceededMessage);
+						throw new ParseBudgetException(budget.exceededMessage);
+					}
+					continue;
+				}
+				if (timeout > 0 && now - start > timeout) {
+					budget.abort(Msg.parse_timeout.format(timeout / 1000));
+					abortTime = now;
+					continue;
+				}
+				if (memoryBudget > 0 && budget.allocStart >= 0) {
+					long allocated = getAllocatedBytes(budget.threadId) - budget.allocStart;
+					if (allocated > memoryBudget) {
+						budget.abort(Msg.parse_memory_exceeded.format(memoryBudget / (1024 * 1024)));
+						abortTime = now;
+					}
+				}
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof ParseException)
+					throw (ParseException) cause;
+				if (cause instanceof CheckedOutOfMemoryError)
+					throw (CheckedOutOfMemoryError) cause;
+				if (cause instanceof OutOfMemoryError)
+					throw new CheckedOutOfMemoryError((OutOfMemoryError) cause);
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new ParseException(cause);
+			}
+			catch (InterruptedException e) {
+				budget.abort(e.toString());
+				Thread.currentThread().interrupt();
+				throw new ParseException(e);
+			}
+		}
+	}
+
+	// Returns the number of bytes allocated so far by the thread with the given ID, or -1 if that can't be determined
+	private static long getAllocatedBytes(long threadId) {
+		if (threadId == -1 || !(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		try {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(threadId);
+		}
+		catch (RuntimeException e) {
+			return -1;
+		}
+		catch (LinkageError e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.Cancelable;
+import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
+
+import org.junit.Test;
+
+public final class ParseWatchdogTest {
+
+	@Test
+	public void testWithinBudget() throws Exception {
+		ParseWatchdog watchdog = new ParseWatchdog(10000, 0, 1000);
+		ParseResult result = watchdog.run(new ParseWatchdog.Task() {
+			public ParseResult run(Cancelable cancelable) {
+				return new ParseResult("text");
+			}
+		}, Cancelable.nullCancelable);
+		assertEquals("text", result.getContent().toString());
+
+		// Parse errors are passed on
+		try {
+			watchdog.run(new ParseWatchdog.Task() {
+				public ParseResult run(Cancelable cancelable) throws ParseException {
+					throw new ParseException("broken");
+				}
+			}, Cancelable.nullCancelable);
+			fail();
+		}
+		catch (ParseException e) {
+			assertEquals("broken", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCooperativeTimeout() throws Exception {
+		ParseWatchdog watchdog = new ParseWatchdog(200, 0, 10000);
+		long start = System.currentTimeMillis();
+		try {
+			watchdog.run(new ParseWatchdog.Task() {
+				public ParseResult run(Cancelable cancelable) {
+					while (!cancelable.isCanceled())
+						Thread.yield();
+					return new ParseResult("partial text");
+				}
+			}, Cancelable.nullCancelable);
+			fail();
+		}
+		catch (ParseBudgetException e) {
+			// The parser gave up long before the grace period ended
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+	}
+
+	/** Checks that a parser failing with its own exception after an abort is reported as exceeding its budget. */
+	@Test(expected = ParseBudgetException.class)
+	public void testGuardedStream() throws Exception {
+		ParseWatchdog watchdog = new ParseWatchdog(200, 0, 10000);
+		watchdog.run(new ParseWatchdog.Task() {
+			public ParseResult run(Cancelable cancelable) throws ParseException {
+				// Endless input, as from a parser that keeps rereading its input
+				InputStream in = ParseWatchdog.guard(new ByteArrayInputStream(new byte[1]) {
+					public synchronized int read() {
+						return 0;
+					}
+				}, cancelable);
+				try {
+					while (true)
+						in.read();
+				}
+				catch (IOException e) {
+					throw new ParseException(e);
+				}
+			}
+		}, Cancelable.nullCancelable);
+	}
+
+	@Test(expected = ParseBudgetException.class)
+	public void testUnresponsiveParser() throws Exception {
+		ParseWatchdog watchdog = new ParseWatchdog(100, 0, 100);
+		final long end = System.currentTimeMillis() + 3000;
+		watchdog.run(new ParseWatchdog.Task() {
+			public ParseResult run(Cancelable cancelable) {
+				// Ignores cancellation and interrupts; the thread is abandoned
+				while (System.currentTimeMillis() < end)
+					Thread.yield();
+				return new ParseResult("");
+			}
+		}, Cancelable.nullCancelable);
+	}
+
+	@Test
+	public void testMemoryBudget() throws Exception {
+		ParseWatchdog watchdog = new ParseWatchdog(0, 10 * 1024 * 1024, 10000);
+		ParseResult result = null;
+		try {
+			result = watchdog.run(new ParseWatchdog.Task() {
+				public ParseResult run(Cancelable cancelable) throws CheckedOutOfMemoryError {
+					List<byte[]> list = new ArrayList<byte[]>();
+					long end = System.currentTimeMillis() + 5000;
+					while (!cancelable.isCanceled() && System.currentTimeMillis() < end) {
+						list.add(new byte[1024 * 1024]);
+						if (list.size() > 4)
+							list.remove(0);
+					}
+					return new ParseResult("");
+				}
+			}, Cancelable.nullCancelable);
+		}
+		catch (ParseBudgetException e) {
+			return;
+		}
+		// The allocation budget is ignored on JVMs that can't measure allocations
+		assertEquals("", result.getContent().toString());
+	}
+
+}
@@ -52,7 +52,7 @@ public final class PdfParser extends StreamParser {
 				// Bug #3529070 and #3528345
 				throw new ParseException(e);
 			}
-			StringWriter writer = new StringWriter();
+			final StringWriter writer = new StringWriter();
 			
 			/*
 			 * If the PDF file is encrypted, the PDF stripper will automatically try an empty password.
@@ -67,6 +67,11 @@ public final class PdfParser extends StreamParser {
 				protected void endPage(PDPage page) throws IOException {
 					if (context.getCancelable().isCanceled())
 						setEndPage(0);
+					
+					// Stop if the rest of the text would be cut off anyway
+					int maxChars = context.getMaxChars();
+					if (maxChars > 0 && writer.getBuffer().length() > maxChars)
+						setEndPage(0);
 				}
 			};
 			stripper.setForceParsing(true);
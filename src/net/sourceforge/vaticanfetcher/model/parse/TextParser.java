@@ -11,8 +11,11 @@
 
 package net.sourceforge.vaticanfetcher.model.parse;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.Collection;
 
 import net.sourceforge.vaticanfetcher.enums.Msg;
@@ -20,6 +23,12 @@ import net.sourceforge.vaticanfetcher.util.CharsetDetectorHelper;
 
 public final class TextParser extends StreamParser {
 	
+	/*
+	 * Files up to this size are decoded in memory. Larger files, such as big log files, are streamed: The text is
+	 * decoded while it's written to the index. In both cases, the charset is detected on the first part of the file.
+	 */
+	public static final int STREAMING_THRESHOLD = 1024 * 1024;
+	
 	private final Collection<String> types = MediaType.Col.text("plain");
 	
 	TextParser() {
@@ -28,8 +37,17 @@ public final class TextParser extends StreamParser {
 	@Override
 	protected ParseResult parse(InputStream in, ParseContext context) throws ParseException {
 		try {
-			String contents = CharsetDetectorHelper.toString(in);
-			return new ParseResult(contents);
+			ByteArrayOutputStream headOut = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int nread;
+			while (headOut.size() < STREAMING_THRESHOLD && (nread = in.read(buf)) != -1)
+				headOut.write(buf, 0, nread);
+			byte[] head = headOut.toByteArray();
+			if (head.length < STREAMING_THRESHOLD)
+				return new ParseResult(CharsetDetectorHelper.toString(head));
+			
+			InputStream fullIn = new SequenceInputStream(new ByteArrayInputStream(head), in);
+			return new ParseResult(CharsetDetectorHelper.createReader(fullIn));
 		}
 		catch (IOException e) {
 			throw new ParseException(e);
@@ -12,12 +12,10 @@
 package net.sourceforge.vaticanfetcher.model.search;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import net.sourceforge.vaticanfetcher.model.Fields;
 import net.sourceforge.vaticanfetcher.model.IndexRegistry;
-import net.sourceforge.vaticanfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
@@ -25,23 +23,12 @@ import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
 import net.sourceforge.vaticanfetcher.util.annotations.VisibleForPackageGroup;
 
 import org.apache.lucene.analysis.Token;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.highlight.Formatter;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.NullFragmenter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.TokenGroup;
-import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList.WeightedPhraseInfo;
-import org.apache.lucene.search.vectorhighlight.FieldQuery;
-import org.apache.lucene.search.vectorhighlight.FieldTermStack;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-
-import com.google.common.io.Closeables;
 
 @VisibleForPackageGroup
 public final class HighlightService {
@@ -91,44 +78,17 @@ public final class HighlightService {
 	
 	@MutableCopy
 	@NotNull
-	@SuppressWarnings("unchecked")
 	private static List<Range> highlightPhrases(@NotNull Query query,
 												@NotNull String text)
 			throws CheckedOutOfMemoryError {
-		// FastVectorHighlighter only supports TermQuery, PhraseQuery and BooleanQuery
-		FastVectorHighlighter highlighter = new FastVectorHighlighter(true, true, null, null);
-		FieldQuery fieldQuery = highlighter.getFieldQuery(query);
-		Directory directory = new RAMDirectory();
+		/*
+		 * This used to be done with the fast-vector highlighter, which required putting the given text into a RAM index
+		 * with term vectors. The phrase highlighter produces the same ranges directly from the token stream.
+		 */
+		PhraseHighlighter highlighter = new PhraseHighlighter(query, Fields.CONTENT.key());
 		try {
-			/*
-			 * Hack: We have to put the given text in a RAM index, because the
-			 * fast-vector highlighter can only work on index readers
-			 */
-			IndexWriterAdapter writer = new IndexWriterAdapter(directory);
-			Document doc = new Document();
-			doc.add(Fields.createContent(text, true)); // must store token positions and offsets
-			writer.add(doc);
-			Closeables.closeQuietly(writer); // flush unwritten documents into index
-			IndexReader indexReader = IndexReader.open(directory);
-			
 			// This might throw an OutOfMemoryError
-			FieldTermStack fieldTermStack = new FieldTermStack(
-				indexReader, 0, Fields.CONTENT.key(), fieldQuery);
-			
-			FieldPhraseList fieldPhraseList = new FieldPhraseList(fieldTermStack, fieldQuery);
-			
-			// Hack: We'll use reflection to access a private field
-			java.lang.reflect.Field field = fieldPhraseList.getClass().getDeclaredField("phraseList");
-			field.setAccessible(true);
-			LinkedList<WeightedPhraseInfo> infoList = (LinkedList<WeightedPhraseInfo>) field.get(fieldPhraseList);
-			
-			List<Range> ranges = new ArrayList<Range> (infoList.size());
-			for (WeightedPhraseInfo phraseInfo : infoList) {
-				int start = phraseInfo.getStartOffset();
-				int end = phraseInfo.getEndOffset();
-				ranges.add(new Range(start, end - start));
-			}
-			return ranges;
+			return highlighter.highlight(IndexRegistry.analyzer, text);
 		}
 		catch (OutOfMemoryError e) {
 			throw new CheckedOutOfMemoryError(e);
@@ -13,9 +13,12 @@ package net.sourceforge.vaticanfetcher.model.search;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
+import net.sourceforge.vaticanfetcher.model.Fields;
 import net.sourceforge.vaticanfetcher.model.IndexRegistry;
 import net.sourceforge.vaticanfetcher.model.index.IndexWriterAdapter;
 
@@ -26,6 +29,7 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.Field.TermVector;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
@@ -74,5 +78,66 @@ public final class HighlightServiceTest {
 	    assertEquals(5, list.get(0).getStartOffset());
 	    assertEquals(9, list.get(0).getEndOffset());
 	}
+	
+	@Test
+	public void testPhraseHighlighterMatchesFastVectorHighlighter() throws Exception {
+		String text = "The quick brown fox jumps over the lazy dog. The dog sleeps, "
+			+ "the fox runs away. Quick foxes and brown dogs: quick brown fox again.";
+		String[] queries = {
+			"fox",
+			"fox dog",
+			"\"brown fox\"",
+			"\"quick brown\" \"brown fox\"",
+			"\"fox jumps\" OR lazy",
+			"\"quick fox\"~1",
+			"\"dog fox\"~3",
+			"fox -dog",
+			"+quick +\"lazy dog\"",
+			"missing",
+		};
+		QueryParser queryParser = new QueryParser(
+			IndexRegistry.LUCENE_VERSION, Fields.CONTENT.key(), IndexRegistry.analyzer);
+		for (String queryString : queries) {
+			Query query = queryParser.parse(queryString);
+			List<Range> expected = highlightWithFastVectorHighlighter(query, text);
+			List<Range> actual = new PhraseHighlighter(query, Fields.CONTENT.key()).highlight(
+				IndexRegistry.analyzer, text);
+			assertEquals(queryString, toString(expected), toString(actual));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Range> highlightWithFastVectorHighlighter(Query query, String text) throws Exception {
+		Directory directory = new RAMDirectory();
+		IndexWriterAdapter writer = new IndexWriterAdapter(directory);
+		Document doc = new Document();
+		doc.add(Fields.createContent(text, true));
+		writer.add(doc);
+		Closeables.closeQuietly(writer);
+		
+		FastVectorHighlighter highlighter = new FastVectorHighlighter(true, true, null, null);
+		FieldQuery fieldQuery = highlighter.getFieldQuery(query);
+		IndexReader reader = IndexReader.open(directory);
+		try {
+			FieldTermStack fieldTermStack = new FieldTermStack(reader, 0, Fields.CONTENT.key(), fieldQuery);
+			FieldPhraseList fieldPhraseList = new FieldPhraseList(fieldTermStack, fieldQuery);
+			java.lang.reflect.Field field = fieldPhraseList.getClass().getDeclaredField("phraseList");
+			field.setAccessible(true);
+			List<Range> ranges = new ArrayList<Range>();
+			for (WeightedPhraseInfo info : (LinkedList<WeightedPhraseInfo>) field.get(fieldPhraseList))
+				ranges.add(new Range(info.getStartOffset(), info.getEndOffset() - info.getStartOffset()));
+			return ranges;
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	private static String toString(List<Range> ranges) {
+		StringBuilder sb = new StringBuilder();
+		for (Range range : ranges)
+			sb.append(range.start).append('+').append(range.length).append(' ');
+		return sb.toString();
+	}
 
 }
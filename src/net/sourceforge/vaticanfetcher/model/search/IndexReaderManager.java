@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import net.sourceforge.vaticanfetcher.model.IndexLoadingProblems.CorruptedIndex;
+import net.sourceforge.vaticanfetcher.model.LuceneIndex;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.Immutable;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+import net.sourceforge.vaticanfetcher.util.collect.LazyList;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.ReaderUtil;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps one Lucene index reader per index and combines them into a {@link Snapshot} for searching. When the indexes
+ * change, {@link #refresh(List)} reopens only those readers whose indexes were modified on disk, so that the readers
+ * of unchanged indexes keep their caches, and then replaces the current snapshot with a new one.
+ * <p>
+ * All readers are reference-counted: The receiver holds one reference to each per-index reader and to the current
+ * snapshot, and each snapshot holds one reference to each of its per-index readers. Searches obtain the current
+ * snapshot with {@link #acquire()} and give it back with {@link #release(Snapshot)}, which doesn't involve any locks,
+ * so searches are neither blocked by refreshes nor by the lock of the index registry. A replaced snapshot, and the
+ * readers that were reopened, are closed when the last search using them has released them.
+ * <p>
+ * If an executor is given, the searchers of the snapshots run each query concurrently on the index segments of all
+ * indexes and merge the top hits by score, so that the search time approaches that of the slowest index rather than
+ * the sum over all indexes. The document IDs of the hits refer to the combined reader in either case, so the index of a
+ * hit is always found with {@link Snapshot#getIndex(int)}.
+ */
+@ThreadSafe
+final class IndexReaderManager {
+
+	/** An immutable combination of index readers and the indexes they belong to. */
+	static final class Snapshot {
+		final IndexSearcher searcher;
+		@Immutable final List<LuceneIndex> indexes; // all indexes, including those that couldn't be opened
+		@Immutable final List<LuceneIndex> subIndexes; // the indexes of the sub-readers, in the same order
+		final int[] docStarts; // the document ID offsets of the sub-readers
+
+		private Snapshot(	@NotNull List<LuceneIndex> indexes,
+							@NotNull List<LuceneIndex> subIndexes,
+							@NotNull List<IndexReader> subReaders,
+							@Nullable ExecutorService executor) {
+			this.indexes = Collections.unmodifiableList(indexes);
+			this.subIndexes = Collections.unmodifiableList(subIndexes);
+			docStarts = new int[subReaders.size()];
+			int maxDoc = 0;
+			for (int i = 0; i < docStarts.length; i++) {
+				docStarts[i] = maxDoc;
+				maxDoc += subReaders.get(i).maxDoc();
+			}
+
+			// The multi-reader retains the sub-readers and releases them when it's closed
+			IndexReader[] readerArray = subReaders.toArray(new IndexReader[subReaders.size()]);
+			searcher = new IndexSearcher(new MultiReader(readerArray, false), executor);
+		}
+
+		@NotNull
+		LuceneIndex getIndex(int docId) {
+			return subIndexes.get(ReaderUtil.subIndex(docId, docStarts));
+		}
+	}
+
+	@Nullable private final ExecutorService executor;
+	private final Map<LuceneIndex, IndexReader> readers = Maps.newHashMap(); // guarded by 'this' lock
+	private volatile Snapshot current;
+
+	/**
+	 * @param executor
+	 *            The executor on which the index segments are searched concurrently, or null if they should be
+	 *            searched sequentially on the calling thread. The caller is responsible for shutting down the
+	 *            executor after the receiver has been closed.
+	 */
+	IndexReaderManager(@Nullable ExecutorService executor) {
+		this.executor = executor;
+		List<LuceneIndex> empty = Collections.emptyList();
+		current = new Snapshot(empty, empty, Collections.<IndexReader>emptyList(), executor);
+	}
+
+	/**
+	 * Returns the current snapshot. The caller must pass the returned snapshot to {@link #release(Snapshot)} after
+	 * usage. Throws an {@link AlreadyClosedException} if the receiver has been closed.
+	 */
+	@NotNull
+	Snapshot acquire() {
+		while (true) {
+			Snapshot snapshot = current;
+			if (snapshot.searcher.getIndexReader().tryIncRef())
+				return snapshot;
+
+			/*
+			 * The snapshot was closed, either because it was replaced in the meantime, in which case we'll try again with
+			 * the new one, or because the receiver was closed. A replaced snapshot is only released after the new one
+			 * has been set.
+			 */
+			if (snapshot == current)
+				throw new AlreadyClosedException("Index reader manager was closed.");
+		}
+	}
+
+	void release(@NotNull Snapshot snapshot) {
+		try {
+			snapshot.searcher.getIndexReader().decRef();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+
+	/**
+	 * Updates the receiver so that its current snapshot covers the given indexes. Readers of indexes that are not in
+	 * the given list anymore are released, readers of new indexes are opened, and readers of indexes that were
+	 * modified since they were opened are reopened. Returns the indexes whose readers couldn't be opened; these are
+	 * left out of the snapshot.
+	 */
+	@NotNull
+	synchronized List<CorruptedIndex> refresh(@NotNull List<LuceneIndex> indexes) {
+		Util.checkNotNull(indexes);
+		LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
+
+		// Release readers of removed indexes
+		Set<LuceneIndex> indexSet = Sets.newHashSet(indexes);
+		for (Iterator<Map.Entry<LuceneIndex, IndexReader>> it = readers.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<LuceneIndex, IndexReader> entry = it.next();
+			if (indexSet.contains(entry.getKey()))
+				continue;
+			it.remove();
+			decRef(entry.getValue());
+		}
+
+		// Open new readers and reopen modified ones
+		List<LuceneIndex> subIndexes = new ArrayList<LuceneIndex>(indexes.size());
+		List<IndexReader> subReaders = new ArrayList<IndexReader>(indexes.size());
+		for (LuceneIndex index : indexes) {
+			IndexReader reader = readers.get(index);
+			try {
+				if (reader == null) {
+					reader = IndexReader.open(index.getLuceneDir());
+					readers.put(index, reader);
+				}
+				else {
+					// Returns null if the index hasn't changed, which is cheap to check
+					IndexReader newReader = IndexReader.openIfChanged(reader);
+					if (newReader != null) {
+						readers.put(index, newReader);
+						decRef(reader);
+						reader = newReader;
+					}
+				}
+				subIndexes.add(index);
+				subReaders.add(reader);
+			}
+			catch (IOException e) {
+				/*
+				 * The index files may have been deleted or replaced, e.g. by another program instance. In
+				 * that case the old reader is dropped, and opening the index is attempted again on the next refresh.
+				 */
+				Util.printErr(e);
+				if (readers.remove(index) != null)
+					decRef(reader);
+				corrupted.add(new CorruptedIndex(index, e));
+			}
+		}
+
+		Snapshot oldSnapshot = current;
+		current = new Snapshot(new ArrayList<LuceneIndex>(indexes), subIndexes, subReaders, executor);
+		release(oldSnapshot);
+		return corrupted;
+	}
+
+	/**
+	 * Releases the current snapshot and all index readers held by the receiver. Snapshots that are still in use are
+	 * closed when they are released.
+	 */
+	synchronized void close() {
+		release(current);
+		for (IndexReader reader : readers.values())
+			decRef(reader);
+		readers.clear();
+	}
+
+	private static void decRef(@NotNull IndexReader reader) {
+		try {
+			reader.decRef();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+
+}
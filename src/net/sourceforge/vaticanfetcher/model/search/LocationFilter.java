@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.search;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.sourceforge.vaticanfetcher.model.Fields;
+import net.sourceforge.vaticanfetcher.model.TreeCheckState;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * A Lucene filter that only lets through the documents whose parent folders are checked on the search scope pane,
+ * as given by a {@link TreeCheckState}. Filtering inside the search instead of afterwards means that unchecked
+ * documents don't count towards {@link Searcher#MAX_RESULTS}, and that their stored fields never have to be loaded.
+ * <p>
+ * The filter works on the UID terms of the index: The terms are enumerated once per index segment, and the documents
+ * whose UID has a checked parent path are collected in a bit set. The bit sets are cached per segment, so instances
+ * of this class should be kept until the tree check state changes.
+ */
+@ThreadSafe
+public final class LocationFilter extends Filter {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Set<String> checkedPaths;
+
+	// Keyed by the segment core, which is shared between reopened instances of the same segment
+	private final Map<Object, DocIdSet> cache = new WeakHashMap<Object, DocIdSet>(); // guarded by 'cache' lock
+
+	public LocationFilter(@NotNull TreeCheckState treeCheckState) {
+		Util.checkNotNull(treeCheckState);
+		checkedPaths = treeCheckState.getCheckedPaths();
+	}
+
+	public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+		Object key = reader.getCoreCacheKey();
+		synchronized (cache) {
+			DocIdSet docIdSet = cache.get(key);
+			if (docIdSet != null)
+				return docIdSet;
+		}
+		DocIdSet docIdSet = createDocIdSet(reader);
+		synchronized (cache) {
+			cache.put(key, docIdSet);
+		}
+		return docIdSet;
+	}
+
+	@NotNull
+	private DocIdSet createDocIdSet(@NotNull IndexReader reader) throws IOException {
+		FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+		if (checkedPaths.isEmpty())
+			return bits;
+		String uidField = Fields.UID.key();
+		TermEnum termEnum = reader.terms(new Term(uidField, ""));
+		TermDocs termDocs = reader.termDocs();
+		try {
+			do {
+				Term term = termEnum.term();
+				if (term == null || !term.field().equals(uidField))
+					break;
+				if (!checkedPaths.contains(getParentPath(term.text())))
+					continue;
+				termDocs.seek(termEnum);
+				while (termDocs.next())
+					bits.set(termDocs.doc());
+			}
+			while (termEnum.next());
+		}
+		finally {
+			termDocs.close();
+			termEnum.close();
+		}
+		return bits;
+	}
+
+	/*
+	 * Returns the path of the given UID up to the last path separator, which is the same as the parent path of the
+	 * document, but without creating a Path object.
+	 */
+	@NotNull
+	private static String getParentPath(@NotNull String uid) {
+		int start = uid.indexOf("://") + 3;
+		for (int i = uid.length() - 1; i >= start; i--) {
+			char c = uid.charAt(i);
+			if (c == '/' || c == '\\')
+				return uid.substring(start, i);
+		}
+		return uid.substring(start);
+	}
+
+}
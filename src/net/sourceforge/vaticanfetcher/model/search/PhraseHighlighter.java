@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.search;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.vaticanfetcher.util.annotations.MutableCopy;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.RecursiveMethod;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Computes the highlighted ranges of queries that consist of term queries, phrase queries and boolean queries, with
+ * the same results as the fast-vector highlighter in phrase highlighting mode. Unlike the latter, this class doesn't
+ * need term vectors: The text is run through the analyzer once, and the query terms are matched directly against the
+ * token stream. Only the tokens that occur in the query are kept in memory.
+ * <p>
+ * The matching works as in the fast-vector highlighter's FieldPhraseList: The occurrences of query terms are processed
+ * in order of position, and at each occurrence the longest phrase that starts there is searched, using a tree of the
+ * query phrases. Phrases that overlap with previously found phrases are dropped.
+ */
+final class PhraseHighlighter {
+
+	/** A node in the tree of query phrases. */
+	private static final class PhraseNode {
+		private final Map<String, PhraseNode> children = new HashMap<String, PhraseNode>();
+		private boolean terminal = false;
+		private int slop = 0;
+
+		@NotNull
+		private PhraseNode getOrCreateChild(@NotNull String term) {
+			PhraseNode child = children.get(term);
+			if (child == null) {
+				child = new PhraseNode();
+				children.put(term, child);
+			}
+			return child;
+		}
+
+		private boolean isValidPhrase(@NotNull List<TermOccurrence> candidate) {
+			if (!terminal)
+				return false;
+			int pos = candidate.get(0).position;
+			for (int i = 1; i < candidate.size(); i++) {
+				int nextPos = candidate.get(i).position;
+				if (Math.abs(nextPos - pos - 1) > slop)
+					return false;
+				pos = nextPos;
+			}
+			return true;
+		}
+	}
+
+	private static final class TermOccurrence {
+		private final String term;
+		private final int start;
+		private final int end;
+		private final int position;
+
+		private TermOccurrence(@NotNull String term, int start, int end, int position) {
+			this.term = term;
+			this.start = start;
+			this.end = end;
+			this.position = position;
+		}
+	}
+
+	private final String fieldName;
+	private final PhraseNode root = new PhraseNode();
+	private final Set<String> terms = new HashSet<String>();
+
+	PhraseHighlighter(@NotNull Query query, @NotNull String fieldName) {
+		this.fieldName = fieldName;
+		List<String[]> phrases = new ArrayList<String[]>();
+		List<Integer> slops = new ArrayList<Integer>();
+		flatten(query, phrases, slops);
+		expand(phrases, slops);
+		for (int i = 0; i < phrases.size(); i++) {
+			PhraseNode node = root;
+			for (String term : phrases.get(i)) {
+				node = node.getOrCreateChild(term);
+				terms.add(term);
+			}
+			node.terminal = true;
+			node.slop = slops.get(i);
+		}
+	}
+
+	/**
+	 * Collects the phrases of the given query that apply to the receiver's field. Single terms are treated as phrases
+	 * of length one. Prohibited clauses and unsupported query types are ignored.
+	 */
+	@RecursiveMethod
+	private void flatten(@NotNull Query query, @NotNull List<String[]> phrases, @NotNull List<Integer> slops) {
+		if (query instanceof BooleanQuery) {
+			for (BooleanClause clause : ((BooleanQuery) query).getClauses())
+				if (!clause.isProhibited())
+					flatten(clause.getQuery(), phrases, slops);
+		}
+		else if (query instanceof DisjunctionMaxQuery) {
+			for (Query disjunct : (DisjunctionMaxQuery) query)
+				flatten(disjunct, phrases, slops);
+		}
+		else if (query instanceof TermQuery) {
+			Term term = ((TermQuery) query).getTerm();
+			if (term.field().equals(fieldName))
+				addPhrase(new String[] { term.text() }, 0, phrases, slops);
+		}
+		else if (query instanceof PhraseQuery) {
+			PhraseQuery phraseQuery = (PhraseQuery) query;
+			Term[] phraseTerms = phraseQuery.getTerms();
+			if (phraseTerms.length == 0 || !phraseTerms[0].field().equals(fieldName))
+				return;
+			String[] phrase = new String[phraseTerms.length];
+			for (int i = 0; i < phrase.length; i++)
+				phrase[i] = phraseTerms[i].text();
+			addPhrase(phrase, phrase.length == 1 ? 0 : phraseQuery.getSlop(), phrases, slops);
+		}
+	}
+
+	private static void addPhrase(	@NotNull String[] phrase,
+									int slop,
+									@NotNull List<String[]> phrases,
+									@NotNull List<Integer> slops) {
+		for (int i = 0; i < phrases.size(); i++)
+			if (slops.get(i) == slop && Arrays.equals(phrases.get(i), phrase))
+				return;
+		phrases.add(phrase);
+		slops.add(slop);
+	}
+
+	/*
+	 * Adds the combinations of phrases that overlap at their ends. For example, the phrases "a b" and "b c" are combined
+	 * into "a b c", so that the text "a b c" is highlighted entirely.
+	 */
+	private static void expand(@NotNull List<String[]> phrases, @NotNull List<Integer> slops) {
+		int count = phrases.size();
+		for (int i = 0; i < count; i++) {
+			for (int j = 0; j < count; j++) {
+				String[] src = phrases.get(i);
+				String[] dest = phrases.get(j);
+				if (i == j || src.length < 2 || dest.length < 2 || !slops.get(i).equals(slops.get(j)))
+					continue;
+				for (int k = 1; k < src.length; k++) {
+					int overlap = src.length - k;
+					if (overlap >= dest.length)
+						continue;
+					if (!Arrays.asList(src).subList(k, src.length).equals(Arrays.asList(dest).subList(0, overlap)))
+						continue;
+					String[] combined = Arrays.copyOf(src, k + dest.length);
+					System.arraycopy(dest, overlap, combined, src.length, dest.length - overlap);
+					addPhrase(combined, slops.get(i), phrases, slops);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the ranges of the query phrases in the given text, in ascending order. Throws an IOException if the
+	 * analyzer fails to tokenize the text.
+	 */
+	@MutableCopy
+	@NotNull
+	List<Range> highlight(@NotNull Analyzer analyzer, @NotNull String text) throws IOException {
+		LinkedList<TermOccurrence> occurrences = tokenize(analyzer, text);
+		List<Range> ranges = new ArrayList<Range>();
+		List<TermOccurrence> candidate = new ArrayList<TermOccurrence>();
+		int lastEnd = -1;
+
+		while (!occurrences.isEmpty()) {
+			candidate.clear();
+			TermOccurrence occurrence = occurrences.poll();
+			PhraseNode node = root.children.get(occurrence.term);
+			if (node == null)
+				continue;
+
+			// Find the longest phrase starting at the current occurrence
+			candidate.add(occurrence);
+			while (true) {
+				occurrence = occurrences.poll();
+				PhraseNode nextNode = occurrence == null ? null : node.children.get(occurrence.term);
+				if (nextNode != null) {
+					candidate.add(occurrence);
+					node = nextNode;
+					continue;
+				}
+				if (occurrence != null)
+					occurrences.addFirst(occurrence);
+				if (!node.isValidPhrase(candidate)) {
+					// Fall back to shorter phrases
+					node = null;
+					while (candidate.size() > 1) {
+						occurrences.addFirst(candidate.remove(candidate.size() - 1));
+						node = findPhrase(candidate);
+						if (node != null)
+							break;
+					}
+				}
+				if (node != null) {
+					int start = candidate.get(0).start;
+					int end = candidate.get(candidate.size() - 1).end;
+
+					/*
+					 * The occurrences are processed in ascending order, so it is sufficient to check for overlaps with
+					 * the last range.
+					 */
+					if (start >= lastEnd) {
+						ranges.add(new Range(start, end - start));
+						lastEnd = end;
+					}
+				}
+				break;
+			}
+		}
+		return ranges;
+	}
+
+	@Nullable
+	private PhraseNode findPhrase(@NotNull List<TermOccurrence> candidate) {
+		PhraseNode node = root;
+		for (TermOccurrence occurrence : candidate) {
+			node = node.children.get(occurrence.term);
+			if (node == null)
+				return null;
+		}
+		return node.isValidPhrase(candidate) ? node : null;
+	}
+
+	// Returns the occurrences of query terms in the given text, in ascending order of position
+	@NotNull
+	private LinkedList<TermOccurrence> tokenize(@NotNull Analyzer analyzer, @NotNull String text) throws IOException {
+		LinkedList<TermOccurrence> occurrences = new LinkedList<TermOccurrence>();
+		if (terms.isEmpty())
+			return occurrences;
+		TokenStream tokenStream = analyzer.reusableTokenStream(fieldName, new StringReader(text));
+		CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+		OffsetAttribute offsetAtt = tokenStream.addAttribute(OffsetAttribute.class);
+		PositionIncrementAttribute posIncrAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+		Map<String, String> termInstances = new HashMap<String, String>();
+		BitSet termLengths = new BitSet();
+		for (String term : terms) {
+			termInstances.put(term, term);
+			termLengths.set(term.length());
+		}
+		int position = -1;
+		tokenStream.reset();
+		try {
+			while (tokenStream.incrementToken()) {
+				position += posIncrAtt.getPositionIncrement();
+				if (!termLengths.get(termAtt.length()))
+					continue; // Avoids creating a string for most tokens
+				String term = termInstances.get(termAtt.toString());
+				if (term == null)
+					continue;
+				occurrences.add(new TermOccurrence(term, offsetAtt.startOffset(), offsetAtt.endOffset(), position));
+			}
+			tokenStream.end();
+		}
+		finally {
+			tokenStream.close();
+		}
+		return occurrences;
+	}
+
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sourceforge.vaticanfetcher.model.LuceneIndex;
+import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.TextCache;
+import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
+import net.sourceforge.vaticanfetcher.model.search.IndexReaderManager.Snapshot;
+import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.vaticanfetcher.util.Util;
+import net.sourceforge.vaticanfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * The results of a search, which are fetched page by page with {@link #nextPage(int)}. Each page continues after the
+ * last hit of the previous page, so that only as many hits are collected as are actually requested.
+ * <p>
+ * The returned result documents don't contain any data from the index yet. Their stored fields are loaded on the first
+ * access, in batches of neighboring hits, since a result table that is scrolled through will usually need the fields
+ * of the adjacent rows as well. For this to work, the receiver keeps the Lucene index readers open that were current
+ * when the search was started, even if the searcher has moved on to newer readers in the meantime.
+ * <p>
+ * <b>Important</b>: Instances of this class must be closed after usage by calling {@link #close()}. Afterwards, only
+ * those result documents may be used whose fields were loaded before closing.
+ */
+@ThreadSafe
+public final class ResultCursor implements Closeable {
+
+	/** The number of hits whose stored fields are loaded together. */
+	private static final int BATCH_SIZE = 64;
+
+	private final Searcher searcher;
+	private final Snapshot snapshot;
+	private final Query query;
+	@Nullable private final Filter filter;
+	private final boolean isPhraseQuery;
+	private final FileFactory fileFactory;
+	private final OutlookMailFactory outlookMailFactory;
+	@Nullable private final TextCache textCache;
+
+	private final List<ResultDocument> results = new ArrayList<ResultDocument>(); // guarded by 'this' lock
+	@Nullable private ScoreDoc lastScoreDoc; // guarded by 'this' lock
+	private int hitCount = -1; // guarded by 'this' lock
+	private boolean closed = false; // guarded by 'this' lock
+
+	/**
+	 * The caller must hold a reference to the given snapshot, so that the snapshot can't be released before it is
+	 * retained by this constructor.
+	 */
+	ResultCursor(	@NotNull Searcher searcher,
+					@NotNull Snapshot snapshot,
+					@NotNull Query query,
+					@Nullable Filter filter,
+					boolean isPhraseQuery,
+					@NotNull FileFactory fileFactory,
+					@NotNull OutlookMailFactory outlookMailFactory,
+					@Nullable TextCache textCache) {
+		Util.checkNotNull(searcher, snapshot, query, fileFactory, outlookMailFactory);
+		this.searcher = searcher;
+		this.snapshot = snapshot;
+		this.query = query;
+		this.filter = filter;
+		this.isPhraseQuery = isPhraseQuery;
+		this.fileFactory = fileFactory;
+		this.outlookMailFactory = outlookMailFactory;
+		this.textCache = textCache;
+		snapshot.searcher.getIndexReader().incRef();
+	}
+
+	/**
+	 * Returns the next page of results, containing at most the given number of result documents. The returned list is
+	 * empty if there are no more results. The total number of results returned by this method is limited to
+	 * {@link Searcher#MAX_RESULTS}.
+	 */
+	@ImmutableCopy
+	@NotNull
+	public synchronized List<ResultDocument> nextPage(int maxCount) throws SearchException, CheckedOutOfMemoryError {
+		Util.checkThat(maxCount > 0);
+		Util.checkThat(!closed);
+		int remaining = Searcher.MAX_RESULTS - results.size();
+		if (remaining <= 0 || (hitCount >= 0 && results.size() >= hitCount))
+			return Collections.emptyList();
+		try {
+			// Might throw OutOfMemoryError
+			TopDocs topDocs = snapshot.searcher.searchAfter(
+				lastScoreDoc, query, filter, Math.min(maxCount, remaining));
+			hitCount = topDocs.totalHits;
+			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+			List<ResultDocument> page = new ArrayList<ResultDocument>(scoreDocs.length);
+			for (ScoreDoc scoreDoc : scoreDocs) {
+				LuceneIndex index = snapshot.getIndex(scoreDoc.doc);
+				ResultDocument resultDoc = new ResultDocument(
+					this, results.size(), scoreDoc.doc, scoreDoc.score, query, isPhraseQuery, index.getConfig(),
+					index.isEmailIndex(), fileFactory, outlookMailFactory, textCache);
+				results.add(resultDoc);
+				page.add(resultDoc);
+			}
+			if (scoreDocs.length > 0)
+				lastScoreDoc = scoreDocs[scoreDocs.length - 1];
+			return page;
+		}
+		catch (IOException e) {
+			throw new SearchException(e.getMessage()); // TODO i18n
+		}
+		catch (OutOfMemoryError e) {
+			throw new CheckedOutOfMemoryError(e);
+		}
+	}
+
+	/**
+	 * Returns the total number of hits, which may be larger than the number of results that can be fetched from the
+	 * receiver. Returns -1 if {@link #nextPage(int)} hasn't been called yet.
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/** Loads the stored fields of the given result document, along with those of the other documents in its batch. */
+	synchronized void loadFields(@NotNull ResultDocument resultDoc) {
+		Util.checkThat(!closed, "Result cursor was closed before the fields of a result document were loaded.");
+		int start = resultDoc.getHitIndex() / BATCH_SIZE * BATCH_SIZE;
+		int end = Math.min(start + BATCH_SIZE, results.size());
+		loadFields(start, end);
+	}
+
+	private void loadFields(int start, int end) {
+		IndexReader reader = snapshot.searcher.getIndexReader();
+		for (int i = start; i < end; i++) {
+			ResultDocument resultDoc = results.get(i);
+			if (resultDoc.hasFields())
+				continue;
+			Document luceneDoc;
+			try {
+				luceneDoc = reader.document(resultDoc.getDocId(), Searcher.RESULT_FIELDS);
+			}
+			catch (IOException e) {
+				// The index files may have been deleted by another program instance
+				Util.printErr(e);
+				luceneDoc = new Document();
+			}
+			resultDoc.setFields(luceneDoc);
+		}
+	}
+
+	/**
+	 * Returns the paths of the file results near the given result document whose stored fields are already loaded,
+	 * without loading any more fields. The following results come first, since they're the most likely to be viewed
+	 * next, then the preceding ones.
+	 */
+	@NotNull
+	synchronized List<Path> getNeighborFilePaths(@NotNull ResultDocument resultDoc) {
+		List<Path> paths = new ArrayList<Path>();
+		int hitIndex = resultDoc.getHitIndex();
+		int end = Math.min(hitIndex + BATCH_SIZE, results.size() - 1);
+		for (int i = hitIndex + 1; i <= end; i++)
+			addFilePath(results.get(i), paths);
+		for (int i = hitIndex - 1; i >= Math.max(0, hitIndex - BATCH_SIZE); i--)
+			addFilePath(results.get(i), paths);
+		return paths;
+	}
+
+	private static void addFilePath(@NotNull ResultDocument resultDoc, @NotNull List<Path> paths) {
+		if (resultDoc.hasFields() && !resultDoc.isEmail())
+			paths.add(resultDoc.getPath());
+	}
+
+	/**
+	 * Loads the stored fields of all results fetched so far and closes the receiver. This is used by the searcher for
+	 * releasing the index readers before an index is deleted, without invalidating the results.
+	 */
+	synchronized void detach() {
+		if (closed)
+			return;
+		loadFields(0, results.size());
+		close();
+	}
+
+	/** Releases the index readers held by the receiver. Does nothing if the receiver is already closed. */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		searcher.removeCursor(this);
+		try {
+			snapshot.searcher.getIndexReader().decRef();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+
+}
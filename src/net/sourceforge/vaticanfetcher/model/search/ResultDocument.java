@@ -13,13 +13,16 @@ package net.sourceforge.vaticanfetcher.model.search;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import net.sourceforge.vaticanfetcher.model.DocumentType;
 import net.sourceforge.vaticanfetcher.model.Fields;
 import net.sourceforge.vaticanfetcher.model.FileResource;
 import net.sourceforge.vaticanfetcher.model.MailResource;
 import net.sourceforge.vaticanfetcher.model.Path;
+import net.sourceforge.vaticanfetcher.model.TextCache;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
 import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
@@ -42,6 +45,9 @@ import org.apache.lucene.search.Query;
 /**
  * thread-safe class
  * throws UnsupportedOperationException if file methods are called on an email object and vice versa.
+ * <p>
+ * Result documents obtained from a {@link ResultCursor} load their stored fields lazily from the index, see
+ * {@link ResultCursor} for details.
  */
 @ThreadSafe
 public final class ResultDocument {
@@ -51,16 +57,20 @@ public final class ResultDocument {
 		public boolean isStopped();
 	}
 	
-	private final Document luceneDoc;
+	@Nullable private volatile Document luceneDoc; // null until loaded by the cursor
+	@Nullable private final ResultCursor cursor;
+	private final int hitIndex;
+	private final int docId;
 	private final float score;
 	private final Query query;
 	private final boolean isPhraseQuery;
 	private final IndexingConfig config;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory mailFactory;
+	@Nullable private final TextCache textCache;
 	
 	// Cached values
-	private final String uid;
+	private String uid;
 	private final boolean isEmail;
 	private Path path;
 	private Path parentPath;
@@ -68,20 +78,77 @@ public final class ResultDocument {
 	private String parserName;
 	
 	public ResultDocument(	@NotNull Document luceneDoc, float score, @NotNull Query query,	boolean isPhraseQuery,
-							@NotNull IndexingConfig config, @NotNull FileFactory fileFactory, @NotNull OutlookMailFactory mailFactory) {
+							@NotNull IndexingConfig config, @NotNull FileFactory fileFactory, @NotNull OutlookMailFactory mailFactory,
+							@Nullable TextCache textCache) {
 		Util.checkNotNull(luceneDoc, query, config, fileFactory, mailFactory);
 		this.luceneDoc = luceneDoc;
+		this.cursor = null;
+		this.hitIndex = -1;
+		this.docId = -1;
 		this.score = score;
 		this.query = query;
 		this.isPhraseQuery = isPhraseQuery;
 		this.config = config;
 		this.fileFactory = fileFactory;
 		this.mailFactory = mailFactory;
+		this.textCache = textCache;
 		
 		uid = luceneDoc.get(Fields.UID.key());
 		isEmail = DocumentType.isEmailType(uid);
 	}
 	
+	// The stored fields will be loaded lazily by the given cursor
+	ResultDocument(	@NotNull ResultCursor cursor, int hitIndex, int docId, float score, @NotNull Query query,
+					boolean isPhraseQuery, @NotNull IndexingConfig config, boolean isEmail,
+					@NotNull FileFactory fileFactory, @NotNull OutlookMailFactory mailFactory,
+					@Nullable TextCache textCache) {
+		Util.checkNotNull(cursor, query, config, fileFactory, mailFactory);
+		this.cursor = cursor;
+		this.hitIndex = hitIndex;
+		this.docId = docId;
+		this.score = score;
+		this.query = query;
+		this.isPhraseQuery = isPhraseQuery;
+		this.config = config;
+		this.isEmail = isEmail;
+		this.fileFactory = fileFactory;
+		this.mailFactory = mailFactory;
+		this.textCache = textCache;
+	}
+	
+	int getHitIndex() {
+		return hitIndex;
+	}
+	
+	int getDocId() {
+		return docId;
+	}
+	
+	boolean hasFields() {
+		return luceneDoc != null;
+	}
+	
+	void setFields(@NotNull Document luceneDoc) {
+		this.luceneDoc = Util.checkNotNull(luceneDoc);
+	}
+	
+	@NotNull
+	private Document getLuceneDoc() {
+		Document doc = luceneDoc;
+		if (doc == null) {
+			cursor.loadFields(this);
+			doc = luceneDoc;
+		}
+		return doc;
+	}
+	
+	@NotNull
+	private String getUid() {
+		if (uid == null)
+			uid = getLuceneDoc().get(Fields.UID.key());
+		return uid;
+	}
+	
 	private void onlyFiles() {
 		if (isEmail)
 			throw new UnsupportedOperationException();
@@ -95,9 +162,9 @@ public final class ResultDocument {
 	// returns filename title or email subject
 	@NotNull
 	public String getTitle() {
-		String title = luceneDoc.get(Fields.TITLE.key());
+		String title = getLuceneDoc().get(Fields.TITLE.key());
 		if (title == null)
-			title = luceneDoc.get(Fields.SUBJECT.key());
+			title = getLuceneDoc().get(Fields.SUBJECT.key());
 		if (title != null && !title.trim().isEmpty())
 			return title;
 		if (isEmail) // Bug #3536283: Email subject may be empty
@@ -112,7 +179,7 @@ public final class ResultDocument {
 	
 	public long getSizeInKB() {
 		if (sizeInKB < 0) {
-			String sizeString = luceneDoc.get(Fields.SIZE.key());
+			String sizeString = getLuceneDoc().get(Fields.SIZE.key());
 			assert sizeString != null;
 			long sizeInBytes = Long.valueOf(sizeString);
 			long extra = sizeInBytes % 1024 == 0 ? 0 : 1;
@@ -125,7 +192,7 @@ public final class ResultDocument {
 	@NotNull
 	public String getParserName() {
 		if (parserName == null)
-			parserName = luceneDoc.get(Fields.PARSER.key());
+			parserName = getLuceneDoc().get(Fields.PARSER.key());
 		assert parserName != null;
 		return parserName;
 	}
@@ -133,19 +200,19 @@ public final class ResultDocument {
 	@NotNull
 	public String getFilename() {
 		onlyFiles();
-		return luceneDoc.get(Fields.FILENAME.key());
+		return getLuceneDoc().get(Fields.FILENAME.key());
 	}
 	
 	@NotNull
 	public String getSender() {
 		onlyEmails();
-		return luceneDoc.get(Fields.SENDER.key());
+		return getLuceneDoc().get(Fields.SENDER.key());
 	}
 	
 	// returns file extension or mail type (Outlook, IMAP, etc.)
 	@NotNull
 	public String getType() {
-		String type = luceneDoc.get(Fields.TYPE.key());
+		String type = getLuceneDoc().get(Fields.TYPE.key());
 		assert type != null;
 		return type;
 	}
@@ -153,7 +220,7 @@ public final class ResultDocument {
 	@NotNull
 	public Path getPath() {
 		if (path == null)
-			path =  DocumentType.extractPath(uid);
+			path =  DocumentType.extractPath(getUid());
 		return path;
 	}
 	
@@ -167,24 +234,24 @@ public final class ResultDocument {
 	// Returns authors for files, sender for emails
 	@NotNull
 	public String getAuthors() {
-		String[] authors = luceneDoc.getValues(Fields.AUTHOR.key());
+		String[] authors = getLuceneDoc().getValues(Fields.AUTHOR.key());
 		if (authors.length > 0)
 			return Util.join(", ", (Object[]) authors);
-		String sender = luceneDoc.get(Fields.SENDER.key());
+		String sender = getLuceneDoc().get(Fields.SENDER.key());
 		return sender == null ? "" : sender;
 	}
 	
 	@NotNull
 	public Date getLastModified() {
 		onlyFiles();
-		String lastModified = luceneDoc.get(Fields.LAST_MODIFIED.key());
+		String lastModified = getLuceneDoc().get(Fields.LAST_MODIFIED.key());
 		return new Date(Long.valueOf(lastModified));
 	}
 	
 	@Nullable
 	public Date getDate() {
 		onlyEmails();
-		String sendDate = luceneDoc.get(Fields.DATE.key());
+		String sendDate = getLuceneDoc().get(Fields.DATE.key());
 		return sendDate == null ? null : new Date(Long.valueOf(sendDate));
 	}
 	
@@ -205,7 +272,7 @@ public final class ResultDocument {
 	}
 	
 	private boolean wasParsedBy(Class<? extends Parser> parserClass) {
-		String parserName = luceneDoc.get(Fields.PARSER.key());
+		String parserName = getLuceneDoc().get(Fields.PARSER.key());
 		return parserName.equals(parserClass.getSimpleName());
 	}
 	
@@ -214,13 +281,25 @@ public final class ResultDocument {
 	@NotNull
 	private String getText() throws ParseException, FileNotFoundException, CheckedOutOfMemoryError {
 		onlyFiles();
-		String parserName = luceneDoc.get(Fields.PARSER.key());
+		String parserName = getLuceneDoc().get(Fields.PARSER.key());
+		
+		// Try the text cache first, which saves us from unpacking and parsing the file again
+		long lastModified = Long.valueOf(getLuceneDoc().get(Fields.LAST_MODIFIED.key()));
+		if (textCache != null) {
+			String text = textCache.get(getUid(), lastModified);
+			if (text != null)
+				return text;
+		}
+		
 		FileResource fileResource = null;
 		try {
 			fileResource = getFileResource();
 			File file = fileResource.getFile();
-			return ParseService.renderText(
+			String text = ParseService.renderText(
 				config, file, getFilename(), parserName);
+			if (textCache != null)
+				textCache.put(getUid(), lastModified, text);
+			return text;
 		}
 		finally {
 			if (fileResource != null)
@@ -280,7 +359,9 @@ public final class ResultDocument {
 	public FileResource getFileResource() throws ParseException,
 			FileNotFoundException {
 		onlyFiles();
-		return fileFactory.createFile(config, getPath());
+		// Neighboring results in the same archive are unpacked along with this one
+		List<Path> siblings = cursor == null ? Collections.<Path>emptyList() : cursor.getNeighborFilePaths(this);
+		return fileFactory.createFile(config, getPath(), siblings);
 	}
 
 	/**
@@ -15,10 +15,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 
@@ -32,42 +35,43 @@ import net.sourceforge.vaticanfetcher.model.IndexRegistry.ExistingIndexesHandler
 import net.sourceforge.vaticanfetcher.model.LuceneIndex;
 import net.sourceforge.vaticanfetcher.model.Path;
 import net.sourceforge.vaticanfetcher.model.PendingDeletion;
+import net.sourceforge.vaticanfetcher.model.TextCache;
 import net.sourceforge.vaticanfetcher.model.index.IndexingConfig;
 import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
 import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.vaticanfetcher.model.parse.Parser;
+import net.sourceforge.vaticanfetcher.model.search.IndexReaderManager.Snapshot;
 import net.sourceforge.vaticanfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.vaticanfetcher.util.Event;
 import net.sourceforge.vaticanfetcher.util.Util;
 import net.sourceforge.vaticanfetcher.util.annotations.ImmutableCopy;
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
-import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
 import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.vaticanfetcher.util.annotations.VisibleForPackageGroup;
 import net.sourceforge.vaticanfetcher.util.collect.AlphanumComparator;
-import net.sourceforge.vaticanfetcher.util.collect.LazyList;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.ChainedFilter;
 import org.apache.lucene.search.Filter;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
-import org.apache.lucene.search.MultiSearcher;
 import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.MultiTermQuery.RewriteMethod;
 import org.apache.lucene.search.NumericRangeFilter;
 import org.apache.lucene.search.PrefixFilter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.Searchable;
 import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
 
-import com.google.common.io.Closeables;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A search API on top of the index registry. This class is completely
@@ -108,20 +112,32 @@ public final class Searcher {
 	private static final int PAGE_SIZE = ProgramConf.Int.WebInterfacePageSize.get();
 	public static final int MAX_RESULTS = ProgramConf.Int.MaxResultsTotal.get();
 	
+	/**
+	 * The stored fields needed for displaying results. Other stored fields, such as the email recipients, are skipped
+	 * when loading result documents.
+	 */
+	static final FieldSelector RESULT_FIELDS = new MapFieldSelector(
+		Fields.UID.key(), Fields.TYPE.key(), Fields.SIZE.key(), Fields.PARSER.key(), Fields.FILENAME.key(),
+		Fields.TITLE.key(), Fields.AUTHOR.key(), Fields.LAST_MODIFIED.key(), Fields.SUBJECT.key(),
+		Fields.SENDER.key(), Fields.DATE.key());
+	
 	private final IndexRegistry indexRegistry;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory outlookMailFactory;
+	@Nullable private final TextCache textCache;
 	private final Event.Listener<LuceneIndex> addedListener;
 	
 	private final BlockingQueue<List<PendingDeletion>> deletionQueue = new LinkedBlockingQueue<List<PendingDeletion>>(); // guarded by 'this' lock
 	private final Thread deletionThread; // guarded by 'this' lock
 	
-	@NotNull private MultiSearcher luceneSearcher; // guarded by read-write lock
-	@NotNull private List<LuceneIndex> indexes; // guarded by read-write lock
-	@Nullable private volatile IOException ioException;
-	
-	private final Lock readLock;
-	private final Lock writeLock;
+	/*
+	 * The Lucene searcher runs over a multi-reader containing one sub-reader per index. The readers are
+	 * reference-counted, so that searches and result cursors don't need the registry lock, and so that result cursors
+	 * can keep the readers open after they have been replaced. See IndexReaderManager.
+	 */
+	@Nullable private final ExecutorService searchExecutor = createSearchExecutor();
+	private final IndexReaderManager readerManager = new IndexReaderManager(searchExecutor);
+	private final Set<ResultCursor> openCursors = Collections.synchronizedSet(Sets.<ResultCursor>newHashSet());
 
 	/**
 	 * This method should not be called by clients. Use {@link IndexRegistry#getSearcher()} instead.
@@ -137,9 +153,7 @@ public final class Searcher {
 		this.indexRegistry = indexRegistry;
 		this.fileFactory = fileFactory;
 		this.outlookMailFactory = outlookMailFactory;
-		
-		readLock = indexRegistry.getReadLock();
-		writeLock = indexRegistry.getWriteLock();
+		this.textCache = TextCache.getInstance(indexRegistry.getIndexParentDir());
 		
 		// Handler for index additions
 		addedListener = new Event.Listener<LuceneIndex>() {
@@ -149,17 +163,13 @@ public final class Searcher {
 		};
 		
 		/* This lock could be moved into the indexes handler, but we'll put it here to avoid releasing and reacquiring it. */
+		Lock writeLock = indexRegistry.getWriteLock();
 		writeLock.lock();
 		try {
 			indexRegistry.addListeners(new ExistingIndexesHandler() {
 				// Handle existing indexes
 				public void handleExistingIndexes(List<LuceneIndex> indexes) {
-					try {
-						corruptedIndexes.addAll(setLuceneSearcher(indexes));
-					}
-					catch (IOException e) {
-						ioException = e;
-					}
+					corruptedIndexes.addAll(readerManager.refresh(indexes));
 				}
 			}, addedListener, null); // removedListener is null, see deletion thread below
 		}
@@ -167,9 +177,6 @@ public final class Searcher {
 			writeLock.unlock();
 		}
 		
-		if (ioException != null)
-			throw ioException;
-		
 		// Handler for index removals
 		deletionThread = new Thread(Searcher.class.getName() + " (Approve pending deletions)") {
 			public void run() {
@@ -177,6 +184,7 @@ public final class Searcher {
 					try {
 						List<PendingDeletion> deletions = deletionQueue.take();
 						replaceLuceneSearcher();
+						detachCursors();
 						for (PendingDeletion deletion : deletions)
 							deletion.setApprovedBySearcher();
 					}
@@ -189,101 +197,94 @@ public final class Searcher {
 		deletionThread.start();
 	}
 	
-	/** Updates the cached indexes and replaces the current Lucene searcher with a new one. */
+	/**
+	 * Returns an executor for searching the indexes concurrently, with the number of threads given by
+	 * {@link ProgramConf.Int#SearchThreads}, or null if that number is 1.
+	 */
+	@Nullable
+	private static ExecutorService createSearchExecutor() {
+		int threadCount = ProgramConf.Int.SearchThreads.get();
+		if (threadCount <= 1)
+			return null;
+		return Executors.newFixedThreadPool(threadCount,
+			new ThreadFactoryBuilder()
+				.setNameFormat(Searcher.class.getSimpleName() + "-%d")
+				.setDaemon(true)
+				.build());
+	}
+	
+	/**
+	 * Updates the cached indexes and replaces the current Lucene searcher with a new one. Only the readers of indexes
+	 * that were added or modified since the last call are reopened; the readers of unchanged indexes are reused.
+	 */
 	@ThreadSafe
 	@VisibleForPackageGroup
 	public void replaceLuceneSearcher() {
-		writeLock.lock();
-		try {
-			Closeables.close(luceneSearcher, false);
-			setLuceneSearcher(indexRegistry.getIndexes());
-		}
-		catch (IOException e) {
-			ioException = e; // Will be thrown later
-		}
-		finally {
-			writeLock.unlock();
-		}
+		readerManager.refresh(indexRegistry.getIndexes());
 	}
 	
-	// Caller must close returned searcher
+	/**
+	 * Equivalent to {@link #search(String, LocationFilter)} with a null location filter, i.e. the search is run on all
+	 * documents.
+	 */
 	@NotNull
-	@NotThreadSafe
-	private List<CorruptedIndex> setLuceneSearcher(@NotNull List<LuceneIndex> indexes) throws IOException {
-		this.indexes = Util.checkNotNull(indexes);
-        Searchable[] searchables = new Searchable[indexes.size()];
-        LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
-		for (int i = 0; i < indexes.size(); i++) {
-			LuceneIndex index = indexes.get(i);
-            try {
-                searchables[i] = new IndexSearcher(index.getLuceneDir());
-            }
-            catch (IOException e) {
-            	Util.printErr(e);
-                searchables[i] = new DummySearchable();
-                corrupted.add(new CorruptedIndex(index, e));
-            }
-        }
-        luceneSearcher = new MultiSearcher(searchables);
-        return corrupted;
+	@ThreadSafe
+	public ResultCursor search(@NotNull String queryString) throws SearchException {
+		return search(queryString, null);
 	}
 	
-	@ImmutableCopy
+	/**
+	 * Runs a search and returns a cursor from which the results can be fetched page by page. The stored fields of the
+	 * results are loaded lazily. The caller must close the returned cursor after usage.
+	 * <p>
+	 * If a location filter is given, only the documents accepted by the filter are returned. This is done during the
+	 * search, so the unchecked documents don't count towards {@link #MAX_RESULTS}. Consequently, the search must be run
+	 * again when the tree check state changes.
+	 */
 	@NotNull
 	@ThreadSafe
-	public List<ResultDocument> search(@NotNull String queryString) throws SearchException, CheckedOutOfMemoryError {
-		/*
-		 * Note: For the desktop interface, we'll always search in all available indexes, even those which are unchecked on the filter panel. This
-		 * allows the user to re-check the unchecked indexes and see previously hidden results without starting another search.
-		 */
-		
-		// Create Lucene query
+	public ResultCursor search(@NotNull String queryString, @Nullable LocationFilter locationFilter)
+			throws SearchException {
 		QueryWrapper queryWrapper = createQuery(queryString);
-		Query query = queryWrapper.query;
-		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
 		
 		/*
-		 * Notes regarding the following code:
-		 * 
-		 * 1) Lucene will throw an IOException if the user deletes one or more indexes while a search is 
-		 * running over the affected indexes. This can happen when two vaticanfetcher instances are running.
-		 * 
-		 * 2) All the information needed for displaying the results must be loaded and returned immediately rather than lazily, because after 
-		 * the search the user might delete one or more indexes. This also means the result documents must not access the indexes later on.
+		 * Lucene will throw an IOException if the user deletes one or more indexes while a search is running over the
+		 * affected indexes. This can happen when two vaticanfetcher instances are running. If an index is deleted from
+		 * within this program instance, the cursor will be detached before the deletion, see detachCursors().
 		 */
-
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
-			
-			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, MAX_RESULTS).scoreDocs;
-
-			// Create result documents
-			ResultDocument[] results = new ResultDocument[scoreDocs.length];
-			for (int i = 0; i < scoreDocs.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
-				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
-				IndexingConfig config = index.getConfig();
-				results[i] = new ResultDocument(doc, score, query, isPhraseQuery, config, fileFactory, outlookMailFactory);
-			}
-			return Arrays.asList(results);
-		}
-		catch (IllegalArgumentException e) {
-			throw wrapEmptyIndexException(e);
-		}
-		catch (IOException e) {
-			throw new SearchException(e.getMessage()); // TODO i18n
-		}
-		catch (OutOfMemoryError e) {
-			throw new CheckedOutOfMemoryError(e);
+			checkIndexesExist(snapshot.indexes);
+			ResultCursor cursor = new ResultCursor(
+				this, snapshot, queryWrapper.query, locationFilter, queryWrapper.isPhraseQuery, fileFactory,
+				outlookMailFactory, textCache);
+			openCursors.add(cursor);
+			return cursor;
 		}
 		finally {
-			readLock.unlock();
+			readerManager.release(snapshot);
 		}
 	}
 	
+	@ThreadSafe
+	void removeCursor(@NotNull ResultCursor cursor) {
+		openCursors.remove(cursor);
+	}
+	
+	/*
+	 * Loads the remaining fields of the open cursors' results and lets the cursors release their index readers,
+	 * so that indexes can be deleted.
+	 */
+	@ThreadSafe
+	private void detachCursors() {
+		List<ResultCursor> cursors;
+		synchronized (openCursors) {
+			cursors = new ArrayList<ResultCursor>(openCursors);
+		}
+		for (ResultCursor cursor : cursors)
+			cursor.detach();
+	}
+	
 	@NotNull
 	private static SearchException wrapEmptyIndexException(@NotNull IllegalArgumentException e)
 			throws SearchException {
@@ -310,21 +311,22 @@ public final class Searcher {
 		
 		Query query = new MatchAllDocsQuery();
 		
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
 			
 			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, uidFilter, MAX_RESULTS).scoreDocs;
+			ScoreDoc[] scoreDocs = snapshot.searcher.search(query, uidFilter, MAX_RESULTS).scoreDocs;
 			
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < results.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = snapshot.searcher.doc(scoreDocs[i].doc, RESULT_FIELDS);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = snapshot.getIndex(scoreDocs[i].doc);
 				IndexingConfig config = index.getConfig();
-				results[i] = new ResultDocument(doc, score, query, true, config, fileFactory, outlookMailFactory);
+				results[i] = new ResultDocument(
+					doc, score, query, true, config, fileFactory, outlookMailFactory, textCache);
 			}
 			
 			// Sort results by title
@@ -346,22 +348,19 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			readerManager.release(snapshot);
 		}
 	}
 	
 	/**
 	 * For the given query, returns the requested page of results. This method should not be called 
-	 * anymore after {@link #shutdown()} has been called, otherwise an IOException will be thrown.
+	 * anymore after {@link #shutdown()} has been called, otherwise a SearchException will be thrown.
 	 */
 	@NotNull
 	@ThreadSafe
 	public ResultPage search(@NotNull WebQuery webQuery) throws IOException, SearchException, CheckedOutOfMemoryError {
 		Util.checkNotNull(webQuery);
 		
-		if (ioException != null)
-			throw ioException;
-		
 		List<Filter> filters = new ArrayList<Filter>(3);
 		
 		// Add size filter to filter chain
@@ -402,13 +401,13 @@ public final class Searcher {
 		Query query = queryWrapper.query;
 		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
 		
-		readLock.lock();
+		Snapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
 			
 			// Perform search; might throw OutOfMemoryError
 			int maxResults = (webQuery.pageIndex + 1) * PAGE_SIZE;
-			TopDocs topDocs = luceneSearcher.search(query, filter, maxResults);
+			TopDocs topDocs = snapshot.searcher.search(query, filter, maxResults);
 			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
 			
 			// Compute start and end indices of returned page
@@ -425,13 +424,13 @@ public final class Searcher {
 			// Create and fill list of result documents to return
 			ResultDocument[] results = new ResultDocument[end - start];
 			for (int i = start; i < end; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = snapshot.searcher.doc(scoreDocs[i].doc, RESULT_FIELDS);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = snapshot.getIndex(scoreDocs[i].doc);
 				IndexingConfig config = index.getConfig();
 				results[i - start] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, textCache);
 			}
 			
 			int hitCount = topDocs.totalHits;
@@ -447,7 +446,19 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			readerManager.release(snapshot);
+		}
+	}
+	
+	// The caller must release the returned snapshot
+	@NotNull
+	@ThreadSafe
+	private Snapshot acquireSnapshot() throws SearchException {
+		try {
+			return readerManager.acquire();
+		}
+		catch (AlreadyClosedException e) {
+			throw new SearchException("The searcher has been shut down."); // not internationalized
 		}
 	}
 	
@@ -478,9 +489,8 @@ public final class Searcher {
 	}
 	
 	// Checks that all indexes still exist
-	@NotNull
-	@NotThreadSafe
-	private void checkIndexesExist() throws SearchException {
+	@ThreadSafe
+	private static void checkIndexesExist(@NotNull List<LuceneIndex> indexes) throws SearchException {
 		if (indexes.isEmpty())
 			throw new SearchException("Nothing to search in: No indexes have been created yet."); // TODO i18n
 		for (LuceneIndex index : indexes) {
@@ -519,17 +529,25 @@ public final class Searcher {
 	/** Disposes of the receiver. The caller should make sure that no more search requests are submitted to the receiver after this method is called. */
 	@ThreadSafe
 	public void shutdown() {
-		if (ioException != null)
-			Util.printErr(ioException);
+		indexRegistry.removeListeners(addedListener, null);
+		readerManager.close();
 		
-		writeLock.lock();
-		try {
-			indexRegistry.removeListeners(addedListener, null);
-			Closeables.closeQuietly(luceneSearcher);
-		}
-		finally {
-			writeLock.unlock();
+		// Let the open cursors release the index readers
+		List<ResultCursor> cursors;
+		synchronized (openCursors) {
+			cursors = new ArrayList<ResultCursor>(openCursors);
 		}
+		for (ResultCursor cursor : cursors)
+			cursor.close();
+		
+		/*
+		 * Don't use shutdownNow here: Interrupting a thread that is reading from an index may close the index files,
+		 * see the documentation of Lucene's IndexSearcher.
+		 */
+		if (searchExecutor != null)
+			searchExecutor.shutdown();
+		
+		outlookMailFactory.close();
 		
 		/*
 		 * This should be done after closing the Lucene searcher in order to ensure that no indexes 
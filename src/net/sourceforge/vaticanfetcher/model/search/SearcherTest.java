@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.sourceforge.vaticanfetcher.model.Fields;
+import net.sourceforge.vaticanfetcher.model.HotColdFileCache;
+import net.sourceforge.vaticanfetcher.model.IndexLoadingProblems.CorruptedIndex;
+import net.sourceforge.vaticanfetcher.model.IndexRegistry;
+import net.sourceforge.vaticanfetcher.model.LuceneIndex;
+import net.sourceforge.vaticanfetcher.model.index.file.FileFactory;
+import net.sourceforge.vaticanfetcher.model.index.file.FileIndex;
+import net.sourceforge.vaticanfetcher.model.index.outlook.OutlookMailFactory;
+import net.sourceforge.vaticanfetcher.model.search.IndexReaderManager.Snapshot;
+import net.sourceforge.vaticanfetcher.util.AppUtil;
+import net.sourceforge.vaticanfetcher.util.Util;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+public final class SearcherTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testResultCursor() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		File rootDir = Util.createTempDir();
+		for (int i = 0; i < 150; i++)
+			Files.write(("apple " + i).getBytes(), new File(rootDir, "file" + i + ".txt"));
+
+		// The searcher is created directly, since loading the registry would start watching the index folder
+		IndexRegistry indexRegistry = new IndexRegistry(indexParentDir, 10, 10);
+		HotColdFileCache unpackCache = new HotColdFileCache(10);
+		Searcher searcher = new Searcher(
+			indexRegistry, new FileFactory(unpackCache), new OutlookMailFactory(unpackCache),
+			new ArrayList<CorruptedIndex>());
+		FileIndex index = new FileIndex(indexParentDir, rootDir);
+		index.getConfig().setWatchFolders(false);
+		index.update(null, null);
+		indexRegistry.addIndex(index);
+
+		// Pages continue where the previous page ended
+		ResultCursor cursor = searcher.search("apple");
+		List<ResultDocument> page1 = cursor.nextPage(100);
+		assertEquals(150, cursor.getHitCount());
+		List<ResultDocument> page2 = cursor.nextPage(100);
+		assertEquals(100, page1.size());
+		assertEquals(50, page2.size());
+		assertTrue(cursor.nextPage(100).isEmpty());
+
+		// Stored fields are loaded lazily
+		Set<String> filenames = Sets.newHashSet();
+		for (ResultDocument doc : page1)
+			filenames.add(doc.getFilename());
+		for (ResultDocument doc : page2)
+			filenames.add(doc.getFilename());
+		assertEquals(150, filenames.size());
+
+		// Loaded fields remain available after closing
+		cursor.close();
+		assertTrue(page1.get(0).getFilename().startsWith("file"));
+
+		searcher.shutdown();
+		Util.deleteRecursively(indexParentDir);
+		Util.deleteRecursively(rootDir);
+	}
+
+	@Test
+	public void testLocationFilter() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		File rootDir = Util.createTempDir();
+		for (String dirName : new String[] { "a", "b" }) {
+			File dir = new File(rootDir, dirName);
+			dir.mkdir();
+			for (int i = 0; i < 10; i++)
+				Files.write(("apple " + i).getBytes(), new File(dir, dirName + i + ".txt"));
+		}
+		for (int i = 0; i < 5; i++)
+			Files.write(("apple " + i).getBytes(), new File(rootDir, "root" + i + ".txt"));
+
+		IndexRegistry indexRegistry = new IndexRegistry(indexParentDir, 10, 10);
+		HotColdFileCache unpackCache = new HotColdFileCache(10);
+		Searcher searcher = new Searcher(
+			indexRegistry, new FileFactory(unpackCache), new OutlookMailFactory(unpackCache),
+			new ArrayList<CorruptedIndex>());
+		FileIndex index = new FileIndex(indexParentDir, rootDir);
+		index.getConfig().setWatchFolders(false);
+		index.update(null, null);
+		indexRegistry.addIndex(index);
+
+		// Uncheck folder 'b'
+		index.getRootFolder().getSubFolder("b").setChecked(false);
+		LocationFilter filter = new LocationFilter(index.getTreeCheckState());
+		for (int run = 0; run < 2; run++) { // second run uses the cached bit sets
+			ResultCursor cursor = searcher.search("apple", filter);
+			List<ResultDocument> results = cursor.nextPage(100);
+			assertEquals(15, cursor.getHitCount());
+			assertEquals(15, results.size());
+			for (ResultDocument doc : results)
+				assertTrue(!doc.getFilename().startsWith("b"));
+			cursor.close();
+		}
+
+		// Nothing checked
+		index.getRootFolder().setChecked(false);
+		index.getRootFolder().getSubFolder("a").setChecked(false);
+		ResultCursor cursor = searcher.search("apple", new LocationFilter(index.getTreeCheckState()));
+		assertTrue(cursor.nextPage(100).isEmpty());
+		cursor.close();
+
+		searcher.shutdown();
+		Util.deleteRecursively(indexParentDir);
+		Util.deleteRecursively(rootDir);
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		File rootDir1 = Util.createTempDir();
+		File rootDir2 = Util.createTempDir();
+		for (int i = 0; i < 5; i++) {
+			Files.write(("apple " + i).getBytes(), new File(rootDir1, "one" + i + ".txt"));
+			Files.write(("apple " + i).getBytes(), new File(rootDir2, "two" + i + ".txt"));
+		}
+
+		IndexRegistry indexRegistry = new IndexRegistry(indexParentDir, 10, 10);
+		HotColdFileCache unpackCache = new HotColdFileCache(10);
+		Searcher searcher = new Searcher(
+			indexRegistry, new FileFactory(unpackCache), new OutlookMailFactory(unpackCache),
+			new ArrayList<CorruptedIndex>());
+		List<LuceneIndex> indexes = new ArrayList<LuceneIndex>();
+		for (File rootDir : new File[] { rootDir1, rootDir2 }) {
+			FileIndex index = new FileIndex(indexParentDir, rootDir);
+			index.getConfig().setWatchFolders(false);
+			index.update(null, null);
+			indexRegistry.addIndex(index);
+			indexes.add(index);
+		}
+		IndexReaderManager readerManager = new IndexReaderManager(null);
+		readerManager.refresh(indexes);
+		Snapshot snapshot = readerManager.acquire();
+		IndexReader[] oldReaders = snapshot.searcher.getIndexReader().getSequentialSubReaders();
+		readerManager.release(snapshot);
+
+		ResultCursor cursor = searcher.search("apple");
+		assertEquals(10, cursor.nextPage(100).size());
+
+		// Modify the first index
+		Files.write("apple 5".getBytes(), new File(rootDir1, "one5.txt"));
+		indexes.get(0).update(null, null);
+		searcher.replaceLuceneSearcher();
+		readerManager.refresh(indexes);
+
+		// Only the reader of the modified index is reopened
+		snapshot = readerManager.acquire();
+		IndexReader[] newReaders = snapshot.searcher.getIndexReader().getSequentialSubReaders();
+		assertTrue(oldReaders[0] != newReaders[0]);
+		assertTrue(oldReaders[1] == newReaders[1]);
+		readerManager.release(snapshot);
+		readerManager.close();
+
+		// The old cursor still works on the old readers, a new search sees the new document
+		List<ResultDocument> results = cursor.nextPage(100);
+		assertTrue(results.isEmpty());
+		cursor.close();
+		cursor = searcher.search("apple");
+		results = cursor.nextPage(100);
+		assertEquals(11, results.size());
+		for (ResultDocument doc : results)
+			assertTrue(doc.getFilename().endsWith(".txt"));
+		cursor.close();
+
+		searcher.shutdown();
+		Util.deleteRecursively(indexParentDir);
+		Util.deleteRecursively(rootDir1);
+		Util.deleteRecursively(rootDir2);
+	}
+
+	@Test
+	public void testParallelSearch() throws Exception {
+		File indexParentDir = Util.createTempDir();
+		List<File> rootDirs = new ArrayList<File>();
+		List<LuceneIndex> indexes = new ArrayList<LuceneIndex>();
+		for (int i = 0; i < 4; i++) {
+			File rootDir = Util.createTempDir();
+			rootDirs.add(rootDir);
+			for (int j = 0; j <= i * 3; j++) {
+				String text = Strings.repeat("apple ", j % 4 + 1) + "pear " + i;
+				Files.write(text.getBytes(), new File(rootDir, "file" + j + ".txt"));
+			}
+			FileIndex index = new FileIndex(indexParentDir, rootDir);
+			index.getConfig().setWatchFolders(false);
+			index.update(null, null);
+			indexes.add(index);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		IndexReaderManager sequential = new IndexReaderManager(null);
+		IndexReaderManager parallel = new IndexReaderManager(executor);
+		sequential.refresh(indexes);
+		parallel.refresh(indexes);
+		Snapshot s1 = sequential.acquire();
+		Snapshot s2 = parallel.acquire();
+		Query query = new TermQuery(new Term(Fields.CONTENT.key(), "apple"));
+
+		// Page through the results; both searchers must return the same hits in the same order
+		ScoreDoc after1 = null;
+		ScoreDoc after2 = null;
+		int count = 0;
+		while (true) {
+			TopDocs topDocs1 = s1.searcher.searchAfter(after1, query, null, 5);
+			TopDocs topDocs2 = s2.searcher.searchAfter(after2, query, null, 5);
+			assertEquals(topDocs1.totalHits, topDocs2.totalHits);
+			assertEquals(topDocs1.scoreDocs.length, topDocs2.scoreDocs.length);
+			if (topDocs1.scoreDocs.length == 0)
+				break;
+			for (int i = 0; i < topDocs1.scoreDocs.length; i++) {
+				int doc = topDocs2.scoreDocs[i].doc;
+				assertEquals(topDocs1.scoreDocs[i].doc, doc);
+				assertEquals(topDocs1.scoreDocs[i].score, topDocs2.scoreDocs[i].score, 0);
+
+				// The document must belong to the index that the snapshot returns for it
+				String uid = s2.searcher.doc(doc).get(Fields.UID.key());
+				File rootDir = s2.getIndex(doc).getCanonicalRootFile();
+				assertTrue(uid.contains(rootDir.getName()));
+			}
+			after1 = topDocs1.scoreDocs[topDocs1.scoreDocs.length - 1];
+			after2 = topDocs2.scoreDocs[topDocs2.scoreDocs.length - 1];
+			count += topDocs1.scoreDocs.length;
+		}
+		assertEquals(1 + 4 + 7 + 10, count);
+
+		sequential.release(s1);
+		parallel.release(s2);
+		sequential.close();
+		parallel.close();
+		executor.shutdown();
+		Util.deleteRecursively(indexParentDir);
+		for (File rootDir : rootDirs)
+			Util.deleteRecursively(rootDir);
+	}
+
+}
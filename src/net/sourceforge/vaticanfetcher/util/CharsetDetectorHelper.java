@@ -9,74 +9,185 @@
  *    Tran Nam Quang - initial API and implementation
  *******************************************************************************/
 
+
 package net.sourceforge.vaticanfetcher.util;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
 import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
-import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+import net.sourceforge.vaticanfetcher.util.annotations.ThreadSafe;
 
 import org.mozilla.universalchardet.UniversalDetector;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
-import com.google.common.io.ByteStreams;
-import com.google.common.io.Files;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
 
+/**
+ * Detects the charsets of text files and decodes them. The charset is determined from a byte order mark, if there is
+ * one, and otherwise from the first {@link #SAMPLE_SIZE} bytes, so that the text can be decoded incrementally from a
+ * stream instead of being loaded into memory as a whole. If no charset can be detected, ISO-8859-1 is assumed.
+ * <p>
+ * All methods are thread-safe: Each thread uses its own detector.
+ */
+@ThreadSafe
 public final class CharsetDetectorHelper {
 	
-	@Nullable private static UniversalDetector charsetDetector;
+	/** The number of bytes at the start of a text that are used for detecting its charset. */
+	@VisibleForTesting static final int SAMPLE_SIZE = 64 * 1024;
+	
+	private static final ThreadLocal<UniversalDetector> charsetDetector = new ThreadLocal<UniversalDetector>() {
+		protected UniversalDetector initialValue() {
+			return new UniversalDetector(null);
+		}
+	};
 	
 	private CharsetDetectorHelper() {
 	}
 	
 	@NotNull
-	@NotThreadSafe
 	public static Properties load(@NotNull File propsFile) throws IOException {
-		byte[] bytes = Files.toByteArray(propsFile);
-		String contents = toString(bytes);
-		Properties props = new Properties();
-		props.load(new StringReader(contents));
-		return props;
+		Reader reader = createReader(new FileInputStream(propsFile));
+		try {
+			Properties props = new Properties();
+			props.load(reader);
+			return props;
+		}
+		finally {
+			Closeables.closeQuietly(reader);
+		}
 	}
 	
+	/** Decodes the given input stream, which is not closed afterwards. */
 	@NotNull
-	@NotThreadSafe
-	public static String toString(@NotNull InputStream in)throws IOException {
-		byte[] bytes = ByteStreams.toByteArray(in);
-		return toString(bytes);
+	public static String toString(@NotNull InputStream in) throws IOException {
+		return CharStreams.toString(createReader(in));
 	}
 	
 	@NotNull
-	@NotThreadSafe
 	public static String toString(@NotNull File file) throws IOException {
-		byte[] bytes = Files.toByteArray(file);
-		return toString(bytes);
+		Reader reader = createReader(new FileInputStream(file));
+		try {
+			return CharStreams.toString(reader);
+		}
+		finally {
+			Closeables.closeQuietly(reader);
+		}
 	}
 	
 	@NotNull
-	@NotThreadSafe
-	public static String toString(@NotNull byte[] bytes)throws IOException {
-		if (charsetDetector == null)
-			charsetDetector = new UniversalDetector(null);
-		
-		byte[] buf = new byte[4096];
-		ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
-		
+	public static String toString(@NotNull byte[] bytes) throws IOException {
+		Charset charset = getCharset(bytes, Math.min(bytes.length, SAMPLE_SIZE));
+		int bomLength = getBomLength(bytes, bytes.length, charset);
+		return new String(bytes, bomLength, bytes.length - bomLength, charset);
+	}
+	
+	/**
+	 * Returns a reader that decodes the given input stream with the charset detected at the start of the stream. A
+	 * byte order mark is skipped. Closing the reader closes the input stream.
+	 */
+	@NotNull
+	public static Reader createReader(@NotNull InputStream in) throws IOException {
+		BufferedInputStream bufferedIn = new BufferedInputStream(in, SAMPLE_SIZE);
+		bufferedIn.mark(SAMPLE_SIZE);
+		byte[] sample = new byte[SAMPLE_SIZE];
+		int length = 0;
 		int nread;
-		while ((nread = byteIn.read(buf)) > 0 && !charsetDetector.isDone())
-			charsetDetector.handleData(buf, 0, nread);
-		charsetDetector.dataEnd();
-		String charsetName = charsetDetector.getDetectedCharset();
-		charsetDetector.reset();
+		while (length < SAMPLE_SIZE && (nread = bufferedIn.read(sample, length, SAMPLE_SIZE - length)) != -1)
+			length += nread;
+		bufferedIn.reset();
+		
+		Charset charset = getCharset(sample, length);
+		int bomLength = getBomLength(sample, length, charset);
+		if (bomLength > 0)
+			bufferedIn.skip(bomLength);
+		return new InputStreamReader(bufferedIn, charset);
+	}
+	
+	/**
+	 * Returns the name of the charset detected in the first <tt>length</tt> bytes of the given array, or null if no
+	 * charset could be detected, in which case ISO-8859-1 should be assumed.
+	 */
+	@Nullable
+	public static String detectCharset(@NotNull byte[] bytes, int length) {
+		String bomCharset = getBomCharset(bytes, length);
+		if (bomCharset != null)
+			return bomCharset;
 		
-		String contents = charsetName == null ? new String(bytes, Charsets.ISO_8859_1) : new String(bytes, charsetName);
-		return contents;
+		UniversalDetector detector = charsetDetector.get();
+		try {
+			// Fed in chunks so that the detector can stop early once it's done
+			for (int offset = 0; offset < length && !detector.isDone(); offset += 4096)
+				detector.handleData(bytes, offset, Math.min(4096, length - offset));
+			detector.dataEnd();
+			return detector.getDetectedCharset();
+		}
+		finally {
+			detector.reset();
+		}
+	}
+	
+	/**
+	 * Returns the detected charset, or ISO-8859-1 if no charset was detected or if the detected charset isn't supported
+	 * by the JVM.
+	 */
+	@NotNull
+	private static Charset getCharset(@NotNull byte[] bytes, int length) {
+		String charsetName = detectCharset(bytes, length);
+		if (charsetName == null)
+			return Charsets.ISO_8859_1;
+		try {
+			return Charset.forName(charsetName);
+		}
+		catch (IllegalArgumentException e) {
+			return Charsets.ISO_8859_1;
+		}
+	}
+	
+	/** Returns the charset indicated by a byte order mark at the start of the given bytes, or null. */
+	@Nullable
+	private static String getBomCharset(@NotNull byte[] bytes, int length) {
+		if (startsWith(bytes, length, 0xEF, 0xBB, 0xBF))
+			return "UTF-8";
+		if (startsWith(bytes, length, 0x00, 0x00, 0xFE, 0xFF))
+			return "UTF-32BE";
+		if (startsWith(bytes, length, 0xFF, 0xFE, 0x00, 0x00))
+			return "UTF-32LE";
+		if (startsWith(bytes, length, 0xFE, 0xFF))
+			return "UTF-16BE";
+		if (startsWith(bytes, length, 0xFF, 0xFE))
+			return "UTF-16LE";
+		return null;
+	}
+	
+	/*
+	 * Returns the length of the byte order mark at the start of the given bytes, or 0 if there is none, or if it doesn't
+	 * belong to the given charset, which is then left to the decoder.
+	 */
+	private static int getBomLength(@NotNull byte[] bytes, int length, @NotNull Charset charset) {
+		String bomCharset = getBomCharset(bytes, length);
+		if (bomCharset == null || !Charset.forName(bomCharset).equals(charset))
+			return 0;
+		return bomCharset.startsWith("UTF-32") ? 4 : bomCharset.equals("UTF-8") ? 3 : 2;
+	}
+	
+	private static boolean startsWith(@NotNull byte[] bytes, int length, int... prefix) {
+		if (length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if ((bytes[i] & 0xFF) != prefix[i])
+				return false;
+		return true;
 	}
 
 }
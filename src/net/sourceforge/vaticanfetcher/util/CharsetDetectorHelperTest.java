@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+
+package net.sourceforge.vaticanfetcher.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+
+public final class CharsetDetectorHelperTest {
+
+	private static final String text = "Grüße aus Köln, äöü ÄÖÜ.\n";
+
+	@Test
+	public void testByteOrderMarks() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+		out.write(text.getBytes(Charsets.UTF_8));
+		assertEquals(text, CharsetDetectorHelper.toString(out.toByteArray()));
+		assertEquals(text, CharsetDetectorHelper.toString(new ByteArrayInputStream(out.toByteArray())));
+
+		out.reset();
+		out.write(new byte[] {(byte) 0xFF, (byte) 0xFE});
+		out.write(text.getBytes(Charsets.UTF_16LE));
+		assertEquals(text, CharsetDetectorHelper.toString(out.toByteArray()));
+		assertEquals(text, CharsetDetectorHelper.toString(new ByteArrayInputStream(out.toByteArray())));
+	}
+
+	@Test
+	public void testStreamLongerThanSample() throws Exception {
+		// The non-ASCII characters in the sample identify the charset of the entire stream
+		String longText = Strings.repeat(text, CharsetDetectorHelper.SAMPLE_SIZE / text.length() * 3);
+		byte[] bytes = longText.getBytes(Charsets.UTF_8);
+		assertEquals(longText, CharStreams.toString(CharsetDetectorHelper.createReader(new ByteArrayInputStream(bytes))));
+		assertEquals("UTF-8", CharsetDetectorHelper.detectCharset(bytes, bytes.length));
+	}
+
+	@Test
+	public void testConcurrentDetection() throws Exception {
+		final byte[] utf8 = Strings.repeat(text, 100).getBytes(Charsets.UTF_8);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return CharsetDetectorHelper.detectCharset(utf8, utf8.length);
+					}
+				}));
+			}
+			for (Future<String> future : futures)
+				assertEquals("UTF-8", future.get());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A {@link DeflaterOutputStream} that compresses with {@link Deflater#BEST_SPEED}, for cache files that are written
+ * often. A DeflaterOutputStream doesn't release the native memory of a deflater that was passed in by the caller, so
+ * this class does it on {@link #close()}. Closing also closes the underlying stream if finishing the compressed data
+ * fails, so callers only have to close the outermost stream.
+ */
+public final class FastDeflaterOutputStream extends DeflaterOutputStream {
+
+	public FastDeflaterOutputStream(@NotNull OutputStream out) {
+		super(out, new Deflater(Deflater.BEST_SPEED));
+	}
+
+	public void close() throws IOException {
+		try {
+			super.close();
+		}
+		finally {
+			def.end();
+			Closeables.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.vaticanfetcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sourceforge.vaticanfetcher.util.annotations.NotNull;
+import net.sourceforge.vaticanfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.vaticanfetcher.util.annotations.Nullable;
+
+/**
+ * Keeps track of the files in a folder of cache files whose total size is limited. When the limit is exceeded, the
+ * least recently used files are deleted. The last-modified values of the files serve as access times, so the LRU order
+ * survives program restarts. The folder is listed lazily on first access, so that it isn't listed on startup.
+ * <p>
+ * Only files with a given suffix are tracked. New files are written into temporary files first and then moved into
+ * place with {@link #commit(File, String)}, so that readers and other program instances never see an incomplete file.
+ * <p>
+ * This class is not thread-safe; its owner should call its methods while holding its own lock.
+ */
+@NotThreadSafe
+public class LruFolder {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long STALE_TEMP_FILE_AGE = 24 * 60 * 60 * 1000;
+
+	private final File dir;
+	private final String suffix;
+	private final long capacity;
+	@Nullable private LinkedHashMap<String, Long> entries; // filename -> file length, in access order; null until listed
+	private long size = 0;
+
+	/**
+	 * Creates an LRU folder for the given folder, with the given maximum folder size in bytes. Only files ending with
+	 * the given suffix are tracked. The folder is created when the first file is stored.
+	 */
+	public LruFolder(@NotNull File dir, @NotNull String suffix, long capacity) {
+		Util.checkNotNull(dir, suffix);
+		Util.checkThat(capacity >= 0);
+		this.dir = dir;
+		this.suffix = suffix;
+		this.capacity = capacity;
+	}
+
+	/** Returns the file with the given name inside the receiver's folder. The file may not exist. */
+	@NotNull
+	public final File getFile(@NotNull String filename) {
+		return new File(dir, filename);
+	}
+
+	/** Returns whether a file with the given name is tracked. */
+	public final boolean contains(@NotNull String filename) {
+		return getEntries().containsKey(filename);
+	}
+
+	/**
+	 * Marks the given file as the most recently used one. If <code>updateLastModified</code> is true, the access time is
+	 * also written to the file's last-modified value, so that it survives program restarts.
+	 */
+	public final void touch(@NotNull String filename, boolean updateLastModified) {
+		if (getEntries().get(filename) != null && updateLastModified)
+			getFile(filename).setLastModified(System.currentTimeMillis());
+	}
+
+	/** Deletes the given file, if it exists. */
+	public final void remove(@NotNull String filename) {
+		Long length = getEntries().remove(filename);
+		if (length != null)
+			size -= length;
+		getFile(filename).delete();
+	}
+
+	/**
+	 * Creates a temporary file in the receiver's folder, into which the file with the given name can be written before
+	 * it is moved into place with {@link #commit(File, String)}. This doesn't need to be called while holding the
+	 * owner's lock.
+	 */
+	@NotNull
+	public final File createTempFile(@NotNull String filename) throws IOException {
+		dir.mkdirs();
+		// Util.createTempFile isn't used here because it would register each file for deletion on exit
+		return File.createTempFile(filename, TEMP_SUFFIX, dir);
+	}
+
+	/**
+	 * Moves the given temporary file into place under the given filename, replacing any previous file, and deletes the
+	 * least recently used files if the folder has become too large.
+	 */
+	public final void commit(@NotNull File tempFile, @NotNull String filename) throws IOException {
+		LinkedHashMap<String, Long> entries = getEntries(); // must be listed before renaming
+		File file = getFile(filename);
+		file.delete(); // Otherwise renaming will fail on Windows
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to " + file);
+		Long oldLength = entries.put(filename, file.length());
+		if (oldLength != null)
+			size -= oldLength;
+		size += file.length();
+		evict();
+	}
+
+	/** Called after the given file was deleted to make room for other files. The default implementation does nothing. */
+	protected void evicted(@NotNull String filename) {
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = getEntries().entrySet().iterator();
+		while (size > capacity && it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			it.remove();
+			size -= entry.getValue();
+			getFile(entry.getKey()).delete();
+			evicted(entry.getKey());
+		}
+	}
+
+	@NotNull
+	private LinkedHashMap<String, Long> getEntries() {
+		if (entries != null)
+			return entries;
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		File[] files = Util.listFiles(dir);
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(suffix)) {
+				/*
+				 * Temporary files may be in use by another thread or program instance, so only old ones are deleted,
+				 * which were probably left over after a crash.
+				 */
+				if (name.endsWith(TEMP_SUFFIX) && file.lastModified() < System.currentTimeMillis() - STALE_TEMP_FILE_AGE)
+					file.delete();
+				continue;
+			}
+			long length = file.length();
+			entries.put(name, length);
+			size += length;
+		}
+		evict();
+		return entries;
+	}
+
+}
@@ -753,14 +753,23 @@ public final class Util {
 			 * Earlier versions simply compared the absolute and canonical path of the given file. 
 			 * This did not work for files with 8.3 filenames, which were incorrectly identified as symlinks.
 			 */
-			File canon;
-			if (file.getParent() == null) {
-				canon = file;
-			}
-			else {
-				File canonDir = file.getParentFile().getCanonicalFile();
-				canon = new File(canonDir, file.getName());
-			}
+			if (file.getParent() == null)
+				return !file.getCanonicalFile().equals(file.getAbsoluteFile());
+			return isSymLink(file.getParentFile().getCanonicalFile(), file);
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Same as {@link #isSymLink(File)}, but with the canonical form of the file's parent directory given by the caller.
+	 * When checking all files of a directory, this avoids resolving the path of the directory again for each file.
+	 */
+	@SuppressAjWarnings
+	public static boolean isSymLink(@NotNull File canonParentDir, @NotNull File file) {
+		try {
+			File canon = new File(canonParentDir, file.getName());
 			return !canon.getCanonicalFile().equals(canon.getAbsoluteFile());
 		}
 		catch (IOException e) {
@@ -890,9 +899,22 @@ public final class Util {
 		return new String[] {filename.substring(0, index), ext};
 	}
 
+	/**
+	 * Returns the file extension of the given filename, as in {@link #splitFilename(String)}, but without creating
+	 * the base name.
+	 */
 	@NotNull
 	public static String getExtension(@NotNull String filename) {
-		return splitFilename(filename)[1];
+		int index = filename.lastIndexOf('.');
+		if (index == -1)
+			return "";
+		String ext = filename.substring(index + 1).toLowerCase();
+		if (ext.equals("gz")) {
+			int index2 = filename.lastIndexOf('.', index - 1);
+			if (index2 != -1)
+				return filename.substring(index2 + 1).toLowerCase();
+		}
+		return ext;
 	}
 
 	@NotNull